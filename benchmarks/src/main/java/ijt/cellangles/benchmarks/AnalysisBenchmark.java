@@ -0,0 +1,180 @@
+/**
+ * 
+ */
+package ijt.cellangles.benchmarks;
+
+import java.awt.Point;
+import java.awt.geom.Point2D;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.process.ImageProcessor;
+import ijt.cellangles.BoundaryIndex;
+import ijt.cellangles.CellFile;
+import ijt.cellangles.CellsBoundary;
+import ijt.cellangles.LabelStatistics;
+
+/**
+ * Benchmarks of the stages of the analysis of a cell file, on synthetic label
+ * images with various sizes and numbers of cells.
+ * 
+ * The largest images require several gigabytes of heap. Parameters can be
+ * restricted from the command line, for example:
+ * <code>java -jar benchmarks.jar AnalysisBenchmark -p size=2048 -p cellCount=1000</code>
+ * 
+ * @author dlegland
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms6g", "-Xmx6g"})
+public class AnalysisBenchmark
+{
+	// ====================================================
+	// Parameters
+
+	/**
+	 * The size of the (square) label image.
+	 */
+	@Param({"512", "2048", "8192", "16384"})
+	int size;
+
+	/**
+	 * The approximate number of cells within the label image.
+	 */
+	@Param({"50", "1000", "20000"})
+	int cellCount;
+
+
+	// ====================================================
+	// Benchmark state
+
+	ImageProcessor labelImage;
+
+	/**
+	 * The way points of the polyline crossing the image.
+	 */
+	List<Point2D> wayPoints;
+
+	LabelStatistics stats;
+
+	BoundaryIndex boundaryIndex;
+
+	/**
+	 * A cell file whose labels were computed, used as input for path
+	 * computation.
+	 */
+	CellFile cellFile;
+
+	/**
+	 * A boundary in the middle of the cell file, whose pixels were computed.
+	 */
+	CellsBoundary boundary;
+
+
+	// ====================================================
+	// Setup
+
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		SyntheticLabelImage generator = new SyntheticLabelImage(size, size, cellCount, 42);
+		this.labelImage = generator.createImage();
+		this.wayPoints = generator.createPolyline(8);
+
+		this.stats = new LabelStatistics(labelImage);
+		this.boundaryIndex = new BoundaryIndex(labelImage);
+
+		this.cellFile = new CellFile("Cortex", true);
+		this.cellFile.setWayPoint(wayPoints);
+		List<Integer> labels = this.cellFile.computeLabelList(labelImage);
+		if (labels.size() < 2)
+		{
+			throw new IllegalStateException("Polyline should cross at least two cells");
+		}
+
+		// choose a pair of adjacent labels in the middle of the cell file
+		int index = labels.size() / 2;
+		while (index > 1 && !boundaryIndex.isAdjacent(labels.get(index - 1), labels.get(index)))
+		{
+			index--;
+		}
+		this.boundary = new CellsBoundary(labels.get(index - 1), labels.get(index), true);
+		this.boundary.findBoundaryPixels(boundaryIndex);
+	}
+
+
+	// ====================================================
+	// Benchmarks of the pre-computations
+
+	@Benchmark
+	public LabelStatistics labelStatistics()
+	{
+		return new LabelStatistics(labelImage);
+	}
+
+	@Benchmark
+	public BoundaryIndex boundaryIndex()
+	{
+		return new BoundaryIndex(labelImage);
+	}
+
+
+	// ====================================================
+	// Benchmarks of the analysis stages
+
+	@Benchmark
+	public List<Integer> computeLabelList()
+	{
+		CellFile file = new CellFile("Cortex", true);
+		file.setWayPoint(wayPoints);
+		return file.computeLabelList(labelImage);
+	}
+
+	@Benchmark
+	public CellFile computePathCurve()
+	{
+		cellFile.computePathCurve(stats);
+		return cellFile;
+	}
+
+	@Benchmark
+	public Collection<Point> findBoundaryPixels_FullScan()
+	{
+		return boundary.findBoundaryPixels(labelImage);
+	}
+
+	@Benchmark
+	public Collection<Point> findBoundaryPixels_LabelStatistics()
+	{
+		return boundary.findBoundaryPixels(labelImage, stats);
+	}
+
+	@Benchmark
+	public Collection<Point> findBoundaryPixels_BoundaryIndex()
+	{
+		return boundary.findBoundaryPixels(boundaryIndex);
+	}
+
+	@Benchmark
+	public List<Point> findBoundaryExtremities()
+	{
+		return boundary.findBoundaryExtremities();
+	}
+}
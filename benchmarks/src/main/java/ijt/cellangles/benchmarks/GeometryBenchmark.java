@@ -0,0 +1,114 @@
+/**
+ * 
+ */
+package ijt.cellangles.benchmarks;
+
+import java.awt.Point;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ijt.geom.Geometry;
+import ijt.geom.IntBinaryConsumer;
+import ijt.geom.Polyline2D;
+
+/**
+ * Benchmarks of the geometric computations used during the analysis of cell
+ * files.
+ * 
+ * @author dlegland
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeometryBenchmark
+{
+	// ====================================================
+	// Parameters
+
+	/**
+	 * The length of the line segments, and the number of vertices of the
+	 * polyline.
+	 */
+	@Param({"100", "1000", "16000"})
+	int length;
+
+
+	// ====================================================
+	// Benchmark state
+
+	Point p1;
+	Point p2;
+
+	Polyline2D polyline;
+
+
+	// ====================================================
+	// Setup
+
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		// an oblique line segment
+		this.p1 = new Point(10, 20);
+		this.p2 = new Point(10 + length, 20 + length / 3);
+
+		// a polyline with small random oscillations
+		Random random = new Random(42);
+		double[] xCoords = new double[length];
+		double[] yCoords = new double[length];
+		for (int i = 0; i < length; i++)
+		{
+			xCoords[i] = i * 10;
+			yCoords[i] = 500 + 20 * random.nextDouble();
+		}
+		this.polyline = new Polyline2D(xCoords, yCoords);
+	}
+
+
+	// ====================================================
+	// Benchmarks
+
+	@Benchmark
+	public List<Point> digitalLineSegment()
+	{
+		return Geometry.digitalLineSegment(p1, p2);
+	}
+
+	@Benchmark
+	public void traverseLine(final Blackhole blackhole)
+	{
+		Geometry.traverseLine(p1.x, p1.y, p2.x, p2.y, new IntBinaryConsumer()
+		{
+			@Override
+			public void accept(int x, int y)
+			{
+				blackhole.consume(x);
+				blackhole.consume(y);
+			}
+		});
+	}
+
+	@Benchmark
+	public Polyline2D smoothPolyline()
+	{
+		return polyline.smooth();
+	}
+}
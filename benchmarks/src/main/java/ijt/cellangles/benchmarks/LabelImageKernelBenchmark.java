@@ -0,0 +1,114 @@
+/**
+ * 
+ */
+package ijt.cellangles.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import ijt.cellangles.CellFile;
+import ijt.cellangles.LabelImageKernel;
+import ijt.cellangles.PixelList;
+
+/**
+ * Compares the scalar kernel and the kernel based on the Vector API for the
+ * search of boundary pixels within 16-bit label images. The full image is
+ * scanned, as when no pre-computed index is available.
+ * 
+ * The vector kernel requires a JVM 16 or later, and a plugin built with the
+ * same JDK. When it is not available, both variants measure the scalar
+ * kernel.
+ * 
+ * @author dlegland
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class LabelImageKernelBenchmark
+{
+	// ====================================================
+	// Parameters
+
+	/**
+	 * The size of the (square) label image.
+	 */
+	@Param({"512", "2048", "8192"})
+	int size;
+
+	/**
+	 * The kernel to use, either "scalar" or "vector".
+	 */
+	@Param({"scalar", "vector"})
+	String kernelType;
+
+
+	// ====================================================
+	// Benchmark state
+
+	LabelImageKernel kernel;
+
+	int label1;
+	int label2;
+
+
+	// ====================================================
+	// Setup
+
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		SyntheticLabelImage generator = new SyntheticLabelImage(size, size, 1000, 42);
+		ImageProcessor labelImage = generator.createImage();
+		if (!(labelImage instanceof ShortProcessor))
+		{
+			throw new IllegalStateException("Requires a 16-bit label image");
+		}
+		this.kernel = LabelImageKernel.create(labelImage, "vector".equals(kernelType));
+		if ("vector".equals(kernelType) && !LabelImageKernel.isVectorKernelAvailable())
+		{
+			System.err.println("Vector kernel not available, the scalar kernel is used");
+		}
+
+		// choose a pair of consecutive labels in the middle of a cell file
+		CellFile cellFile = new CellFile("Cortex", true);
+		cellFile.setWayPoint(generator.createPolyline(8));
+		List<Integer> labels = cellFile.computeLabelList(labelImage);
+		if (labels.size() < 2)
+		{
+			throw new IllegalStateException("Polyline should cross at least two cells");
+		}
+		int index = labels.size() / 2;
+		this.label1 = labels.get(index - 1);
+		this.label2 = labels.get(index);
+	}
+
+
+	// ====================================================
+	// Benchmarks
+
+	@Benchmark
+	public PixelList findBoundaryPixels()
+	{
+		PixelList pixels = new PixelList(size);
+		kernel.findBoundaryPixels(label1, label2, 0, 0, size - 1, size - 1, pixels);
+		return pixels;
+	}
+}
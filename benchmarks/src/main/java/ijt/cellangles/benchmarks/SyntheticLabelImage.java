@@ -0,0 +1,199 @@
+/**
+ * 
+ */
+package ijt.cellangles.benchmarks;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/**
+ * Generates synthetic label images that resemble segmented plant tissues,
+ * for benchmarking purposes.
+ * 
+ * Cells are the regions of a Voronoi diagram computed from seeds placed on
+ * a jittered regular grid. Cells are separated by background pixels with
+ * value 0, like in the result of a watershed segmentation.
+ * 
+ * @author dlegland
+ */
+public class SyntheticLabelImage
+{
+	// ====================================================
+	// Class members
+
+	int sizeX;
+	int sizeY;
+
+	/**
+	 * The spacing between seeds, in pixels.
+	 */
+	double spacing;
+
+	/**
+	 * The number of seeds in each direction.
+	 */
+	int nSeedsX;
+	int nSeedsY;
+
+	/**
+	 * The coordinates of the seeds, indexed by (label - 1).
+	 */
+	double[] seedsX;
+	double[] seedsY;
+
+
+	// ====================================================
+	// Constructor
+
+	/**
+	 * Creates a new generator of synthetic label images.
+	 * 
+	 * @param sizeX
+	 *            the width of the image
+	 * @param sizeY
+	 *            the height of the image
+	 * @param cellCount
+	 *            the approximate number of cells within the image
+	 * @param seed
+	 *            the seed of the random generator, to obtain reproducible
+	 *            images
+	 */
+	public SyntheticLabelImage(int sizeX, int sizeY, int cellCount, long seed)
+	{
+		this.sizeX = sizeX;
+		this.sizeY = sizeY;
+		this.spacing = Math.max(Math.sqrt(((double) sizeX) * sizeY / cellCount), 3.0);
+		this.nSeedsX = (int) Math.ceil(sizeX / spacing);
+		this.nSeedsY = (int) Math.ceil(sizeY / spacing);
+
+		// jitter seeds within each cell of the grid
+		Random random = new Random(seed);
+		int nSeeds = nSeedsX * nSeedsY;
+		this.seedsX = new double[nSeeds];
+		this.seedsY = new double[nSeeds];
+		for (int iy = 0; iy < nSeedsY; iy++)
+		{
+			for (int ix = 0; ix < nSeedsX; ix++)
+			{
+				int index = iy * nSeedsX + ix;
+				seedsX[index] = (ix + 0.2 + 0.6 * random.nextDouble()) * spacing;
+				seedsY[index] = (iy + 0.2 + 0.6 * random.nextDouble()) * spacing;
+			}
+		}
+	}
+
+
+	// ====================================================
+	// Methods
+
+	/**
+	 * @return the number of cells generated within the image
+	 */
+	public int cellCount()
+	{
+		return this.seedsX.length;
+	}
+
+	/**
+	 * Creates the label image. A ShortProcessor is used when the number of
+	 * cells allows it, to reduce memory footprint of large images.
+	 * 
+	 * @return a new label image
+	 */
+	public ImageProcessor createImage()
+	{
+		ImageProcessor image;
+		if (cellCount() <= 0xFFFF)
+		{
+			image = new ShortProcessor(sizeX, sizeY);
+		}
+		else
+		{
+			image = new FloatProcessor(sizeX, sizeY);
+		}
+
+		// process the image row by row, to avoid allocating a full label array
+		int[] prevRow = new int[sizeX];
+		int[] currentRow = new int[sizeX];
+		for (int y = 0; y < sizeY; y++)
+		{
+			for (int x = 0; x < sizeX; x++)
+			{
+				currentRow[x] = closestSeed(x, y) + 1;
+			}
+
+			// pixels with a different label on the left or on the top become
+			// background pixels
+			for (int x = 0; x < sizeX; x++)
+			{
+				int label = currentRow[x];
+				boolean boundary = (x > 0 && currentRow[x - 1] != label) || (y > 0 && prevRow[x] != label);
+				image.setf(x, y, boundary ? 0 : label);
+			}
+
+			int[] tmp = prevRow;
+			prevRow = currentRow;
+			currentRow = tmp;
+		}
+
+		return image;
+	}
+
+	/**
+	 * Creates a polyline crossing the image horizontally, with small
+	 * vertical oscillations, similar to the polylines drawn by the user.
+	 * 
+	 * @param nVertices
+	 *            the number of vertices of the polyline
+	 * @return the list of vertices of the polyline, with integer coordinates
+	 */
+	public List<Point2D> createPolyline(int nVertices)
+	{
+		List<Point2D> vertices = new ArrayList<Point2D>(nVertices);
+		double x0 = 0.05 * sizeX;
+		double dx = 0.9 * sizeX / (nVertices - 1);
+		double amplitude = Math.min(spacing / 4, sizeY / 4.0);
+		for (int i = 0; i < nVertices; i++)
+		{
+			double x = Math.floor(x0 + i * dx);
+			double y = Math.floor(sizeY / 2 + amplitude * Math.sin(i));
+			vertices.add(new Point2D.Double(x, y));
+		}
+		return vertices;
+	}
+
+	/**
+	 * Finds the index of the seed closest to a pixel, by searching only
+	 * within the neighbor grid cells.
+	 */
+	private int closestSeed(int x, int y)
+	{
+		int ix0 = (int) (x / spacing);
+		int iy0 = (int) (y / spacing);
+
+		int closest = -1;
+		double minDist2 = Double.POSITIVE_INFINITY;
+		for (int iy = Math.max(iy0 - 1, 0); iy <= Math.min(iy0 + 1, nSeedsY - 1); iy++)
+		{
+			for (int ix = Math.max(ix0 - 1, 0); ix <= Math.min(ix0 + 1, nSeedsX - 1); ix++)
+			{
+				int index = iy * nSeedsX + ix;
+				double dx = seedsX[index] - x;
+				double dy = seedsY[index] - y;
+				double dist2 = dx * dx + dy * dy;
+				if (dist2 < minDist2)
+				{
+					closest = index;
+					minDist2 = dist2;
+				}
+			}
+		}
+		return closest;
+	}
+}
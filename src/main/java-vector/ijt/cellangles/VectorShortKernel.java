@@ -0,0 +1,121 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import ij.process.ShortProcessor;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernel for 16-bit label images based on the Vector API. The pixels of a row
+ * are processed by blocks: each block is compared with the blocks of the
+ * upper and lower rows, and with the blocks shifted by one pixel to the left
+ * and to the right, giving a mask of the boundary pixels. The last pixels of
+ * the row are processed by the scalar kernel.
+ * 
+ * This class is compiled only with JDK 16 or later, and requires the
+ * <code>jdk.incubator.vector</code> module at runtime. It is created by
+ * reflection from the {@link LabelImageKernel#create(ij.process.ImageProcessor)}
+ * method.
+ * 
+ * @author dlegland
+ */
+class VectorShortKernel extends LabelImageKernel.ShortKernel
+{
+	// ====================================================
+	// Static methods
+
+	/**
+	 * The species used for processing the rows.
+	 */
+	static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_PREFERRED;
+
+	/**
+	 * Checks if the Vector API can process several pixels at once on this
+	 * platform.
+	 * 
+	 * @return true if the vector kernel should be used
+	 */
+	public static boolean isSupported()
+	{
+		return SPECIES.length() > 1;
+	}
+
+
+	// ====================================================
+	// Constructor
+
+	VectorShortKernel(ShortProcessor labelImage)
+	{
+		super(labelImage);
+	}
+
+
+	// ====================================================
+	// Methods
+
+	@Override
+	protected void findInteriorBoundaryPixels(int label1, int label2, int y, int xStart, int xEnd, PixelList pixels)
+	{
+		// labels that can not be stored within the image are never found
+		if (label1 < 0 || label1 > 0xFFFF || label2 < 0 || label2 > 0xFFFF)
+		{
+			return;
+		}
+		final short l1 = (short) label1;
+		final short l2 = (short) label2;
+
+		final short[] array = this.array;
+		final int sizeX = this.sizeX;
+		final int length = SPECIES.length();
+		int offset = y * sizeX;
+		int x = xStart;
+		for (; x + length - 1 <= xEnd; x += length)
+		{
+			int index = offset + x;
+			ShortVector center = ShortVector.fromArray(SPECIES, array, index);
+			VectorMask<Short> mask = center.compare(VectorOperators.EQ, (short) 0);
+			if (!mask.anyTrue())
+			{
+				continue;
+			}
+
+			ShortVector up = ShortVector.fromArray(SPECIES, array, index - sizeX);
+			ShortVector left = ShortVector.fromArray(SPECIES, array, index - 1);
+			ShortVector right = ShortVector.fromArray(SPECIES, array, index + 1);
+			ShortVector down = ShortVector.fromArray(SPECIES, array, index + sizeX);
+
+			VectorMask<Short> found1 = up.compare(VectorOperators.EQ, l1)
+					.or(left.compare(VectorOperators.EQ, l1))
+					.or(right.compare(VectorOperators.EQ, l1))
+					.or(down.compare(VectorOperators.EQ, l1));
+			mask = mask.and(found1);
+			if (!mask.anyTrue())
+			{
+				continue;
+			}
+			VectorMask<Short> found2 = up.compare(VectorOperators.EQ, l2)
+					.or(left.compare(VectorOperators.EQ, l2))
+					.or(right.compare(VectorOperators.EQ, l2))
+					.or(down.compare(VectorOperators.EQ, l2));
+			mask = mask.and(found2);
+
+			// add the boundary pixels in raster order
+			long bits = mask.toLong();
+			while (bits != 0)
+			{
+				pixels.addIndex(index + Long.numberOfTrailingZeros(bits));
+				bits &= bits - 1;
+			}
+		}
+
+		// process the remaining pixels of the row
+		if (x <= xEnd)
+		{
+			super.findInteriorBoundaryPixels(label1, label2, y, x, xEnd, pixels);
+		}
+	}
+}
@@ -0,0 +1,219 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+import ij.measure.ResultsTable;
+
+/**
+ * Aggregates the measurements made during the analysis of cell files, by
+ * stage of the computation: number of calls, wall time, number of visited
+ * pixels, number of boundary pixels, and allocated memory.
+ * 
+ * The same instance can be shared by several cell files, possibly analyzed
+ * concurrently.
+ * 
+ * @author dlegland
+ */
+public class AnalysisMetrics implements AnalysisMetricsListener
+{
+	// ====================================================
+	// Static methods
+
+	/**
+	 * Returns the number of bytes allocated by the current thread since its
+	 * creation. The measurement relies on the extension of the thread
+	 * management bean provided by HotSpot-based virtual machines.
+	 * 
+	 * @return the number of bytes allocated by the current thread, or -1 if
+	 *         the measurement is not supported
+	 */
+	public static final long currentThreadAllocatedBytes()
+	{
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean))
+		{
+			return -1;
+		}
+		com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+		if (!sunBean.isThreadAllocatedMemorySupported() || !sunBean.isThreadAllocatedMemoryEnabled())
+		{
+			return -1;
+		}
+		return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+
+	// ====================================================
+	// Class members
+
+	// the measurements of each stage, indexed by the ordinal of the stage
+	long[] counts;
+	long[] totalNanos;
+	long[] maxNanos;
+	long[] visitedPixels;
+	long[] boundaryPixels;
+	long[] allocatedBytes;
+
+
+	// ====================================================
+	// Constructor
+
+	/**
+	 * Creates new empty metrics.
+	 */
+	public AnalysisMetrics()
+	{
+		reset();
+	}
+
+
+	// ====================================================
+	// Implementation of the listener interface
+
+	@Override
+	public synchronized void stageCompleted(Stage stage, CellsBoundary boundary, long elapsedNanos,
+			long visitedPixels, long allocatedBytes)
+	{
+		int i = stage.ordinal();
+		this.counts[i]++;
+		this.totalNanos[i] += elapsedNanos;
+		this.maxNanos[i] = Math.max(this.maxNanos[i], elapsedNanos);
+		this.visitedPixels[i] += visitedPixels;
+		if (boundary != null)
+		{
+			this.boundaryPixels[i] += boundary.pixelList.size();
+		}
+		if (allocatedBytes >= 0)
+		{
+			this.allocatedBytes[i] += allocatedBytes;
+		}
+	}
+
+
+	// ====================================================
+	// Access methods
+
+	/**
+	 * Clears all the measurements.
+	 */
+	public synchronized void reset()
+	{
+		int n = Stage.values().length;
+		this.counts = new long[n];
+		this.totalNanos = new long[n];
+		this.maxNanos = new long[n];
+		this.visitedPixels = new long[n];
+		this.boundaryPixels = new long[n];
+		this.allocatedBytes = new long[n];
+	}
+
+	/**
+	 * @param stage
+	 *            a stage of the analysis
+	 * @return the number of times the stage was completed
+	 */
+	public synchronized long getCount(Stage stage)
+	{
+		return this.counts[stage.ordinal()];
+	}
+
+	/**
+	 * @param stage
+	 *            a stage of the analysis
+	 * @return the total wall time spent within the stage, in nanoseconds
+	 */
+	public synchronized long getTotalTime(Stage stage)
+	{
+		return this.totalNanos[stage.ordinal()];
+	}
+
+	/**
+	 * @param stage
+	 *            a stage of the analysis
+	 * @return the total number of pixels visited by the stage
+	 */
+	public synchronized long getVisitedPixels(Stage stage)
+	{
+		return this.visitedPixels[stage.ordinal()];
+	}
+
+	/**
+	 * @param stage
+	 *            a stage of the analysis
+	 * @return the total number of boundary pixels of the boundaries
+	 *         processed by the stage
+	 */
+	public synchronized long getBoundaryPixels(Stage stage)
+	{
+		return this.boundaryPixels[stage.ordinal()];
+	}
+
+	/**
+	 * @param stage
+	 *            a stage of the analysis
+	 * @return the total number of bytes allocated by the stage, or 0 if the
+	 *         measurement is not supported
+	 */
+	public synchronized long getAllocatedBytes(Stage stage)
+	{
+		return this.allocatedBytes[stage.ordinal()];
+	}
+
+
+	// ====================================================
+	// Display methods
+
+	/**
+	 * Creates a table with one row per stage of the analysis, and the
+	 * aggregated measurements in columns.
+	 * 
+	 * @return a new ResultsTable containing the measurements
+	 */
+	public synchronized ResultsTable createTable()
+	{
+		ResultsTable table = new ResultsTable();
+		for (Stage stage : Stage.values())
+		{
+			int i = stage.ordinal();
+			table.incrementCounter();
+			table.addValue("Stage", stage.name());
+			table.addValue("Count", this.counts[i]);
+			table.addValue("TotalTime(ms)", this.totalNanos[i] / 1e6);
+			table.addValue("MeanTime(ms)", this.counts[i] > 0 ? this.totalNanos[i] / 1e6 / this.counts[i] : 0);
+			table.addValue("MaxTime(ms)", this.maxNanos[i] / 1e6);
+			table.addValue("VisitedPixels", this.visitedPixels[i]);
+			table.addValue("BoundaryPixels", this.boundaryPixels[i]);
+			table.addValue("AllocatedBytes", this.allocatedBytes[i]);
+		}
+		return table;
+	}
+
+	/**
+	 * Writes the aggregated measurements in CSV format, with one row per
+	 * stage of the analysis.
+	 * 
+	 * @param writer
+	 *            the writer to write into
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public synchronized void write(Writer writer) throws IOException
+	{
+		writer.write("stage,count,totalTimeMs,meanTimeMs,maxTimeMs,visitedPixels,boundaryPixels,allocatedBytes\n");
+		for (Stage stage : Stage.values())
+		{
+			int i = stage.ordinal();
+			double meanTime = this.counts[i] > 0 ? this.totalNanos[i] / 1e6 / this.counts[i] : 0;
+			writer.write(String.format(Locale.ENGLISH, "%s,%d,%.3f,%.4f,%.3f,%d,%d,%d\n", stage.name(),
+					this.counts[i], this.totalNanos[i] / 1e6, meanTime, this.maxNanos[i] / 1e6,
+					this.visitedPixels[i], this.boundaryPixels[i], this.allocatedBytes[i]));
+		}
+	}
+}
@@ -0,0 +1,59 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+/**
+ * Receives the measurements made during the analysis of cell files, after
+ * each stage of the computation. This makes it possible to identify the
+ * stages that take most of the computation time.
+ * 
+ * The stages of the boundaries may be computed concurrently, so
+ * implementations must be thread-safe.
+ * 
+ * @see AnalysisMetrics
+ * @see CellFile#setMetricsListener(AnalysisMetricsListener)
+ * @author dlegland
+ */
+public interface AnalysisMetricsListener
+{
+	/**
+	 * The stages of the analysis of a cell file.
+	 */
+	public enum Stage
+	{
+		/** The computation of the statistics of the labels of the whole image */
+		LABEL_STATISTICS,
+		/** The computation of the index of boundary pixels of the whole image */
+		BOUNDARY_INDEX,
+		/** The computation of the labels along the polyline */
+		LABEL_LIST,
+		/** The computation of the path between cell centroids */
+		PATH_CURVE,
+		/** The search of the pixels between two cells, or their lookup within the index */
+		BOUNDARY_PIXELS,
+		/** The identification of the extremities of a boundary */
+		BOUNDARY_EXTREMITIES,
+		/** The identification of the inner and outer points, and the angle */
+		BOUNDARY_ANGLE
+	};
+
+	/**
+	 * Called after the completion of a stage of the analysis.
+	 * 
+	 * @param stage
+	 *            the stage that was completed
+	 * @param boundary
+	 *            the boundary processed by the stage, or null for the stages
+	 *            related to the whole cell file or to the whole image
+	 * @param elapsedNanos
+	 *            the wall time spent within the stage, in nanoseconds
+	 * @param visitedPixels
+	 *            the number of pixels visited by the stage
+	 * @param allocatedBytes
+	 *            the number of bytes allocated by the stage, or -1 if the
+	 *            virtual machine does not support the measurement
+	 */
+	public void stageCompleted(Stage stage, CellsBoundary boundary, long elapsedNanos, long visitedPixels,
+			long allocatedBytes);
+}
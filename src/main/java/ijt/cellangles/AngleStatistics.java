@@ -0,0 +1,199 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+/**
+ * Accumulates circular statistics of boundary angles: number of angles, sums
+ * of cosines and sines, and histogram. The circular mean, the mean
+ * resultant length and the circular variance are computed from the sums, so
+ * the raw angles do not need to be kept.
+ * 
+ * Adding an angle does not allocate memory, and accumulators computed on
+ * different parts of the results can be merged. Accumulators are not
+ * thread-safe: each thread should use its own accumulator, and merge it at
+ * the end of the computation.
+ * 
+ * Angles are expressed in radians, within the interval [0, 2*pi), as
+ * computed by the CellsBoundary class.
+ * 
+ * @author dlegland
+ */
+public class AngleStatistics
+{
+	// ====================================================
+	// Class members
+
+	/**
+	 * The number of angles.
+	 */
+	long count = 0;
+
+	/**
+	 * The sum of the cosines of the angles.
+	 */
+	double sumCos = 0;
+
+	/**
+	 * The sum of the sines of the angles.
+	 */
+	double sumSin = 0;
+
+	/**
+	 * The number of angles within each bin of the histogram. The bins have
+	 * the same width, and cover the interval [0, 2*pi).
+	 */
+	long[] histogram;
+
+
+	// ====================================================
+	// Constructors
+
+	/**
+	 * Creates a new accumulator with a histogram of 36 bins of 10 degrees.
+	 */
+	public AngleStatistics()
+	{
+		this(36);
+	}
+
+	/**
+	 * Creates a new accumulator with the specified number of histogram bins.
+	 * 
+	 * @param binCount
+	 *            the number of bins of the histogram over the full circle
+	 */
+	public AngleStatistics(int binCount)
+	{
+		if (binCount < 1)
+		{
+			throw new IllegalArgumentException("Requires at least one histogram bin");
+		}
+		this.histogram = new long[binCount];
+	}
+
+
+	// ====================================================
+	// Accumulation methods
+
+	/**
+	 * Adds an angle to the statistics.
+	 * 
+	 * @param angle
+	 *            the angle, in radians
+	 */
+	public void add(double angle)
+	{
+		this.count++;
+		this.sumCos += Math.cos(angle);
+		this.sumSin += Math.sin(angle);
+
+		// normalize the angle for computing the histogram bin
+		double twoPi = 2 * Math.PI;
+		double normAngle = angle - twoPi * Math.floor(angle / twoPi);
+		int nBins = this.histogram.length;
+		int bin = Math.min((int) (normAngle * nBins / twoPi), nBins - 1);
+		this.histogram[bin]++;
+	}
+
+	/**
+	 * Adds the angles accumulated within another instance.
+	 * 
+	 * @param other
+	 *            the statistics to merge into this instance, that must have
+	 *            the same number of histogram bins
+	 */
+	public void merge(AngleStatistics other)
+	{
+		if (other.histogram.length != this.histogram.length)
+		{
+			throw new IllegalArgumentException("Can not merge histograms with different numbers of bins");
+		}
+		this.count += other.count;
+		this.sumCos += other.sumCos;
+		this.sumSin += other.sumSin;
+		for (int i = 0; i < this.histogram.length; i++)
+		{
+			this.histogram[i] += other.histogram[i];
+		}
+	}
+
+
+	// ====================================================
+	// Access methods
+
+	/**
+	 * @return the number of angles
+	 */
+	public long getCount()
+	{
+		return this.count;
+	}
+
+	/**
+	 * Computes the circular mean of the angles, as the direction of the sum
+	 * of the unit vectors of the angles.
+	 * 
+	 * @return the circular mean, in radians within [0, 2*pi), or NaN if no
+	 *         angle was added
+	 */
+	public double getMeanAngle()
+	{
+		if (this.count == 0)
+		{
+			return Double.NaN;
+		}
+		double mean = Math.atan2(this.sumSin, this.sumCos);
+		return mean < 0 ? mean + 2 * Math.PI : mean;
+	}
+
+	/**
+	 * Computes the mean resultant length of the angles, between 0 for
+	 * uniformly spread angles, and 1 for identical angles.
+	 * 
+	 * @return the mean resultant length, or NaN if no angle was added
+	 */
+	public double getResultantLength()
+	{
+		if (this.count == 0)
+		{
+			return Double.NaN;
+		}
+		return Math.hypot(this.sumCos, this.sumSin) / this.count;
+	}
+
+	/**
+	 * @return the circular variance of the angles, equal to one minus the
+	 *         mean resultant length
+	 */
+	public double getCircularVariance()
+	{
+		return 1 - getResultantLength();
+	}
+
+	/**
+	 * @return the circular standard deviation of the angles, in radians
+	 */
+	public double getCircularStandardDeviation()
+	{
+		return Math.sqrt(-2 * Math.log(getResultantLength()));
+	}
+
+	/**
+	 * @return the number of bins of the histogram
+	 */
+	public int getBinCount()
+	{
+		return this.histogram.length;
+	}
+
+	/**
+	 * @param bin
+	 *            the index of a bin
+	 * @return the number of angles within the bin
+	 */
+	public long getBinValue(int bin)
+	{
+		return this.histogram[bin];
+	}
+}
@@ -0,0 +1,240 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import ij.measure.ResultsTable;
+
+/**
+ * Computes the circular statistics of boundary angles for each tissue type
+ * and each side of the root, while the results are produced.
+ * 
+ * A summary receives the results as a ResultSink, and keeps one
+ * {@link AngleStatistics} accumulator per group. Summaries computed by
+ * different workers can be merged at the end of the processing, so that
+ * no second pass over the results is necessary.
+ * 
+ * Summaries are not thread-safe, except for the merge method.
+ * 
+ * @author dlegland
+ */
+public class AngleSummary implements ResultSink
+{
+	// ====================================================
+	// Class members
+
+	/**
+	 * The number of histogram bins of each accumulator.
+	 */
+	int binCount;
+
+	/**
+	 * The accumulators of each group, indexed by the tissue type, then by
+	 * the side of the root (0 for left, 1 for right).
+	 */
+	Map<String, AngleStatistics[]> groups = new TreeMap<String, AngleStatistics[]>();
+
+
+	// ====================================================
+	// Constructors
+
+	/**
+	 * Creates a new summary, using histograms of 36 bins of 10 degrees.
+	 */
+	public AngleSummary()
+	{
+		this(36);
+	}
+
+	/**
+	 * Creates a new summary, using the specified number of histogram bins.
+	 * 
+	 * @param binCount
+	 *            the number of bins of the histograms over the full circle
+	 */
+	public AngleSummary(int binCount)
+	{
+		if (binCount < 1)
+		{
+			throw new IllegalArgumentException("Requires at least one histogram bin");
+		}
+		this.binCount = binCount;
+	}
+
+
+	// ====================================================
+	// Implementation of the ResultSink interface
+
+	@Override
+	public void addBoundary(String imageName, String cellFileName, String tissueType, boolean isLeftSide,
+			CellsBoundary boundary)
+	{
+		getStatistics(tissueType, isLeftSide).add(boundary.angle);
+	}
+
+	@Override
+	public void flush()
+	{
+	}
+
+	@Override
+	public void close()
+	{
+	}
+
+
+	// ====================================================
+	// Management of accumulators
+
+	/**
+	 * Returns the accumulator of the specified group, creating it if
+	 * necessary.
+	 * 
+	 * @param tissueType
+	 *            the tissue type
+	 * @param isLeftSide
+	 *            the side of the root
+	 * @return the accumulator of the group
+	 */
+	public AngleStatistics getStatistics(String tissueType, boolean isLeftSide)
+	{
+		String key = tissueType != null ? tissueType : "";
+		AngleStatistics[] sides = this.groups.get(key);
+		if (sides == null)
+		{
+			sides = new AngleStatistics[2];
+			this.groups.put(key, sides);
+		}
+		int side = isLeftSide ? 0 : 1;
+		if (sides[side] == null)
+		{
+			sides[side] = new AngleStatistics(this.binCount);
+		}
+		return sides[side];
+	}
+
+	/**
+	 * Adds the statistics accumulated within another summary.
+	 * 
+	 * @param other
+	 *            the summary to merge into this summary
+	 */
+	public synchronized void merge(AngleSummary other)
+	{
+		for (Map.Entry<String, AngleStatistics[]> entry : other.groups.entrySet())
+		{
+			AngleStatistics[] sides = entry.getValue();
+			for (int side = 0; side < 2; side++)
+			{
+				if (sides[side] != null)
+				{
+					getStatistics(entry.getKey(), side == 0).merge(sides[side]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the tissue types found within the results, in alphabetical
+	 *         order
+	 */
+	public List<String> getTissueTypes()
+	{
+		return new ArrayList<String>(this.groups.keySet());
+	}
+
+
+	// ====================================================
+	// Display methods
+
+	/**
+	 * Creates a table with one row per tissue type and side, containing the
+	 * circular statistics of the angles, in degrees, and the histogram.
+	 * 
+	 * @return a new ResultsTable
+	 */
+	public synchronized ResultsTable createTable()
+	{
+		ResultsTable table = new ResultsTable();
+		double binWidth = 360.0 / this.binCount;
+		for (Map.Entry<String, AngleStatistics[]> entry : this.groups.entrySet())
+		{
+			AngleStatistics[] sides = entry.getValue();
+			for (int side = 0; side < 2; side++)
+			{
+				AngleStatistics stats = sides[side];
+				if (stats == null)
+				{
+					continue;
+				}
+				table.incrementCounter();
+				table.addValue("TissueType", entry.getKey());
+				table.addValue("Side", side == 0 ? "Left" : "Right");
+				table.addValue("Count", stats.getCount());
+				table.addValue("MeanAngle", Math.toDegrees(stats.getMeanAngle()));
+				table.addValue("ResultantLength", stats.getResultantLength());
+				table.addValue("CircularVariance", stats.getCircularVariance());
+				table.addValue("CircularStd", Math.toDegrees(stats.getCircularStandardDeviation()));
+				for (int bin = 0; bin < this.binCount; bin++)
+				{
+					table.addValue("Bin" + Math.round(bin * binWidth), stats.getBinValue(bin));
+				}
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * Writes the statistics in CSV format, with one row per tissue type and
+	 * side. Angles are expressed in degrees. The last columns contain the
+	 * histogram, and are named after the lower bound of each bin.
+	 * 
+	 * @param writer
+	 *            the writer to write into
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public synchronized void write(Writer writer) throws IOException
+	{
+		double binWidth = 360.0 / this.binCount;
+		StringBuilder sb = new StringBuilder();
+		sb.append("tissueType,side,count,meanAngle,resultantLength,circularVariance,circularStd");
+		for (int bin = 0; bin < this.binCount; bin++)
+		{
+			sb.append(",bin").append(Math.round(bin * binWidth));
+		}
+		sb.append('\n');
+
+		for (Map.Entry<String, AngleStatistics[]> entry : this.groups.entrySet())
+		{
+			AngleStatistics[] sides = entry.getValue();
+			for (int side = 0; side < 2; side++)
+			{
+				AngleStatistics stats = sides[side];
+				if (stats == null)
+				{
+					continue;
+				}
+				sb.append(DelimitedResultSink.quote(entry.getKey(), ',')).append(',');
+				sb.append(side == 0 ? "Left" : "Right");
+				sb.append(String.format(Locale.ENGLISH, ",%d,%.4f,%.6f,%.6f,%.4f", stats.getCount(),
+						Math.toDegrees(stats.getMeanAngle()), stats.getResultantLength(),
+						stats.getCircularVariance(), Math.toDegrees(stats.getCircularStandardDeviation())));
+				for (int bin = 0; bin < this.binCount; bin++)
+				{
+					sb.append(',').append(stats.getBinValue(bin));
+				}
+				sb.append('\n');
+			}
+		}
+		writer.write(sb.toString());
+	}
+}
@@ -0,0 +1,281 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import java.awt.Point;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the results of cell file analyses into a compact binary stream.
+ * 
+ * The stream starts with a header, followed by a sequence of records. Each
+ * record starts with a byte identifying its type:
+ * <ul>
+ * <li>a string record defines the next entry of the string table, and
+ * contains the string encoded in modified UTF-8</li>
+ * <li>a boundary record contains the indices of the image name, of the cell
+ * file name and of the tissue type within the string table, the side of the
+ * root, the two labels, the coordinates of the inner and outer points as
+ * integers, and the angle in radians as a double.</li>
+ * </ul>
+ * Each string is written only once, the first time it is used. The stream
+ * can be read back with the {@link #read(InputStream, ResultSink)} method.
+ * 
+ * @author dlegland
+ */
+public class BinaryResultSink implements ResultSink
+{
+	// ====================================================
+	// Static constants
+
+	/**
+	 * The magic number at the beginning of the stream ("CFAB").
+	 */
+	static final int MAGIC_NUMBER = 0x43464142;
+
+	/**
+	 * The version of the format.
+	 */
+	static final int VERSION = 1;
+
+	static final byte STRING_RECORD = 1;
+	static final byte BOUNDARY_RECORD = 2;
+
+	/**
+	 * The index used for null strings.
+	 */
+	static final int NULL_STRING = -1;
+
+
+	// ====================================================
+	// Static methods
+
+	/**
+	 * Creates a new sink writing into the specified file.
+	 * 
+	 * @param file
+	 *            the file to create
+	 * @return a new result sink
+	 * @throws IOException
+	 *             if the file could not be created
+	 */
+	public static final BinaryResultSink create(File file) throws IOException
+	{
+		return new BinaryResultSink(new FileOutputStream(file));
+	}
+
+	/**
+	 * Reads the results stored within a binary file, and sends them to
+	 * another sink, for example to convert them into CSV.
+	 * 
+	 * @param file
+	 *            the binary file to read
+	 * @param target
+	 *            the sink that receives the results
+	 * @return the number of boundaries read
+	 * @throws IOException
+	 *             if the file could not be read, or if its format is invalid
+	 */
+	public static final int read(File file, ResultSink target) throws IOException
+	{
+		InputStream in = new FileInputStream(file);
+		try
+		{
+			return read(in, target);
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads the results stored within a binary stream, and sends them to
+	 * another sink.
+	 * 
+	 * @param in
+	 *            the stream to read
+	 * @param target
+	 *            the sink that receives the results
+	 * @return the number of boundaries read
+	 * @throws IOException
+	 *             if the stream could not be read, or if its format is invalid
+	 */
+	public static final int read(InputStream in, ResultSink target) throws IOException
+	{
+		DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+		if (data.readInt() != MAGIC_NUMBER)
+		{
+			throw new IOException("Not a binary result stream");
+		}
+		int version = data.readInt();
+		if (version != VERSION)
+		{
+			throw new IOException("Unsupported version of binary results: " + version);
+		}
+
+		List<String> strings = new ArrayList<String>();
+		int count = 0;
+		while (true)
+		{
+			int type = data.read();
+			if (type < 0)
+			{
+				break;
+			}
+			if (type == STRING_RECORD)
+			{
+				strings.add(data.readUTF());
+			}
+			else if (type == BOUNDARY_RECORD)
+			{
+				try
+				{
+					String imageName = readString(data, strings);
+					String cellFileName = readString(data, strings);
+					String tissueType = readString(data, strings);
+					boolean isLeftSide = data.readBoolean();
+					CellsBoundary boundary = new CellsBoundary(data.readInt(), data.readInt(), isLeftSide);
+					boundary.innerPoint = new Point(data.readInt(), data.readInt());
+					boundary.outerPoint = new Point(data.readInt(), data.readInt());
+					boundary.angle = data.readDouble();
+					boundary.status = CellsBoundary.Status.VALID;
+					target.addBoundary(imageName, cellFileName, tissueType, isLeftSide, boundary);
+					count++;
+				}
+				catch (EOFException ex)
+				{
+					throw new IOException("Truncated binary result stream", ex);
+				}
+			}
+			else
+			{
+				throw new IOException("Unknown record type: " + type);
+			}
+		}
+		return count;
+	}
+
+	private static final String readString(DataInputStream data, List<String> strings) throws IOException
+	{
+		int index = data.readInt();
+		if (index == NULL_STRING)
+		{
+			return null;
+		}
+		if (index < 0 || index >= strings.size())
+		{
+			throw new IOException("Invalid string index: " + index);
+		}
+		return strings.get(index);
+	}
+
+
+	// ====================================================
+	// Class members
+
+	/**
+	 * The stream the records are written to.
+	 */
+	DataOutputStream data;
+
+	/**
+	 * The index of each string already written within the stream.
+	 */
+	Map<String, Integer> stringTable = new HashMap<String, Integer>();
+
+
+	// ====================================================
+	// Constructor
+
+	/**
+	 * Creates a new sink writing into the specified stream, and writes the
+	 * header.
+	 * 
+	 * @param out
+	 *            the stream to write into
+	 * @throws IOException
+	 *             if the header could not be written
+	 */
+	public BinaryResultSink(OutputStream out) throws IOException
+	{
+		this.data = new DataOutputStream(new BufferedOutputStream(out));
+		this.data.writeInt(MAGIC_NUMBER);
+		this.data.writeInt(VERSION);
+	}
+
+
+	// ====================================================
+	// Implementation of the ResultSink interface
+
+	@Override
+	public void addBoundary(String imageName, String cellFileName, String tissueType, boolean isLeftSide,
+			CellsBoundary boundary) throws IOException
+	{
+		// write the definitions of new strings before the boundary record
+		int imageIndex = stringIndex(imageName);
+		int fileIndex = stringIndex(cellFileName);
+		int tissueIndex = stringIndex(tissueType);
+
+		this.data.writeByte(BOUNDARY_RECORD);
+		this.data.writeInt(imageIndex);
+		this.data.writeInt(fileIndex);
+		this.data.writeInt(tissueIndex);
+		this.data.writeBoolean(isLeftSide);
+		this.data.writeInt(boundary.label1);
+		this.data.writeInt(boundary.label2);
+		this.data.writeInt(boundary.innerPoint.x);
+		this.data.writeInt(boundary.innerPoint.y);
+		this.data.writeInt(boundary.outerPoint.x);
+		this.data.writeInt(boundary.outerPoint.y);
+		this.data.writeDouble(boundary.angle);
+	}
+
+	/**
+	 * Returns the index of a string within the string table, writing a new
+	 * string record if the string was not used before.
+	 */
+	private int stringIndex(String text) throws IOException
+	{
+		if (text == null)
+		{
+			return NULL_STRING;
+		}
+		Integer index = this.stringTable.get(text);
+		if (index == null)
+		{
+			index = this.stringTable.size();
+			this.stringTable.put(text, index);
+			this.data.writeByte(STRING_RECORD);
+			this.data.writeUTF(text);
+		}
+		return index;
+	}
+
+	@Override
+	public void flush() throws IOException
+	{
+		this.data.flush();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		this.data.close();
+	}
+}
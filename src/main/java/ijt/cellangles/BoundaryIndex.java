@@ -0,0 +1,315 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import java.awt.Point;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ij.process.ImageProcessor;
+
+/**
+ * Associates each pair of adjacent labels within a label image to the list of
+ * background pixels that separate them.
+ * 
+ * The index is computed with a single pass over the label image. A background
+ * pixel is associated to each pair of distinct labels found within its
+ * 4-neighborhood. The index can then be reused for all the cell files traced
+ * on the same image.
+ * 
+ * @author dlegland
+ */
+public class BoundaryIndex
+{
+	// ====================================================
+	// Class members
+
+	/**
+	 * The width of the indexed label image.
+	 */
+	int sizeX;
+
+	/**
+	 * The height of the indexed label image.
+	 */
+	int sizeY;
+
+	/**
+	 * For each pair of labels, the indices of the boundary pixels, in raster
+	 * order.
+	 */
+	HashMap<Long, PixelList> pairMap = new HashMap<Long, PixelList>();
+
+
+	// ====================================================
+	// Constructor
+
+	/**
+	 * Builds the index of boundary pixels from the specified label image.
+	 * 
+	 * @param labelImage
+	 *            the image containing labels of cell regions.
+	 */
+	public BoundaryIndex(ImageProcessor labelImage)
+	{
+		this(labelImage.getWidth(), labelImage.getHeight());
+		add(labelImage, 0, 0, 0, 0, sizeX - 1, sizeY - 1);
+	}
+
+	/**
+	 * Creates an empty index for a label image with the specified size. The
+	 * boundary pixels are then added region by region, for example when the
+	 * label image is processed by tiles.
+	 * 
+	 * @param sizeX
+	 *            the width of the label image
+	 * @param sizeY
+	 *            the height of the label image
+	 * @see #add(ImageProcessor, int, int, int, int, int, int)
+	 * @see #merge(BoundaryIndex)
+	 */
+	BoundaryIndex(int sizeX, int sizeY)
+	{
+		this.sizeX = sizeX;
+		this.sizeY = sizeY;
+	}
+
+	/**
+	 * Adds to the index the boundary pixels located within a region of the
+	 * label image. The pixels are read from an image whose first pixel is
+	 * located at the specified origin within the label image, and that must
+	 * contain the neighbors of the region pixels (within the bounds of the
+	 * label image). Bounds of the region are inclusive, and expressed within
+	 * the coordinates of the label image.
+	 * 
+	 * When regions are not added in raster order, the {@link #sortPixels()}
+	 * method must be called once all the regions have been added.
+	 * 
+	 * @param image
+	 *            the image containing the pixels of the region and their
+	 *            neighbors
+	 * @param originX
+	 *            the x-coordinate of the first pixel of the image within the
+	 *            label image
+	 * @param originY
+	 *            the y-coordinate of the first pixel of the image within the
+	 *            label image
+	 * @param x0
+	 *            the minimum x-coordinate of the region
+	 * @param y0
+	 *            the minimum y-coordinate of the region
+	 * @param x1
+	 *            the maximum x-coordinate of the region
+	 * @param y1
+	 *            the maximum y-coordinate of the region
+	 */
+	void add(ImageProcessor image, int originX, int originY, int x0, int y0, int x1, int y1)
+	{
+		// list of offsets defining the 4-connectivity
+		int[] dx = new int[]{0, -1, +1, 0};
+		int[] dy = new int[]{-1, 0, 0, +1};
+
+		// labels of the neighbors of current pixel
+		int[] neighborLabels = new int[4];
+
+		// keep the last pair, as consecutive pixels often belong to the same boundary
+		long lastKey = -1;
+		PixelList lastPixels = null;
+
+		for (int y = y0; y <= y1; y++)
+		{
+			CellsBoundary.checkCancelled();
+			for (int x = x0; x <= x1; x++)
+			{
+				// check that current label is background
+				if ((int) image.getf(x - originX, y - originY) != 0)
+				{
+					continue;
+				}
+
+				// extract the list of distinct neighbor labels
+				int nNeighbors = 0;
+				for (int i = 0; i < 4; i++)
+				{
+					// check neighbor position in within image bounds
+					int x2 = x + dx[i];
+					if (x2 < 0 || x2 > sizeX - 1) continue;
+					int y2 = y + dy[i];
+					if (y2 < 0 || y2 > sizeY - 1) continue;
+
+					int label = (int) image.getf(x2 - originX, y2 - originY);
+					if (label != 0 && !contains(neighborLabels, nNeighbors, label))
+					{
+						neighborLabels[nNeighbors++] = label;
+					}
+				}
+
+				// associate current pixel to each pair of neighbor labels
+				for (int i = 0; i < nNeighbors - 1; i++)
+				{
+					for (int j = i + 1; j < nNeighbors; j++)
+					{
+						long key = pairKey(neighborLabels[i], neighborLabels[j]);
+						if (key != lastKey)
+						{
+							lastPixels = this.pairMap.get(key);
+							if (lastPixels == null)
+							{
+								lastPixels = new PixelList(sizeX);
+								this.pairMap.put(key, lastPixels);
+							}
+							lastKey = key;
+						}
+						lastPixels.add(x, y);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the boundary pixels indexed from another part of the same label
+	 * image. The {@link #sortPixels()} method must be called once all the
+	 * indices have been merged.
+	 * 
+	 * @param other
+	 *            the index computed on another part of the label image
+	 */
+	void merge(BoundaryIndex other)
+	{
+		for (Map.Entry<Long, PixelList> entry : other.pairMap.entrySet())
+		{
+			PixelList pixels = this.pairMap.get(entry.getKey());
+			if (pixels == null)
+			{
+				this.pairMap.put(entry.getKey(), entry.getValue());
+			}
+			else
+			{
+				pixels.addAll(entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Sorts the boundary pixels of each pair of labels in raster order.
+	 */
+	void sortPixels()
+	{
+		for (PixelList pixels : this.pairMap.values())
+		{
+			pixels.sort();
+		}
+	}
+
+	private static final boolean contains(int[] array, int n, int value)
+	{
+		for (int i = 0; i < n; i++)
+		{
+			if (array[i] == value)
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+	// ====================================================
+	// Access methods
+
+	/**
+	 * @return the width of the indexed label image
+	 */
+	public int getWidth()
+	{
+		return this.sizeX;
+	}
+
+	/**
+	 * @return the height of the indexed label image
+	 */
+	public int getHeight()
+	{
+		return this.sizeY;
+	}
+
+	/**
+	 * @return the number of pairs of labels separated by at least one
+	 *         boundary pixel.
+	 */
+	public int pairNumber()
+	{
+		return this.pairMap.size();
+	}
+
+	/**
+	 * Checks if the two labels are separated by at least one boundary pixel.
+	 * 
+	 * @param label1
+	 *            the label of the first cell region
+	 * @param label2
+	 *            the label of the second cell region
+	 * @return true if the two regions share a boundary
+	 */
+	public boolean isAdjacent(int label1, int label2)
+	{
+		return this.pairMap.containsKey(pairKey(label1, label2));
+	}
+
+	/**
+	 * Returns the boundary pixels between the two labels, in raster order. The
+	 * order of labels does not matter.
+	 * 
+	 * @param label1
+	 *            the label of the first cell region
+	 * @param label2
+	 *            the label of the second cell region
+	 * @return the (read-only) list of boundary pixels, possibly empty
+	 */
+	public List<Point> getBoundaryPixels(int label1, int label2)
+	{
+		PixelList pixels = this.pairMap.get(pairKey(label1, label2));
+		if (pixels == null)
+		{
+			return Collections.emptyList();
+		}
+		return pixels.asPoints();
+	}
+	
+	/**
+	 * Returns the packed boundary pixels between the two labels, in raster
+	 * order. The order of labels does not matter. The returned list is shared
+	 * by all the callers, and must not be modified.
+	 * 
+	 * @param label1
+	 *            the label of the first cell region
+	 * @param label2
+	 *            the label of the second cell region
+	 * @return the list of boundary pixels, or null if the two labels are not
+	 *         adjacent
+	 */
+	public PixelList getPixelList(int label1, int label2)
+	{
+		return this.pairMap.get(pairKey(label1, label2));
+	}
+
+	/**
+	 * Computes the key associated to an unordered pair of labels.
+	 * 
+	 * @param label1
+	 *            the label of the first cell region
+	 * @param label2
+	 *            the label of the second cell region
+	 * @return a key that does not depend on the order of the labels
+	 */
+	static final long pairKey(int label1, int label2)
+	{
+		int min = Math.min(label1, label2);
+		int max = Math.max(label1, label2);
+		return (((long) min) << 32) | (max & 0xFFFFFFFFL);
+	}
+}
@@ -3,19 +3,26 @@
  */
 package ijt.cellangles;
 
-import java.awt.Point;
 import java.awt.Polygon;
+import java.awt.Rectangle;
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
-import ij.IJ;
 import ij.measure.ResultsTable;
 import ij.process.ImageProcessor;
+import ijt.cellangles.AnalysisMetricsListener.Stage;
 import ijt.geom.Geometry;
+import ijt.geom.IntBinaryConsumer;
 import ijt.geom.Polyline2D;
-import inra.ijpb.measure.region2d.Centroid;
+import ijt.util.IntHashSet;
 
 /**
  * A file of cells in a root.
@@ -42,6 +49,11 @@ public class CellFile
 	
 	boolean isLeftSide = true;
 	
+	/**
+	 * The listener notified after each stage of the computation, or null.
+	 */
+	AnalysisMetricsListener metricsListener = null;
+	
 	
 	// ====================================================
 	// Constructor
@@ -52,6 +64,19 @@ public class CellFile
 		this.isLeftSide = isLeft;
 	}
 	
+	/**
+	 * Specifies the listener notified with the time spent, the number of
+	 * visited pixels and the allocated memory after each stage of the
+	 * computation.
+	 * 
+	 * @param listener
+	 *            the listener, or null to disable the measurements
+	 */
+	public void setMetricsListener(AnalysisMetricsListener listener)
+	{
+		this.metricsListener = listener;
+	}
+	
 	
 	// ====================================================
 	// Access methods
@@ -65,31 +90,82 @@ public class CellFile
 	{
 		// Concatenates some values into ResultsTable
 		ResultsTable table = new ResultsTable();
-		for (CellsBoundary boundary : this.boundaries)
+		addToTable(table, null);
+		return table;
+	}
+	
+	/**
+	 * Adds the numerical results of this cell file at the end of an existing
+	 * Results table.
+	 * 
+	 * @param table
+	 *            the table to complete
+	 * @param cellFileName
+	 *            the name of the cell file, added in the first column of each
+	 *            row, or null if the name column should not be added
+	 */
+	public void addToTable(ResultsTable table, String cellFileName)
+	{
+		addToTable(table, 0, cellFileName);
+	}
+	
+	/**
+	 * Adds the numerical results of this cell file at the end of an existing
+	 * Results table, together with the frame the cell file was computed on.
+	 * 
+	 * @param table
+	 *            the table to complete
+	 * @param frame
+	 *            the frame number, added in the first column of each row, or
+	 *            0 if the frame column should not be added
+	 * @param cellFileName
+	 *            the name of the cell file, or null if the name column should
+	 *            not be added
+	 */
+	public void addToTable(ResultsTable table, int frame, String cellFileName)
+	{
+		for (CellsBoundary boundary : getBoundaries())
 		{
-			table.incrementCounter();
-			table.addValue("Label1", boundary.label1);
-			table.addValue("Label2", boundary.label2);
-
-			table.addValue("innerX", boundary.innerPoint.getX());
-			table.addValue("innerY", boundary.innerPoint.getY());
-			table.addValue("outerX", boundary.outerPoint.getX());
-			table.addValue("outerY", boundary.outerPoint.getY());
-			table.addValue("angle", Math.toDegrees(boundary.angle));
+			TableResultSink.addRow(table, frame, cellFileName, boundary);
 		}
-
-		return table;
 	}
 	
+	/**
+	 * Returns the boundaries that could be computed, in the order of the cell
+	 * file. All the returned boundaries have valid inner and outer points.
+	 * 
+	 * @return the valid boundaries of the cell file
+	 */
 	public Collection<CellsBoundary> getBoundaries()
+	{
+		ArrayList<CellsBoundary> validBoundaries = new ArrayList<CellsBoundary>(this.boundaries.size());
+		for (CellsBoundary bnd : this.boundaries)
+		{
+			if (bnd.isValid())
+			{
+				validBoundaries.add(bnd);
+			}
+		}
+		return validBoundaries;
+	}
+	
+	/**
+	 * Returns all the boundaries between consecutive cells, including the
+	 * ones that could not be computed. The status of each boundary can be
+	 * obtained with the <code>getStatus()</code> method.
+	 * 
+	 * @return all the boundaries of the cell file
+	 */
+	public List<CellsBoundary> getAllBoundaries()
 	{
 		return this.boundaries;
 	}
 	
 	public Collection<Point2D> getAllExtremities()
 	{
-		ArrayList<Point2D> points = new ArrayList<Point2D>(this.boundaries.size() * 2);
-		for (CellsBoundary bnd : this.boundaries)
+		Collection<CellsBoundary> validBoundaries = getBoundaries();
+		ArrayList<Point2D> points = new ArrayList<Point2D>(validBoundaries.size() * 2);
+		for (CellsBoundary bnd : validBoundaries)
 		{
 			points.add(bnd.innerPoint);
 			points.add(bnd.outerPoint);
@@ -115,6 +191,23 @@ public class CellFile
 		this.wayPoints.clear();
 		this.wayPoints.addAll(points);
 	}
+
+	/**
+	 * Sets up the list of labels of the cell file directly, for example from
+	 * the result of a {@link CellFileTracer}. In that case, there is no need
+	 * to call the computeLabelList() method.
+	 * 
+	 * @param labels
+	 *            the labels of the cells, in the order of the cell file
+	 */
+	public void setLabelList(int[] labels)
+	{
+		this.labelList.clear();
+		for (int label : labels)
+		{
+			this.labelList.add(label);
+		}
+	}
 	
 
 	// ====================================================
@@ -128,6 +221,18 @@ public class CellFile
 	 *            the image containing cell labels
 	 */
 	public List<Integer> computeLabelList(ImageProcessor labelImage)
+	{
+		return computeLabelList(LabelImageKernel.create(labelImage));
+	}
+	
+	/**
+	 * Computes the list of labels along the cell file, when traveling along the
+	 * way points within the label image accessed through a kernel.
+	 * 
+	 * @param kernel
+	 *            the kernel giving access to the cell labels
+	 */
+	public List<Integer> computeLabelList(final LabelImageKernel kernel)
 	{
 		int nPoints = this.wayPoints.size();
 		if (nPoints < 2)
@@ -135,47 +240,66 @@ public class CellFile
 			throw new IllegalArgumentException("Requires at least two way points");
 		}
 		
+		long startTime = startTime();
+		long startBytes = startBytes();
+		
 		// init result array
 		this.labelList.clear();
 		
-		// add initial point
-		Point point = intPoint(this.wayPoints.get(0));
-		
-		// iterate over the segments between the way points
-		for (int i = 1; i < nPoints; i++)
+		// visit the pixels along the polyline, and keep the first occurrence
+		// of each label
+		final IntHashSet labelSet = new IntHashSet();
+		final long[] pixelCount = new long[1];
+		IntBinaryConsumer visitor = new IntBinaryConsumer()
 		{
-			Point prev = point;
-			point = intPoint(this.wayPoints.get(i));
-			
-			// iterate over integer-coord positions between the two way points
-			for (Point p : Geometry.digitalLineSegment(prev, point))
+			@Override
+			public void accept(int x, int y)
 			{
-				int label = (int) labelImage.getf(p.x, p.y);
-				if (label != 0 && !labelList.contains(label))
+				pixelCount[0]++;
+				int label = kernel.getLabel(x, y);
+				if (label != 0 && labelSet.add(label))
 				{
 					labelList.add(label);
 				}
 			}
+		};
+		
+		// iterate over the segments between the way points
+		Point2D prev = this.wayPoints.get(0);
+		for (int i = 1; i < nPoints; i++)
+		{
+			Point2D point = this.wayPoints.get(i);
+			Geometry.traverseLine((int) prev.getX(), (int) prev.getY(), (int) point.getX(), (int) point.getY(),
+					visitor);
+			prev = point;
 		}
 		
+		fireStageCompleted(Stage.LABEL_LIST, null, startTime, startBytes, pixelCount[0]);
 		return this.labelList;
 	}
 
 	/**
-	 * Converts a point with floating point coordinates into a point with
-	 * integer coordinates.
+	 * Computes the path curve joining the centroids of the cells of the file.
 	 * 
-	 * @param point
-	 *            the point with floating point coordinates
-	 * @return the point with rounded integer coordinates
+	 * @param labelImage
+	 *            the image containing cell labels
 	 */
-	private Point intPoint(Point2D point)
+	public void computePathCurve(ImageProcessor labelImage)
 	{
-		return new Point((int) point.getX(), (int) point.getY());
+		computePathCurve(new LabelStatistics(labelImage));
 	}
-
-	public void computePathCurve(ImageProcessor labelImage)
+	
+	/**
+	 * Computes the path curve joining the centroids of the cells of the file,
+	 * using pre-computed statistics of the label image.
+	 * 
+	 * @param stats
+	 *            the statistics of the regions within the label image
+	 */
+	public void computePathCurve(LabelStatistics stats)
 	{
+		long startTime = startTime();
+		long startBytes = startBytes();
 		int nLabels = labelList.size();
 		
 		// convert label list to int array
@@ -186,7 +310,7 @@ public class CellFile
 		}
 		
 		// Compute centroid of each cell regions
-		double[][] centroids = Centroid.centroids(labelImage, labels);
+		double[][] centroids = stats.centroids(labels);
 		
 		// init list of points
 		this.pathCurve = new Polyline2D(nLabels);
@@ -196,52 +320,283 @@ public class CellFile
 		{
 			this.pathCurve.addVertex(new Point2D.Double(centroid[0], centroid[1]));
 		}
+		
+		fireStageCompleted(Stage.PATH_CURVE, null, startTime, startBytes, 0);
 	}
 	
+	/**
+	 * Computes the boundaries between consecutive cells of the file, using the
+	 * specified label image.
+	 * 
+	 * @param labelImage
+	 *            the image containing cell labels
+	 */
 	public void computeCellsBoundaries(ImageProcessor labelImage)
 	{
-		int nLabels = labelList.size();
+		computeCellsBoundaries(new BoundaryIndex(labelImage));
+	}
+	
+	/**
+	 * Computes the boundaries between consecutive cells of the file, using a
+	 * pre-computed index of boundary pixels. The same index can be used for
+	 * all the cell files of an image.
+	 * 
+	 * @param boundaryIndex
+	 *            the index of boundary pixels computed on the label image
+	 */
+	public void computeCellsBoundaries(BoundaryIndex boundaryIndex)
+	{
+		computeCellsBoundaries(boundaryIndex, null, null, null, null);
+	}
+	
+	/**
+	 * Computes the boundaries between consecutive cells of the file, using a
+	 * pre-computed index of boundary pixels, and the specified executor for
+	 * computing the boundaries concurrently. The order of the boundaries does
+	 * not depend on the order of computation.
+	 * 
+	 * @param boundaryIndex
+	 *            the index of boundary pixels computed on the label image
+	 * @param executor
+	 *            the executor used to compute each boundary (for example
+	 *            <code>ForkJoinPool.commonPool()</code>), or null for
+	 *            sequential computation
+	 */
+	public void computeCellsBoundaries(BoundaryIndex boundaryIndex, Executor executor)
+	{
+		computeCellsBoundaries(boundaryIndex, null, null, executor, null);
+	}
+	
+	/**
+	 * Computes the boundaries between consecutive cells of the file, using a
+	 * pre-computed index of boundary pixels, and notifies the specified
+	 * listener each time a boundary is available. When an executor is
+	 * specified, the progress is notified in the order of the cell file, from
+	 * the calling thread.
+	 * 
+	 * @param boundaryIndex
+	 *            the index of boundary pixels computed on the label image
+	 * @param executor
+	 *            the executor used to compute each boundary, or null for
+	 *            sequential computation
+	 * @param progressListener
+	 *            the listener notified after each boundary, or null
+	 * @throws CancellationException
+	 *             if the thread was interrupted during the computation
+	 */
+	public void computeCellsBoundaries(BoundaryIndex boundaryIndex, Executor executor,
+			ProgressListener progressListener)
+	{
+		computeCellsBoundaries(boundaryIndex, null, null, executor, progressListener);
+	}
+	
+	/**
+	 * Computes the boundaries between consecutive cells of the file, by
+	 * searching the boundary pixels within the bounding boxes of the cells.
+	 * This is more efficient than computing the boundary index when only a
+	 * few cell files are analyzed.
+	 * 
+	 * @param labelImage
+	 *            the image containing cell labels
+	 * @param stats
+	 *            the statistics of the regions within the label image
+	 */
+	public void computeCellsBoundaries(ImageProcessor labelImage, LabelStatistics stats)
+	{
+		computeCellsBoundaries(null, LabelImageKernel.create(labelImage), stats, null, null);
+	}
+	
+	/**
+	 * Computes the boundaries between consecutive cells of the file, by
+	 * searching the boundary pixels within the bounding boxes of the cells,
+	 * and using the specified executor for computing the boundaries
+	 * concurrently.
+	 * 
+	 * @param labelImage
+	 *            the image containing cell labels
+	 * @param stats
+	 *            the statistics of the regions within the label image
+	 * @param executor
+	 *            the executor used to compute each boundary, or null for
+	 *            sequential computation
+	 */
+	public void computeCellsBoundaries(ImageProcessor labelImage, LabelStatistics stats, Executor executor)
+	{
+		computeCellsBoundaries(null, LabelImageKernel.create(labelImage), stats, executor, null);
+	}
+	
+	private void computeCellsBoundaries(final BoundaryIndex boundaryIndex, final LabelImageKernel kernel,
+			final LabelStatistics stats, Executor executor, ProgressListener progressListener)
+	{
+		int nBoundaries = Math.max(labelList.size() - 1, 0);
 		
 		boundaries.clear();
-		boundaries.ensureCapacity(nLabels - 1);
-		
-		List<Point> allExtremities = new ArrayList<Point>((nLabels - 1) * 2);
-		for (int i = 0; i < nLabels - 1; i++)
-		{
-			// get the current labels
-			int label1 = labelList.get(i);
-			int label2 = labelList.get(i + 1);
-			
-			// find points located between the two labels
-			CellsBoundary boundary = new CellsBoundary(label1, label2, this.isLeftSide);
-			boundary.findBoundaryPixels(labelImage);
-			
-			// isolate boundary extremities
-			boundary.findBoundaryExtremities();
-			allExtremities.addAll(boundary.pixelList);
-			
-			// filter extremities to isolate inner and outer points
-			Point2D centroid1 = this.pathCurve.getVertex(i);
-			Point2D centroid2 = this.pathCurve.getVertex(i + 1);
-			boundary.identifyInnerAndOuterPoints(centroid1, centroid2); 
-			
-			// Check validity of inner and outer points
-			if (boundary.innerPoint == null)
+		boundaries.ensureCapacity(nBoundaries);
+		
+		if (executor == null)
+		{
+			for (int i = 0; i < nBoundaries; i++)
 			{
-				IJ.error("Inner point is null, i=" + i);
-				break;
+				CellsBoundary.checkCancelled();
+				boundaries.add(computeBoundary(i, boundaryIndex, kernel, stats));
+				if (progressListener != null)
+				{
+					progressListener.progressChanged(i + 1, nBoundaries);
+				}
 			}
-			if (boundary.outerPoint == null)
+			return;
+		}
+		
+		// submit the computation of each boundary
+		List<FutureTask<CellsBoundary>> tasks = new ArrayList<FutureTask<CellsBoundary>>(nBoundaries);
+		for (int i = 0; i < nBoundaries; i++)
+		{
+			final int index = i;
+			FutureTask<CellsBoundary> task = new FutureTask<CellsBoundary>(new Callable<CellsBoundary>()
 			{
-				IJ.error("Outer point is null, i=" + i);
-				break;
+				@Override
+				public CellsBoundary call()
+				{
+					return computeBoundary(index, boundaryIndex, kernel, stats);
+				}
+			});
+			tasks.add(task);
+			executor.execute(task);
+		}
+		
+		// collect results in the order of the cell file
+		try
+		{
+			for (FutureTask<CellsBoundary> task : tasks)
+			{
+				boundaries.add(task.get());
+				if (progressListener != null)
+				{
+					progressListener.progressChanged(boundaries.size(), nBoundaries);
+				}
 			}
-
+		}
+		catch (InterruptedException ex)
+		{
+			cancelAll(tasks);
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Computation of cell boundaries was interrupted");
+		}
+		catch (ExecutionException ex)
+		{
+			cancelAll(tasks);
+			Throwable cause = ex.getCause();
+			if (cause instanceof RuntimeException)
+			{
+				throw (RuntimeException) cause;
+			}
+			throw new RuntimeException(cause);
+		}
+	}
+	
+	private static final void cancelAll(List<? extends Future<?>> tasks)
+	{
+		for (Future<?> task : tasks)
+		{
+			task.cancel(true);
+		}
+	}
+	
+	/**
+	 * Computes the boundary between the i-th and the (i+1)-th cells. Boundary
+	 * pixels are obtained either from the index, or from the label image.
+	 * This method does not modify the state of the cell file.
+	 */
+	CellsBoundary computeBoundary(int i, BoundaryIndex boundaryIndex, LabelImageKernel kernel, LabelStatistics stats)
+	{
+		// get the current labels
+		int label1 = labelList.get(i);
+		int label2 = labelList.get(i + 1);
+		
+		// find points located between the two labels
+		long startTime = startTime();
+		long startBytes = startBytes();
+		CellsBoundary boundary = new CellsBoundary(label1, label2, this.isLeftSide);
+		long visitedPixels;
+		if (boundaryIndex != null)
+		{
+			boundary.findBoundaryPixels(boundaryIndex);
+			visitedPixels = boundary.pixelList.size();
+		}
+		else
+		{
+			boundary.findBoundaryPixels(kernel, stats);
+			Rectangle region = stats.boundarySearchRegion(label1, label2);
+			visitedPixels = region != null ? (long) region.width * region.height : 0;
+		}
+		fireStageCompleted(Stage.BOUNDARY_PIXELS, boundary, startTime, startBytes, visitedPixels);
+		if (boundary.pixelList.isEmpty())
+		{
+			boundary.status = CellsBoundary.Status.NO_BOUNDARY_PIXEL;
+			return boundary;
+		}
+		
+		// isolate boundary extremities
+		startTime = startTime();
+		startBytes = startBytes();
+		boundary.findBoundaryExtremities();
+		fireStageCompleted(Stage.BOUNDARY_EXTREMITIES, boundary, startTime, startBytes, boundary.pixelList.size());
+		
+		// filter extremities to isolate inner and outer points
+		startTime = startTime();
+		startBytes = startBytes();
+		Point2D centroid1 = this.pathCurve.getVertex(i);
+		Point2D centroid2 = this.pathCurve.getVertex(i + 1);
+		boundary.identifyInnerAndOuterPoints(centroid1, centroid2); 
+		
+		// Check validity of inner and outer points
+		if (boundary.innerPoint == null)
+		{
+			boundary.status = CellsBoundary.Status.NO_INNER_POINT;
+		}
+		else if (boundary.outerPoint == null)
+		{
+			boundary.status = CellsBoundary.Status.NO_OUTER_POINT;
+		}
+		else
+		{
 			// computes the angle between the two lines
 			boundary.computeBoundaryAngle(centroid1, centroid2);
-			
-			boundaries.add(boundary);
+			boundary.status = CellsBoundary.Status.VALID;
+		}
+		fireStageCompleted(Stage.BOUNDARY_ANGLE, boundary, startTime, startBytes, boundary.pixelList.size());
+		
+		return boundary;
+	}
+	
+	
+	// ====================================================
+	// Measurement of the computation
+
+	private long startTime()
+	{
+		return this.metricsListener != null ? System.nanoTime() : 0;
+	}
+	
+	private long startBytes()
+	{
+		return this.metricsListener != null ? AnalysisMetrics.currentThreadAllocatedBytes() : -1;
+	}
+	
+	/**
+	 * Notifies the listener, if any, of the completion of a stage that began
+	 * at the specified time and amount of allocated memory.
+	 */
+	private void fireStageCompleted(Stage stage, CellsBoundary boundary, long startTime, long startBytes,
+			long visitedPixels)
+	{
+		if (this.metricsListener == null)
+		{
+			return;
 		}
+		long elapsed = System.nanoTime() - startTime;
+		long allocated = startBytes >= 0 ? AnalysisMetrics.currentThreadAllocatedBytes() - startBytes : -1;
+		this.metricsListener.stageCompleted(stage, boundary, elapsed, visitedPixels, allocated);
 	}
 	
 }
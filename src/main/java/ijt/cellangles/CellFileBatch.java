@@ -0,0 +1,768 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import java.awt.Polygon;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.gui.PolygonRoi;
+import ij.gui.Roi;
+import ij.io.RoiDecoder;
+import ij.process.ImageProcessor;
+
+/**
+ * Headless analysis of a directory of label images, each one associated to a
+ * set of polyline ROIs saved from the RoiManager.
+ * 
+ * For each label image "name.tif", the ROIs are read from the file "name.zip"
+ * or "name_RoiSet.zip" located in the same directory. Images are processed
+ * concurrently, and the results of all the cell files are written to a single
+ * CSV file, with one row per boundary.
+ * 
+ * The tissue type and the side of each cell file are obtained from the name
+ * of the ROI, with the form "Tissue-Side" (for example "Cortex-Left"). When
+ * the name does not specify them, default values are used.
+ * 
+ * A ROI whose analysis fails is reported within the log window, and the other
+ * ROIs of the image are still processed.
+ * 
+ * @author dlegland
+ */
+public class CellFileBatch
+{
+	// ====================================================
+	// Class members
+
+	/**
+	 * The directory containing label images and ROI sets.
+	 */
+	File inputDirectory;
+
+	/**
+	 * The number of images processed concurrently.
+	 */
+	int threadCount = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * The tissue type used when it can not be obtained from the ROI name.
+	 */
+	String defaultTissueType = "Unknown";
+
+	/**
+	 * The root side used when it can not be obtained from the ROI name.
+	 */
+	boolean defaultLeftSide = true;
+
+	/**
+	 * Whether the path between cell centroids should be smoothed.
+	 */
+	boolean smoothPolyline = true;
+
+	/**
+	 * The cache used to avoid computing again the cell files that were
+	 * already analyzed, or null.
+	 */
+	ResultCache resultCache = null;
+
+	/**
+	 * The size of the tiles used for reading label images, or 0 to load each
+	 * image within memory.
+	 */
+	int tileSize = 0;
+
+	/**
+	 * The metrics aggregating the time spent within each stage of the
+	 * analysis, or null.
+	 */
+	AnalysisMetrics metrics = null;
+
+	/**
+	 * The circular statistics of the angles for each tissue type and side,
+	 * or null.
+	 */
+	AngleSummary angleSummary = null;
+
+
+	// ====================================================
+	// Constructor
+
+	/**
+	 * Creates a new batch analysis for the specified directory.
+	 * 
+	 * @param inputDirectory
+	 *            the directory containing label images and ROI sets.
+	 */
+	public CellFileBatch(File inputDirectory)
+	{
+		this.inputDirectory = inputDirectory;
+	}
+
+
+	// ====================================================
+	// Setup options
+
+	public void setThreadCount(int threadCount)
+	{
+		if (threadCount < 1)
+		{
+			throw new IllegalArgumentException("Requires at least one thread");
+		}
+		this.threadCount = threadCount;
+	}
+
+	public void setDefaultTissueType(String tissueType)
+	{
+		this.defaultTissueType = tissueType;
+	}
+
+	public void setDefaultLeftSide(boolean isLeftSide)
+	{
+		this.defaultLeftSide = isLeftSide;
+	}
+
+	public void setSmoothPolyline(boolean smoothPolyline)
+	{
+		this.smoothPolyline = smoothPolyline;
+	}
+
+	/**
+	 * Specifies a cache for the results of cell file analysis. Cell files
+	 * found within the cache are not computed again.
+	 * 
+	 * @param cache
+	 *            the result cache, or null to disable caching
+	 */
+	public void setResultCache(ResultCache cache)
+	{
+		this.resultCache = cache;
+	}
+
+
+	/**
+	 * Enables the tiled processing of label images, for images too large to
+	 * be loaded within memory. The images must be uncompressed TIFF files,
+	 * and are read through memory mapping by tiles of the specified size. In
+	 * that case, the result cache is not used. The tiles of each image are
+	 * read by a single thread, so that the number of tiles within memory is
+	 * bounded by the thread count of the batch.
+	 * 
+	 * @param tileSize
+	 *            the size of the tiles, in pixels, or 0 to load each image
+	 *            within memory
+	 * @see TiledAnalysis
+	 */
+	public void setTileSize(int tileSize)
+	{
+		if (tileSize < 0)
+		{
+			throw new IllegalArgumentException("Tile size must be positive or zero");
+		}
+		this.tileSize = tileSize;
+	}
+
+	/**
+	 * Specifies the metrics used to aggregate the time spent within each
+	 * stage of the analysis of the cell files. When metrics are specified,
+	 * the aggregated measurements are written next to the result file, in a
+	 * CSV file with the suffix "-metrics".
+	 * 
+	 * @param metrics
+	 *            the metrics to update, or null to disable the measurements
+	 */
+	public void setMetrics(AnalysisMetrics metrics)
+	{
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Specifies the summary used to compute the circular statistics of the
+	 * angles for each tissue type and side. Each image is summarized
+	 * separately, and the result is merged into the specified summary only
+	 * if the whole image could be processed. When a summary is specified, the
+	 * statistics are written next to the result file, in a CSV file with the
+	 * suffix "-angles".
+	 * 
+	 * @param summary
+	 *            the summary to update, or null to disable the statistics
+	 */
+	public void setAngleSummary(AngleSummary summary)
+	{
+		this.angleSummary = summary;
+	}
+
+
+	// ====================================================
+	// Processing methods
+
+	/**
+	 * Processes all the label images of the input directory, and writes the
+	 * results into the specified CSV file.
+	 * 
+	 * @param outputFile
+	 *            the CSV file to create
+	 * @return the number of images that were processed successfully
+	 * @throws IOException
+	 *             if the output file could not be written
+	 * @throws InterruptedException
+	 *             if the thread was interrupted while waiting for the end of
+	 *             the processing
+	 */
+	public int run(File outputFile) throws IOException, InterruptedException
+	{
+		ResultSink sink = DelimitedResultSink.createCsv(outputFile);
+		int successCount;
+		try
+		{
+			successCount = run(sink);
+		}
+		finally
+		{
+			sink.close();
+		}
+
+		if (this.metrics != null)
+		{
+			Writer metricsWriter = DelimitedResultSink.createWriter(metricsFile(outputFile));
+			try
+			{
+				this.metrics.write(metricsWriter);
+			}
+			finally
+			{
+				metricsWriter.close();
+			}
+		}
+		if (this.angleSummary != null)
+		{
+			Writer anglesWriter = DelimitedResultSink.createWriter(suffixedFile(outputFile, "-angles"));
+			try
+			{
+				this.angleSummary.write(anglesWriter);
+			}
+			finally
+			{
+				anglesWriter.close();
+			}
+		}
+
+		return successCount;
+	}
+
+	/**
+	 * Processes all the label images of the input directory, and sends the
+	 * results to the specified sink. The rows of each cell file are sent as a
+	 * single block, while holding the lock of the sink.
+	 * 
+	 * @param sink
+	 *            the sink receiving the results, that is not closed by this
+	 *            method
+	 * @return the number of images that were processed successfully
+	 * @throws InterruptedException
+	 *             if the thread was interrupted while waiting for the end of
+	 *             the processing
+	 */
+	public int run(final ResultSink sink) throws InterruptedException
+	{
+		List<File> imageFiles = findLabelImages();
+
+		final AtomicInteger successCount = new AtomicInteger(0);
+		ExecutorService executor = Executors.newFixedThreadPool(this.threadCount);
+		for (final File imageFile : imageFiles)
+		{
+			executor.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					// the angles of each image are summarized separately, then
+					// merged only if the whole image could be processed
+					AngleSummary summary = angleSummary != null ? new AngleSummary(angleSummary.binCount) : null;
+					try
+					{
+						processImage(imageFile, sink, summary);
+						if (summary != null)
+						{
+							angleSummary.merge(summary);
+						}
+						successCount.incrementAndGet();
+					}
+					catch (Exception ex)
+					{
+						IJ.log("Could not process image " + imageFile.getName() + ": " + ex);
+					}
+				}
+			});
+		}
+
+		executor.shutdown();
+		try
+		{
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		}
+		catch (InterruptedException ex)
+		{
+			// stop the workers before returning, as the caller may close the sink
+			executor.shutdownNow();
+			awaitTerminationUninterruptibly(executor);
+			throw ex;
+		}
+
+		return successCount.get();
+	}
+
+	/**
+	 * Waits for the end of the tasks of an executor, even if the current
+	 * thread is interrupted. The interrupted status is restored before
+	 * returning.
+	 */
+	private static final void awaitTerminationUninterruptibly(ExecutorService executor)
+	{
+		boolean interrupted = false;
+		while (!executor.isTerminated())
+		{
+			try
+			{
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+			}
+			catch (InterruptedException ex)
+			{
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Returns the file used to store the aggregated measurements of the
+	 * analysis, obtained by adding the suffix "-metrics" to the name of the
+	 * result file.
+	 * 
+	 * @param outputFile
+	 *            the CSV file containing the results
+	 * @return the CSV file containing the measurements
+	 */
+	public static final File metricsFile(File outputFile)
+	{
+		return suffixedFile(outputFile, "-metrics");
+	}
+
+	/**
+	 * Returns a file located next to the specified file, whose name is
+	 * obtained by adding a suffix before the extension.
+	 */
+	private static final File suffixedFile(File file, String suffix)
+	{
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		String newName = dot > 0 ? name.substring(0, dot) + suffix + name.substring(dot) : name + suffix;
+		return new File(file.getAbsoluteFile().getParentFile(), newName);
+	}
+
+	/**
+	 * @return the list of label images within the input directory, that are
+	 *         associated to a ROI set
+	 */
+	public List<File> findLabelImages()
+	{
+		File[] files = this.inputDirectory.listFiles();
+		if (files == null)
+		{
+			throw new IllegalArgumentException("Not a directory: " + this.inputDirectory);
+		}
+		Arrays.sort(files);
+
+		List<File> imageFiles = new ArrayList<File>();
+		for (File file : files)
+		{
+			String name = file.getName().toLowerCase(Locale.ENGLISH);
+			if (!(name.endsWith(".tif") || name.endsWith(".tiff")))
+			{
+				continue;
+			}
+			if (findRoiFile(file) == null)
+			{
+				IJ.log("No ROI set found for image " + file.getName());
+				continue;
+			}
+			imageFiles.add(file);
+		}
+		return imageFiles;
+	}
+
+	/**
+	 * Finds the ROI set associated to a label image.
+	 * 
+	 * @param imageFile
+	 *            the file containing the label image
+	 * @return the file containing the ROI set, or null if not found
+	 */
+	public static final File findRoiFile(File imageFile)
+	{
+		String baseName = baseName(imageFile);
+		File dir = imageFile.getParentFile();
+		for (String suffix : new String[] {".zip", "_RoiSet.zip", "-RoiSet.zip"})
+		{
+			File roiFile = new File(dir, baseName + suffix);
+			if (roiFile.isFile())
+			{
+				return roiFile;
+			}
+		}
+		return null;
+	}
+
+	private static final String baseName(File file)
+	{
+		String name = file.getName();
+		int index = name.lastIndexOf('.');
+		return index > 0 ? name.substring(0, index) : name;
+	}
+
+	/**
+	 * Computes all the cell files of a label image, and writes the results.
+	 */
+	private void processImage(File imageFile, ResultSink sink, AngleSummary summary) throws IOException
+	{
+		if (this.tileSize > 0)
+		{
+			processTiledImage(imageFile, sink, summary);
+			return;
+		}
+
+		ImagePlus imagePlus = IJ.openImage(imageFile.getPath());
+		if (imagePlus == null)
+		{
+			throw new IOException("Could not read image file");
+		}
+		ImageProcessor labelImage = imagePlus.getProcessor();
+		String imageName = imagePlus.getShortTitle();
+
+		List<Roi> rois = readRois(findRoiFile(imageFile));
+
+		// structures shared by all the cell files of the image
+		ImageAnalysisSession session = new ImageAnalysisSession(labelImage);
+		session.setMetricsListener(this.metrics);
+
+		for (Roi roi : rois)
+		{
+			if (roi.getType() != Roi.POLYLINE)
+			{
+				continue;
+			}
+
+			// retrieve meta-data from the name of the ROI
+			String roiName = roi.getName() != null ? roi.getName() : "";
+			String tissueType = parseTissueType(roiName, this.defaultTissueType);
+			boolean isLeftSide = parseLeftSide(roiName, this.defaultLeftSide);
+
+			CellFile cellFile;
+			try
+			{
+				cellFile = analyzeCellFile(session, roi, tissueType, isLeftSide);
+			}
+			catch (CancellationException ex)
+			{
+				throw ex;
+			}
+			catch (Exception ex)
+			{
+				// a failed cell file does not prevent the analysis of the others
+				logRoiFailure(imageName, roiName, ex);
+				continue;
+			}
+			writeCellFile(sink, summary, imageName, roiName, tissueType, isLeftSide, cellFile);
+		}
+	}
+
+	/**
+	 * Computes all the cell files of a label image read by tiles, and writes
+	 * the results.
+	 */
+	private void processTiledImage(File imageFile, ResultSink sink, AngleSummary summary) throws IOException
+	{
+		List<Roi> rois = readRois(findRoiFile(imageFile));
+		String imageName = baseName(imageFile);
+
+		MappedLabelImage image = MappedLabelImage.openTiff(imageFile);
+		try
+		{
+			// images are already processed concurrently, so each image uses a
+			// single thread, and the number of tiles in memory is bounded by
+			// the number of images processed concurrently
+			TiledAnalysis analysis = new TiledAnalysis(image);
+			analysis.setTileSize(this.tileSize);
+			analysis.setThreadCount(1);
+			analysis.setMetricsListener(this.metrics);
+
+			// read the tiles once for all the cell files, so that an image that
+			// can not be processed by tiles fails only once
+			analysis.getBoundaryIndex();
+
+			for (Roi roi : rois)
+			{
+				if (roi.getType() != Roi.POLYLINE)
+				{
+					continue;
+				}
+
+				// retrieve meta-data from the name of the ROI
+				String roiName = roi.getName() != null ? roi.getName() : "";
+				String tissueType = parseTissueType(roiName, this.defaultTissueType);
+				boolean isLeftSide = parseLeftSide(roiName, this.defaultLeftSide);
+
+				CellFile cellFile;
+				try
+				{
+					cellFile = analysis.analyzeCellFile(roi, tissueType, isLeftSide, this.smoothPolyline);
+				}
+				catch (CancellationException ex)
+				{
+					throw ex;
+				}
+				catch (Exception ex)
+				{
+					// a failed cell file does not prevent the analysis of the others
+					logRoiFailure(imageName, roiName, ex);
+					continue;
+				}
+				writeCellFile(sink, summary, imageName, roiName, tissueType, isLeftSide, cellFile);
+			}
+		}
+		finally
+		{
+			image.close();
+		}
+	}
+
+	static final void logRoiFailure(String imageName, String roiName, Exception ex)
+	{
+		IJ.log("Could not process ROI " + roiName + " of image " + imageName + ": " + ex);
+	}
+
+	/**
+	 * Sends the rows of a cell file to the sink, as a single block, and adds
+	 * the angles to the summary of the image, if any.
+	 */
+	private static final void writeCellFile(ResultSink sink, AngleSummary summary, String imageName,
+			String roiName, String tissueType, boolean isLeftSide, CellFile cellFile) throws IOException
+	{
+		if (summary != null)
+		{
+			summary.addCellFile(imageName, roiName, tissueType, isLeftSide, cellFile);
+		}
+		synchronized (sink)
+		{
+			sink.addCellFile(imageName, roiName, tissueType, isLeftSide, cellFile);
+		}
+	}
+
+	/**
+	 * Computes the cell file associated to a ROI, or retrieves it from the
+	 * result cache if possible.
+	 */
+	private CellFile analyzeCellFile(ImageAnalysisSession session, Roi roi, String tissueType, boolean isLeftSide)
+			throws IOException
+	{
+		if (this.resultCache == null)
+		{
+			return session.analyzeCellFile(roi, tissueType, isLeftSide, this.smoothPolyline);
+		}
+
+		Polygon polyline = ((PolygonRoi) roi).getPolygon();
+		String key = ResultCache.computeKey(session.getContentHash(), polyline, tissueType, isLeftSide,
+				this.smoothPolyline);
+		CellFile cellFile = this.resultCache.get(key);
+		if (cellFile == null)
+		{
+			cellFile = session.analyzeCellFile(roi, tissueType, isLeftSide, this.smoothPolyline);
+			try
+			{
+				this.resultCache.put(key, cellFile);
+			}
+			catch (IOException ex)
+			{
+				// the analysis succeeded, only the cache entry is missing
+				IJ.log("Could not store cell file " + roi.getName() + " within the cache: " + ex);
+			}
+		}
+		return cellFile;
+	}
+
+	/**
+	 * Reads the ROIs stored within a zip file created by the RoiManager.
+	 * 
+	 * @param roiFile
+	 *            the zip file containing the ROIs
+	 * @return the list of ROIs, in the order of the file
+	 * @throws IOException
+	 *             if the file could not be read
+	 */
+	public static final List<Roi> readRois(File roiFile) throws IOException
+	{
+		List<Roi> rois = new ArrayList<Roi>();
+		ZipInputStream zis = new ZipInputStream(new FileInputStream(roiFile));
+		try
+		{
+			ZipEntry entry;
+			while ((entry = zis.getNextEntry()) != null)
+			{
+				String entryName = entry.getName();
+				if (!entryName.endsWith(".roi"))
+				{
+					continue;
+				}
+
+				Roi roi = RoiDecoder.openFromByteArray(readAll(zis));
+				if (roi == null)
+				{
+					continue;
+				}
+				if (roi.getName() == null)
+				{
+					roi.setName(entryName.substring(0, entryName.length() - 4));
+				}
+				rois.add(roi);
+			}
+		}
+		finally
+		{
+			zis.close();
+		}
+		return rois;
+	}
+
+	private static final byte[] readAll(InputStream is) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = is.read(buffer)) > 0)
+		{
+			out.write(buffer, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Extracts the tissue type from the name of a ROI, given as the part of
+	 * the name before the first separator ('-', '_' or space). Names starting
+	 * with a digit, such as the default names given by the RoiManager, do not
+	 * specify a tissue type.
+	 * 
+	 * @param roiName
+	 *            the name of the ROI
+	 * @param defaultValue
+	 *            the value returned if the name does not specify a tissue type
+	 * @return the tissue type
+	 */
+	public static final String parseTissueType(String roiName, String defaultValue)
+	{
+		String[] tokens = roiName.split("[-_ ]");
+		if (tokens.length == 0 || tokens[0].isEmpty() || Character.isDigit(tokens[0].charAt(0))
+				|| parseSide(tokens[0]) != null)
+		{
+			return defaultValue;
+		}
+		return tokens[0];
+	}
+
+	/**
+	 * Extracts the side of the root from the name of a ROI, by looking for
+	 * one of the tokens "Left", "L", "Right" or "R" (case insensitive).
+	 * 
+	 * @param roiName
+	 *            the name of the ROI
+	 * @param defaultValue
+	 *            the value returned if the name does not specify a side
+	 * @return true if the cell file is on the left side of the root
+	 */
+	public static final boolean parseLeftSide(String roiName, boolean defaultValue)
+	{
+		String[] tokens = roiName.split("[-_ ]");
+		for (int i = tokens.length - 1; i >= 0; i--)
+		{
+			Boolean side = parseSide(tokens[i]);
+			if (side != null)
+			{
+				return side;
+			}
+		}
+		return defaultValue;
+	}
+
+	private static final Boolean parseSide(String token)
+	{
+		if (token.equalsIgnoreCase("left") || token.equalsIgnoreCase("l"))
+		{
+			return Boolean.TRUE;
+		}
+		if (token.equalsIgnoreCase("right") || token.equalsIgnoreCase("r"))
+		{
+			return Boolean.FALSE;
+		}
+		return null;
+	}
+
+
+	// ====================================================
+	// Command line entry point
+
+	/**
+	 * Runs the batch analysis from the command line.
+	 * 
+	 * Usage:
+	 * <code>CellFileBatch inputDirectory outputFile.csv [threadCount [cacheDirectory [cacheSizeInMB]]]</code>
+	 * 
+	 * @param args
+	 *            the command line arguments
+	 * @throws Exception
+	 *             if the processing failed
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		if (args.length < 2)
+		{
+			System.err.println("Usage: CellFileBatch inputDirectory outputFile.csv "
+					+ "[threadCount [cacheDirectory [cacheSizeInMB]]]");
+			System.exit(1);
+		}
+
+		CellFileBatch batch = new CellFileBatch(new File(args[0]));
+		if (args.length > 2)
+		{
+			batch.setThreadCount(Integer.parseInt(args[2]));
+		}
+		if (args.length > 3)
+		{
+			long cacheSize = args.length > 4 ? Long.parseLong(args[4]) : 1024;
+			batch.setResultCache(new ResultCache(new File(args[3]), cacheSize * 1024 * 1024));
+		}
+
+		long t0 = System.nanoTime();
+		int nImages = batch.run(new File(args[1]));
+		double elapsed = (System.nanoTime() - t0) / 1e9;
+		System.out.println(String.format(Locale.ENGLISH, "Processed %d images in %.2f s", nImages, elapsed));
+	}
+}
@@ -0,0 +1,685 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ijt.geom.Geometry;
+
+/**
+ * Detects automatically all the cell files of a label image.
+ * 
+ * The detection relies on the region adjacency graph of the image. For each
+ * cell, the forward successor is the adjacent cell whose direction (from
+ * centroid to centroid) is the most aligned with the root axis, and the
+ * backward predecessor is the one most aligned with the opposite direction.
+ * Two cells are linked when each one is the successor (respectively the
+ * predecessor) of the other, and when the angle with the root axis is small
+ * enough. The chains of linked cells form the cell files, that are then
+ * processed like the cell files drawn by the user.
+ * 
+ * The root axis is either global (principal axis of the cell centroids, or
+ * specified by the user), or estimated locally around each cell from the
+ * centroids of the cells within a given radius. The side of each cell file is
+ * determined by the sign of the cross product between the root axis and the
+ * vector from the root center to the cell file.
+ * 
+ * The search of successors and the computation of boundary angles are
+ * performed in parallel.
+ * 
+ * @author dlegland
+ */
+public class CellFileDetector
+{
+	// ====================================================
+	// Inner classes
+
+	/**
+	 * The result of the detection, with the time spent in each stage.
+	 */
+	public static class Result
+	{
+		List<CellFile> cellFiles = new ArrayList<CellFile>();
+
+		int cellCount;
+		int linkedCellCount;
+		int boundaryCount;
+
+		// computation times of the different stages, in nanoseconds
+		long graphTime;
+		long axisTime;
+		long linkTime;
+		long chainTime;
+		long angleTime;
+
+		/**
+		 * @return the detected cell files, ordered by their first cell
+		 */
+		public List<CellFile> getCellFiles()
+		{
+			return cellFiles;
+		}
+
+		/**
+		 * @return the number of cells within the image
+		 */
+		public int getCellCount()
+		{
+			return cellCount;
+		}
+
+		/**
+		 * @return the total computation time, in nanoseconds
+		 */
+		public long getTotalTime()
+		{
+			return graphTime + axisTime + linkTime + chainTime + angleTime;
+		}
+
+		/**
+		 * @return the number of processed cells per second
+		 */
+		public double getThroughput()
+		{
+			return cellCount * 1e9 / Math.max(getTotalTime(), 1);
+		}
+
+		/**
+		 * @return a summary of the detection and of its throughput
+		 */
+		@Override
+		public String toString()
+		{
+			return String.format(Locale.ENGLISH,
+					"Detected %d cell files (%d of %d cells, %d boundaries) in %.1f ms, %.0f cells/s "
+					+ "[graph %.1f ms, axis %.1f ms, links %.1f ms, chains %.1f ms, angles %.1f ms]",
+					cellFiles.size(), linkedCellCount, cellCount, boundaryCount, getTotalTime() / 1e6,
+					getThroughput(), graphTime / 1e6, axisTime / 1e6, linkTime / 1e6, chainTime / 1e6,
+					angleTime / 1e6);
+		}
+	}
+
+
+	// ====================================================
+	// Class members
+
+	/**
+	 * The session giving access to the data computed on the label image.
+	 */
+	ImageAnalysisSession session;
+
+	/**
+	 * The maximum angle between two successive cells of a file and the root
+	 * axis, in degrees.
+	 */
+	double maxAngle = 30.0;
+
+	/**
+	 * The minimum number of cells of a file.
+	 */
+	int minCellCount = 3;
+
+	/**
+	 * The radius of the neighborhood used for estimating the local root
+	 * axis, or 0 for using a global axis.
+	 */
+	double axisRadius = 0;
+
+	/**
+	 * The direction of the root axis specified by the user, or null to use
+	 * the principal axis of cell centroids.
+	 */
+	double[] rootAxis = null;
+
+	String tissueTypeName = "Auto";
+
+	boolean smoothPolyline = true;
+
+	int threadCount = Runtime.getRuntime().availableProcessors();
+
+
+	// ====================================================
+	// Constructor
+
+	/**
+	 * Creates a new detector of cell files working on the label image of the
+	 * specified session.
+	 * 
+	 * @param session
+	 *            the session giving access to the label image and to the
+	 *            data computed on it
+	 */
+	public CellFileDetector(ImageAnalysisSession session)
+	{
+		this.session = session;
+	}
+
+
+	// ====================================================
+	// Access methods
+
+	/**
+	 * @param maxAngle
+	 *            the maximum angle between two successive cells of a file and
+	 *            the root axis, in degrees
+	 */
+	public void setMaxAngle(double maxAngle)
+	{
+		this.maxAngle = maxAngle;
+	}
+
+	/**
+	 * @param minCellCount
+	 *            the minimum number of cells of a detected file
+	 */
+	public void setMinCellCount(int minCellCount)
+	{
+		this.minCellCount = Math.max(minCellCount, 2);
+	}
+
+	/**
+	 * @param radius
+	 *            the radius of the neighborhood used for estimating the local
+	 *            root axis, or 0 to use a single global axis
+	 */
+	public void setAxisRadius(double radius)
+	{
+		this.axisRadius = radius;
+	}
+
+	/**
+	 * Specifies the direction of the root axis. The left and right sides of
+	 * the root are defined with respect to this direction.
+	 * 
+	 * @param dx
+	 *            the x-component of the root axis direction
+	 * @param dy
+	 *            the y-component of the root axis direction
+	 */
+	public void setRootAxis(double dx, double dy)
+	{
+		double norm = Math.hypot(dx, dy);
+		this.rootAxis = new double[] {dx / norm, dy / norm};
+	}
+
+	public void setTissueTypeName(String tissueTypeName)
+	{
+		this.tissueTypeName = tissueTypeName;
+	}
+
+	public void setSmoothPolyline(boolean smoothPolyline)
+	{
+		this.smoothPolyline = smoothPolyline;
+	}
+
+	public void setThreadCount(int threadCount)
+	{
+		this.threadCount = Math.max(threadCount, 1);
+	}
+
+
+	// ====================================================
+	// Detection methods
+
+	/**
+	 * Detects the cell files of the label image, and computes the angles of
+	 * their boundaries.
+	 * 
+	 * @return the result of the detection
+	 * @throws CancellationException
+	 *             if the thread was interrupted during the detection
+	 */
+	public Result detect()
+	{
+		Result result = new Result();
+		ExecutorService executor = Executors.newFixedThreadPool(this.threadCount);
+		try
+		{
+			long t0 = System.nanoTime();
+			final RegionAdjacencyGraph graph = session.getAdjacencyGraph();
+			final LabelStatistics stats = session.getLabelStatistics();
+			final BoundaryIndex index = session.getBoundaryIndex();
+			int nNodes = graph.nodeCount();
+			result.cellCount = nNodes;
+			long t1 = System.nanoTime();
+			result.graphTime = t1 - t0;
+
+			// estimate the root axis
+			double[] center = new double[2];
+			double[] globalAxis = globalAxis(graph, center);
+			final double[][] axes = this.axisRadius > 0 ? localAxes(graph, globalAxis, executor) : null;
+			long t2 = System.nanoTime();
+			result.axisTime = t2 - t1;
+
+			// find the best successor and predecessor of each node
+			final int[] successors = new int[nNodes];
+			final int[] predecessors = new int[nNodes];
+			final double minCos = Math.cos(Math.toRadians(this.maxAngle));
+			final double[] axis0 = globalAxis;
+			runInParallel(executor, nNodes, new RangeTask()
+			{
+				@Override
+				public void run(int start, int end)
+				{
+					for (int node = start; node < end; node++)
+					{
+						double[] axis = axes != null ? axes[node] : axis0;
+						successors[node] = bestNeighbor(graph, node, axis[0], axis[1], minCos);
+						predecessors[node] = bestNeighbor(graph, node, -axis[0], -axis[1], minCos);
+					}
+				}
+			});
+			long t3 = System.nanoTime();
+			result.linkTime = t3 - t2;
+
+			// build the chains of mutually linked nodes
+			List<int[]> chains = buildChains(graph, successors, predecessors);
+			long t4 = System.nanoTime();
+			result.chainTime = t4 - t3;
+
+			// compute the cell files and their boundaries
+			List<Future<CellFile>> futures = new ArrayList<Future<CellFile>>(chains.size());
+			for (final int[] chain : chains)
+			{
+				final boolean isLeftSide = isLeftSide(graph, chain, center, globalAxis);
+				futures.add(executor.submit(new Callable<CellFile>()
+				{
+					@Override
+					public CellFile call()
+					{
+						return createCellFile(chain, isLeftSide, stats, index);
+					}
+				}));
+			}
+			for (Future<CellFile> future : futures)
+			{
+				CellFile cellFile = getResult(future);
+				result.cellFiles.add(cellFile);
+				result.linkedCellCount += cellFile.labelList.size();
+				result.boundaryCount += cellFile.getBoundaries().size();
+			}
+			result.angleTime = System.nanoTime() - t4;
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Computes the principal axis of the centroids of the cells, and stores
+	 * the center of the centroids in the second argument. If the root axis
+	 * was specified, it is returned instead of the principal axis.
+	 */
+	private double[] globalAxis(RegionAdjacencyGraph graph, double[] center)
+	{
+		int n = graph.nodeCount();
+		double[] xs = new double[n];
+		double[] ys = new double[n];
+		for (int i = 0; i < n; i++)
+		{
+			xs[i] = graph.getCentroidX(i);
+			ys[i] = graph.getCentroidY(i);
+		}
+		double[] axis = principalAxis(xs, ys, 0, n, center);
+		if (this.rootAxis != null)
+		{
+			return this.rootAxis;
+		}
+		if (axis == null)
+		{
+			return new double[] {1, 0};
+		}
+		// orient towards increasing x (or increasing y for vertical roots)
+		if (axis[0] < 0 || (axis[0] == 0 && axis[1] < 0))
+		{
+			axis[0] = -axis[0];
+			axis[1] = -axis[1];
+		}
+		return axis;
+	}
+
+	/**
+	 * Computes the principal axis of the cell centroids within the
+	 * neighborhood of each cell.
+	 */
+	private double[][] localAxes(final RegionAdjacencyGraph graph, final double[] globalAxis, ExecutorService executor)
+	{
+		final int n = graph.nodeCount();
+		final double radius = this.axisRadius;
+
+		// bucket the nodes within a regular grid with the size of the radius
+		double xMin = Double.POSITIVE_INFINITY, yMin = Double.POSITIVE_INFINITY;
+		double xMax = Double.NEGATIVE_INFINITY, yMax = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < n; i++)
+		{
+			xMin = Math.min(xMin, graph.getCentroidX(i));
+			xMax = Math.max(xMax, graph.getCentroidX(i));
+			yMin = Math.min(yMin, graph.getCentroidY(i));
+			yMax = Math.max(yMax, graph.getCentroidY(i));
+		}
+		final double x0 = xMin;
+		final double y0 = yMin;
+		final int gridSizeX = (int) ((xMax - xMin) / radius) + 1;
+		final int gridSizeY = (int) ((yMax - yMin) / radius) + 1;
+
+		final int[] gridStarts = new int[gridSizeX * gridSizeY + 1];
+		int[] cellIndices = new int[n];
+		for (int i = 0; i < n; i++)
+		{
+			int gx = (int) ((graph.getCentroidX(i) - x0) / radius);
+			int gy = (int) ((graph.getCentroidY(i) - y0) / radius);
+			cellIndices[i] = gy * gridSizeX + gx;
+			gridStarts[cellIndices[i] + 1]++;
+		}
+		for (int c = 0; c < gridSizeX * gridSizeY; c++)
+		{
+			gridStarts[c + 1] += gridStarts[c];
+		}
+		final int[] gridNodes = new int[n];
+		int[] positions = Arrays.copyOf(gridStarts, gridSizeX * gridSizeY);
+		for (int i = 0; i < n; i++)
+		{
+			gridNodes[positions[cellIndices[i]]++] = i;
+		}
+
+		final double[][] axes = new double[n][];
+		runInParallel(executor, n, new RangeTask()
+		{
+			@Override
+			public void run(int start, int end)
+			{
+				double[] xs = new double[64];
+				double[] ys = new double[64];
+				double r2 = radius * radius;
+				for (int node = start; node < end; node++)
+				{
+					double x = graph.getCentroidX(node);
+					double y = graph.getCentroidY(node);
+					int gx = (int) ((x - x0) / radius);
+					int gy = (int) ((y - y0) / radius);
+
+					// collect the centroids within the radius
+					int count = 0;
+					for (int iy = Math.max(gy - 1, 0); iy <= Math.min(gy + 1, gridSizeY - 1); iy++)
+					{
+						for (int ix = Math.max(gx - 1, 0); ix <= Math.min(gx + 1, gridSizeX - 1); ix++)
+						{
+							int c = iy * gridSizeX + ix;
+							for (int k = gridStarts[c]; k < gridStarts[c + 1]; k++)
+							{
+								int other = gridNodes[k];
+								double dx = graph.getCentroidX(other) - x;
+								double dy = graph.getCentroidY(other) - y;
+								if (dx * dx + dy * dy > r2) continue;
+								if (count == xs.length)
+								{
+									xs = Arrays.copyOf(xs, count * 2);
+									ys = Arrays.copyOf(ys, count * 2);
+								}
+								xs[count] = x + dx;
+								ys[count] = y + dy;
+								count++;
+							}
+						}
+					}
+
+					double[] axis = count >= 3 ? principalAxis(xs, ys, 0, count, null) : null;
+					if (axis == null)
+					{
+						axis = globalAxis;
+					}
+					else if (axis[0] * globalAxis[0] + axis[1] * globalAxis[1] < 0)
+					{
+						// orient consistently with the global axis
+						axis[0] = -axis[0];
+						axis[1] = -axis[1];
+					}
+					axes[node] = axis;
+				}
+			}
+		});
+		return axes;
+	}
+
+	/**
+	 * Computes the direction of the principal axis of a set of points, or
+	 * null if the points are isotropic. If center is not null, it is used to
+	 * store the mean of the points.
+	 */
+	private static final double[] principalAxis(double[] xs, double[] ys, int start, int end, double[] center)
+	{
+		int n = end - start;
+		if (n == 0)
+		{
+			return null;
+		}
+		double mx = 0, my = 0;
+		for (int i = start; i < end; i++)
+		{
+			mx += xs[i];
+			my += ys[i];
+		}
+		mx /= n;
+		my /= n;
+		if (center != null)
+		{
+			center[0] = mx;
+			center[1] = my;
+		}
+
+		double sxx = 0, syy = 0, sxy = 0;
+		for (int i = start; i < end; i++)
+		{
+			double dx = xs[i] - mx;
+			double dy = ys[i] - my;
+			sxx += dx * dx;
+			syy += dy * dy;
+			sxy += dx * dy;
+		}
+		if (Math.abs(sxx - syy) < 1e-12 && Math.abs(sxy) < 1e-12)
+		{
+			return null;
+		}
+		double theta = 0.5 * Math.atan2(2 * sxy, sxx - syy);
+		return new double[] {Math.cos(theta), Math.sin(theta)};
+	}
+
+	/**
+	 * Returns the neighbor of a node whose direction is the most aligned with
+	 * the specified direction, or -1 if no neighbor makes an angle smaller
+	 * than the maximum angle.
+	 */
+	private static final int bestNeighbor(RegionAdjacencyGraph graph, int node, double dirX, double dirY, double minCos)
+	{
+		double x = graph.getCentroidX(node);
+		double y = graph.getCentroidY(node);
+
+		int best = -1;
+		double bestCos = minCos;
+		int degree = graph.degree(node);
+		for (int k = 0; k < degree; k++)
+		{
+			int neighbor = graph.neighbor(node, k);
+			double dx = graph.getCentroidX(neighbor) - x;
+			double dy = graph.getCentroidY(neighbor) - y;
+			double dist = Math.hypot(dx, dy);
+			if (dist == 0)
+			{
+				continue;
+			}
+			double cos = (dx * dirX + dy * dirY) / dist;
+			if (cos >= bestCos)
+			{
+				best = neighbor;
+				bestCos = cos;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Builds the chains of nodes linked by mutual successor and predecessor
+	 * relationships, and returns the chains with enough cells, as arrays of
+	 * labels.
+	 */
+	private List<int[]> buildChains(RegionAdjacencyGraph graph, int[] successors, int[] predecessors)
+	{
+		int n = successors.length;
+
+		// keep only mutual links
+		int[] next = new int[n];
+		boolean[] hasPrevious = new boolean[n];
+		for (int node = 0; node < n; node++)
+		{
+			int succ = successors[node];
+			next[node] = succ >= 0 && predecessors[succ] == node ? succ : -1;
+			if (next[node] >= 0)
+			{
+				hasPrevious[next[node]] = true;
+			}
+		}
+
+		// follow the links from each chain head
+		List<int[]> chains = new ArrayList<int[]>();
+		boolean[] visited = new boolean[n];
+		int[] buffer = new int[16];
+		for (int head = 0; head < n; head++)
+		{
+			if (hasPrevious[head] || next[head] < 0)
+			{
+				continue;
+			}
+
+			int count = 0;
+			for (int node = head; node >= 0 && !visited[node]; node = next[node])
+			{
+				visited[node] = true;
+				if (count == buffer.length)
+				{
+					buffer = Arrays.copyOf(buffer, count * 2);
+				}
+				buffer[count++] = graph.getLabel(node);
+			}
+			if (count >= this.minCellCount)
+			{
+				chains.add(Arrays.copyOf(buffer, count));
+			}
+		}
+		return chains;
+	}
+
+	/**
+	 * Checks whether a chain of cells is on the left side of the root, by
+	 * using the sign of the cross product between the root axis and the
+	 * vector from the root center to the mean of the cell centroids.
+	 */
+	private static final boolean isLeftSide(RegionAdjacencyGraph graph, int[] chain, double[] center, double[] axis)
+	{
+		double x = 0, y = 0;
+		for (int label : chain)
+		{
+			int node = graph.nodeIndex(label);
+			x += graph.getCentroidX(node);
+			y += graph.getCentroidY(node);
+		}
+		Point2D fileCenter = new Point2D.Double(x / chain.length, y / chain.length);
+		Point2D p1 = new Point2D.Double(center[0], center[1]);
+		Point2D p2 = new Point2D.Double(center[0] + axis[0], center[1] + axis[1]);
+		return Geometry.isLeftSide(fileCenter, p1, p2);
+	}
+
+	/**
+	 * Computes the cell file corresponding to a chain of labels.
+	 */
+	private CellFile createCellFile(int[] labels, boolean isLeftSide, LabelStatistics stats, BoundaryIndex index)
+	{
+		CellFile cellFile = new CellFile(this.tissueTypeName, isLeftSide);
+		cellFile.setLabelList(labels);
+		cellFile.computePathCurve(stats);
+		cellFile.setWayPoint(cellFile.pathCurve.vertices());
+		if (this.smoothPolyline)
+		{
+			cellFile.pathCurve = cellFile.pathCurve.smooth();
+		}
+		cellFile.computeCellsBoundaries(index);
+		return cellFile;
+	}
+
+
+	// ====================================================
+	// Utility methods for parallel computation
+
+	/**
+	 * A computation over a range of indices.
+	 */
+	private interface RangeTask
+	{
+		public void run(int start, int end);
+	}
+
+	/**
+	 * Splits the range of indices into chunks, and processes the chunks in
+	 * parallel.
+	 */
+	private void runInParallel(ExecutorService executor, int n, final RangeTask task)
+	{
+		int nChunks = Math.min(this.threadCount * 4, Math.max(n / 256, 1));
+		List<Future<?>> futures = new ArrayList<Future<?>>(nChunks);
+		for (int c = 0; c < nChunks; c++)
+		{
+			final int start = (int) ((long) n * c / nChunks);
+			final int end = (int) ((long) n * (c + 1) / nChunks);
+			futures.add(executor.submit(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					task.run(start, end);
+				}
+			}));
+		}
+		for (Future<?> future : futures)
+		{
+			getResult(future);
+		}
+	}
+
+	/**
+	 * Waits for the result of a future, and converts the checked exceptions.
+	 */
+	private static final <T> T getResult(Future<T> future)
+	{
+		try
+		{
+			return future.get();
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Detection of cell files was interrupted");
+		}
+		catch (ExecutionException ex)
+		{
+			Throwable cause = ex.getCause();
+			if (cause instanceof RuntimeException)
+			{
+				throw (RuntimeException) cause;
+			}
+			throw new RuntimeException(cause);
+		}
+	}
+}
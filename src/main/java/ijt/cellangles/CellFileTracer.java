@@ -0,0 +1,301 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import java.util.Arrays;
+
+/**
+ * Finds the chain of cells joining two cells, by computing the shortest path
+ * within the region adjacency graph of the label image.
+ * 
+ * The cost of a step between two adjacent cells is the distance between
+ * their centroids, multiplied by a penalty that increases with the angle
+ * between the step and the direction joining the start and end cells:
+ * <code>cost = dist * (1 + w * (1 - cos(angle)))</code>, where w is the
+ * straightness weight. The shortest path is found with the A* algorithm,
+ * using the distance to the end cell as heuristic.
+ * 
+ * The working arrays are allocated once and reused for each tracing, so
+ * that tracing many cell files on the same image is fast. Tracing methods
+ * are synchronized, as the working arrays can not be shared between
+ * threads.
+ * 
+ * @author dlegland
+ */
+public class CellFileTracer
+{
+	// ====================================================
+	// Class members
+
+	/**
+	 * The adjacency graph of the cells.
+	 */
+	RegionAdjacencyGraph graph;
+
+	/**
+	 * The weight of the penalty for steps that deviate from the direction of
+	 * the cell file. A value of 0 gives the path with the shortest length.
+	 */
+	double straightnessWeight = 2.0;
+
+	// working arrays, indexed by node. The values of a node are valid only
+	// if its stamp equals the current generation.
+	int[] stamps;
+	int generation = 0;
+	double[] costs;
+	int[] parents;
+	boolean[] closed;
+
+	// the priority queue of nodes to process, as a binary heap
+	double[] heapPriorities = new double[64];
+	int[] heapNodes = new int[64];
+	int heapSize = 0;
+
+
+	// ====================================================
+	// Constructor
+
+	/**
+	 * Creates a new tracer working on the specified adjacency graph.
+	 * 
+	 * @param graph
+	 *            the adjacency graph of the cells of a label image
+	 */
+	public CellFileTracer(RegionAdjacencyGraph graph)
+	{
+		this.graph = graph;
+		int nNodes = graph.nodeCount();
+		this.stamps = new int[nNodes];
+		this.costs = new double[nNodes];
+		this.parents = new int[nNodes];
+		this.closed = new boolean[nNodes];
+	}
+
+
+	// ====================================================
+	// Access methods
+
+	public double getStraightnessWeight()
+	{
+		return straightnessWeight;
+	}
+
+	/**
+	 * Changes the weight of the penalty for steps that deviate from the
+	 * direction of the cell file.
+	 * 
+	 * @param weight
+	 *            the new weight, positive or zero
+	 */
+	public synchronized void setStraightnessWeight(double weight)
+	{
+		if (weight < 0)
+		{
+			throw new IllegalArgumentException("Straightness weight must be positive or zero");
+		}
+		this.straightnessWeight = weight;
+	}
+
+
+	// ====================================================
+	// Tracing methods
+
+	/**
+	 * Finds the chain of cells between two cells.
+	 * 
+	 * @param startLabel
+	 *            the label of the first cell of the file
+	 * @param endLabel
+	 *            the label of the last cell of the file
+	 * @return the labels of the cells of the file, from the start cell to the
+	 *         end cell, or null if the two cells are not connected
+	 * @throws IllegalArgumentException
+	 *             if one of the labels is not within the image
+	 */
+	public synchronized int[] traceLabels(int startLabel, int endLabel)
+	{
+		int start = graph.nodeIndex(startLabel);
+		if (start < 0)
+		{
+			throw new IllegalArgumentException("Label not found: " + startLabel);
+		}
+		int end = graph.nodeIndex(endLabel);
+		if (end < 0)
+		{
+			throw new IllegalArgumentException("Label not found: " + endLabel);
+		}
+
+		if (!findPath(start, end))
+		{
+			return null;
+		}
+
+		// count the nodes of the path
+		int n = 1;
+		for (int node = end; node != start; node = parents[node])
+		{
+			n++;
+		}
+
+		// convert the path into labels, from start to end
+		int[] labels = new int[n];
+		int node = end;
+		for (int i = n - 1; i >= 0; i--)
+		{
+			labels[i] = graph.getLabel(node);
+			node = parents[node];
+		}
+		return labels;
+	}
+
+	/**
+	 * Runs the A* algorithm between two nodes, and stores the parent of each
+	 * node of the path.
+	 * 
+	 * @return true if a path was found
+	 */
+	private boolean findPath(int start, int end)
+	{
+		// invalidate the values of the previous search
+		if (++generation == Integer.MAX_VALUE)
+		{
+			Arrays.fill(stamps, 0);
+			generation = 1;
+		}
+		heapSize = 0;
+
+		// unit vector of the cell file direction
+		double endX = graph.getCentroidX(end);
+		double endY = graph.getCentroidY(end);
+		double dirX = endX - graph.getCentroidX(start);
+		double dirY = endY - graph.getCentroidY(start);
+		double norm = Math.hypot(dirX, dirY);
+		if (norm > 0)
+		{
+			dirX /= norm;
+			dirY /= norm;
+		}
+
+		visit(start, 0.0, -1);
+		push(start, norm);
+
+		while (heapSize > 0)
+		{
+			int node = pop();
+			if (closed[node])
+			{
+				continue;
+			}
+			if (node == end)
+			{
+				return true;
+			}
+			closed[node] = true;
+
+			double x = graph.getCentroidX(node);
+			double y = graph.getCentroidY(node);
+			double cost = costs[node];
+
+			int degree = graph.degree(node);
+			for (int k = 0; k < degree; k++)
+			{
+				int neighbor = graph.neighbor(node, k);
+				if (stamps[neighbor] == generation && closed[neighbor])
+				{
+					continue;
+				}
+
+				// cost of the step, penalized by the deviation from the file direction
+				double dx = graph.getCentroidX(neighbor) - x;
+				double dy = graph.getCentroidY(neighbor) - y;
+				double dist = Math.hypot(dx, dy);
+				double cosAngle = dist > 0 ? (dx * dirX + dy * dirY) / dist : 1.0;
+				double newCost = cost + dist * (1 + straightnessWeight * (1 - cosAngle));
+
+				if (stamps[neighbor] != generation || newCost < costs[neighbor])
+				{
+					visit(neighbor, newCost, node);
+					double h = Math.hypot(endX - graph.getCentroidX(neighbor), endY - graph.getCentroidY(neighbor));
+					push(neighbor, newCost + h);
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Updates the cost and the parent of a node.
+	 */
+	private void visit(int node, double cost, int parent)
+	{
+		if (stamps[node] != generation)
+		{
+			stamps[node] = generation;
+			closed[node] = false;
+		}
+		costs[node] = cost;
+		parents[node] = parent;
+	}
+
+
+	// ====================================================
+	// Management of the priority queue
+
+	private void push(int node, double priority)
+	{
+		if (heapSize == heapNodes.length)
+		{
+			heapNodes = Arrays.copyOf(heapNodes, heapSize * 2);
+			heapPriorities = Arrays.copyOf(heapPriorities, heapSize * 2);
+		}
+
+		// move up the new element
+		int pos = heapSize++;
+		while (pos > 0)
+		{
+			int parent = (pos - 1) / 2;
+			if (heapPriorities[parent] <= priority)
+			{
+				break;
+			}
+			heapNodes[pos] = heapNodes[parent];
+			heapPriorities[pos] = heapPriorities[parent];
+			pos = parent;
+		}
+		heapNodes[pos] = node;
+		heapPriorities[pos] = priority;
+	}
+
+	private int pop()
+	{
+		int result = heapNodes[0];
+
+		// move down the last element
+		int node = heapNodes[--heapSize];
+		double priority = heapPriorities[heapSize];
+		int pos = 0;
+		while (true)
+		{
+			int child = 2 * pos + 1;
+			if (child >= heapSize)
+			{
+				break;
+			}
+			if (child + 1 < heapSize && heapPriorities[child + 1] < heapPriorities[child])
+			{
+				child++;
+			}
+			if (priority <= heapPriorities[child])
+			{
+				break;
+			}
+			heapNodes[pos] = heapNodes[child];
+			heapPriorities[pos] = heapPriorities[child];
+			pos = child;
+		}
+		heapNodes[pos] = node;
+		heapPriorities[pos] = priority;
+		return result;
+	}
+}
@@ -11,8 +11,13 @@ import java.awt.Point;
 import java.awt.Polygon;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.geom.GeneralPath;
 import java.awt.geom.Point2D;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.BorderFactory;
 import javax.swing.BoxLayout;
@@ -22,6 +27,7 @@ import javax.swing.JComboBox;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
+import javax.swing.SwingWorker;
 
 import ij.IJ;
 import ij.ImagePlus;
@@ -31,10 +37,14 @@ import ij.gui.GUI;
 import ij.gui.Line;
 import ij.gui.OvalRoi;
 import ij.gui.Overlay;
+import ij.gui.PointRoi;
 import ij.gui.PolygonRoi;
 import ij.gui.Roi;
+import ij.gui.RoiListener;
+import ij.gui.ShapeRoi;
 import ij.measure.ResultsTable;
 import ij.plugin.frame.PlugInFrame;
+import ij.plugin.frame.RoiManager;
 import ij.process.ImageProcessor;
 import ijt.geom.Polyline2D;
 
@@ -57,20 +67,63 @@ public class Cell_File_Angles extends PlugInFrame
 		RIGHT
 	};
 	
+	/**
+	 * The colors used for drawing the boundary edges of successive cell files
+	 * with the compact overlay.
+	 */
+	static final Color[] CELL_FILE_COLORS = new Color[] {
+		Color.GREEN, Color.CYAN, Color.YELLOW, Color.MAGENTA, Color.ORANGE, Color.BLUE, Color.PINK, Color.WHITE};
+	
+	/**
+	 * The suffix of the name of the ROIs containing the boundary edges of a
+	 * cell file with the compact overlay.
+	 */
+	static final String COMPACT_EDGES_SUFFIX = "-edges";
+	
+	/**
+	 * The suffix of the name of the ROIs containing the path of a cell file
+	 * with the compact overlay. Each cell file has exactly one such ROI.
+	 */
+	static final String COMPACT_PATH_SUFFIX = "-path";
+	
 	// processing options
 	JComboBox<String> tissueTypeCombo;
 	JTextField tissueTypeTextField;
 	JComboBox<String> rootSideCombo;
 	JCheckBox smoothPolylineCheckBox;
+	JCheckBox liveUpdateCheckBox;
 
 	// result display management
 	JCheckBox showTableCheckBox;
 	JCheckBox showLogCheckBox;
 	JCheckBox showOverlayCheckBox;
+	JCheckBox compactOverlayCheckBox;
 	JLabel imageToOverlayLabel;
 	JComboBox<String> imageToOverlayCombo;
 	
 	JButton processCurrentRoiButton;
+	JButton processAllRoisButton;
+	JButton processStackButton;
+	JButton detectCellFilesButton;
+	JButton cancelButton;
+	
+	/**
+	 * Keeps data computed on the current label image, to speed up the
+	 * analysis of several cell files.
+	 */
+	ImageAnalysisSession session = null;
+	
+	/**
+	 * Updates the results while the polyline is edited, or null if the live
+	 * update is disabled.
+	 */
+	LiveCellFileEditor liveEditor = null;
+	
+	/**
+	 * The worker running the current action of the plugin in the background,
+	 * or null if no analysis is running.
+	 */
+	AnalysisWorker<?> analysisWorker = null;
 	
 	public Cell_File_Angles()
 	{
@@ -99,6 +152,15 @@ public class Cell_File_Angles extends PlugInFrame
 		this.rootSideCombo.addItem("Right Side of Root");
 
 		this.smoothPolylineCheckBox = new JCheckBox("Smooth Polyline", true);
+		this.liveUpdateCheckBox = new JCheckBox("Live Update while Editing", false);
+		this.liveUpdateCheckBox.addActionListener(new ActionListener() 
+		{
+			@Override
+			public void actionPerformed(ActionEvent evt)
+			{
+				updateLiveEditor();
+			}
+		});
 		
 		this.showTableCheckBox = new JCheckBox("Show Results in Table", true);
 		this.showLogCheckBox = new JCheckBox("Show Result in Log", true);
@@ -111,6 +173,7 @@ public class Cell_File_Angles extends PlugInFrame
 				updateImageToOverlayComboState();
 			}
 		});
+		this.compactOverlayCheckBox = new JCheckBox("Compact Overlay (one color per file)", false);
 		this.imageToOverlayLabel = new JLabel("Image to Overlay: ");
 		this.imageToOverlayCombo = new JComboBox<String>();
 		this.imageToOverlayCombo.addItem("Image 1 sfs sf sf sdf d sdf s fsd fsd sd");
@@ -126,6 +189,43 @@ public class Cell_File_Angles extends PlugInFrame
 				runAnalysis();
 			}
 		});
+		this.processAllRoisButton = new JButton("Process All Rois");
+		this.processAllRoisButton.addActionListener(new ActionListener() 
+		{
+			@Override
+			public void actionPerformed(ActionEvent evt)
+			{
+				runAnalysisOnAllRois();
+			}
+		});
+		this.processStackButton = new JButton("Process Stack");
+		this.processStackButton.addActionListener(new ActionListener() 
+		{
+			@Override
+			public void actionPerformed(ActionEvent evt)
+			{
+				runStackAnalysis();
+			}
+		});
+		this.detectCellFilesButton = new JButton("Detect Cell Files");
+		this.detectCellFilesButton.addActionListener(new ActionListener() 
+		{
+			@Override
+			public void actionPerformed(ActionEvent evt)
+			{
+				runDetection();
+			}
+		});
+		this.cancelButton = new JButton("Cancel");
+		this.cancelButton.setEnabled(false);
+		this.cancelButton.addActionListener(new ActionListener() 
+		{
+			@Override
+			public void actionPerformed(ActionEvent evt)
+			{
+				cancelAnalysis();
+			}
+		});
 	}
 	
 	private void setupLayout()
@@ -140,18 +240,21 @@ public class Cell_File_Angles extends PlugInFrame
 		
 		JPanel processingPanel = createOptionsPanel("Processing Options");
 		addInLine(processingPanel, this.smoothPolylineCheckBox);
+		addInLine(processingPanel, this.liveUpdateCheckBox);
 
 		JPanel displayOptionsPanel = createOptionsPanel("Display Options");
 		addInLine(displayOptionsPanel, this.showTableCheckBox);
 		addInLine(displayOptionsPanel, this.showLogCheckBox);
 		addInLine(displayOptionsPanel, this.showOverlayCheckBox);
+		addInLine(displayOptionsPanel, this.compactOverlayCheckBox);
 		addInLine(displayOptionsPanel, this.imageToOverlayLabel, this.imageToOverlayCombo);
 		
 		mainPanel.add(metaDataPanel);
 		mainPanel.add(processingPanel);
 		mainPanel.add(displayOptionsPanel);
 		
-		addInLine(mainPanel, FlowLayout.CENTER, processCurrentRoiButton);
+		addInLine(mainPanel, FlowLayout.CENTER, processCurrentRoiButton, processAllRoisButton, processStackButton);
+		addInLine(mainPanel, FlowLayout.CENTER, detectCellFilesButton, cancelButton);
 		
 		this.setLayout(new BorderLayout());
 		this.add(mainPanel, BorderLayout.CENTER);
@@ -194,8 +297,6 @@ public class Cell_File_Angles extends PlugInFrame
 			IJ.error("No image", "Need at least one image to work");
 			return;
 		}
-		ImageProcessor labelImage = labelImagePlus.getProcessor();
-		
 		
 		// extract current ROI, and check it has a valid type
 		Roi roi = labelImagePlus.getRoi();
@@ -210,48 +311,516 @@ public class Cell_File_Angles extends PlugInFrame
 			return;			
 		}
 		
+		if (isAnalysisRunning())
+		{
+			return;
+		}
 		
 		// Meta-data associated to analysis 
-		String tissueTypeName = this.tissueTypeTextField.getText();
-		if (tissueTypeName.isEmpty())
+		final String tissueTypeName = getTissueTypeName();
+		final boolean isLeftSide = this.rootSideCombo.getSelectedIndex() == 0;
+		
+		// Extract Computation options
+		final boolean smoothPolyline = this.smoothPolylineCheckBox.isSelected();
+		
+		// Extract display options, as widgets must not be accessed from the worker
+		final boolean showTable = this.showTableCheckBox.isSelected();
+		final boolean showLog = this.showLogCheckBox.isSelected();
+		final ImagePlus imageToOverlay = showOverlayCheckBox.isSelected() ? getImageToOverlay() : null;
+		final String imageName = labelImagePlus.getShortTitle();
+		
+		// Compute Cell File in the background, reusing data computed on the
+		// image, on a copy of the ROI as it may be edited in the meantime
+		final ImageAnalysisSession session = getSession(labelImagePlus);
+		final Roi polyline = (Roi) roi.clone();
+		startAnalysis(new AnalysisWorker<CellFile>("Cell file analysis")
 		{
-			tissueTypeName = (String) this.tissueTypeCombo.getSelectedItem();
+			@Override
+			protected CellFile doInBackground()
+			{
+				IJ.showStatus("Compute cell file...");
+				return session.analyzeCellFile(polyline, tissueTypeName, isLeftSide, smoothPolyline, this);
+			}
+
+			@Override
+			protected void display(CellFile cellFile)
+			{
+				// Report the boundaries that could not be computed
+				reportInvalidBoundaries(cellFile);
+				
+				// Display results in Table if appropriate
+				if (showTable)
+				{
+					// Concatenates some values into ResultsTable
+					ResultsTable table = cellFile.createTable();
+					table.show("Cell File Angles");
+				}
+
+				// Display results in log window if appropriate
+				if (showLog)
+				{
+					printToLog(cellFile, imageName);
+				}
+				
+				// Overlay results on image if appropriate
+				if (imageToOverlay != null)
+				{
+					// Create overlay
+					addCellFileToOverlay(imageToOverlay, cellFile);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Cancels the analysis running in the background, if any.
+	 */
+	public void cancelAnalysis()
+	{
+		if (this.analysisWorker != null)
+		{
+			this.analysisWorker.cancel(true);
+		}
+	}
+	
+	/**
+	 * Checks whether an analysis is running in the background, and displays
+	 * a message in the status bar if this is the case.
+	 */
+	private boolean isAnalysisRunning()
+	{
+		if (this.analysisWorker != null)
+		{
+			IJ.showStatus("An analysis is already running");
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Runs the specified worker in the background. The action buttons are
+	 * disabled until the worker is done, and the Cancel button stops it.
+	 */
+	private void startAnalysis(AnalysisWorker<?> worker)
+	{
+		this.analysisWorker = worker;
+		setAnalysisRunning(true);
+		worker.execute();
+	}
+	
+	private void setAnalysisRunning(boolean running)
+	{
+		this.processCurrentRoiButton.setEnabled(!running);
+		this.processAllRoisButton.setEnabled(!running);
+		this.processStackButton.setEnabled(!running);
+		this.detectCellFilesButton.setEnabled(!running);
+		this.cancelButton.setEnabled(running);
+	}
+	
+	/**
+	 * Analyzes all the polyline ROIs of the RoiManager on the current image,
+	 * and displays the results of all the cell files together.
+	 * 
+	 * As for the batch processing, the tissue type and the side of each cell
+	 * file are obtained from the name of the ROI when it specifies them (for
+	 * example "Cortex-Left"). Otherwise, the values selected within the
+	 * plugin frame are used. A ROI that can not be processed is written to the
+	 * log, and does not prevent the analysis of the others. The ROIs and the
+	 * boundaries that could not be computed are reported within a single
+	 * dialog.
+	 */
+	public void runAnalysisOnAllRois()
+	{
+		// Get current open image
+		ImagePlus labelImagePlus = WindowManager.getCurrentImage();
+		if (labelImagePlus == null) 
+		{
+			IJ.error("No image", "Need at least one image to work");
+			return;
 		}
-		boolean isLeftSide = this.rootSideCombo.getSelectedIndex() == 0;
 		
-		// Extract Computation options
-		boolean smoothPolyline = this.smoothPolylineCheckBox.isSelected();
+		// retrieve ROIs from the ROI Manager
+		RoiManager roiManager = RoiManager.getInstance();
+		if (roiManager == null || roiManager.getCount() == 0)
+		{
+			IJ.error("No ROI", "Requires Polyline Rois within the ROI Manager");
+			return;
+		}
+		Roi[] rois = roiManager.getRoisAsArray();
 		
+		if (isAnalysisRunning())
+		{
+			return;
+		}
 		
-		// Compute Cell File for current settings
-		CellFile cellFile = analyzeCellFile(labelImage, roi, tissueTypeName, isLeftSide, smoothPolyline);
+		// Default meta-data and options associated to analysis 
+		String defaultTissueTypeName = getTissueTypeName();
+		boolean defaultLeftSide = this.rootSideCombo.getSelectedIndex() == 0;
+		final boolean smoothPolyline = this.smoothPolylineCheckBox.isSelected();
 		
+		// retrieve the polyline ROIs, and the meta-data from their names, if specified
+		final List<Roi> polylines = new ArrayList<Roi>(rois.length);
+		final List<String> roiNames = new ArrayList<String>(rois.length);
+		final List<String> tissueTypeNames = new ArrayList<String>(rois.length);
+		final List<Boolean> leftSides = new ArrayList<Boolean>(rois.length);
+		for (int i = 0; i < rois.length; i++)
+		{
+			Roi roi = rois[i];
+			if (roi.getType() != Roi.POLYLINE)
+			{
+				continue;
+			}
+			String name = roi.getName() != null ? roi.getName() : "";
+			polylines.add((Roi) roi.clone());
+			roiNames.add(roi.getName() != null ? roi.getName() : "Roi" + (i + 1));
+			tissueTypeNames.add(CellFileBatch.parseTissueType(name, defaultTissueTypeName));
+			leftSides.add(CellFileBatch.parseLeftSide(name, defaultLeftSide));
+		}
 		
-		// Display results in Table if appropriate
-		if (this.showTableCheckBox.isSelected())
+		// Extract display options, as widgets must not be accessed from the worker
+		final boolean showTable = this.showTableCheckBox.isSelected();
+		final boolean showLog = this.showLogCheckBox.isSelected();
+		final ImagePlus imageToOverlay = showOverlayCheckBox.isSelected() ? getImageToOverlay() : null;
+		final String imageName = labelImagePlus.getShortTitle();
+		
+		// Compute all cell files in the background, reusing data computed on the image
+		final ImageAnalysisSession session = getSession(labelImagePlus);
+		startAnalysis(new AnalysisWorker<List<CellFile>>("Cell file analysis")
+		{
+			@Override
+			protected List<CellFile> doInBackground()
+			{
+				int n = polylines.size();
+				List<CellFile> cellFiles = new ArrayList<CellFile>(n);
+				for (int i = 0; i < n; i++)
+				{
+					IJ.showStatus("Compute cell file " + (i + 1) + "/" + n + "...");
+					CellFile cellFile;
+					try
+					{
+						cellFile = session.analyzeCellFile(polylines.get(i), tissueTypeNames.get(i),
+								leftSides.get(i), smoothPolyline);
+					}
+					catch (CancellationException ex)
+					{
+						throw ex;
+					}
+					catch (Exception ex)
+					{
+						// a failed cell file does not prevent the analysis of
+						// the others, and is kept as null to preserve indices
+						CellFileBatch.logRoiFailure(imageName, roiNames.get(i), ex);
+						cellFile = null;
+					}
+					cellFiles.add(cellFile);
+					IJ.showProgress(i + 1, n);
+				}
+				return cellFiles;
+			}
+
+			@Override
+			protected void display(List<CellFile> cellFiles)
+			{
+				ColumnarResultStore results = new ColumnarResultStore();
+				StringBuilder errorMessage = new StringBuilder();
+				for (int i = 0; i < cellFiles.size(); i++)
+				{
+					CellFile cellFile = cellFiles.get(i);
+					String roiName = roiNames.get(i);
+					if (cellFile == null)
+					{
+						errorMessage.append("\n").append(roiName).append(": could not be processed (see log)");
+						continue;
+					}
+					String message = invalidBoundariesMessage(cellFile);
+					if (!message.isEmpty())
+					{
+						errorMessage.append("\n").append(roiName).append(":").append(message);
+					}
+					
+					results.addCellFile(imageName, roiName, tissueTypeNames.get(i), leftSides.get(i), cellFile);
+					if (showLog)
+					{
+						printToLog(cellFile, imageName);
+					}
+					if (imageToOverlay != null)
+					{
+						addCellFileToOverlay(imageToOverlay, cellFile);
+					}
+				}
+				
+				// Report the boundaries that could not be computed, for all cell files
+				if (errorMessage.length() > 0)
+				{
+					IJ.error("Cell File Angles", "Some cell files or boundaries could not be computed:" + errorMessage);
+				}
+				
+				// Display results in Table if appropriate
+				if (showTable)
+				{
+					results.createTable().show("Cell File Angles");
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Analyzes the polyline ROIs of the RoiManager on each slice of the
+	 * current label image stack. Each ROI is analyzed on the slice given by
+	 * its position, or on all slices if it has no position. The results of
+	 * all the slices are displayed in a single table with a frame column.
+	 */
+	public void runStackAnalysis()
+	{
+		// Get current open image
+		ImagePlus labelImagePlus = WindowManager.getCurrentImage();
+		if (labelImagePlus == null) 
 		{
-			// Concatenates some values into ResultsTable
-			ResultsTable table = cellFile.createTable();
-			table.show("Cell File Angles");
+			IJ.error("No image", "Need at least one image to work");
+			return;
 		}
+		
+		// retrieve ROIs from the ROI Manager
+		RoiManager roiManager = RoiManager.getInstance();
+		if (roiManager == null || roiManager.getCount() == 0)
+		{
+			IJ.error("No ROI", "Requires Polyline Rois within the ROI Manager");
+			return;
+		}
+		final Roi[] rois = roiManager.getRoisAsArray();
+		for (int i = 0; i < rois.length; i++)
+		{
+			rois[i] = (Roi) rois[i].clone();
+		}
+		
+		if (isAnalysisRunning())
+		{
+			return;
+		}
+		
+		// Meta-data and options associated to analysis 
+		final String tissueTypeName = getTissueTypeName();
+		final boolean isLeftSide = this.rootSideCombo.getSelectedIndex() == 0;
+		final boolean smoothPolyline = this.smoothPolylineCheckBox.isSelected();
+		
+		// Extract display options, as widgets must not be accessed from the worker
+		final boolean showTable = this.showTableCheckBox.isSelected();
+		final boolean showLog = this.showLogCheckBox.isSelected();
+		final ImagePlus imageToOverlay = showOverlayCheckBox.isSelected() ? getImageToOverlay() : null;
+		final String imageName = labelImagePlus.getShortTitle();
+		
+		// Compute the cell files of all the slices in the background
+		final StackAnalysis analysis = new StackAnalysis(labelImagePlus);
+		startAnalysis(new AnalysisWorker<List<StackAnalysis.Entry>>("Stack analysis")
+		{
+			@Override
+			protected List<StackAnalysis.Entry> doInBackground()
+			{
+				IJ.showStatus("Analyze stack...");
+				return analysis.run(rois, tissueTypeName, isLeftSide, smoothPolyline);
+			}
 
-		// Display results in log window if appropriate
-		if (this.showLogCheckBox.isSelected())
+			@Override
+			protected void display(List<StackAnalysis.Entry> entries)
+			{
+				for (StackAnalysis.Entry entry : entries)
+				{
+					CellFile cellFile = entry.getCellFile();
+					if (cellFile == null)
+					{
+						continue;
+					}
+					if (showLog)
+					{
+						printToLog(cellFile, imageName + ":" + entry.getFrame());
+					}
+					if (imageToOverlay != null)
+					{
+						addCellFileToOverlay(imageToOverlay, cellFile, entry.getSliceIndex());
+					}
+				}
+				
+				// Display results in Table if appropriate
+				if (showTable)
+				{
+					StackAnalysis.createTable(entries).show("Cell File Angles");
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Detects automatically all the cell files of the current label image,
+	 * and displays their results together. The side of each cell file is
+	 * determined from its position with respect to the root axis.
+	 */
+	public void runDetection()
+	{
+		// Get current open image
+		ImagePlus labelImagePlus = WindowManager.getCurrentImage();
+		if (labelImagePlus == null) 
+		{
+			IJ.error("No image", "Need at least one image to work");
+			return;
+		}
+		
+		if (isAnalysisRunning())
 		{
-			 printToLog(cellFile, labelImagePlus.getShortTitle());
+			return;
 		}
 		
-		// Overlay results on image if appropriate
-		if (showOverlayCheckBox.isSelected())
+		// Extract display options, as widgets must not be accessed from the worker
+		final boolean showTable = this.showTableCheckBox.isSelected();
+		final boolean showLog = this.showLogCheckBox.isSelected();
+		final ImagePlus imageToOverlay = showOverlayCheckBox.isSelected() ? getImageToOverlay() : null;
+		final String imageName = labelImagePlus.getShortTitle();
+		
+		// Detect the cell files in the background, reusing data computed on the image
+		final CellFileDetector detector = new CellFileDetector(getSession(labelImagePlus));
+		detector.setTissueTypeName(getTissueTypeName());
+		detector.setSmoothPolyline(this.smoothPolylineCheckBox.isSelected());
+		startAnalysis(new AnalysisWorker<CellFileDetector.Result>("Cell file detection")
 		{
-			// find image for displaying geometric overlays
-			int overlayImageIndex = this.imageToOverlayCombo.getSelectedIndex();
-			ImagePlus imageToOverlay = WindowManager.getImage(overlayImageIndex + 1);
+			@Override
+			protected CellFileDetector.Result doInBackground()
+			{
+				IJ.showStatus("Detect cell files...");
+				return detector.detect();
+			}
 
-			// Create overlay
-			addCellFileToOverlay(imageToOverlay, cellFile);
+			@Override
+			protected void display(CellFileDetector.Result result)
+			{
+				IJ.log(result.toString());
+				
+				ColumnarResultStore results = new ColumnarResultStore();
+				List<CellFile> cellFiles = result.getCellFiles();
+				for (int i = 0; i < cellFiles.size(); i++)
+				{
+					CellFile cellFile = cellFiles.get(i);
+					results.addCellFile(imageName, "File" + (i + 1), cellFile.tissueTypeName, cellFile.isLeftSide,
+							cellFile);
+					if (showLog)
+					{
+						printToLog(cellFile, imageName);
+					}
+					if (imageToOverlay != null)
+					{
+						addCellFileToOverlay(imageToOverlay, cellFile);
+					}
+				}
+				
+				// Display results in Table if appropriate
+				if (showTable)
+				{
+					results.createTable().show("Cell File Angles");
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Starts or stops the live update of the results, depending on the state
+	 * of the check box. The options selected when the live update starts are
+	 * used until it is stopped.
+	 */
+	private void updateLiveEditor()
+	{
+		if (this.liveEditor != null)
+		{
+			this.liveEditor.stop();
+			this.liveEditor = null;
+		}
+		if (!this.liveUpdateCheckBox.isSelected())
+		{
+			return;
 		}
 		
+		ImagePlus labelImagePlus = WindowManager.getCurrentImage();
+		if (labelImagePlus == null) 
+		{
+			IJ.error("No image", "Need at least one image to work");
+			this.liveUpdateCheckBox.setSelected(false);
+			return;
+		}
+		
+		boolean isLeftSide = this.rootSideCombo.getSelectedIndex() == 0;
+		this.liveEditor = new LiveCellFileEditor(getSession(labelImagePlus), getTissueTypeName(), isLeftSide,
+				this.smoothPolylineCheckBox.isSelected());
+		if (this.showOverlayCheckBox.isSelected())
+		{
+			this.liveEditor.setImageToOverlay(getImageToOverlay());
+			this.liveEditor.setCompactOverlay(this.compactOverlayCheckBox.isSelected());
+		}
+		if (this.showTableCheckBox.isSelected())
+		{
+			this.liveEditor.setTableTitle("Cell File Angles");
+		}
+		this.liveEditor.start();
+		
+		// process the current ROI, if any
+		this.liveEditor.roiModified(labelImagePlus, RoiListener.MODIFIED);
+	}
+	
+	/**
+	 * Returns the analysis session associated to the specified image,
+	 * creating a new one if necessary.
+	 */
+	private ImageAnalysisSession getSession(ImagePlus labelImagePlus)
+	{
+		if (this.session == null || this.session.getImagePlus() != labelImagePlus)
+		{
+			if (this.session != null)
+			{
+				this.session.dispose();
+			}
+			this.session = new ImageAnalysisSession(labelImagePlus);
+		}
+		return this.session;
+	}
+	
+	private String getTissueTypeName()
+	{
+		String tissueTypeName = this.tissueTypeTextField.getText();
+		if (tissueTypeName.isEmpty())
+		{
+			tissueTypeName = (String) this.tissueTypeCombo.getSelectedItem();
+		}
+		return tissueTypeName;
+	}
+	
+	private ImagePlus getImageToOverlay()
+	{
+		// find image for displaying geometric overlays
+		int overlayImageIndex = this.imageToOverlayCombo.getSelectedIndex();
+		return WindowManager.getImage(overlayImageIndex + 1);
+	}
+	
+	private void reportInvalidBoundaries(CellFile cellFile)
+	{
+		String errorMessage = invalidBoundariesMessage(cellFile);
+		if (!errorMessage.isEmpty())
+		{
+			IJ.error("Cell File Angles", "Some boundaries could not be computed:" + errorMessage);
+		}
+	}
+	
+	/**
+	 * Returns the description of the boundaries of a cell file that could not
+	 * be computed, with one line per boundary, or an empty string if all the
+	 * boundaries are valid.
+	 */
+	private static final String invalidBoundariesMessage(CellFile cellFile)
+	{
+		String errorMessage = "";
+		for (CellsBoundary bnd : cellFile.getAllBoundaries())
+		{
+			if (!bnd.isValid())
+			{
+				errorMessage += "\n" + bnd.label1 + " - " + bnd.label2 + ": " + bnd.getStatus();
+			}
+		}
+		return errorMessage;
 	}
 	
 	public static final CellFile analyzeCellFile(ImageProcessor labelImage, Roi roi, String tissueTypeName, boolean isLeftSide, boolean smoothPolyline)
@@ -265,14 +834,124 @@ public class Cell_File_Angles extends PlugInFrame
 		cellFile.computeLabelList(labelImage);
 
 		// compute the polyline between cell centroids, optionally smoothed
-		cellFile.computePathCurve(labelImage);
+		LabelStatistics stats = new LabelStatistics(labelImage);
+		cellFile.computePathCurve(stats);
+		if (smoothPolyline)
+		{
+			cellFile.pathCurve = cellFile.pathCurve.smooth();
+		}
+		
+		// perform computation of boundaries, and of angles, by restricting 
+		// the search of boundary pixels to the bounding boxes of the cells
+		cellFile.computeCellsBoundaries(labelImage, stats);
+		
+		return cellFile;
+	}
+	
+	/**
+	 * Computes the cell file corresponding to a polyline ROI, using
+	 * pre-computed statistics and index of boundary pixels. Both can be shared
+	 * by all the cell files traced on the same label image.
+	 * 
+	 * @param labelImage
+	 *            the image containing cell labels
+	 * @param stats
+	 *            the statistics of the regions within the label image
+	 * @param boundaryIndex
+	 *            the index of boundary pixels computed on the label image
+	 * @param roi
+	 *            the polyline ROI going through the cells of the file
+	 * @param tissueTypeName
+	 *            the name of the tissue type
+	 * @param isLeftSide
+	 *            true if the cell file is on the left side of the root
+	 * @param smoothPolyline
+	 *            true if the path between cell centroids should be smoothed
+	 * @return the new CellFile instance
+	 */
+	public static final CellFile analyzeCellFile(ImageProcessor labelImage, LabelStatistics stats, BoundaryIndex boundaryIndex, Roi roi, String tissueTypeName, boolean isLeftSide, boolean smoothPolyline)
+	{
+		return analyzeCellFile(labelImage, stats, boundaryIndex, roi, tissueTypeName, isLeftSide, smoothPolyline, null);
+	}
+
+	/**
+	 * Computes the cell file corresponding to a polyline ROI, using
+	 * pre-computed statistics and index of boundary pixels, and notifying the
+	 * specified listener after each stage of the computation.
+	 * 
+	 * @param labelImage
+	 *            the image containing cell labels
+	 * @param stats
+	 *            the statistics of the regions within the label image
+	 * @param boundaryIndex
+	 *            the index of boundary pixels computed on the label image
+	 * @param roi
+	 *            the polyline ROI going through the cells of the file
+	 * @param tissueTypeName
+	 *            the name of the tissue type
+	 * @param isLeftSide
+	 *            true if the cell file is on the left side of the root
+	 * @param smoothPolyline
+	 *            true if the path between cell centroids should be smoothed
+	 * @param metricsListener
+	 *            the listener notified after each stage of the computation,
+	 *            or null
+	 * @return the new CellFile instance
+	 */
+	public static final CellFile analyzeCellFile(ImageProcessor labelImage, LabelStatistics stats, BoundaryIndex boundaryIndex, Roi roi, String tissueTypeName, boolean isLeftSide, boolean smoothPolyline, AnalysisMetricsListener metricsListener)
+	{
+		return analyzeCellFile(labelImage, stats, boundaryIndex, roi, tissueTypeName, isLeftSide, smoothPolyline,
+				metricsListener, null);
+	}
+
+	/**
+	 * Computes the cell file corresponding to a polyline ROI, using
+	 * pre-computed statistics and index of boundary pixels, and notifying the
+	 * specified listeners after each stage of the computation and after each
+	 * boundary.
+	 * 
+	 * @param labelImage
+	 *            the image containing cell labels
+	 * @param stats
+	 *            the statistics of the regions within the label image
+	 * @param boundaryIndex
+	 *            the index of boundary pixels computed on the label image
+	 * @param roi
+	 *            the polyline ROI going through the cells of the file
+	 * @param tissueTypeName
+	 *            the name of the tissue type
+	 * @param isLeftSide
+	 *            true if the cell file is on the left side of the root
+	 * @param smoothPolyline
+	 *            true if the path between cell centroids should be smoothed
+	 * @param metricsListener
+	 *            the listener notified after each stage of the computation,
+	 *            or null
+	 * @param progressListener
+	 *            the listener notified after the computation of each
+	 *            boundary, or null
+	 * @return the new CellFile instance
+	 */
+	public static final CellFile analyzeCellFile(ImageProcessor labelImage, LabelStatistics stats, BoundaryIndex boundaryIndex, Roi roi, String tissueTypeName, boolean isLeftSide, boolean smoothPolyline, AnalysisMetricsListener metricsListener, ProgressListener progressListener)
+	{
+		// create a new CellFile object
+		CellFile cellFile = new CellFile(tissueTypeName, isLeftSide);
+		cellFile.setMetricsListener(metricsListener);
+		
+		// Compute label succession from polyline ROI
+		Polygon polyline = ((PolygonRoi) roi).getPolygon();
+		cellFile.setWayPoints(polyline);
+		cellFile.computeLabelList(labelImage);
+
+		// compute the polyline between cell centroids, optionally smoothed
+		cellFile.computePathCurve(stats);
 		if (smoothPolyline)
 		{
 			cellFile.pathCurve = cellFile.pathCurve.smooth();
 		}
 		
 		// perform computation of boundaries, and of angles
-		cellFile.computeCellsBoundaries(labelImage);
+		cellFile.computeCellsBoundaries(boundaryIndex, null, progressListener);
 		
 		return cellFile;
 	}
@@ -302,24 +981,36 @@ public class Cell_File_Angles extends PlugInFrame
 
 	private void printToLog(CellFile cellFile, String imageName)
 	{
-		// Write current results into the "log" window
-		IJ.log("imageName;tissueType;label1;label2;innerPointX;innerPointY;outerPointX;outerPointY;angleInDegrees");
+		// Write current results into the "log" window, with a single update
+		LogResultSink sink = new LogResultSink();
 		for (CellsBoundary bnd : cellFile.getBoundaries())
 		{
-			String str = imageName + "; " + cellFile.tissueTypeName + "; " 
-					+ bnd.label1 + "; " + bnd.label2 + "; "
-					+ bnd.innerPoint.getX() + "; " + bnd.innerPoint.getY() + "; " 
-					+ bnd.outerPoint.getX() + "; " + bnd.outerPoint.getY() + "; "
-					+ Math.toDegrees(bnd.angle);
-			IJ.log(str);
+			sink.addBoundary(imageName, null, cellFile.tissueTypeName, cellFile.isLeftSide, bnd);
 		}
-
+		sink.close();
 	}
 
 	// ====================================================
 	// Graphical functions 
 	
 	public void addCellFileToOverlay(ImagePlus image, CellFile cellFile)
+	{
+		addCellFileToOverlay(image, cellFile, 0);
+	}
+	
+	/**
+	 * Adds the graphical representation of a cell file to the overlay of an
+	 * image, restricted to the specified stack position.
+	 * 
+	 * @param image
+	 *            the image to update
+	 * @param cellFile
+	 *            the cell file to display
+	 * @param position
+	 *            the index of the slice the cell file is displayed on, or 0
+	 *            to display on all slices
+	 */
+	public void addCellFileToOverlay(ImagePlus image, CellFile cellFile, int position)
 	{
 		Overlay overlay = image.getOverlay();
 		if (overlay == null)
@@ -327,12 +1018,27 @@ public class Cell_File_Angles extends PlugInFrame
 			overlay = new Overlay();
 		}
 
-		updateOverlay(overlay, cellFile);
+		int nRois = overlay.size();
+		if (this.compactOverlayCheckBox.isSelected())
+		{
+			updateCompactOverlay(overlay, cellFile);
+		}
+		else
+		{
+			updateOverlay(overlay, cellFile);
+		}
+		if (position > 0)
+		{
+			for (int i = nRois; i < overlay.size(); i++)
+			{
+				overlay.get(i).setPosition(position);
+			}
+		}
 		
 		image.setOverlay(overlay);
 	}
 	
-	private void updateOverlay(Overlay overlay, CellFile cellFile)
+	static final void updateOverlay(Overlay overlay, CellFile cellFile)
 	{
 		for (CellsBoundary bnd : cellFile.getBoundaries())
 		{
@@ -342,7 +1048,80 @@ public class Cell_File_Angles extends PlugInFrame
 		addExtremitiesOverlay(overlay, cellFile.getAllExtremities());
 	}
 	
-	private void addCellFilePathOverlay(Overlay overlay, Polyline2D poly)
+	/**
+	 * Adds the graphical representation of a cell file to an overlay, using a
+	 * constant number of ROIs per cell file: the edges of all the boundaries
+	 * are gathered within a single shape, and all the extremities within a
+	 * single multi-point ROI. This keeps the repaint of the image fast when
+	 * many cell files are displayed.
+	 * 
+	 * The edges of each cell file are drawn with a color that depends on the
+	 * number of cell files already within the overlay, counted from their
+	 * path ROIs.
+	 * 
+	 * @param overlay
+	 *            the overlay to update
+	 * @param cellFile
+	 *            the cell file to display
+	 */
+	static final void updateCompactOverlay(Overlay overlay, CellFile cellFile)
+	{
+		// count the cell files already displayed, to choose the color
+		int fileIndex = 0;
+		for (int i = 0; i < overlay.size(); i++)
+		{
+			String name = overlay.get(i).getName();
+			if (name != null && name.endsWith(COMPACT_PATH_SUFFIX))
+			{
+				fileIndex++;
+			}
+		}
+		String prefix = "CellFile" + (fileIndex + 1);
+		Color color = CELL_FILE_COLORS[fileIndex % CELL_FILE_COLORS.length];
+
+		// gather all the edges within a single path
+		Collection<CellsBoundary> boundaries = cellFile.getBoundaries();
+		GeneralPath path = new GeneralPath(GeneralPath.WIND_NON_ZERO, boundaries.size() * 2);
+		for (CellsBoundary bnd : boundaries)
+		{
+			path.moveTo(bnd.innerPoint.getX(), bnd.innerPoint.getY());
+			path.lineTo(bnd.outerPoint.getX(), bnd.outerPoint.getY());
+		}
+		if (!boundaries.isEmpty())
+		{
+			ShapeRoi edgesRoi = new ShapeRoi(path);
+			edgesRoi.setName(prefix + COMPACT_EDGES_SUFFIX);
+			edgesRoi.setStrokeColor(color);
+			edgesRoi.setStrokeWidth(1);
+			overlay.add(edgesRoi);
+		}
+
+		addCellFilePathOverlay(overlay, cellFile.pathCurve);
+		overlay.get(overlay.size() - 1).setName(prefix + COMPACT_PATH_SUFFIX);
+
+		// gather all the extremities within a single multi-point ROI
+		Collection<Point2D> extremities = cellFile.getAllExtremities();
+		if (!extremities.isEmpty())
+		{
+			float[] x = new float[extremities.size()];
+			float[] y = new float[extremities.size()];
+			int i = 0;
+			for (Point2D point : extremities)
+			{
+				x[i] = (float) point.getX();
+				y[i] = (float) point.getY();
+				i++;
+			}
+			PointRoi pointsRoi = new PointRoi(x, y, x.length);
+			pointsRoi.setName(prefix + "-extremities");
+			pointsRoi.setPointType(PointRoi.DOT);
+			pointsRoi.setSize(PointRoi.SMALL);
+			pointsRoi.setStrokeColor(Color.RED);
+			overlay.add(pointsRoi);
+		}
+	}
+	
+	private static final void addCellFilePathOverlay(Overlay overlay, Polyline2D poly)
 	{
 		int nv = poly.vertexNumber();
 		float[] x = new float[nv];
@@ -365,7 +1144,7 @@ public class Cell_File_Angles extends PlugInFrame
 	 * @param imagePlus
 	 *            the instance of imagePlus used to display result
 	 */
-	private void addExtremitiesOverlay(Overlay overlay, Collection<Point2D> extremities) 
+	private static final void addExtremitiesOverlay(Overlay overlay, Collection<Point2D> extremities) 
 	{
 		for (Point2D point : extremities) 
 		{
@@ -382,7 +1161,7 @@ public class Cell_File_Angles extends PlugInFrame
 		}
 	}
 
-	private void addBoundaryEdgeOverlay(Overlay overlay, Point innerPoint, Point outerPoint)
+	private static final void addBoundaryEdgeOverlay(Overlay overlay, Point innerPoint, Point outerPoint)
 	{
 		Line lineRoi = new Line(
 				innerPoint.getX(), innerPoint.getY(),
@@ -411,7 +1190,93 @@ public class Cell_File_Angles extends PlugInFrame
 	/** Overrides close() in PlugInFrame. */
 	public void close()
 	{
+		cancelAnalysis();
+		if (this.liveEditor != null)
+		{
+			this.liveEditor.stop();
+			this.liveEditor = null;
+		}
+		if (this.session != null)
+		{
+			this.session.dispose();
+			this.session = null;
+		}
 		super.close();
 	}
+	
+	// ====================================================
+	// Background analysis
+	
+	/**
+	 * Computes the results of an action of the plugin in the background, and
+	 * displays them on the event dispatch thread. The progress of the
+	 * computation of the boundaries is displayed in the progress bar.
+	 */
+	private abstract class AnalysisWorker<T> extends SwingWorker<T, Void> implements ProgressListener
+	{
+		/**
+		 * The name of the action, used for the messages displayed to the
+		 * user.
+		 */
+		String name;
+		
+		AnalysisWorker(String name)
+		{
+			this.name = name;
+		}
+		
+		/**
+		 * Displays the results of the computation. Called on the event
+		 * dispatch thread, only if the computation completed.
+		 * 
+		 * @param result
+		 *            the result of the computation
+		 */
+		protected abstract void display(T result);
+		
+		@Override
+		public void progressChanged(int current, int total)
+		{
+			IJ.showProgress(current, total);
+		}
+		
+		@Override
+		protected void done()
+		{
+			// called on the event dispatch thread
+			analysisWorker = null;
+			setAnalysisRunning(false);
+			IJ.showProgress(1.0);
+			
+			T result;
+			try
+			{
+				result = get();
+			}
+			catch (CancellationException ex)
+			{
+				IJ.showStatus(this.name + " cancelled");
+				return;
+			}
+			catch (InterruptedException ex)
+			{
+				IJ.showStatus(this.name + " cancelled");
+				return;
+			}
+			catch (ExecutionException ex)
+			{
+				if (ex.getCause() instanceof CancellationException)
+				{
+					IJ.showStatus(this.name + " cancelled");
+					return;
+				}
+				IJ.error("Cell File Angles", this.name + " failed:\n" + ex.getCause());
+				return;
+			}
+			IJ.showStatus("");
+			
+			display(result);
+		}
+	}
 
 }
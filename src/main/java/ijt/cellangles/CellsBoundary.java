@@ -4,14 +4,16 @@
 package ijt.cellangles;
 
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 
 import ij.process.ImageProcessor;
 import ijt.geom.Geometry;
+import ijt.util.IntHashSet;
 
 /**
  * The boundary between two cells.
@@ -20,6 +22,29 @@ import ijt.geom.Geometry;
  */
 public class CellsBoundary
 {
+	/**
+	 * The result of the computation of a boundary.
+	 */
+	public enum Status
+	{
+		/** The boundary has not been computed yet */
+		NOT_COMPUTED,
+		/** The inner and outer points, and the angle, were computed */
+		VALID,
+		/** No background pixel was found between the two cells */
+		NO_BOUNDARY_PIXEL,
+		/** No boundary pixel was found on the inner side of the cell file */
+		NO_INNER_POINT,
+		/** No boundary pixel was found on the outer side of the cell file */
+		NO_OUTER_POINT
+	};
+	
+	/**
+	 * The mask applied to pixel indices within loops, so that cancellation is
+	 * checked every 4096 pixels.
+	 */
+	static final int CANCEL_CHECK_MASK = 0x0FFF;
+	
 	/**
 	 * The label of the first cell region;
 	 */
@@ -37,9 +62,20 @@ public class CellsBoundary
 	boolean leftSide;
 	
 	/**
-	 * The list of boundary pixels.
+	 * The list of boundary pixels, stored as packed pixel indices.
 	 */
-	ArrayList<Point> pixelList = new ArrayList<Point>();
+	PixelList pixelList = new PixelList(1);
+	
+	/**
+	 * The number of boundary pixels with exactly one neighbor boundary pixel,
+	 * as computed by the findBoundaryExtremities() method.
+	 */
+	int endPointCount = 0;
+	
+	/**
+	 * Set to true when the boundary has more than two extremities.
+	 */
+	boolean branched = false;
 	
 	Point innerPoint = null;
 	Point outerPoint = null;
@@ -50,6 +86,11 @@ public class CellsBoundary
 	 */
 	double angle;
 	
+	/**
+	 * The status of the computation of this boundary.
+	 */
+	Status status = Status.NOT_COMPUTED;
+	
 	
 	public CellsBoundary(int label1, int label2, boolean isLeftSide)
 	{
@@ -58,6 +99,33 @@ public class CellsBoundary
 		this.leftSide = isLeftSide;
 	}
 	
+	/**
+	 * @return the status of the computation of this boundary
+	 */
+	public Status getStatus()
+	{
+		return this.status;
+	}
+	
+	/**
+	 * @return true if the inner and outer points, and the angle, could be
+	 *         computed for this boundary
+	 */
+	public boolean isValid()
+	{
+		return this.status == Status.VALID;
+	}
+	
+	/**
+	 * Returns a read-only view of the boundary pixels as a list of points.
+	 * 
+	 * @return the list of boundary pixels
+	 */
+	public List<Point> getPixels()
+	{
+		return this.pixelList.asPoints();
+	}
+	
 	/**
 	 * Identifies the position of boundary pixels from the specified label
 	 * image.
@@ -67,105 +135,250 @@ public class CellsBoundary
 	 */
 	public Collection<Point> findBoundaryPixels(ImageProcessor labelImage)
 	{
-		int sizeX = labelImage.getWidth();
-		int sizeY = labelImage.getHeight();
-
-		// list of offsets defining the 4-connectivity
-		int[] dx = new int[]{0, -1, +1, 0};
-		int[] dy = new int[]{-1, 0, 0, +1};
-
-		this.pixelList.clear();
-		for (int y = 0; y < sizeY; y++)
+		this.pixelList.reset(labelImage.getWidth());
+		LabelImageKernel kernel = LabelImageKernel.create(labelImage);
+		kernel.findBoundaryPixels(label1, label2, 0, 0, labelImage.getWidth() - 1, labelImage.getHeight() - 1,
+				this.pixelList);
+		
+		return this.pixelList.asPoints();
+	}
+	
+	/**
+	 * Identifies the position of boundary pixels from the specified label
+	 * image, by restricting the search to the intersection of the bounding
+	 * boxes of the two cells.
+	 * 
+	 * @param labelImage
+	 *            the image containing labels of cell regions.
+	 * @param stats
+	 *            the statistics of the regions within the label image.
+	 */
+	public Collection<Point> findBoundaryPixels(ImageProcessor labelImage, LabelStatistics stats)
+	{
+		return findBoundaryPixels(LabelImageKernel.create(labelImage), stats);
+	}
+	
+	/**
+	 * Identifies the position of boundary pixels by using a kernel created for
+	 * the label image, and by restricting the search to the intersection of
+	 * the bounding boxes of the two cells.
+	 * 
+	 * @param kernel
+	 *            the kernel giving access to the labels of cell regions.
+	 * @param stats
+	 *            the statistics of the regions within the label image.
+	 */
+	public Collection<Point> findBoundaryPixels(LabelImageKernel kernel, LabelStatistics stats)
+	{
+		this.pixelList.reset(kernel.getWidth());
+		Rectangle box = stats.boundarySearchRegion(label1, label2);
+		if (box != null)
 		{
-			for (int x = 0; x < sizeX; x++)
-			{
-				// check that current label is background
-				int label = (int) labelImage.getf(x, y);
-				if (label != 0)
-				{
-					continue;
-				}
-				
-				// extract the list of neighbors
-				List<Integer> neighborList = new ArrayList<Integer>(4);
-				for (int i = 0; i < 4; i++)
-				{
-					// check neighbor position in within image bounds 
-					int x2 = x + dx[i];
-					if (x2 < 0 || x2 > sizeX - 1) continue;
-					int y2 = y + dy[i];
-					if (y2 < 0 || y2 > sizeY - 1) continue;
-					
-					// get label of neighbor
-					label = (int) labelImage.getf(x2, y2);
-					if (label != 0)
-					{
-						neighborList.add(label);
-					}
-				}
-				
-				// check if neighborhood contains each label
-				if (neighborList.contains(label1) && neighborList.contains(label2))
-				{
-					this.pixelList.add(new Point(x, y));
-				}
-			}
+			kernel.findBoundaryPixels(label1, label2, box.x, box.y, box.x + box.width - 1, box.y + box.height - 1,
+					this.pixelList);
+		}
+		
+		return this.pixelList.asPoints();
+	}
+	
+	/**
+	 * Retrieves the position of boundary pixels from an index of boundary
+	 * pixels computed on the label image. This avoids to scan the whole label
+	 * image for each boundary.
+	 * 
+	 * @param index
+	 *            the index of boundary pixels of the label image.
+	 */
+	public Collection<Point> findBoundaryPixels(BoundaryIndex index)
+	{
+		this.pixelList.reset(index.getWidth());
+		PixelList pixels = index.getPixelList(label1, label2);
+		if (pixels != null)
+		{
+			this.pixelList.addAll(pixels);
 		}
 		
-		return Collections.unmodifiableCollection(this.pixelList);
+		return this.pixelList.asPoints();
 	}
 	
+	/**
+	 * Identifies the extremities of the boundary, as the boundary pixels with
+	 * exactly one boundary pixel within their 8-neighborhood.
+	 * 
+	 * If more than two extremities are found, the boundary is considered as
+	 * branched, and only the two extremities that are the most distant from
+	 * each other are retained.
+	 * 
+	 * @return the list of boundary extremities (usually two)
+	 */
 	public List<Point> findBoundaryExtremities()
 	{
-		List<Point> extremityList = new ArrayList<Point>(2);
+		int nPixels = this.pixelList.size();
+		int sizeX = this.pixelList.getSizeX();
+		
+		// store the boundary pixels to test occupancy in constant time
+		IntHashSet occupancy = new IntHashSet(nPixels);
+		for (int i = 0; i < nPixels; i++)
+		{
+			occupancy.add(this.pixelList.getIndex(i));
+		}
 		
-		List<Point> neighborList = new ArrayList<Point>(4); 
-		for (Point point : this.pixelList)
+		PixelList endPoints = new PixelList(sizeX, 2);
+		for (int i = 0; i < nPixels; i++)
 		{
-			neighborList.clear();
+			if ((i & CANCEL_CHECK_MASK) == 0)
+			{
+				checkCancelled();
+			}
 			
-			for (Point neighbor : this.pixelList)
+			int index = this.pixelList.getIndex(i);
+			int x = index % sizeX;
+			
+			// count the number of 8-neighbors of current pixel, taking care
+			// of image borders along the x direction
+			int nNeighbors = 0;
+			for (int dy = -1; dy <= 1; dy++)
 			{
-				if (neighbor.equals(point)) continue;
-				
-				int dx = Math.abs(point.x - neighbor.x);
-				int dy = Math.abs(point.y - neighbor.y);
-				
-				if (Math.max(dx,  dy) <= 1)
-				{
-					neighborList.add(neighbor);
-				}
+				int rowIndex = index + dy * sizeX;
+				if (x > 0 && occupancy.contains(rowIndex - 1)) nNeighbors++;
+				if (dy != 0 && occupancy.contains(rowIndex)) nNeighbors++;
+				if (x < sizeX - 1 && occupancy.contains(rowIndex + 1)) nNeighbors++;
 			}
 			
-			if (neighborList.size() == 1)
+			if (nNeighbors == 1)
 			{
-				extremityList.add(point);
+				endPoints.addIndex(index);
 			}
 		}
 		
+		this.endPointCount = endPoints.size();
+		this.branched = this.endPointCount > 2;
+		
+		// simple case of a regular boundary
+		List<Point> extremityList = new ArrayList<Point>(2);
+		if (!this.branched)
+		{
+			extremityList.addAll(endPoints.asPoints());
+			return extremityList;
+		}
+		
+		// for branched boundaries, keep the two most distant extremities
+		int ind1 = 0;
+		int ind2 = 1;
+		long maxDist2 = -1;
+		for (int i = 0; i < endPoints.size() - 1; i++)
+		{
+			for (int j = i + 1; j < endPoints.size(); j++)
+			{
+				long dx = endPoints.getX(i) - endPoints.getX(j);
+				long dy = endPoints.getY(i) - endPoints.getY(j);
+				long dist2 = dx * dx + dy * dy;
+				if (dist2 > maxDist2)
+				{
+					ind1 = i;
+					ind2 = j;
+					maxDist2 = dist2;
+				}
+			}
+		}
+		extremityList.add(endPoints.getPoint(ind1));
+		extremityList.add(endPoints.getPoint(ind2));
 		return extremityList;
 	}
 	
+	/**
+	 * @return true if more than two extremities were found for this boundary
+	 */
+	public boolean isBranched()
+	{
+		return this.branched;
+	}
+	
+	/**
+	 * @return the number of boundary pixels with exactly one neighbor, before
+	 *         the selection of the two main extremities of branched boundaries
+	 */
+	public int getEndPointCount()
+	{
+		return this.endPointCount;
+	}
+	
 	public void identifyInnerAndOuterPoints(Point2D centroid1, Point2D centroid2)
+	{
+		identifyInnerAndOuterPoints(centroid1, centroid2, null, null, null);
+	}
+	
+	/**
+	 * Identifies the inner and outer points of the boundary, using the
+	 * specified arrays for storing the coordinates of the pixels and their
+	 * signed distances to the line joining the centroids. This avoids
+	 * allocating memory when processing many boundaries in a row.
+	 * 
+	 * @param centroid1
+	 *            the centroid of the first cell
+	 * @param centroid2
+	 *            the centroid of the second cell
+	 * @param xCoords
+	 *            the array used to store the x-coordinates of the pixels, or
+	 *            null. A new array is allocated if it is null or too small.
+	 * @param yCoords
+	 *            the array used to store the y-coordinates of the pixels, or
+	 *            null. A new array is allocated if it is null or too small.
+	 * @param distances
+	 *            the array used to store the signed distances, or null. A new
+	 *            array is allocated if it is null or too small.
+	 */
+	public void identifyInnerAndOuterPoints(Point2D centroid1, Point2D centroid2, int[] xCoords, int[] yCoords,
+			double[] distances)
 	{
 		int nPoints = this.pixelList.size();
+		if (nPoints == 0)
+		{
+			return;
+		}
+		
+		// compute the signed distance of each pixel to the line joining the
+		// centroids, in a single pass over the coordinates
+		if (xCoords == null || xCoords.length < nPoints)
+		{
+			xCoords = new int[nPoints];
+		}
+		if (yCoords == null || yCoords.length < nPoints)
+		{
+			yCoords = new int[nPoints];
+		}
+		if (distances == null || distances.length < nPoints)
+		{
+			distances = new double[nPoints];
+		}
+		this.pixelList.getCoordinates(xCoords, yCoords);
+		Geometry.signedDistancesPointLine(xCoords, yCoords, nPoints, centroid1, centroid2, distances);
 		
 		double maxInnerDist = Double.NEGATIVE_INFINITY;
 		double maxOuterDist = Double.NEGATIVE_INFINITY;
 		
+		// keep the index of the selected pixels
+		int innerIndex = -1;
+		int outerIndex = -1;
+		
 		for (int i = 0; i < nPoints; i++)
 		{
-			Point point = this.pixelList.get(i);
-			double dist = Geometry.distancePointLine(point, centroid1, centroid2);
+			if ((i & CANCEL_CHECK_MASK) == 0)
+			{
+				checkCancelled();
+			}
 			
-			boolean isInnerPoint = Geometry.isLeftSide(point, centroid1, centroid2) ^ this.leftSide;
+			// positive distances correspond to pixels on the left side
+			double dist = distances[i];
+			boolean isInnerPoint = (dist > 0) ^ this.leftSide;
+			dist = Math.abs(dist);
 			
 			if (isInnerPoint)
 			{
 				// process inner point 
 				if (dist > maxInnerDist)
 				{
-					this.innerPoint = point;
+					innerIndex = i;
 					maxInnerDist = dist;
 				}
 			}
@@ -174,11 +387,20 @@ public class CellsBoundary
 				// process outer point 
 				if (dist > maxOuterDist)
 				{
-					this.outerPoint = point;
+					outerIndex = i;
 					maxOuterDist = dist;
 				}
 			}
 		}
+		
+		if (innerIndex >= 0)
+		{
+			this.innerPoint = this.pixelList.getPoint(innerIndex);
+		}
+		if (outerIndex >= 0)
+		{
+			this.outerPoint = this.pixelList.getPoint(outerIndex);
+		}
 	}
 
 	public double computeBoundaryAngle(Point2D centroid1, Point2D centroid2)
@@ -201,4 +423,21 @@ public class CellsBoundary
 		
 		return angle;
 	}
+
+	/**
+	 * Throws a CancellationException if the current thread was interrupted.
+	 * Called regularly within the loops over pixels, so that long
+	 * computations can be cancelled by interrupting the thread that runs
+	 * them.
+	 * 
+	 * @throws CancellationException
+	 *             if the current thread was interrupted
+	 */
+	static final void checkCancelled()
+	{
+		if (Thread.currentThread().isInterrupted())
+		{
+			throw new CancellationException("Computation of cell boundaries was cancelled");
+		}
+	}
 }
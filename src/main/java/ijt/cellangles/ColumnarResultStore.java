@@ -0,0 +1,734 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ij.measure.ResultsTable;
+
+/**
+ * Stores the results of many cell files within memory, using one primitive
+ * array per column. The labels and the coordinates of inner and outer points
+ * are stored as integers, and the angles as doubles. The image names, cell
+ * file names and tissue types are dictionary-encoded: each distinct value is
+ * stored once, and rows contain the index of the value within the
+ * dictionary.
+ * 
+ * Rows can be added concurrently from several threads. Each cell file is
+ * added as a single block. Alternatively, each thread can fill its own store,
+ * that are merged at the end with the {@link #addAll(ColumnarResultStore)}
+ * method.
+ * 
+ * The content of the store can be saved into a self-describing binary file,
+ * that stores the name and the type of each column, and read back with the
+ * {@link #read(File)} method. The conversion into a ResultsTable is only
+ * intended for display.
+ * 
+ * @author dlegland
+ */
+public class ColumnarResultStore implements ResultSink
+{
+	// ====================================================
+	// Static constants
+
+	/**
+	 * The magic number at the beginning of binary files ("CFAC").
+	 */
+	static final int MAGIC_NUMBER = 0x43464143;
+
+	/**
+	 * The version of the binary format.
+	 */
+	static final int VERSION = 1;
+
+	// the types of the columns within binary files
+	static final byte INT_COLUMN = 'I';
+	static final byte DOUBLE_COLUMN = 'D';
+	static final byte BOOLEAN_COLUMN = 'B';
+	static final byte STRING_COLUMN = 'S';
+
+	/**
+	 * The code used for null strings within dictionary-encoded columns.
+	 */
+	static final int NULL_STRING = -1;
+
+	/**
+	 * The size of the buffer used for reading and writing binary files.
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+
+	// ====================================================
+	// Inner class
+
+	/**
+	 * A column of strings, encoded with a dictionary of distinct values.
+	 */
+	static class StringColumn
+	{
+		int[] codes;
+		List<String> values = new ArrayList<String>();
+		Map<String, Integer> indices = new HashMap<String, Integer>();
+
+		StringColumn(int capacity)
+		{
+			this.codes = new int[capacity];
+		}
+
+		int encode(String value)
+		{
+			if (value == null)
+			{
+				return NULL_STRING;
+			}
+			Integer index = this.indices.get(value);
+			if (index == null)
+			{
+				index = this.values.size();
+				this.values.add(value);
+				this.indices.put(value, index);
+			}
+			return index;
+		}
+
+		String get(int row)
+		{
+			int code = this.codes[row];
+			return code == NULL_STRING ? null : this.values.get(code);
+		}
+	}
+
+
+	// ====================================================
+	// Class members
+
+	/**
+	 * The number of rows within the store.
+	 */
+	int size = 0;
+
+	// dictionary-encoded columns
+	StringColumn imageNames;
+	StringColumn cellFileNames;
+	StringColumn tissueTypes;
+
+	// primitive columns
+	boolean[] leftSides;
+	int[] labels1;
+	int[] labels2;
+	int[] innerX;
+	int[] innerY;
+	int[] outerX;
+	int[] outerY;
+	double[] angles;
+
+
+	// ====================================================
+	// Constructors
+
+	/**
+	 * Creates a new empty store.
+	 */
+	public ColumnarResultStore()
+	{
+		this(1024);
+	}
+
+	/**
+	 * Creates a new empty store with the specified initial capacity.
+	 * 
+	 * @param capacity
+	 *            the number of rows the store can contain before its columns
+	 *            are reallocated
+	 */
+	public ColumnarResultStore(int capacity)
+	{
+		capacity = Math.max(capacity, 16);
+		this.imageNames = new StringColumn(capacity);
+		this.cellFileNames = new StringColumn(capacity);
+		this.tissueTypes = new StringColumn(capacity);
+		this.leftSides = new boolean[capacity];
+		this.labels1 = new int[capacity];
+		this.labels2 = new int[capacity];
+		this.innerX = new int[capacity];
+		this.innerY = new int[capacity];
+		this.outerX = new int[capacity];
+		this.outerY = new int[capacity];
+		this.angles = new double[capacity];
+	}
+
+
+	// ====================================================
+	// Implementation of the ResultSink interface
+
+	@Override
+	public synchronized void addBoundary(String imageName, String cellFileName, String tissueType,
+			boolean isLeftSide, CellsBoundary boundary)
+	{
+		ensureCapacity(this.size + 1);
+		int i = this.size;
+		this.imageNames.codes[i] = this.imageNames.encode(imageName);
+		this.cellFileNames.codes[i] = this.cellFileNames.encode(cellFileName);
+		this.tissueTypes.codes[i] = this.tissueTypes.encode(tissueType);
+		this.leftSides[i] = isLeftSide;
+		this.labels1[i] = boundary.label1;
+		this.labels2[i] = boundary.label2;
+		this.innerX[i] = boundary.innerPoint.x;
+		this.innerY[i] = boundary.innerPoint.y;
+		this.outerX[i] = boundary.outerPoint.x;
+		this.outerY[i] = boundary.outerPoint.y;
+		this.angles[i] = boundary.angle;
+		this.size++;
+	}
+
+	@Override
+	public synchronized void addCellFile(String imageName, String cellFileName, String tissueType,
+			boolean isLeftSide, CellFile cellFile)
+	{
+		// the rows of the cell file are kept contiguous
+		for (CellsBoundary boundary : cellFile.getBoundaries())
+		{
+			addBoundary(imageName, cellFileName, tissueType, isLeftSide, boundary);
+		}
+	}
+
+	@Override
+	public void flush()
+	{
+	}
+
+	@Override
+	public void close()
+	{
+	}
+
+
+	// ====================================================
+	// Management of rows
+
+	/**
+	 * Appends all the rows of another store at the end of this store.
+	 * 
+	 * @param other
+	 *            the store containing the rows to add
+	 */
+	public void addAll(ColumnarResultStore other)
+	{
+		// copy the rows under the lock of the other store only, so that two
+		// stores adding each other's rows concurrently can not deadlock
+		ColumnarResultStore rows = other.copy();
+
+		synchronized (this)
+		{
+			int n = rows.size;
+			ensureCapacity(this.size + n);
+			int i0 = this.size;
+			recode(rows.imageNames, this.imageNames, i0, n);
+			recode(rows.cellFileNames, this.cellFileNames, i0, n);
+			recode(rows.tissueTypes, this.tissueTypes, i0, n);
+			System.arraycopy(rows.leftSides, 0, this.leftSides, i0, n);
+			System.arraycopy(rows.labels1, 0, this.labels1, i0, n);
+			System.arraycopy(rows.labels2, 0, this.labels2, i0, n);
+			System.arraycopy(rows.innerX, 0, this.innerX, i0, n);
+			System.arraycopy(rows.innerY, 0, this.innerY, i0, n);
+			System.arraycopy(rows.outerX, 0, this.outerX, i0, n);
+			System.arraycopy(rows.outerY, 0, this.outerY, i0, n);
+			System.arraycopy(rows.angles, 0, this.angles, i0, n);
+			this.size += n;
+		}
+	}
+
+	/**
+	 * Creates a copy of the rows of this store, that does not share any
+	 * array with this store.
+	 */
+	private synchronized ColumnarResultStore copy()
+	{
+		ColumnarResultStore copy = new ColumnarResultStore(this.size);
+		recode(this.imageNames, copy.imageNames, 0, this.size);
+		recode(this.cellFileNames, copy.cellFileNames, 0, this.size);
+		recode(this.tissueTypes, copy.tissueTypes, 0, this.size);
+		System.arraycopy(this.leftSides, 0, copy.leftSides, 0, this.size);
+		System.arraycopy(this.labels1, 0, copy.labels1, 0, this.size);
+		System.arraycopy(this.labels2, 0, copy.labels2, 0, this.size);
+		System.arraycopy(this.innerX, 0, copy.innerX, 0, this.size);
+		System.arraycopy(this.innerY, 0, copy.innerY, 0, this.size);
+		System.arraycopy(this.outerX, 0, copy.outerX, 0, this.size);
+		System.arraycopy(this.outerY, 0, copy.outerY, 0, this.size);
+		System.arraycopy(this.angles, 0, copy.angles, 0, this.size);
+		copy.size = this.size;
+		return copy;
+	}
+
+	/**
+	 * Copies the codes of a string column into another column, converting
+	 * them into the codes of the dictionary of the target column.
+	 */
+	private static final void recode(StringColumn source, StringColumn target, int offset, int n)
+	{
+		int[] mapping = new int[source.values.size()];
+		for (int k = 0; k < mapping.length; k++)
+		{
+			mapping[k] = target.encode(source.values.get(k));
+		}
+		for (int i = 0; i < n; i++)
+		{
+			int code = source.codes[i];
+			target.codes[offset + i] = code == NULL_STRING ? NULL_STRING : mapping[code];
+		}
+	}
+
+	/**
+	 * Removes all the rows of the store.
+	 */
+	public synchronized void clear()
+	{
+		this.size = 0;
+	}
+
+	private void ensureCapacity(int capacity)
+	{
+		int length = this.labels1.length;
+		if (capacity <= length)
+		{
+			return;
+		}
+		int newLength = Math.max(capacity, length * 2);
+		this.imageNames.codes = Arrays.copyOf(this.imageNames.codes, newLength);
+		this.cellFileNames.codes = Arrays.copyOf(this.cellFileNames.codes, newLength);
+		this.tissueTypes.codes = Arrays.copyOf(this.tissueTypes.codes, newLength);
+		this.leftSides = Arrays.copyOf(this.leftSides, newLength);
+		this.labels1 = Arrays.copyOf(this.labels1, newLength);
+		this.labels2 = Arrays.copyOf(this.labels2, newLength);
+		this.innerX = Arrays.copyOf(this.innerX, newLength);
+		this.innerY = Arrays.copyOf(this.innerY, newLength);
+		this.outerX = Arrays.copyOf(this.outerX, newLength);
+		this.outerY = Arrays.copyOf(this.outerY, newLength);
+		this.angles = Arrays.copyOf(this.angles, newLength);
+	}
+
+
+	// ====================================================
+	// Access methods
+
+	/**
+	 * @return the number of rows within the store
+	 */
+	public synchronized int size()
+	{
+		return this.size;
+	}
+
+	public synchronized String getImageName(int row)
+	{
+		checkRow(row);
+		return this.imageNames.get(row);
+	}
+
+	public synchronized String getCellFileName(int row)
+	{
+		checkRow(row);
+		return this.cellFileNames.get(row);
+	}
+
+	public synchronized String getTissueType(int row)
+	{
+		checkRow(row);
+		return this.tissueTypes.get(row);
+	}
+
+	public synchronized boolean isLeftSide(int row)
+	{
+		checkRow(row);
+		return this.leftSides[row];
+	}
+
+	public synchronized int getLabel1(int row)
+	{
+		checkRow(row);
+		return this.labels1[row];
+	}
+
+	public synchronized int getLabel2(int row)
+	{
+		checkRow(row);
+		return this.labels2[row];
+	}
+
+	/**
+	 * @param row
+	 *            the index of a row
+	 * @return the angle of the boundary, in degrees
+	 */
+	public synchronized double getAngle(int row)
+	{
+		checkRow(row);
+		return Math.toDegrees(this.angles[row]);
+	}
+
+	private void checkRow(int row)
+	{
+		if (row < 0 || row >= this.size)
+		{
+			throw new IndexOutOfBoundsException("Row index out of bounds: " + row);
+		}
+	}
+
+
+	// ====================================================
+	// Conversion methods
+
+	/**
+	 * Creates a ResultsTable containing the rows of the store, for display.
+	 * The columns are the same as the ones of the tables created by the
+	 * CellFile class.
+	 * 
+	 * @return a new ResultsTable
+	 */
+	public synchronized ResultsTable createTable()
+	{
+		ResultsTable table = new ResultsTable();
+		for (int i = 0; i < this.size; i++)
+		{
+			table.incrementCounter();
+			String cellFileName = this.cellFileNames.get(i);
+			if (cellFileName != null)
+			{
+				table.addValue("CellFile", cellFileName);
+			}
+			table.addValue("Label1", this.labels1[i]);
+			table.addValue("Label2", this.labels2[i]);
+
+			table.addValue("innerX", this.innerX[i]);
+			table.addValue("innerY", this.innerY[i]);
+			table.addValue("outerX", this.outerX[i]);
+			table.addValue("outerY", this.outerY[i]);
+			table.addValue("angle", Math.toDegrees(this.angles[i]));
+		}
+		return table;
+	}
+
+
+	// ====================================================
+	// Binary I/O
+
+	/**
+	 * Saves the content of the store into a binary file.
+	 * 
+	 * @param file
+	 *            the file to create
+	 * @throws IOException
+	 *             if the file could not be written
+	 */
+	public void write(File file) throws IOException
+	{
+		OutputStream out = new FileOutputStream(file);
+		try
+		{
+			write(out);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the content of the store into a stream. The stream starts with
+	 * a header containing the number of rows and of columns. Each column is
+	 * then written with its name, its type, and its values. Dictionary-encoded
+	 * columns also contain their dictionary before the codes. All values use
+	 * the big-endian byte order.
+	 * 
+	 * @param out
+	 *            the stream to write into, that is not closed by this method
+	 * @throws IOException
+	 *             if the stream could not be written
+	 */
+	public synchronized void write(OutputStream out) throws IOException
+	{
+		WritableByteChannel channel = Channels.newChannel(out);
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		buffer.putInt(MAGIC_NUMBER);
+		buffer.putInt(VERSION);
+		buffer.putInt(this.size);
+		buffer.putInt(11);
+
+		writeStringColumn(channel, buffer, "imageName", this.imageNames);
+		writeStringColumn(channel, buffer, "cellFileName", this.cellFileNames);
+		writeStringColumn(channel, buffer, "tissueType", this.tissueTypes);
+
+		writeHeader(channel, buffer, "leftSide", BOOLEAN_COLUMN);
+		for (int i = 0; i < this.size; i++)
+		{
+			ensureRemaining(channel, buffer, 1);
+			buffer.put((byte) (this.leftSides[i] ? 1 : 0));
+		}
+
+		writeIntColumn(channel, buffer, "label1", this.labels1);
+		writeIntColumn(channel, buffer, "label2", this.labels2);
+		writeIntColumn(channel, buffer, "innerPointX", this.innerX);
+		writeIntColumn(channel, buffer, "innerPointY", this.innerY);
+		writeIntColumn(channel, buffer, "outerPointX", this.outerX);
+		writeIntColumn(channel, buffer, "outerPointY", this.outerY);
+
+		writeHeader(channel, buffer, "angle", DOUBLE_COLUMN);
+		for (int i = 0; i < this.size; i++)
+		{
+			ensureRemaining(channel, buffer, 8);
+			buffer.putDouble(this.angles[i]);
+		}
+
+		drain(channel, buffer);
+	}
+
+	private void writeStringColumn(WritableByteChannel channel, ByteBuffer buffer, String name, StringColumn column)
+			throws IOException
+	{
+		writeHeader(channel, buffer, name, STRING_COLUMN);
+		ensureRemaining(channel, buffer, 4);
+		buffer.putInt(column.values.size());
+		for (String value : column.values)
+		{
+			writeString(channel, buffer, value);
+		}
+		writeInts(channel, buffer, column.codes);
+	}
+
+	private void writeIntColumn(WritableByteChannel channel, ByteBuffer buffer, String name, int[] values)
+			throws IOException
+	{
+		writeHeader(channel, buffer, name, INT_COLUMN);
+		writeInts(channel, buffer, values);
+	}
+
+	private void writeInts(WritableByteChannel channel, ByteBuffer buffer, int[] values) throws IOException
+	{
+		int offset = 0;
+		while (offset < this.size)
+		{
+			ensureRemaining(channel, buffer, 4);
+			int n = Math.min(buffer.remaining() / 4, this.size - offset);
+			buffer.asIntBuffer().put(values, offset, n);
+			buffer.position(buffer.position() + 4 * n);
+			offset += n;
+		}
+	}
+
+	private static final void writeHeader(WritableByteChannel channel, ByteBuffer buffer, String name, byte type)
+			throws IOException
+	{
+		writeString(channel, buffer, name);
+		ensureRemaining(channel, buffer, 1);
+		buffer.put(type);
+	}
+
+	private static final void writeString(WritableByteChannel channel, ByteBuffer buffer, String text)
+			throws IOException
+	{
+		byte[] bytes = text.getBytes("UTF-8");
+		ensureRemaining(channel, buffer, 4);
+		buffer.putInt(bytes.length);
+		int offset = 0;
+		while (offset < bytes.length)
+		{
+			ensureRemaining(channel, buffer, 1);
+			int n = Math.min(buffer.remaining(), bytes.length - offset);
+			buffer.put(bytes, offset, n);
+			offset += n;
+		}
+	}
+
+	/**
+	 * Writes the content of the buffer if it can not contain the specified
+	 * number of bytes.
+	 */
+	private static final void ensureRemaining(WritableByteChannel channel, ByteBuffer buffer, int n)
+			throws IOException
+	{
+		if (buffer.remaining() < n)
+		{
+			drain(channel, buffer);
+		}
+	}
+
+	private static final void drain(WritableByteChannel channel, ByteBuffer buffer) throws IOException
+	{
+		buffer.flip();
+		while (buffer.hasRemaining())
+		{
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Reads a store saved into a binary file.
+	 * 
+	 * @param file
+	 *            the binary file to read
+	 * @return a new store containing the rows of the file
+	 * @throws IOException
+	 *             if the file could not be read, or if its format is invalid
+	 */
+	public static final ColumnarResultStore read(File file) throws IOException
+	{
+		InputStream in = new FileInputStream(file);
+		try
+		{
+			return read(in);
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads a store written into a stream by the
+	 * {@link #write(OutputStream)} method.
+	 * 
+	 * @param in
+	 *            the stream to read
+	 * @return a new store containing the rows of the stream
+	 * @throws IOException
+	 *             if the stream could not be read, or if its format is
+	 *             invalid
+	 */
+	public static final ColumnarResultStore read(InputStream in) throws IOException
+	{
+		DataInputStream data = new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+		if (data.readInt() != MAGIC_NUMBER)
+		{
+			throw new IOException("Not a columnar result file");
+		}
+		int version = data.readInt();
+		if (version != VERSION)
+		{
+			throw new IOException("Unsupported version of columnar results: " + version);
+		}
+		int size = data.readInt();
+		int nColumns = data.readInt();
+		if (size < 0 || nColumns < 0)
+		{
+			throw new IOException("Invalid header of columnar result file");
+		}
+
+		ColumnarResultStore store = new ColumnarResultStore(size);
+		for (int c = 0; c < nColumns; c++)
+		{
+			String name = readString(data);
+			byte type = data.readByte();
+			switch (type)
+			{
+			case STRING_COLUMN:
+				StringColumn column = new StringColumn(Math.max(size, 16));
+				int nValues = data.readInt();
+				for (int k = 0; k < nValues; k++)
+				{
+					column.encode(readString(data));
+				}
+				readInts(data, column.codes, size);
+				setStringColumn(store, name, column);
+				break;
+			case INT_COLUMN:
+				readInts(data, intColumn(store, name), size);
+				break;
+			case BOOLEAN_COLUMN:
+				boolean[] flags = "leftSide".equals(name) ? store.leftSides : new boolean[size];
+				for (int i = 0; i < size; i++)
+				{
+					flags[i] = data.readByte() != 0;
+				}
+				break;
+			case DOUBLE_COLUMN:
+				double[] values = "angle".equals(name) ? store.angles : new double[size];
+				for (int i = 0; i < size; i++)
+				{
+					values[i] = data.readDouble();
+				}
+				break;
+			default:
+				throw new IOException("Unknown type of column " + name + ": " + type);
+			}
+		}
+		store.size = size;
+		return store;
+	}
+
+	private static final void setStringColumn(ColumnarResultStore store, String name, StringColumn column)
+	{
+		if ("imageName".equals(name))
+		{
+			store.imageNames = column;
+		}
+		else if ("cellFileName".equals(name))
+		{
+			store.cellFileNames = column;
+		}
+		else if ("tissueType".equals(name))
+		{
+			store.tissueTypes = column;
+		}
+		// unknown columns are ignored
+	}
+
+	private static final int[] intColumn(ColumnarResultStore store, String name)
+	{
+		String[] names = new String[] {"label1", "label2", "innerPointX", "innerPointY", "outerPointX", "outerPointY"};
+		int[][] columns = new int[][] {store.labels1, store.labels2, store.innerX, store.innerY, store.outerX,
+				store.outerY};
+		for (int i = 0; i < names.length; i++)
+		{
+			if (names[i].equals(name))
+			{
+				return columns[i];
+			}
+		}
+		// unknown columns are read and ignored
+		return new int[store.labels1.length];
+	}
+
+	private static final void readInts(DataInputStream data, int[] values, int n) throws IOException
+	{
+		byte[] bytes = new byte[Math.min(BUFFER_SIZE, 4 * Math.max(n, 1))];
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		int offset = 0;
+		while (offset < n)
+		{
+			int count = Math.min(bytes.length / 4, n - offset);
+			data.readFully(bytes, 0, 4 * count);
+			buffer.clear();
+			buffer.asIntBuffer().get(values, offset, count);
+			offset += count;
+		}
+	}
+
+	private static final String readString(DataInputStream data) throws IOException
+	{
+		int length = data.readInt();
+		if (length < 0)
+		{
+			throw new IOException("Invalid string length: " + length);
+		}
+		byte[] bytes = new byte[length];
+		data.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+}
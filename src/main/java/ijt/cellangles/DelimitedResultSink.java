@@ -0,0 +1,191 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes the results of cell file analyses into a delimited text file, such
+ * as CSV or TSV, with one row per boundary.
+ * 
+ * Each row is formatted within a buffer reused for all the rows, and written
+ * directly to the output, so the memory footprint does not depend on the
+ * number of results.
+ * 
+ * @author dlegland
+ */
+public class DelimitedResultSink implements ResultSink
+{
+	// ====================================================
+	// Static factories
+
+	/**
+	 * Creates a new sink writing comma-separated values into the specified
+	 * file.
+	 * 
+	 * @param file
+	 *            the file to create
+	 * @return a new result sink
+	 * @throws IOException
+	 *             if the file could not be created
+	 */
+	public static final DelimitedResultSink createCsv(File file) throws IOException
+	{
+		return new DelimitedResultSink(createWriter(file), ',');
+	}
+
+	/**
+	 * Creates a new sink writing tab-separated values into the specified
+	 * file.
+	 * 
+	 * @param file
+	 *            the file to create
+	 * @return a new result sink
+	 * @throws IOException
+	 *             if the file could not be created
+	 */
+	public static final DelimitedResultSink createTsv(File file) throws IOException
+	{
+		return new DelimitedResultSink(createWriter(file), '\t');
+	}
+
+	/**
+	 * Creates a buffered writer encoding text in UTF-8 into the specified
+	 * file, so that the names of tissues and ROIs do not depend on the
+	 * platform.
+	 * 
+	 * @param file
+	 *            the file to create
+	 * @return a new writer
+	 * @throws IOException
+	 *             if the file could not be created
+	 */
+	static final Writer createWriter(File file) throws IOException
+	{
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+	}
+
+	/**
+	 * Quotes a text value if it contains the separator, a quote or a line
+	 * break, following the CSV conventions: the text is enclosed within
+	 * quotes, and the inner quotes are doubled.
+	 * 
+	 * @param text
+	 *            the text to write
+	 * @param separator
+	 *            the character used to separate the values of a row
+	 * @return the text, quoted if necessary
+	 */
+	static final String quote(String text, char separator)
+	{
+		if (text.indexOf(separator) < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0
+				&& text.indexOf('\r') < 0)
+		{
+			return text;
+		}
+		return '"' + text.replace("\"", "\"\"") + '"';
+	}
+
+
+	// ====================================================
+	// Class members
+
+	/**
+	 * The writer the rows are written to.
+	 */
+	Writer writer;
+
+	/**
+	 * The character separating the values of a row.
+	 */
+	char separator;
+
+	/**
+	 * The buffer used for formatting each row.
+	 */
+	StringBuilder row = new StringBuilder(128);
+
+
+	// ====================================================
+	// Constructor
+
+	/**
+	 * Creates a new sink writing into the specified writer, and writes the
+	 * header row.
+	 * 
+	 * @param writer
+	 *            the writer to write into, that should be buffered
+	 * @param separator
+	 *            the character separating the values of a row
+	 * @throws IOException
+	 *             if the header could not be written
+	 */
+	public DelimitedResultSink(Writer writer, char separator) throws IOException
+	{
+		this.writer = writer;
+		this.separator = separator;
+
+		String[] columns = new String[] {"imageName", "roiName", "tissueType", "side", "label1", "label2",
+				"innerPointX", "innerPointY", "outerPointX", "outerPointY", "angleInDegrees"};
+		for (int i = 0; i < columns.length; i++)
+		{
+			if (i > 0)
+			{
+				this.row.append(separator);
+			}
+			this.row.append(columns[i]);
+		}
+		this.row.append('\n');
+		writer.write(this.row.toString());
+	}
+
+
+	// ====================================================
+	// Implementation of the ResultSink interface
+
+	@Override
+	public void addBoundary(String imageName, String cellFileName, String tissueType, boolean isLeftSide,
+			CellsBoundary boundary) throws IOException
+	{
+		StringBuilder sb = this.row;
+		sb.setLength(0);
+		appendText(imageName).append(separator);
+		appendText(cellFileName).append(separator);
+		appendText(tissueType).append(separator);
+		sb.append(isLeftSide ? "Left" : "Right").append(separator);
+		sb.append(boundary.label1).append(separator).append(boundary.label2).append(separator);
+		sb.append(boundary.innerPoint.getX()).append(separator).append(boundary.innerPoint.getY()).append(separator);
+		sb.append(boundary.outerPoint.getX()).append(separator).append(boundary.outerPoint.getY()).append(separator);
+		sb.append(Math.toDegrees(boundary.angle)).append('\n');
+		this.writer.append(sb);
+	}
+
+	/**
+	 * Appends a text value to the row, quoting it if necessary.
+	 */
+	private StringBuilder appendText(String text)
+	{
+		if (text == null)
+		{
+			return this.row;
+		}
+		return this.row.append(quote(text, this.separator));
+	}
+	@Override
+	public void flush() throws IOException
+	{
+		this.writer.flush();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		this.writer.close();
+	}
+}
@@ -0,0 +1,456 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ij.ImageListener;
+import ij.ImagePlus;
+import ij.gui.Roi;
+import ij.process.ImageProcessor;
+import ijt.cellangles.AnalysisMetricsListener.Stage;
+
+/**
+ * Analysis of several cell files on the same label image.
+ * 
+ * The session computes the statistics of the labels and the index of
+ * boundary pixels the first time they are required, and reuses them for all
+ * the cell files analyzed afterwards. When the session is bound to an
+ * ImagePlus, the cached data are discarded as soon as the image is updated,
+ * or when another slice is selected.
+ * 
+ * The methods of this class can be called from several threads.
+ * 
+ * @author dlegland
+ */
+public class ImageAnalysisSession implements ImageListener
+{
+	// ====================================================
+	// Class members
+
+	/**
+	 * The image the session is bound to, or null if the session was created
+	 * from an ImageProcessor.
+	 */
+	ImagePlus imagePlus = null;
+
+	/**
+	 * The label image used for computation.
+	 */
+	ImageProcessor labelImage;
+
+	/**
+	 * The pixel array of the label image when the cache was computed, used
+	 * for detecting a change of the image.
+	 */
+	Object pixels;
+
+	/**
+	 * The statistics of the labels, computed on demand.
+	 */
+	LabelStatistics stats = null;
+
+	/**
+	 * The index of boundary pixels, computed on demand.
+	 */
+	BoundaryIndex boundaryIndex = null;
+
+	/**
+	 * The adjacency graph of the regions, computed on demand.
+	 */
+	RegionAdjacencyGraph adjacencyGraph = null;
+
+	/**
+	 * The tracer of cell files, working on the adjacency graph.
+	 */
+	CellFileTracer tracer = null;
+
+	/**
+	 * The hash of the content of the label image, computed on demand.
+	 */
+	String contentHash = null;
+
+	/**
+	 * The listener notified during the analysis of cell files, or null.
+	 */
+	AnalysisMetricsListener metricsListener = null;
+
+
+	// ====================================================
+	// Constructors
+
+	/**
+	 * Creates a new session for the specified label image.
+	 * 
+	 * @param labelImage
+	 *            the image containing cell labels
+	 */
+	public ImageAnalysisSession(ImageProcessor labelImage)
+	{
+		this.labelImage = labelImage;
+		this.pixels = labelImage.getPixels();
+	}
+
+	/**
+	 * Creates a new session bound to the current processor of the specified
+	 * image. The session listens to the modifications of the image, and
+	 * {@link #dispose()} should be called when the session is not used
+	 * anymore.
+	 * 
+	 * @param imagePlus
+	 *            the ImagePlus containing cell labels
+	 */
+	public ImageAnalysisSession(ImagePlus imagePlus)
+	{
+		this(imagePlus.getProcessor());
+		this.imagePlus = imagePlus;
+		ImagePlus.addImageListener(this);
+	}
+
+	/**
+	 * Stops listening to the modifications of the image, and discards cached
+	 * data.
+	 */
+	public void dispose()
+	{
+		if (this.imagePlus != null)
+		{
+			ImagePlus.removeImageListener(this);
+		}
+		invalidate();
+	}
+
+
+	// ====================================================
+	// Access methods
+
+	/**
+	 * Specifies the listener notified after each stage of the analysis of
+	 * the cell files computed by this session.
+	 * 
+	 * @param listener
+	 *            the listener, or null to disable the measurements
+	 */
+	public void setMetricsListener(AnalysisMetricsListener listener)
+	{
+		this.metricsListener = listener;
+	}
+
+	/**
+	 * @return the ImagePlus the session is bound to, or null
+	 */
+	public ImagePlus getImagePlus()
+	{
+		return this.imagePlus;
+	}
+
+	/**
+	 * @return the label image used for computation
+	 */
+	public synchronized ImageProcessor getLabelImage()
+	{
+		checkImage();
+		return this.labelImage;
+	}
+
+	/**
+	 * @return the statistics of the labels within the image, computed during
+	 *         the first call
+	 */
+	public synchronized LabelStatistics getLabelStatistics()
+	{
+		checkImage();
+		if (this.stats == null)
+		{
+			long startTime = startTime();
+			long startBytes = startBytes();
+			this.stats = new LabelStatistics(this.labelImage);
+			fireStageCompleted(Stage.LABEL_STATISTICS, startTime, startBytes);
+		}
+		return this.stats;
+	}
+
+	/**
+	 * @return the index of boundary pixels within the image, computed during
+	 *         the first call
+	 */
+	public synchronized BoundaryIndex getBoundaryIndex()
+	{
+		checkImage();
+		if (this.boundaryIndex == null)
+		{
+			long startTime = startTime();
+			long startBytes = startBytes();
+			this.boundaryIndex = new BoundaryIndex(this.labelImage);
+			fireStageCompleted(Stage.BOUNDARY_INDEX, startTime, startBytes);
+		}
+		return this.boundaryIndex;
+	}
+
+	/**
+	 * @return the adjacency graph of the regions within the image, computed
+	 *         during the first call
+	 */
+	public synchronized RegionAdjacencyGraph getAdjacencyGraph()
+	{
+		checkImage();
+		if (this.adjacencyGraph == null)
+		{
+			this.adjacencyGraph = new RegionAdjacencyGraph(this.labelImage);
+		}
+		return this.adjacencyGraph;
+	}
+
+	/**
+	 * @return the tracer of cell files working on the adjacency graph of the
+	 *         image, created during the first call
+	 */
+	public synchronized CellFileTracer getCellFileTracer()
+	{
+		checkImage();
+		if (this.tracer == null)
+		{
+			this.tracer = new CellFileTracer(getAdjacencyGraph());
+		}
+		return this.tracer;
+	}
+
+	/**
+	 * @return the hash of the content of the label image, computed during the
+	 *         first call
+	 * @see ResultCache#imageHash(ImageProcessor)
+	 */
+	public synchronized String getContentHash()
+	{
+		checkImage();
+		if (this.contentHash == null)
+		{
+			this.contentHash = ResultCache.imageHash(this.labelImage);
+		}
+		return this.contentHash;
+	}
+
+	/**
+	 * Discards the cached data. They will be computed again when needed.
+	 */
+	public synchronized void invalidate()
+	{
+		this.stats = null;
+		this.boundaryIndex = null;
+		this.adjacencyGraph = null;
+		this.tracer = null;
+		this.contentHash = null;
+	}
+
+	/**
+	 * Checks that the label image did not change since the computation of
+	 * cached data, and discards them otherwise.
+	 */
+	private void checkImage()
+	{
+		if (this.imagePlus != null && this.imagePlus.getProcessor() != null)
+		{
+			this.labelImage = this.imagePlus.getProcessor();
+		}
+
+		if (this.labelImage.getPixels() != this.pixels)
+		{
+			this.pixels = this.labelImage.getPixels();
+			invalidate();
+		}
+	}
+
+
+	// ====================================================
+	// Computation methods
+
+	/**
+	 * Computes the cell file corresponding to a polyline ROI, using the data
+	 * cached by this session.
+	 * 
+	 * @param roi
+	 *            the polyline ROI going through the cells of the file
+	 * @param tissueTypeName
+	 *            the name of the tissue type
+	 * @param isLeftSide
+	 *            true if the cell file is on the left side of the root
+	 * @param smoothPolyline
+	 *            true if the path between cell centroids should be smoothed
+	 * @return the new CellFile instance
+	 */
+	public CellFile analyzeCellFile(Roi roi, String tissueTypeName, boolean isLeftSide, boolean smoothPolyline)
+	{
+		return analyzeCellFile(roi, tissueTypeName, isLeftSide, smoothPolyline, null);
+	}
+
+	/**
+	 * Computes the cell file corresponding to a polyline ROI, using the data
+	 * cached by this session, and notifies the specified listener after the
+	 * computation of each boundary.
+	 * 
+	 * @param roi
+	 *            the polyline ROI going through the cells of the file
+	 * @param tissueTypeName
+	 *            the name of the tissue type
+	 * @param isLeftSide
+	 *            true if the cell file is on the left side of the root
+	 * @param smoothPolyline
+	 *            true if the path between cell centroids should be smoothed
+	 * @param progressListener
+	 *            the listener notified after each boundary, or null
+	 * @return the new CellFile instance
+	 */
+	public CellFile analyzeCellFile(Roi roi, String tissueTypeName, boolean isLeftSide, boolean smoothPolyline,
+			ProgressListener progressListener)
+	{
+		ImageProcessor image;
+		LabelStatistics stats;
+		BoundaryIndex index;
+		synchronized (this)
+		{
+			image = getLabelImage();
+			stats = getLabelStatistics();
+			index = getBoundaryIndex();
+		}
+		return Cell_File_Angles.analyzeCellFile(image, stats, index, roi, tissueTypeName, isLeftSide, smoothPolyline,
+				this.metricsListener, progressListener);
+	}
+
+	/**
+	 * Computes the cell file joining two cells, by finding the chain of cells
+	 * between them within the adjacency graph of the image, instead of using
+	 * a polyline ROI.
+	 * 
+	 * @param startLabel
+	 *            the label of the first cell of the file
+	 * @param endLabel
+	 *            the label of the last cell of the file
+	 * @param tissueTypeName
+	 *            the name of the tissue type
+	 * @param isLeftSide
+	 *            true if the cell file is on the left side of the root
+	 * @param smoothPolyline
+	 *            true if the path between cell centroids should be smoothed
+	 * @return the new CellFile instance
+	 * @throws IllegalArgumentException
+	 *             if a label is not within the image, or if the two cells
+	 *             are not connected
+	 * @see CellFileTracer
+	 */
+	public CellFile traceCellFile(int startLabel, int endLabel, String tissueTypeName, boolean isLeftSide,
+			boolean smoothPolyline)
+	{
+		CellFileTracer tracer;
+		LabelStatistics stats;
+		BoundaryIndex index;
+		synchronized (this)
+		{
+			tracer = getCellFileTracer();
+			stats = getLabelStatistics();
+			index = getBoundaryIndex();
+		}
+
+		int[] labels = tracer.traceLabels(startLabel, endLabel);
+		if (labels == null)
+		{
+			throw new IllegalArgumentException("No chain of cells between labels " + startLabel + " and " + endLabel);
+		}
+
+		// use the centroids of the cells as way points
+		CellFile cellFile = new CellFile(tissueTypeName, isLeftSide);
+		cellFile.setLabelList(labels);
+		cellFile.computePathCurve(stats);
+		cellFile.setWayPoint(cellFile.pathCurve.vertices());
+		if (smoothPolyline)
+		{
+			cellFile.pathCurve = cellFile.pathCurve.smooth();
+		}
+		cellFile.computeCellsBoundaries(index);
+		return cellFile;
+	}
+
+	/**
+	 * Computes the cell files corresponding to each polyline ROI of an array.
+	 * ROIs with other types are ignored.
+	 * 
+	 * @param rois
+	 *            the ROIs to analyze (for example, all the ROIs of the
+	 *            RoiManager)
+	 * @param tissueTypeName
+	 *            the name of the tissue type
+	 * @param isLeftSide
+	 *            true if the cell files are on the left side of the root
+	 * @param smoothPolyline
+	 *            true if the path between cell centroids should be smoothed
+	 * @return the list of cell files, in the order of the polyline ROIs
+	 */
+	public List<CellFile> analyzeCellFiles(Roi[] rois, String tissueTypeName, boolean isLeftSide, boolean smoothPolyline)
+	{
+		List<CellFile> cellFiles = new ArrayList<CellFile>(rois.length);
+		for (Roi roi : rois)
+		{
+			if (roi.getType() != Roi.POLYLINE)
+			{
+				continue;
+			}
+			cellFiles.add(analyzeCellFile(roi, tissueTypeName, isLeftSide, smoothPolyline));
+		}
+		return cellFiles;
+	}
+
+
+	private long startTime()
+	{
+		return this.metricsListener != null ? System.nanoTime() : 0;
+	}
+
+	private long startBytes()
+	{
+		return this.metricsListener != null ? AnalysisMetrics.currentThreadAllocatedBytes() : -1;
+	}
+
+	/**
+	 * Notifies the metrics listener, if any, that a stage processing the
+	 * whole label image was completed.
+	 */
+	private void fireStageCompleted(Stage stage, long startTime, long startBytes)
+	{
+		if (this.metricsListener == null)
+		{
+			return;
+		}
+		long elapsed = System.nanoTime() - startTime;
+		long allocated = startBytes >= 0 ? AnalysisMetrics.currentThreadAllocatedBytes() - startBytes : -1;
+		long pixelCount = (long) this.labelImage.getWidth() * this.labelImage.getHeight();
+		this.metricsListener.stageCompleted(stage, null, elapsed, pixelCount, allocated);
+	}
+
+
+	// ====================================================
+	// Implementation of the ImageListener interface
+
+	@Override
+	public void imageOpened(ImagePlus imp)
+	{
+	}
+
+	@Override
+	public void imageClosed(ImagePlus imp)
+	{
+		if (imp == this.imagePlus)
+		{
+			dispose();
+		}
+	}
+
+	@Override
+	public void imageUpdated(ImagePlus imp)
+	{
+		if (imp == this.imagePlus)
+		{
+			invalidate();
+		}
+	}
+}
@@ -0,0 +1,477 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import java.lang.reflect.Constructor;
+
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/**
+ * Provides fast access to the labels of a label image, by working directly on
+ * the pixel array of the image.
+ * 
+ * Specialized implementations exist for the byte, short and float label
+ * images. The implementation is chosen once per image with the
+ * {@link #create(ImageProcessor)} method. For the search of boundary pixels,
+ * the pixels within the interior of the image are processed without checking
+ * the bounds of the neighbors, and only the pixels on the border of the image
+ * require additional tests.
+ * 
+ * When the plugin is compiled with a JDK 16 or later, and the JVM is started
+ * with the option <code>--add-modules jdk.incubator.vector</code>, the 16-bit
+ * label images are processed with a kernel based on the Vector API, that
+ * compares several pixels of a row at once with the shifted rows of the
+ * neighbors. Otherwise, the scalar kernel is used. Both kernels give the same
+ * results. The vector kernel can be disabled by setting the system property
+ * "ijt.cellangles.vectorKernel" to false.
+ * 
+ * @author dlegland
+ */
+public abstract class LabelImageKernel
+{
+	// ====================================================
+	// Static factory
+
+	/**
+	 * Creates the kernel adapted to the type of the specified label image.
+	 * 
+	 * @param labelImage
+	 *            the image containing labels of cell regions.
+	 * @return a kernel for accessing labels of the image
+	 */
+	public static final LabelImageKernel create(ImageProcessor labelImage)
+	{
+		return create(labelImage, true);
+	}
+
+	/**
+	 * Creates the kernel adapted to the type of the specified label image,
+	 * and specifies whether the kernel based on the Vector API can be used.
+	 * 
+	 * @param labelImage
+	 *            the image containing labels of cell regions.
+	 * @param allowVector
+	 *            if true, the vector kernel is used for 16-bit images when it
+	 *            is available. If false, the scalar kernel is always used.
+	 * @return a kernel for accessing labels of the image
+	 */
+	public static final LabelImageKernel create(ImageProcessor labelImage, boolean allowVector)
+	{
+		if (labelImage instanceof ShortProcessor)
+		{
+			if (allowVector && VECTOR_SHORT_KERNEL != null)
+			{
+				try
+				{
+					return (LabelImageKernel) VECTOR_SHORT_KERNEL.newInstance(labelImage);
+				}
+				catch (ReflectiveOperationException ex)
+				{
+					// use the scalar kernel
+				}
+			}
+			return new ShortKernel((ShortProcessor) labelImage);
+		}
+		if (labelImage instanceof ByteProcessor)
+		{
+			return new ByteKernel((ByteProcessor) labelImage);
+		}
+		if (labelImage instanceof FloatProcessor)
+		{
+			return new FloatKernel((FloatProcessor) labelImage);
+		}
+		return new GenericKernel(labelImage);
+	}
+
+	/**
+	 * @return true if the kernel based on the Vector API is used for 16-bit
+	 *         label images
+	 */
+	public static final boolean isVectorKernelAvailable()
+	{
+		return VECTOR_SHORT_KERNEL != null;
+	}
+
+	/**
+	 * The constructor of the vector kernel for 16-bit images, or null if the
+	 * kernel is not available.
+	 */
+	private static final Constructor<?> VECTOR_SHORT_KERNEL = findVectorShortKernel();
+
+	/**
+	 * Searches the vector kernel for 16-bit images. The class is compiled only
+	 * with recent JDKs, and requires the incubator module of the Vector API at
+	 * runtime, so it is accessed by reflection.
+	 */
+	private static final Constructor<?> findVectorShortKernel()
+	{
+		if ("false".equalsIgnoreCase(System.getProperty("ijt.cellangles.vectorKernel")))
+		{
+			return null;
+		}
+		try
+		{
+			Class<?> kernelClass = Class.forName("ijt.cellangles.VectorShortKernel");
+			if (!((Boolean) kernelClass.getMethod("isSupported").invoke(null)).booleanValue())
+			{
+				return null;
+			}
+			return kernelClass.getDeclaredConstructor(ShortProcessor.class);
+		}
+		catch (ReflectiveOperationException ex)
+		{
+			return null;
+		}
+		catch (LinkageError ex)
+		{
+			// class compiled for a newer JVM, or Vector API module not found
+			return null;
+		}
+	}
+
+
+	// ====================================================
+	// Class members
+
+	int sizeX;
+	int sizeY;
+
+
+	// ====================================================
+	// Constructor
+
+	protected LabelImageKernel(ImageProcessor labelImage)
+	{
+		this(labelImage.getWidth(), labelImage.getHeight());
+	}
+
+	/**
+	 * Initializes a kernel for a label image that is not stored within an
+	 * ImageProcessor.
+	 * 
+	 * @param sizeX
+	 *            the width of the label image
+	 * @param sizeY
+	 *            the height of the label image
+	 */
+	protected LabelImageKernel(int sizeX, int sizeY)
+	{
+		this.sizeX = sizeX;
+		this.sizeY = sizeY;
+	}
+
+
+	// ====================================================
+	// Methods
+
+	/**
+	 * @return the width of the label image
+	 */
+	public int getWidth()
+	{
+		return this.sizeX;
+	}
+
+	/**
+	 * @return the height of the label image
+	 */
+	public int getHeight()
+	{
+		return this.sizeY;
+	}
+
+	/**
+	 * Returns the label of the specified pixel. The position is not checked.
+	 * 
+	 * @param x
+	 *            the x-coordinate of the pixel
+	 * @param y
+	 *            the y-coordinate of the pixel
+	 * @return the label of the pixel, as an integer
+	 */
+	public abstract int getLabel(int x, int y);
+
+	/**
+	 * Adds to the pixel list the background pixels that are adjacent to both
+	 * labels (considering the 4-connectivity), located within the specified
+	 * region of the label image. Bounds are inclusive, and pixels are added in
+	 * raster order.
+	 * 
+	 * @param label1
+	 *            the label of the first cell
+	 * @param label2
+	 *            the label of the second cell
+	 * @param x0
+	 *            the minimum x-coordinate of the region
+	 * @param y0
+	 *            the minimum y-coordinate of the region
+	 * @param x1
+	 *            the maximum x-coordinate of the region
+	 * @param y1
+	 *            the maximum y-coordinate of the region
+	 * @param pixels
+	 *            the list the boundary pixels are added to
+	 */
+	public void findBoundaryPixels(int label1, int label2, int x0, int y0, int x1, int y1, PixelList pixels)
+	{
+		for (int y = y0; y <= y1; y++)
+		{
+			CellsBoundary.checkCancelled();
+
+			// pixels on the first and last rows are processed with bound checks
+			if (y == 0 || y == sizeY - 1)
+			{
+				for (int x = x0; x <= x1; x++)
+				{
+					if (isBorderBoundaryPixel(x, y, label1, label2))
+					{
+						pixels.add(x, y);
+					}
+				}
+				continue;
+			}
+
+			if (x0 == 0 && isBorderBoundaryPixel(0, y, label1, label2))
+			{
+				pixels.add(0, y);
+			}
+			findInteriorBoundaryPixels(label1, label2, y, Math.max(x0, 1), Math.min(x1, sizeX - 2), pixels);
+			if (x1 == sizeX - 1 && x1 > 0 && isBorderBoundaryPixel(x1, y, label1, label2))
+			{
+				pixels.add(x1, y);
+			}
+		}
+	}
+
+	/**
+	 * Processes the pixels of a row that have all their neighbors within the
+	 * image. The x-coordinates are inclusive.
+	 */
+	protected abstract void findInteriorBoundaryPixels(int label1, int label2, int y, int xStart, int xEnd, PixelList pixels);
+
+	/**
+	 * Checks if a pixel is a boundary pixel between the two labels, by taking
+	 * into account the bounds of the image.
+	 */
+	private boolean isBorderBoundaryPixel(int x, int y, int label1, int label2)
+	{
+		// check that current label is background
+		if (getLabel(x, y) != 0)
+		{
+			return false;
+		}
+
+		// check if neighborhood contains each label
+		boolean found1 = false;
+		boolean found2 = false;
+		if (y > 0)
+		{
+			int label = getLabel(x, y - 1);
+			found1 |= label == label1;
+			found2 |= label == label2;
+		}
+		if (x > 0)
+		{
+			int label = getLabel(x - 1, y);
+			found1 |= label == label1;
+			found2 |= label == label2;
+		}
+		if (x < sizeX - 1)
+		{
+			int label = getLabel(x + 1, y);
+			found1 |= label == label1;
+			found2 |= label == label2;
+		}
+		if (y < sizeY - 1)
+		{
+			int label = getLabel(x, y + 1);
+			found1 |= label == label1;
+			found2 |= label == label2;
+		}
+		return found1 && found2;
+	}
+
+
+	// ====================================================
+	// Implementations
+
+	/**
+	 * Kernel for 16-bit label images, the most common case.
+	 */
+	static class ShortKernel extends LabelImageKernel
+	{
+		short[] array;
+
+		ShortKernel(ShortProcessor labelImage)
+		{
+			super(labelImage);
+			this.array = (short[]) labelImage.getPixels();
+		}
+
+		@Override
+		public int getLabel(int x, int y)
+		{
+			return array[y * sizeX + x] & 0xFFFF;
+		}
+
+		@Override
+		protected void findInteriorBoundaryPixels(int label1, int label2, int y, int xStart, int xEnd, PixelList pixels)
+		{
+			final short[] array = this.array;
+			final int sizeX = this.sizeX;
+			for (int index = y * sizeX + xStart, end = y * sizeX + xEnd; index <= end; index++)
+			{
+				if (array[index] != 0)
+				{
+					continue;
+				}
+
+				int n1 = array[index - sizeX] & 0xFFFF;
+				int n2 = array[index - 1] & 0xFFFF;
+				int n3 = array[index + 1] & 0xFFFF;
+				int n4 = array[index + sizeX] & 0xFFFF;
+				if ((n1 == label1 || n2 == label1 || n3 == label1 || n4 == label1)
+						&& (n1 == label2 || n2 == label2 || n3 == label2 || n4 == label2))
+				{
+					pixels.addIndex(index);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Kernel for 8-bit label images.
+	 */
+	private static final class ByteKernel extends LabelImageKernel
+	{
+		byte[] array;
+
+		ByteKernel(ByteProcessor labelImage)
+		{
+			super(labelImage);
+			this.array = (byte[]) labelImage.getPixels();
+		}
+
+		@Override
+		public int getLabel(int x, int y)
+		{
+			return array[y * sizeX + x] & 0xFF;
+		}
+
+		@Override
+		protected void findInteriorBoundaryPixels(int label1, int label2, int y, int xStart, int xEnd, PixelList pixels)
+		{
+			final byte[] array = this.array;
+			final int sizeX = this.sizeX;
+			for (int index = y * sizeX + xStart, end = y * sizeX + xEnd; index <= end; index++)
+			{
+				if (array[index] != 0)
+				{
+					continue;
+				}
+
+				int n1 = array[index - sizeX] & 0xFF;
+				int n2 = array[index - 1] & 0xFF;
+				int n3 = array[index + 1] & 0xFF;
+				int n4 = array[index + sizeX] & 0xFF;
+				if ((n1 == label1 || n2 == label1 || n3 == label1 || n4 == label1)
+						&& (n1 == label2 || n2 == label2 || n3 == label2 || n4 == label2))
+				{
+					pixels.addIndex(index);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Kernel for 32-bit floating point label images. Values are truncated to
+	 * integers, as with the getf() method of ImageProcessor.
+	 */
+	private static final class FloatKernel extends LabelImageKernel
+	{
+		float[] array;
+
+		FloatKernel(FloatProcessor labelImage)
+		{
+			super(labelImage);
+			this.array = (float[]) labelImage.getPixels();
+		}
+
+		@Override
+		public int getLabel(int x, int y)
+		{
+			return (int) array[y * sizeX + x];
+		}
+
+		@Override
+		protected void findInteriorBoundaryPixels(int label1, int label2, int y, int xStart, int xEnd, PixelList pixels)
+		{
+			final float[] array = this.array;
+			final int sizeX = this.sizeX;
+			for (int index = y * sizeX + xStart, end = y * sizeX + xEnd; index <= end; index++)
+			{
+				if ((int) array[index] != 0)
+				{
+					continue;
+				}
+
+				int n1 = (int) array[index - sizeX];
+				int n2 = (int) array[index - 1];
+				int n3 = (int) array[index + 1];
+				int n4 = (int) array[index + sizeX];
+				if ((n1 == label1 || n2 == label1 || n3 == label1 || n4 == label1)
+						&& (n1 == label2 || n2 == label2 || n3 == label2 || n4 == label2))
+				{
+					pixels.addIndex(index);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Kernel for other types of images, based on the getf() method of
+	 * ImageProcessor.
+	 */
+	private static final class GenericKernel extends LabelImageKernel
+	{
+		ImageProcessor image;
+
+		GenericKernel(ImageProcessor labelImage)
+		{
+			super(labelImage);
+			this.image = labelImage;
+		}
+
+		@Override
+		public int getLabel(int x, int y)
+		{
+			return (int) image.getf(x, y);
+		}
+
+		@Override
+		protected void findInteriorBoundaryPixels(int label1, int label2, int y, int xStart, int xEnd, PixelList pixels)
+		{
+			for (int x = xStart; x <= xEnd; x++)
+			{
+				if ((int) image.getf(x, y) != 0)
+				{
+					continue;
+				}
+
+				int n1 = (int) image.getf(x, y - 1);
+				int n2 = (int) image.getf(x - 1, y);
+				int n3 = (int) image.getf(x + 1, y);
+				int n4 = (int) image.getf(x, y + 1);
+				if ((n1 == label1 || n2 == label1 || n3 == label1 || n4 == label1)
+						&& (n1 == label2 || n2 == label2 || n3 == label2 || n4 == label2))
+				{
+					pixels.add(x, y);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,363 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import java.awt.Rectangle;
+import java.awt.geom.Point2D;
+import java.util.Arrays;
+
+import ij.process.ImageProcessor;
+
+/**
+ * Basic statistics about each region of a label image: bounding box, number of
+ * pixels, and sum of pixel coordinates.
+ * 
+ * The statistics of all the regions are computed with a single pass over the
+ * label image, and can be used for restricting the search of boundary pixels,
+ * or for computing centroids without scanning the image again.
+ * 
+ * Statistics are stored within arrays indexed by the label value, so the
+ * computation is only efficient for label images with a reasonable maximum
+ * label. Only positive labels are considered.
+ * 
+ * @author dlegland
+ */
+public class LabelStatistics
+{
+	// ====================================================
+	// Class members
+
+	/**
+	 * The width of the label image.
+	 */
+	int sizeX;
+
+	/**
+	 * The height of the label image.
+	 */
+	int sizeY;
+
+	/**
+	 * The largest label value found within the image.
+	 */
+	int maxLabel = 0;
+
+	/**
+	 * The number of pixels of each label.
+	 */
+	int[] counts;
+
+	// bounding box of each label, using inclusive pixel coordinates
+	int[] xMin;
+	int[] xMax;
+	int[] yMin;
+	int[] yMax;
+
+	// sum of pixel coordinates of each label
+	long[] sumX;
+	long[] sumY;
+
+
+	// ====================================================
+	// Constructor
+
+	/**
+	 * Computes the statistics of each label within the specified label image.
+	 * 
+	 * @param labelImage
+	 *            the image containing labels of cell regions.
+	 */
+	public LabelStatistics(ImageProcessor labelImage)
+	{
+		this(labelImage.getWidth(), labelImage.getHeight());
+		add(labelImage, 0, 0, 0, 0, sizeX - 1, sizeY - 1);
+	}
+
+	/**
+	 * Creates empty statistics for a label image with the specified size. The
+	 * statistics are then accumulated region by region, for example when the
+	 * label image is processed by tiles.
+	 * 
+	 * @param sizeX
+	 *            the width of the label image
+	 * @param sizeY
+	 *            the height of the label image
+	 * @see #add(ImageProcessor, int, int, int, int, int, int)
+	 * @see #merge(LabelStatistics)
+	 */
+	LabelStatistics(int sizeX, int sizeY)
+	{
+		this.sizeX = sizeX;
+		this.sizeY = sizeY;
+		allocate(256);
+	}
+
+	/**
+	 * Accumulates the statistics of the pixels within a region of the label
+	 * image. The pixels are read from an image that contains the region, and
+	 * whose first pixel is located at the specified origin within the label
+	 * image. Bounds of the region are inclusive, and expressed within the
+	 * coordinates of the label image.
+	 * 
+	 * @param image
+	 *            the image containing the pixels of the region
+	 * @param originX
+	 *            the x-coordinate of the first pixel of the image within the
+	 *            label image
+	 * @param originY
+	 *            the y-coordinate of the first pixel of the image within the
+	 *            label image
+	 * @param x0
+	 *            the minimum x-coordinate of the region
+	 * @param y0
+	 *            the minimum y-coordinate of the region
+	 * @param x1
+	 *            the maximum x-coordinate of the region
+	 * @param y1
+	 *            the maximum y-coordinate of the region
+	 */
+	void add(ImageProcessor image, int originX, int originY, int x0, int y0, int x1, int y1)
+	{
+		for (int y = y0; y <= y1; y++)
+		{
+			CellsBoundary.checkCancelled();
+			for (int x = x0; x <= x1; x++)
+			{
+				int label = (int) image.getf(x - originX, y - originY);
+				if (label <= 0)
+				{
+					continue;
+				}
+				if (label >= counts.length)
+				{
+					allocate(Math.max(label + 1, counts.length * 2));
+				}
+
+				if (counts[label] == 0)
+				{
+					xMin[label] = x;
+					xMax[label] = x;
+					yMin[label] = y;
+					yMax[label] = y;
+				}
+				else
+				{
+					// the label may have been found in a previously added region
+					xMin[label] = Math.min(xMin[label], x);
+					xMax[label] = Math.max(xMax[label], x);
+					yMin[label] = Math.min(yMin[label], y);
+					yMax[label] = Math.max(yMax[label], y);
+				}
+				counts[label]++;
+				sumX[label] += x;
+				sumY[label] += y;
+				maxLabel = Math.max(maxLabel, label);
+			}
+		}
+	}
+
+	/**
+	 * Adds the statistics computed on another part of the same label image.
+	 * 
+	 * @param other
+	 *            the statistics computed on another part of the label image
+	 */
+	void merge(LabelStatistics other)
+	{
+		if (other.maxLabel >= counts.length)
+		{
+			allocate(other.maxLabel + 1);
+		}
+		for (int label = 1; label <= other.maxLabel; label++)
+		{
+			if (other.counts[label] == 0)
+			{
+				continue;
+			}
+			if (counts[label] == 0)
+			{
+				xMin[label] = other.xMin[label];
+				xMax[label] = other.xMax[label];
+				yMin[label] = other.yMin[label];
+				yMax[label] = other.yMax[label];
+			}
+			else
+			{
+				xMin[label] = Math.min(xMin[label], other.xMin[label]);
+				xMax[label] = Math.max(xMax[label], other.xMax[label]);
+				yMin[label] = Math.min(yMin[label], other.yMin[label]);
+				yMax[label] = Math.max(yMax[label], other.yMax[label]);
+			}
+			counts[label] += other.counts[label];
+			sumX[label] += other.sumX[label];
+			sumY[label] += other.sumY[label];
+		}
+		maxLabel = Math.max(maxLabel, other.maxLabel);
+	}
+
+	/**
+	 * (Re-)allocates the arrays used for storing statistics, keeping the
+	 * values already computed.
+	 * 
+	 * @param size
+	 *            the new size of the arrays
+	 */
+	private void allocate(int size)
+	{
+		if (counts == null)
+		{
+			counts = new int[size];
+			xMin = new int[size];
+			xMax = new int[size];
+			yMin = new int[size];
+			yMax = new int[size];
+			sumX = new long[size];
+			sumY = new long[size];
+			return;
+		}
+		counts = Arrays.copyOf(counts, size);
+		xMin = Arrays.copyOf(xMin, size);
+		xMax = Arrays.copyOf(xMax, size);
+		yMin = Arrays.copyOf(yMin, size);
+		yMax = Arrays.copyOf(yMax, size);
+		sumX = Arrays.copyOf(sumX, size);
+		sumY = Arrays.copyOf(sumY, size);
+	}
+
+
+	// ====================================================
+	// Access methods
+
+	/**
+	 * @return the width of the label image
+	 */
+	public int getWidth()
+	{
+		return this.sizeX;
+	}
+
+	/**
+	 * @return the height of the label image
+	 */
+	public int getHeight()
+	{
+		return this.sizeY;
+	}
+
+	/**
+	 * @return the largest label value found within the image
+	 */
+	public int getMaxLabel()
+	{
+		return this.maxLabel;
+	}
+
+	/**
+	 * @param label
+	 *            the label of a region
+	 * @return true if the image contains at least one pixel with this label
+	 */
+	public boolean contains(int label)
+	{
+		return label > 0 && label <= maxLabel && counts[label] > 0;
+	}
+
+	/**
+	 * @param label
+	 *            the label of a region
+	 * @return the number of pixels of the region, or 0 if the label is not
+	 *         present within image
+	 */
+	public int getPixelCount(int label)
+	{
+		return contains(label) ? counts[label] : 0;
+	}
+
+	/**
+	 * Returns the bounding box of the region with the specified label. The
+	 * bounding box contains all the pixels of the region.
+	 * 
+	 * @param label
+	 *            the label of a region
+	 * @return the bounding box of the region, or null if the label is not
+	 *         present within image
+	 */
+	public Rectangle getBoundingBox(int label)
+	{
+		if (!contains(label))
+		{
+			return null;
+		}
+		return new Rectangle(xMin[label], yMin[label],
+				xMax[label] - xMin[label] + 1, yMax[label] - yMin[label] + 1);
+	}
+
+	/**
+	 * Computes the centroid of the region with the specified label, as the
+	 * average of pixel coordinates.
+	 * 
+	 * @param label
+	 *            the label of a region
+	 * @return the centroid of the region
+	 */
+	public Point2D getCentroid(int label)
+	{
+		if (!contains(label))
+		{
+			throw new IllegalArgumentException("Label not found in image: " + label);
+		}
+		double n = counts[label];
+		return new Point2D.Double(sumX[label] / n, sumY[label] / n);
+	}
+
+	/**
+	 * Computes the centroids of a list of regions, as the average of pixel
+	 * coordinates.
+	 * 
+	 * @param labels
+	 *            the labels of the regions
+	 * @return an array with as many rows as the number of labels, containing
+	 *         the x- and y- coordinates of each centroid.
+	 */
+	public double[][] centroids(int[] labels)
+	{
+		double[][] centroids = new double[labels.length][2];
+		for (int i = 0; i < labels.length; i++)
+		{
+			Point2D centroid = getCentroid(labels[i]);
+			centroids[i][0] = centroid.getX();
+			centroids[i][1] = centroid.getY();
+		}
+		return centroids;
+	}
+
+	/**
+	 * Computes the region that can contain the boundary pixels between two
+	 * regions, corresponding to the intersection of the bounding boxes of
+	 * the two regions dilated by one pixel.
+	 * 
+	 * @param label1
+	 *            the label of the first region
+	 * @param label2
+	 *            the label of the second region
+	 * @return the search region, or null if the regions can not be adjacent
+	 */
+	public Rectangle boundarySearchRegion(int label1, int label2)
+	{
+		if (!contains(label1) || !contains(label2))
+		{
+			return null;
+		}
+
+		int x0 = Math.max(Math.max(xMin[label1], xMin[label2]) - 1, 0);
+		int x1 = Math.min(Math.min(xMax[label1], xMax[label2]) + 1, sizeX - 1);
+		int y0 = Math.max(Math.max(yMin[label1], yMin[label2]) - 1, 0);
+		int y1 = Math.min(Math.min(yMax[label1], yMax[label2]) + 1, sizeY - 1);
+		if (x0 > x1 || y0 > y1)
+		{
+			return null;
+		}
+		return new Rectangle(x0, y0, x1 - x0 + 1, y1 - y0 + 1);
+	}
+}
@@ -0,0 +1,431 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import java.awt.Polygon;
+import java.util.ArrayList;
+import java.util.List;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.gui.Overlay;
+import ij.gui.PolygonRoi;
+import ij.gui.Roi;
+import ij.gui.RoiListener;
+import ij.process.ImageProcessor;
+import ijt.geom.Polyline2D;
+
+/**
+ * Updates the analysis of a cell file while the user edits the polyline ROI.
+ * 
+ * After each modification of the ROI, the new label list is compared to the
+ * previous one. A boundary depends only on the labels of its two cells and on
+ * the positions of their (smoothed) centroids, and the smoothed position of a
+ * centroid depends only on the labels of the cell and of its two neighbors.
+ * Boundaries and vertices whose labels and neighbor labels did not change are
+ * therefore reused, and only the others are computed again. The overlay and
+ * the result table are then updated.
+ * 
+ * @author dlegland
+ */
+public class LiveCellFileEditor implements RoiListener
+{
+	// ====================================================
+	// Class members
+
+	/**
+	 * The session giving access to the data computed on the label image.
+	 */
+	ImageAnalysisSession session;
+
+	String tissueTypeName;
+	boolean isLeftSide;
+	boolean smoothPolyline;
+
+	/**
+	 * The image displaying the overlay of the cell file, or null.
+	 */
+	ImagePlus imageToOverlay = null;
+
+	/**
+	 * Whether the cell file is displayed with the compact overlay, using a
+	 * constant number of ROIs.
+	 */
+	boolean compactOverlay = false;
+
+	/**
+	 * The title of the table displaying the results, or null for no table.
+	 */
+	String tableTitle = null;
+
+	/**
+	 * The cell file computed for the last version of the ROI, or null.
+	 */
+	CellFile cellFile = null;
+
+	/**
+	 * The statistics used for computing the last cell file. If the session
+	 * provides other statistics, the cached results are not valid anymore.
+	 */
+	LabelStatistics lastStats = null;
+
+	/**
+	 * The number of boundaries computed during the last update.
+	 */
+	int computedBoundaryCount = 0;
+
+	/**
+	 * The ROIs added to the overlay during the last update.
+	 */
+	List<Roi> overlayRois = new ArrayList<Roi>();
+
+
+	// ====================================================
+	// Constructor
+
+	/**
+	 * Creates a new editor for the cell files drawn on the label image of the
+	 * specified session.
+	 * 
+	 * @param session
+	 *            the analysis session of the label image
+	 * @param tissueTypeName
+	 *            the name of the tissue type
+	 * @param isLeftSide
+	 *            true if the cell file is on the left side of the root
+	 * @param smoothPolyline
+	 *            true if the path between cell centroids should be smoothed
+	 */
+	public LiveCellFileEditor(ImageAnalysisSession session, String tissueTypeName, boolean isLeftSide,
+			boolean smoothPolyline)
+	{
+		this.session = session;
+		this.tissueTypeName = tissueTypeName;
+		this.isLeftSide = isLeftSide;
+		this.smoothPolyline = smoothPolyline;
+	}
+
+
+	// ====================================================
+	// Access methods
+
+	/**
+	 * @param image
+	 *            the image used to display the overlay of the cell file, or
+	 *            null to not display the overlay
+	 */
+	public void setImageToOverlay(ImagePlus image)
+	{
+		this.imageToOverlay = image;
+	}
+
+	/**
+	 * @param compact
+	 *            true if the cell file should be displayed with the compact
+	 *            overlay
+	 * @see Cell_File_Angles#updateCompactOverlay(Overlay, CellFile)
+	 */
+	public void setCompactOverlay(boolean compact)
+	{
+		this.compactOverlay = compact;
+	}
+
+	/**
+	 * @param title
+	 *            the title of the table used to display the results, or null
+	 *            to not display the table
+	 */
+	public void setTableTitle(String title)
+	{
+		this.tableTitle = title;
+	}
+
+	/**
+	 * @return the cell file computed for the last version of the ROI, or null
+	 */
+	public CellFile getCellFile()
+	{
+		return this.cellFile;
+	}
+
+	/**
+	 * @return the number of boundaries that were computed (and not reused)
+	 *         during the last update
+	 */
+	public int getComputedBoundaryCount()
+	{
+		return this.computedBoundaryCount;
+	}
+
+
+	// ====================================================
+	// Listener management
+
+	/**
+	 * Starts listening to the modifications of ROIs.
+	 */
+	public void start()
+	{
+		Roi.addRoiListener(this);
+	}
+
+	/**
+	 * Stops listening to the modifications of ROIs, and removes the overlay
+	 * of the cell file.
+	 */
+	public void stop()
+	{
+		Roi.removeRoiListener(this);
+		removeOverlay();
+	}
+
+	@Override
+	public void roiModified(ImagePlus imp, int id)
+	{
+		if (imp == null || imp != this.session.getImagePlus() || id == RoiListener.DELETED)
+		{
+			return;
+		}
+		Roi roi = imp.getRoi();
+		if (roi == null || roi.getType() != Roi.POLYLINE)
+		{
+			return;
+		}
+
+		try
+		{
+			update(((PolygonRoi) roi).getPolygon());
+		}
+		catch (RuntimeException ex)
+		{
+			// the polyline may be temporarily invalid while editing
+			IJ.showStatus("Could not update cell file: " + ex.getMessage());
+			return;
+		}
+		display();
+	}
+
+
+	// ====================================================
+	// Computation methods
+
+	/**
+	 * Computes the cell file corresponding to a new version of the polyline,
+	 * reusing the results of the previous version when possible.
+	 * 
+	 * @param polyline
+	 *            the way points of the cell file
+	 * @return the new cell file
+	 */
+	public synchronized CellFile update(Polygon polyline)
+	{
+		ImageProcessor image;
+		LabelStatistics stats;
+		BoundaryIndex index;
+		synchronized (this.session)
+		{
+			image = this.session.getLabelImage();
+			stats = this.session.getLabelStatistics();
+			index = this.session.getBoundaryIndex();
+		}
+
+		// the previous results can not be used if the image has changed
+		CellFile previous = stats == this.lastStats ? this.cellFile : null;
+
+		CellFile newFile = new CellFile(this.tissueTypeName, this.isLeftSide);
+		newFile.setWayPoints(polyline);
+		newFile.computeLabelList(image);
+		int[] labels = toArray(newFile.labelList);
+		int[] oldLabels = previous != null ? toArray(previous.labelList) : new int[0];
+		int[] oldIndices = matchIndices(oldLabels, labels);
+
+		// neighbors of a cell that influence its smoothed centroid and its boundaries
+		int radius = this.smoothPolyline ? 1 : 0;
+
+		// compute the path curve, reusing the vertices of the previous curve
+		newFile.computePathCurve(stats);
+		int n = labels.length;
+		if (this.smoothPolyline)
+		{
+			Polyline2D centroids = newFile.pathCurve;
+			if (previous == null || n < 3)
+			{
+				newFile.pathCurve = centroids.smooth();
+			}
+			else
+			{
+				newFile.pathCurve = new Polyline2D(n);
+				for (int i = 0; i < n; i++)
+				{
+					int j = oldIndices[i];
+					if (j >= 0 && sameLabels(labels, i - 1, oldLabels, j - 1, 3))
+					{
+						newFile.pathCurve.addVertex(previous.pathCurve.getVertex(j));
+					}
+					else
+					{
+						newFile.pathCurve.addVertex(centroids.smoothedVertex(i));
+					}
+				}
+			}
+		}
+
+		// compute the boundaries whose cells or neighbor cells have changed
+		int count = 0;
+		for (int i = 0; i < n - 1; i++)
+		{
+			int j = oldIndices[i];
+			if (j >= 0 && j < oldLabels.length - 1
+					&& sameLabels(labels, i - radius, oldLabels, j - radius, 2 + 2 * radius))
+			{
+				newFile.boundaries.add(previous.boundaries.get(j));
+			}
+			else
+			{
+				newFile.boundaries.add(newFile.computeBoundary(i, index, null, null));
+				count++;
+			}
+		}
+
+		this.cellFile = newFile;
+		this.lastStats = stats;
+		this.computedBoundaryCount = count;
+		return newFile;
+	}
+
+	/**
+	 * Associates each new label to the index of the same label within the
+	 * old list, when the label belongs to the common prefix or to the common
+	 * suffix of the two lists, or to -1 otherwise.
+	 */
+	private static final int[] matchIndices(int[] oldLabels, int[] labels)
+	{
+		int nOld = oldLabels.length;
+		int n = labels.length;
+
+		int prefix = 0;
+		while (prefix < Math.min(n, nOld) && labels[prefix] == oldLabels[prefix])
+		{
+			prefix++;
+		}
+		int suffix = 0;
+		while (suffix < Math.min(n, nOld) - prefix && labels[n - 1 - suffix] == oldLabels[nOld - 1 - suffix])
+		{
+			suffix++;
+		}
+
+		int[] indices = new int[n];
+		for (int i = 0; i < n; i++)
+		{
+			if (i < prefix)
+			{
+				indices[i] = i;
+			}
+			else if (i >= n - suffix)
+			{
+				indices[i] = i - n + nOld;
+			}
+			else
+			{
+				indices[i] = -1;
+			}
+		}
+		return indices;
+	}
+
+	/**
+	 * Compares the labels within two windows of the label lists. Positions
+	 * outside of the lists are considered as equal to each other, so that the
+	 * extremities of the cell files are taken into account.
+	 */
+	private static final boolean sameLabels(int[] labels1, int start1, int[] labels2, int start2, int length)
+	{
+		for (int k = 0; k < length; k++)
+		{
+			int i1 = start1 + k;
+			int i2 = start2 + k;
+			int label1 = i1 >= 0 && i1 < labels1.length ? labels1[i1] : -1;
+			int label2 = i2 >= 0 && i2 < labels2.length ? labels2[i2] : -1;
+			if (label1 != label2)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static final int[] toArray(List<Integer> list)
+	{
+		int[] array = new int[list.size()];
+		for (int i = 0; i < array.length; i++)
+		{
+			array[i] = list.get(i);
+		}
+		return array;
+	}
+
+
+	// ====================================================
+	// Display methods
+
+	/**
+	 * Updates the overlay and the table with the current cell file.
+	 */
+	public void display()
+	{
+		if (this.cellFile == null)
+		{
+			return;
+		}
+
+		if (this.imageToOverlay != null)
+		{
+			removeOverlay();
+			Overlay overlay = this.imageToOverlay.getOverlay();
+			if (overlay == null)
+			{
+				overlay = new Overlay();
+			}
+
+			// create the new elements, and keep them for removing them later
+			int nRois = overlay.size();
+			if (this.compactOverlay)
+			{
+				Cell_File_Angles.updateCompactOverlay(overlay, this.cellFile);
+			}
+			else
+			{
+				Cell_File_Angles.updateOverlay(overlay, this.cellFile);
+			}
+			for (int i = nRois; i < overlay.size(); i++)
+			{
+				this.overlayRois.add(overlay.get(i));
+			}
+			this.imageToOverlay.setOverlay(overlay);
+		}
+
+		if (this.tableTitle != null)
+		{
+			this.cellFile.createTable().show(this.tableTitle);
+		}
+	}
+
+	private void removeOverlay()
+	{
+		if (this.imageToOverlay == null || this.overlayRois.isEmpty())
+		{
+			return;
+		}
+		Overlay overlay = this.imageToOverlay.getOverlay();
+		if (overlay != null)
+		{
+			for (Roi roi : this.overlayRois)
+			{
+				overlay.remove(roi);
+			}
+			this.imageToOverlay.setOverlay(overlay);
+		}
+		this.overlayRois.clear();
+	}
+}
@@ -0,0 +1,113 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import ij.IJ;
+
+/**
+ * Displays the results of cell file analyses within the ImageJ Log window.
+ * 
+ * The rows are gathered within a buffer, and sent to the Log window with a
+ * single call, when the sink is flushed or when the buffer contains enough
+ * rows. This avoids repainting the Log window after each row.
+ * 
+ * @author dlegland
+ */
+public class LogResultSink implements ResultSink
+{
+	// ====================================================
+	// Class members
+
+	/**
+	 * The maximum number of rows kept within the buffer before it is sent
+	 * to the Log window.
+	 */
+	int maxBufferedRows = 1000;
+
+	/**
+	 * The buffer containing the rows not yet sent to the Log window.
+	 */
+	StringBuilder buffer = new StringBuilder();
+
+	/**
+	 * The number of rows within the buffer.
+	 */
+	int bufferedRows = 0;
+
+	/**
+	 * Whether the header row must be displayed before the next row.
+	 */
+	boolean needsHeader = true;
+
+
+	// ====================================================
+	// Constructor
+
+	/**
+	 * Creates a new sink displaying results within the Log window.
+	 */
+	public LogResultSink()
+	{
+	}
+
+
+	// ====================================================
+	// Implementation of the ResultSink interface
+
+	@Override
+	public void addBoundary(String imageName, String cellFileName, String tissueType, boolean isLeftSide,
+			CellsBoundary boundary)
+	{
+		if (this.needsHeader)
+		{
+			this.buffer.append("imageName;tissueType;label1;label2;innerPointX;innerPointY;outerPointX;outerPointY;angleInDegrees");
+			this.bufferedRows++;
+			this.needsHeader = false;
+		}
+
+		StringBuilder sb = this.buffer;
+		if (sb.length() > 0)
+		{
+			sb.append('\n');
+		}
+		sb.append(imageName).append("; ").append(tissueType).append("; ");
+		sb.append(boundary.label1).append("; ").append(boundary.label2).append("; ");
+		sb.append(boundary.innerPoint.getX()).append("; ").append(boundary.innerPoint.getY()).append("; ");
+		sb.append(boundary.outerPoint.getX()).append("; ").append(boundary.outerPoint.getY()).append("; ");
+		sb.append(Math.toDegrees(boundary.angle));
+		this.bufferedRows++;
+
+		if (this.bufferedRows >= this.maxBufferedRows)
+		{
+			flush();
+		}
+	}
+
+	/**
+	 * Displays the header row again before the next row, for example when
+	 * the results of a new cell file are displayed.
+	 */
+	public void startNewBlock()
+	{
+		this.needsHeader = true;
+	}
+
+	@Override
+	public void flush()
+	{
+		if (this.buffer.length() == 0)
+		{
+			return;
+		}
+		IJ.log(this.buffer.toString());
+		this.buffer.setLength(0);
+		this.bufferedRows = 0;
+	}
+
+	@Override
+	public void close()
+	{
+		flush();
+	}
+}
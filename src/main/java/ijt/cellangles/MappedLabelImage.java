@@ -0,0 +1,509 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/**
+ * A label image stored within an uncompressed file (TIFF or raw), and
+ * accessed through memory mapping without loading it within the heap.
+ * 
+ * Rectangular tiles of the image can be read as ImageProcessor instances, and
+ * the labels of individual pixels can be accessed directly, so that the
+ * image can also be used as a kernel for computing the label list of a cell
+ * file. Supported pixel types are 8-, 16- and 32-bit unsigned integers, and
+ * 32-bit floating point values. Tiles of 32-bit integer images can be read
+ * only if their labels do not exceed 2^24.
+ * 
+ * The pixels of cell boundaries are identified by their index within the
+ * image, stored as an int, so the number of pixels of the image must not
+ * exceed 2^31-1 (for example, about 46000 x 46000 pixels). Larger images are
+ * rejected when they are opened.
+ * 
+ * @author dlegland
+ */
+public class MappedLabelImage extends LabelImageKernel implements Closeable
+{
+	// ====================================================
+	// Static factories
+
+	/**
+	 * Opens an uncompressed single channel TIFF file, organized in strips.
+	 * Only the first image of the file is considered.
+	 * 
+	 * @param file
+	 *            the TIFF file to open
+	 * @return the mapped label image
+	 * @throws IOException
+	 *             if the file could not be read, if its format is not
+	 *             supported, or if the image has too many pixels
+	 */
+	public static final MappedLabelImage openTiff(File file) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			FileChannel channel = raf.getChannel();
+
+			// read the header to identify the byte order
+			ByteBuffer header = readBuffer(channel, 0, 8, ByteOrder.BIG_ENDIAN);
+			ByteOrder order;
+			if (header.get(0) == 'I' && header.get(1) == 'I')
+			{
+				order = ByteOrder.LITTLE_ENDIAN;
+			}
+			else if (header.get(0) == 'M' && header.get(1) == 'M')
+			{
+				order = ByteOrder.BIG_ENDIAN;
+			}
+			else
+			{
+				throw new IOException("Not a TIFF file: " + file.getName());
+			}
+			header.order(order);
+			if (header.getShort(2) != 42)
+			{
+				throw new IOException("Unsupported TIFF version (BigTIFF?): " + file.getName());
+			}
+
+			// read the entries of the first IFD
+			long ifdOffset = header.getInt(4) & 0xFFFFFFFFL;
+			int nEntries = readBuffer(channel, ifdOffset, 2, order).getShort(0) & 0xFFFF;
+			ByteBuffer entries = readBuffer(channel, ifdOffset + 2, nEntries * 12, order);
+
+			int sizeX = 0, sizeY = 0;
+			int bitDepth = 1;
+			int sampleFormat = 1;
+			int rowsPerStrip = Integer.MAX_VALUE;
+			long[] stripOffsets = null;
+			for (int i = 0; i < nEntries; i++)
+			{
+				int pos = i * 12;
+				int tag = entries.getShort(pos) & 0xFFFF;
+				switch (tag)
+				{
+				case 256: // ImageWidth
+					sizeX = (int) readTagValues(channel, entries, pos, order)[0];
+					break;
+				case 257: // ImageLength
+					sizeY = (int) readTagValues(channel, entries, pos, order)[0];
+					break;
+				case 258: // BitsPerSample
+					bitDepth = (int) readTagValues(channel, entries, pos, order)[0];
+					break;
+				case 259: // Compression
+					if (readTagValues(channel, entries, pos, order)[0] != 1)
+					{
+						throw new IOException("Compressed TIFF files are not supported");
+					}
+					break;
+				case 273: // StripOffsets
+					stripOffsets = readTagValues(channel, entries, pos, order);
+					break;
+				case 277: // SamplesPerPixel
+					if (readTagValues(channel, entries, pos, order)[0] != 1)
+					{
+						throw new IOException("Requires a single channel image");
+					}
+					break;
+				case 278: // RowsPerStrip
+					rowsPerStrip = (int) Math.min(readTagValues(channel, entries, pos, order)[0], Integer.MAX_VALUE);
+					break;
+				case 322: // TileWidth
+					throw new IOException("Tiled TIFF files are not supported");
+				case 339: // SampleFormat
+					sampleFormat = (int) readTagValues(channel, entries, pos, order)[0];
+					break;
+				default:
+					break;
+				}
+			}
+			if (sizeX <= 0 || sizeY <= 0 || stripOffsets == null)
+			{
+				throw new IOException("Missing image size or strip offsets in TIFF file: " + file.getName());
+			}
+			checkImageSize(sizeX, sizeY);
+
+			// compute the position of each row within the file
+			int bytesPerPixel = bytesPerPixel(bitDepth);
+			long rowBytes = (long) sizeX * bytesPerPixel;
+			long[] rowOffsets = new long[sizeY];
+			for (int y = 0; y < sizeY; y++)
+			{
+				int strip = y / rowsPerStrip;
+				if (strip >= stripOffsets.length)
+				{
+					throw new IOException("Not enough strips in TIFF file: " + file.getName());
+				}
+				rowOffsets[y] = stripOffsets[strip] + (y % rowsPerStrip) * rowBytes;
+			}
+
+			return new MappedLabelImage(channel, sizeX, sizeY, bitDepth, bitDepth == 32 && sampleFormat == 3,
+					order, rowOffsets);
+		}
+		catch (IOException ex)
+		{
+			raf.close();
+			throw ex;
+		}
+		catch (RuntimeException ex)
+		{
+			raf.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Opens a raw file containing the pixels of a label image, stored in
+	 * raster order after an optional header.
+	 * 
+	 * @param file
+	 *            the raw file to open
+	 * @param sizeX
+	 *            the width of the image
+	 * @param sizeY
+	 *            the height of the image
+	 * @param bitDepth
+	 *            the number of bits of each pixel (8, 16 or 32)
+	 * @param isFloat
+	 *            true if 32-bit pixels are floating point values
+	 * @param littleEndian
+	 *            true if the bytes of multi-byte values are stored in little
+	 *            endian order
+	 * @param headerSize
+	 *            the number of bytes before the first pixel
+	 * @return the mapped label image
+	 * @throws IOException
+	 *             if the file could not be read, or is too small, or if the
+	 *             image has too many pixels
+	 */
+	public static final MappedLabelImage openRaw(File file, int sizeX, int sizeY, int bitDepth, boolean isFloat,
+			boolean littleEndian, long headerSize) throws IOException
+	{
+		checkImageSize(sizeX, sizeY);
+		long rowBytes = (long) sizeX * bytesPerPixel(bitDepth);
+		if (file.length() < headerSize + rowBytes * sizeY)
+		{
+			throw new IOException("File is too small for the image size: " + file.getName());
+		}
+		long[] rowOffsets = new long[sizeY];
+		for (int y = 0; y < sizeY; y++)
+		{
+			rowOffsets[y] = headerSize + y * rowBytes;
+		}
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			return new MappedLabelImage(raf.getChannel(), sizeX, sizeY, bitDepth, bitDepth == 32 && isFloat,
+					littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN, rowOffsets);
+		}
+		catch (IOException ex)
+		{
+			raf.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Checks that the index of each pixel can be stored as an int.
+	 */
+	private static final void checkImageSize(int sizeX, int sizeY) throws IOException
+	{
+		if ((long) sizeX * sizeY > Integer.MAX_VALUE)
+		{
+			throw new IOException("Image is too large: " + sizeX + "x" + sizeY
+					+ " pixels, the maximum number of pixels is " + Integer.MAX_VALUE);
+		}
+	}
+
+	private static final int bytesPerPixel(int bitDepth) throws IOException
+	{
+		switch (bitDepth)
+		{
+		case 8:
+			return 1;
+		case 16:
+			return 2;
+		case 32:
+			return 4;
+		default:
+			throw new IOException("Unsupported bit depth: " + bitDepth);
+		}
+	}
+
+	/**
+	 * Reads the values of an entry of a TIFF directory, that can be stored
+	 * either within the entry or at another position within the file.
+	 */
+	private static final long[] readTagValues(FileChannel channel, ByteBuffer entries, int pos, ByteOrder order)
+			throws IOException
+	{
+		int type = entries.getShort(pos + 2) & 0xFFFF;
+		int count = entries.getInt(pos + 4);
+		int size = type == 3 ? 2 : 4;
+		if (type != 3 && type != 4)
+		{
+			throw new IOException("Unsupported type for TIFF tag " + (entries.getShort(pos) & 0xFFFF) + ": " + type);
+		}
+
+		ByteBuffer buffer = entries;
+		int offset = pos + 8;
+		if (count * size > 4)
+		{
+			buffer = readBuffer(channel, entries.getInt(pos + 8) & 0xFFFFFFFFL, count * size, order);
+			offset = 0;
+		}
+
+		long[] values = new long[count];
+		for (int i = 0; i < count; i++)
+		{
+			values[i] = type == 3 ? buffer.getShort(offset + 2 * i) & 0xFFFF
+					: buffer.getInt(offset + 4 * i) & 0xFFFFFFFFL;
+		}
+		return values;
+	}
+
+	private static final ByteBuffer readBuffer(FileChannel channel, long position, int length, ByteOrder order)
+			throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining())
+		{
+			if (channel.read(buffer, position + buffer.position()) < 0)
+			{
+				throw new IOException("Unexpected end of file");
+			}
+		}
+		buffer.order(order);
+		return buffer;
+	}
+
+
+	// ====================================================
+	// Class members
+
+	/**
+	 * The number of bits used for indexing bytes within a mapped segment.
+	 */
+	private static final int SEGMENT_BITS = 30;
+
+	/**
+	 * The channel of the file containing the image.
+	 */
+	FileChannel channel;
+
+	/**
+	 * The mapped segments of the file. Each segment starts at a multiple of
+	 * 2^SEGMENT_BITS, and is extended by the length of a row, so that each
+	 * row is fully contained within the segment containing its first pixel.
+	 */
+	MappedByteBuffer[] segments;
+
+	/**
+	 * The position of the first pixel of each row within the file.
+	 */
+	long[] rowOffsets;
+
+	int bytesPerPixel;
+
+	boolean isFloat;
+
+	ByteOrder order;
+
+
+	// ====================================================
+	// Constructor
+
+	private MappedLabelImage(FileChannel channel, int sizeX, int sizeY, int bitDepth, boolean isFloat,
+			ByteOrder order, long[] rowOffsets) throws IOException
+	{
+		super(sizeX, sizeY);
+		this.channel = channel;
+		this.bytesPerPixel = bytesPerPixel(bitDepth);
+		this.isFloat = isFloat;
+		this.order = order;
+		this.rowOffsets = rowOffsets;
+
+		// map the file by segments, as a single buffer is limited to 2GB
+		long fileSize = channel.size();
+		long rowBytes = (long) sizeX * bytesPerPixel;
+		long segmentSize = 1L << SEGMENT_BITS;
+		int nSegments = (int) ((fileSize + segmentSize - 1) >> SEGMENT_BITS);
+		this.segments = new MappedByteBuffer[Math.max(nSegments, 1)];
+		for (int i = 0; i < nSegments; i++)
+		{
+			long start = i * segmentSize;
+			long length = Math.min(segmentSize + rowBytes, fileSize - start);
+			this.segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+			this.segments[i].order(order);
+		}
+
+		for (long offset : rowOffsets)
+		{
+			if (offset < 0 || offset + rowBytes > fileSize)
+			{
+				throw new IOException("Image data exceeds the size of the file");
+			}
+		}
+	}
+
+
+	// ====================================================
+	// Methods
+
+	/**
+	 * @return the number of bits of each pixel
+	 */
+	public int getBitDepth()
+	{
+		return this.bytesPerPixel * 8;
+	}
+
+	@Override
+	public int getLabel(int x, int y)
+	{
+		long offset = rowOffsets[y] + (long) x * bytesPerPixel;
+		ByteBuffer segment = segments[(int) (offset >>> SEGMENT_BITS)];
+		int pos = (int) (offset & ((1L << SEGMENT_BITS) - 1));
+		switch (bytesPerPixel)
+		{
+		case 1:
+			return segment.get(pos) & 0x00FF;
+		case 2:
+			return segment.getShort(pos) & 0x00FFFF;
+		default:
+			return isFloat ? (int) segment.getFloat(pos) : segment.getInt(pos);
+		}
+	}
+
+	/**
+	 * The largest label stored as a 32-bit integer that can be converted to a
+	 * floating point value without loss of precision.
+	 */
+	static final int MAX_EXACT_FLOAT_LABEL = 1 << 24;
+
+	/**
+	 * Reads a rectangular tile of the image. The type of the processor
+	 * depends on the type of the pixels. Labels stored as 32-bit integers are
+	 * converted to floating point values, that are exact only up to 2^24:
+	 * larger labels would be rounded, and result in an exception.
+	 * 
+	 * @param x0
+	 *            the x-coordinate of the upper-left pixel of the tile
+	 * @param y0
+	 *            the y-coordinate of the upper-left pixel of the tile
+	 * @param width
+	 *            the width of the tile
+	 * @param height
+	 *            the height of the tile
+	 * @return a new ImageProcessor containing the pixels of the tile
+	 * @throws IllegalStateException
+	 *             if the tile contains a 32-bit integer label that can not be
+	 *             represented exactly as a floating point value
+	 */
+	public ImageProcessor readTile(int x0, int y0, int width, int height)
+	{
+		if (x0 < 0 || y0 < 0 || x0 + width > sizeX || y0 + height > sizeY)
+		{
+			throw new IllegalArgumentException("Tile is not within image bounds");
+		}
+
+		byte[] bytePixels = bytesPerPixel == 1 ? new byte[width * height] : null;
+		short[] shortPixels = bytesPerPixel == 2 ? new short[width * height] : null;
+		float[] floatPixels = bytesPerPixel == 4 ? new float[width * height] : null;
+		for (int y = 0; y < height; y++)
+		{
+			// the whole row of the tile is within the segment of its first pixel
+			long offset = rowOffsets[y0 + y] + (long) x0 * bytesPerPixel;
+			ByteBuffer buffer = segments[(int) (offset >>> SEGMENT_BITS)].duplicate();
+			buffer.order(order);
+			buffer.position((int) (offset & ((1L << SEGMENT_BITS) - 1)));
+
+			int index = y * width;
+			switch (bytesPerPixel)
+			{
+			case 1:
+				buffer.get(bytePixels, index, width);
+				break;
+			case 2:
+				buffer.asShortBuffer().get(shortPixels, index, width);
+				break;
+			default:
+				if (isFloat)
+				{
+					buffer.asFloatBuffer().get(floatPixels, index, width);
+				}
+				else
+				{
+					for (int x = 0; x < width; x++)
+					{
+						int label = buffer.getInt();
+						if (label > MAX_EXACT_FLOAT_LABEL || label < -MAX_EXACT_FLOAT_LABEL)
+						{
+							throw new IllegalStateException("Label " + (label & 0xFFFFFFFFL)
+									+ " is too large to be processed by tiles (maximum is 2^24)");
+						}
+						floatPixels[index + x] = label;
+					}
+				}
+			}
+		}
+
+		switch (bytesPerPixel)
+		{
+		case 1:
+			return new ByteProcessor(width, height, bytePixels);
+		case 2:
+			return new ShortProcessor(width, height, shortPixels, null);
+		default:
+			return new FloatProcessor(width, height, floatPixels);
+		}
+	}
+
+	@Override
+	protected void findInteriorBoundaryPixels(int label1, int label2, int y, int xStart, int xEnd, PixelList pixels)
+	{
+		for (int x = xStart; x <= xEnd; x++)
+		{
+			if (getLabel(x, y) != 0)
+			{
+				continue;
+			}
+
+			int n1 = getLabel(x, y - 1);
+			int n2 = getLabel(x - 1, y);
+			int n3 = getLabel(x + 1, y);
+			int n4 = getLabel(x, y + 1);
+			if ((n1 == label1 || n2 == label1 || n3 == label1 || n4 == label1)
+					&& (n1 == label2 || n2 == label2 || n3 == label2 || n4 == label2))
+			{
+				pixels.add(x, y);
+			}
+		}
+	}
+
+	/**
+	 * Closes the file containing the image. The mapped memory is released
+	 * when the image is garbage collected.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		this.segments = null;
+		this.channel.close();
+	}
+}
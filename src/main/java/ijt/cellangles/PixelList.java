@@ -0,0 +1,266 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import java.awt.Point;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A growable list of pixel positions within an image, stored as packed
+ * indices <code>y * width + x</code> within a primitive array.
+ * 
+ * This avoids the creation of one object for each pixel. A view of the list as
+ * a list of <code>java.awt.Point</code> can be obtained for use with the
+ * graphical functions.
+ * 
+ * @author dlegland
+ */
+public class PixelList
+{
+	// ====================================================
+	// Class members
+
+	/**
+	 * The width of the image containing the pixels, used for packing the
+	 * coordinates.
+	 */
+	int sizeX;
+
+	/**
+	 * The packed indices of the pixels.
+	 */
+	int[] indices;
+
+	/**
+	 * The number of pixels within the list.
+	 */
+	int size = 0;
+
+
+	// ====================================================
+	// Constructors
+
+	/**
+	 * Creates a new empty pixel list, for an image with the specified width.
+	 * 
+	 * @param sizeX
+	 *            the width of the image containing the pixels
+	 */
+	public PixelList(int sizeX)
+	{
+		this(sizeX, 8);
+	}
+
+	/**
+	 * Creates a new empty pixel list, for an image with the specified width,
+	 * and allocates enough space for the specified number of pixels.
+	 * 
+	 * @param sizeX
+	 *            the width of the image containing the pixels
+	 * @param capacity
+	 *            the initial capacity of the list
+	 */
+	public PixelList(int sizeX, int capacity)
+	{
+		this.sizeX = sizeX;
+		this.indices = new int[Math.max(capacity, 1)];
+	}
+
+
+	// ====================================================
+	// Modification methods
+
+	/**
+	 * Removes all the pixels from this list, and changes the width of the
+	 * reference image.
+	 * 
+	 * @param sizeX
+	 *            the width of the image containing the pixels
+	 */
+	public void reset(int sizeX)
+	{
+		this.sizeX = sizeX;
+		this.size = 0;
+	}
+
+	/**
+	 * Adds a pixel to the list.
+	 * 
+	 * @param x
+	 *            the x-coordinate of the pixel
+	 * @param y
+	 *            the y-coordinate of the pixel
+	 */
+	public void add(int x, int y)
+	{
+		addIndex(y * sizeX + x);
+	}
+
+	/**
+	 * Adds a pixel to the list, using its packed index.
+	 * 
+	 * @param index
+	 *            the packed index of the pixel
+	 */
+	public void addIndex(int index)
+	{
+		if (size == indices.length)
+		{
+			indices = Arrays.copyOf(indices, size * 2);
+		}
+		indices[size++] = index;
+	}
+
+	/**
+	 * Adds all the pixels of another list. Both lists must correspond to the
+	 * same image width.
+	 * 
+	 * @param pixels
+	 *            the pixels to add
+	 */
+	public void addAll(PixelList pixels)
+	{
+		int newSize = size + pixels.size;
+		if (newSize > indices.length)
+		{
+			indices = Arrays.copyOf(indices, Math.max(newSize, indices.length * 2));
+		}
+		System.arraycopy(pixels.indices, 0, indices, size, pixels.size);
+		size = newSize;
+	}
+
+	/**
+	 * Sorts the pixels of this list in raster order.
+	 */
+	public void sort()
+	{
+		Arrays.sort(indices, 0, size);
+	}
+
+
+	// ====================================================
+	// Access methods
+
+	/**
+	 * @return the number of pixels within this list
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return true if the list does not contain any pixel
+	 */
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	/**
+	 * @return the width of the image containing the pixels
+	 */
+	public int getSizeX()
+	{
+		return sizeX;
+	}
+
+	/**
+	 * @param i
+	 *            the position of the pixel within the list
+	 * @return the packed index of the i-th pixel
+	 */
+	public int getIndex(int i)
+	{
+		return indices[i];
+	}
+
+	/**
+	 * @param i
+	 *            the position of the pixel within the list
+	 * @return the x-coordinate of the i-th pixel
+	 */
+	public int getX(int i)
+	{
+		return indices[i] % sizeX;
+	}
+
+	/**
+	 * @param i
+	 *            the position of the pixel within the list
+	 * @return the y-coordinate of the i-th pixel
+	 */
+	public int getY(int i)
+	{
+		return indices[i] / sizeX;
+	}
+
+	/**
+	 * Copies the coordinates of the pixels into the specified arrays, that
+	 * must contain at least size() elements.
+	 * 
+	 * @param xCoords
+	 *            the array the x-coordinates are written into
+	 * @param yCoords
+	 *            the array the y-coordinates are written into
+	 */
+	public void getCoordinates(int[] xCoords, int[] yCoords)
+	{
+		for (int i = 0; i < size; i++)
+		{
+			int index = indices[i];
+			xCoords[i] = index % sizeX;
+			yCoords[i] = index / sizeX;
+		}
+	}
+
+	/**
+	 * @param i
+	 *            the position of the pixel within the list
+	 * @return a new Point corresponding to the i-th pixel
+	 */
+	public Point getPoint(int i)
+	{
+		int index = indices[i];
+		return new Point(index % sizeX, index / sizeX);
+	}
+
+	/**
+	 * Returns a read-only view of this list as a list of points. Points are
+	 * created on demand.
+	 * 
+	 * @return a view of this list as a list of points.
+	 */
+	public List<Point> asPoints()
+	{
+		return new AbstractList<Point>()
+		{
+			@Override
+			public Point get(int i)
+			{
+				if (i >= size)
+				{
+					throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+				}
+				return getPoint(i);
+			}
+
+			@Override
+			public int size()
+			{
+				return size;
+			}
+		};
+	}
+
+	/**
+	 * @return a new array containing the packed indices of the pixels
+	 */
+	public int[] toArray()
+	{
+		return Arrays.copyOf(indices, size);
+	}
+}
@@ -0,0 +1,24 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+/**
+ * Receives the progress of a computation made of several steps, for
+ * example the computation of the boundaries of a cell file.
+ * 
+ * @see CellFile#computeCellsBoundaries(BoundaryIndex, java.util.concurrent.Executor, ProgressListener)
+ * @author dlegland
+ */
+public interface ProgressListener
+{
+	/**
+	 * Called after the completion of a step of the computation.
+	 * 
+	 * @param current
+	 *            the number of steps completed so far
+	 * @param total
+	 *            the total number of steps
+	 */
+	public void progressChanged(int current, int total);
+}
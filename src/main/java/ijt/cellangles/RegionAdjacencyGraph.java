@@ -0,0 +1,522 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import java.util.Arrays;
+
+import ij.process.ImageProcessor;
+import ijt.util.LongIntHashMap;
+
+/**
+ * The adjacency graph of the regions of a label image, computed in a single
+ * pass over the image.
+ * 
+ * Nodes correspond to the (positive) labels of the image, sorted in
+ * increasing order, and store the area and the centroid of the regions. Two
+ * regions are adjacent if they are separated by background pixels (that are
+ * 4-adjacent to both regions), or if they touch directly. Edges store the
+ * wall length (the number of background pixels between the two regions) and
+ * the contact count (the number of pairs of 4-adjacent pixels belonging to
+ * each region).
+ * 
+ * The graph is stored in compressed sparse row (CSR) form: the neighbors of
+ * the i-th node are stored in the neighbors array, between indices
+ * offsets[i] (inclusive) and offsets[i+1] (exclusive), in increasing order.
+ * All the queries work with node and edge indices, without boxing.
+ * 
+ * @author dlegland
+ */
+public class RegionAdjacencyGraph
+{
+	// ====================================================
+	// Class members
+
+	/**
+	 * The label of each node, in increasing order.
+	 */
+	int[] labels;
+
+	/**
+	 * The number of pixels of each node.
+	 */
+	int[] areas;
+
+	/**
+	 * The coordinates of the centroid of each node.
+	 */
+	double[] centroidsX;
+	double[] centroidsY;
+
+	/**
+	 * For each node, the index of its first neighbor within the neighbors
+	 * array. Contains (nodeCount + 1) values.
+	 */
+	int[] offsets;
+
+	/**
+	 * The indices of neighbor nodes, grouped by node.
+	 */
+	int[] neighbors;
+
+	/**
+	 * For each entry of the neighbors array, the index of the corresponding
+	 * edge.
+	 */
+	int[] incidentEdges;
+
+	/**
+	 * The indices of the two nodes of each edge, with edgeNodes1[i] &lt;
+	 * edgeNodes2[i].
+	 */
+	int[] edgeNodes1;
+	int[] edgeNodes2;
+
+	/**
+	 * The number of background pixels adjacent to both regions of each edge.
+	 */
+	int[] wallLengths;
+
+	/**
+	 * The number of pairs of adjacent pixels belonging to each region of the
+	 * edge.
+	 */
+	int[] contactCounts;
+
+
+	// ====================================================
+	// Constructor
+
+	/**
+	 * Computes the adjacency graph of the regions within the specified label
+	 * image.
+	 * 
+	 * @param labelImage
+	 *            the image containing labels of cell regions.
+	 */
+	public RegionAdjacencyGraph(ImageProcessor labelImage)
+	{
+		LabelImageKernel kernel = LabelImageKernel.create(labelImage);
+		int sizeX = labelImage.getWidth();
+		int sizeY = labelImage.getHeight();
+
+		// statistics of labels, indexed by label
+		int[] counts = new int[256];
+		long[] sumX = new long[256];
+		long[] sumY = new long[256];
+
+		// attributes of edges, indexed by the order of discovery
+		LongIntHashMap edgeMap = new LongIntHashMap(1024, -1);
+		int[] walls = new int[256];
+		int[] contacts = new int[256];
+
+		// labels of the neighbors of current background pixel
+		int[] neighborLabels = new int[4];
+
+		// keep the last pair, as consecutive pixels often belong to the same boundary
+		long lastKey = -1;
+		int lastEdge = -1;
+
+		for (int y = 0; y < sizeY; y++)
+		{
+			for (int x = 0; x < sizeX; x++)
+			{
+				int label = kernel.getLabel(x, y);
+				if (label > 0)
+				{
+					// update region statistics
+					if (label >= counts.length)
+					{
+						int newSize = Math.max(label + 1, counts.length * 2);
+						counts = Arrays.copyOf(counts, newSize);
+						sumX = Arrays.copyOf(sumX, newSize);
+						sumY = Arrays.copyOf(sumY, newSize);
+					}
+					counts[label]++;
+					sumX[label] += x;
+					sumY[label] += y;
+
+					// check direct contacts with the right and bottom neighbors
+					for (int k = 0; k < 2; k++)
+					{
+						int x2 = k == 0 ? x + 1 : x;
+						int y2 = k == 0 ? y : y + 1;
+						if (x2 > sizeX - 1 || y2 > sizeY - 1) continue;
+
+						int label2 = kernel.getLabel(x2, y2);
+						if (label2 <= 0 || label2 == label) continue;
+
+						long key = BoundaryIndex.pairKey(label, label2);
+						if (key != lastKey)
+						{
+							lastEdge = edgeIndex(edgeMap, key);
+							lastKey = key;
+						}
+						if (lastEdge >= contacts.length)
+						{
+							walls = Arrays.copyOf(walls, contacts.length * 2);
+							contacts = Arrays.copyOf(contacts, contacts.length * 2);
+						}
+						contacts[lastEdge]++;
+					}
+					continue;
+				}
+				if (label < 0)
+				{
+					continue;
+				}
+
+				// extract the list of distinct neighbor labels of background pixel
+				int nNeighbors = 0;
+				if (y > 0) nNeighbors = addLabel(neighborLabels, nNeighbors, kernel.getLabel(x, y - 1));
+				if (x > 0) nNeighbors = addLabel(neighborLabels, nNeighbors, kernel.getLabel(x - 1, y));
+				if (x < sizeX - 1) nNeighbors = addLabel(neighborLabels, nNeighbors, kernel.getLabel(x + 1, y));
+				if (y < sizeY - 1) nNeighbors = addLabel(neighborLabels, nNeighbors, kernel.getLabel(x, y + 1));
+
+				// update the wall length of each pair of neighbor labels
+				for (int i = 0; i < nNeighbors - 1; i++)
+				{
+					for (int j = i + 1; j < nNeighbors; j++)
+					{
+						long key = BoundaryIndex.pairKey(neighborLabels[i], neighborLabels[j]);
+						if (key != lastKey)
+						{
+							lastEdge = edgeIndex(edgeMap, key);
+							lastKey = key;
+						}
+						if (lastEdge >= walls.length)
+						{
+							walls = Arrays.copyOf(walls, walls.length * 2);
+							contacts = Arrays.copyOf(contacts, contacts.length * 2);
+						}
+						walls[lastEdge]++;
+					}
+				}
+			}
+		}
+
+		createNodes(counts, sumX, sumY);
+		createEdges(edgeMap, walls, contacts);
+	}
+
+	/**
+	 * Returns the index of the edge associated to a key, creating a new index
+	 * if necessary.
+	 */
+	private static final int edgeIndex(LongIntHashMap edgeMap, long key)
+	{
+		int index = edgeMap.get(key);
+		if (index < 0)
+		{
+			index = edgeMap.size();
+			edgeMap.put(key, index);
+		}
+		return index;
+	}
+
+	/**
+	 * Adds a label to the array of distinct positive labels, and returns the
+	 * new number of labels.
+	 */
+	private static final int addLabel(int[] array, int n, int label)
+	{
+		if (label <= 0)
+		{
+			return n;
+		}
+		for (int i = 0; i < n; i++)
+		{
+			if (array[i] == label)
+			{
+				return n;
+			}
+		}
+		array[n] = label;
+		return n + 1;
+	}
+
+	private void createNodes(int[] counts, long[] sumX, long[] sumY)
+	{
+		int nNodes = 0;
+		for (int label = 1; label < counts.length; label++)
+		{
+			if (counts[label] > 0) nNodes++;
+		}
+
+		this.labels = new int[nNodes];
+		this.areas = new int[nNodes];
+		this.centroidsX = new double[nNodes];
+		this.centroidsY = new double[nNodes];
+		int node = 0;
+		for (int label = 1; label < counts.length; label++)
+		{
+			int count = counts[label];
+			if (count == 0) continue;
+			this.labels[node] = label;
+			this.areas[node] = count;
+			this.centroidsX[node] = ((double) sumX[label]) / count;
+			this.centroidsY[node] = ((double) sumY[label]) / count;
+			node++;
+		}
+	}
+
+	private void createEdges(LongIntHashMap edgeMap, int[] walls, int[] contacts)
+	{
+		// sort edges by pair of labels, that also sorts them by pair of nodes
+		long[] keys = edgeMap.keys();
+		Arrays.sort(keys);
+
+		int nEdges = keys.length;
+		int nNodes = this.labels.length;
+		this.edgeNodes1 = new int[nEdges];
+		this.edgeNodes2 = new int[nEdges];
+		this.wallLengths = new int[nEdges];
+		this.contactCounts = new int[nEdges];
+
+		int[] degrees = new int[nNodes];
+		for (int e = 0; e < nEdges; e++)
+		{
+			long key = keys[e];
+			int index = edgeMap.get(key);
+			int node1 = nodeIndex((int) (key >>> 32));
+			int node2 = nodeIndex((int) key);
+			this.edgeNodes1[e] = node1;
+			this.edgeNodes2[e] = node2;
+			this.wallLengths[e] = walls[index];
+			this.contactCounts[e] = contacts[index];
+			degrees[node1]++;
+			degrees[node2]++;
+		}
+
+		// compute the offsets of the neighbors of each node
+		this.offsets = new int[nNodes + 1];
+		for (int i = 0; i < nNodes; i++)
+		{
+			this.offsets[i + 1] = this.offsets[i] + degrees[i];
+		}
+
+		// Fill the neighbor arrays. Edges are sorted by (node1, node2), so
+		// smaller neighbors are obtained from the edges where current node is
+		// the second node, in increasing order, before the larger neighbors.
+		// Therefore, a first pass adds the smaller neighbors, and a second
+		// pass adds the larger ones.
+		this.neighbors = new int[2 * nEdges];
+		this.incidentEdges = new int[2 * nEdges];
+		int[] positions = Arrays.copyOf(this.offsets, nNodes);
+		for (int e = 0; e < nEdges; e++)
+		{
+			int pos = positions[edgeNodes2[e]]++;
+			this.neighbors[pos] = edgeNodes1[e];
+			this.incidentEdges[pos] = e;
+		}
+		for (int e = 0; e < nEdges; e++)
+		{
+			int pos = positions[edgeNodes1[e]]++;
+			this.neighbors[pos] = edgeNodes2[e];
+			this.incidentEdges[pos] = e;
+		}
+	}
+
+
+	// ====================================================
+	// Node methods
+
+	/**
+	 * @return the number of nodes (regions) of the graph
+	 */
+	public int nodeCount()
+	{
+		return this.labels.length;
+	}
+
+	/**
+	 * Returns the index of the node associated to a label.
+	 * 
+	 * @param label
+	 *            the label of a region
+	 * @return the index of the node, or -1 if the label is not within the
+	 *         image
+	 */
+	public int nodeIndex(int label)
+	{
+		int index = Arrays.binarySearch(this.labels, label);
+		return index >= 0 ? index : -1;
+	}
+
+	/**
+	 * @param node
+	 *            the index of the node
+	 * @return the label of the region associated to the node
+	 */
+	public int getLabel(int node)
+	{
+		return this.labels[node];
+	}
+
+	/**
+	 * @param node
+	 *            the index of the node
+	 * @return the number of pixels of the region
+	 */
+	public int getArea(int node)
+	{
+		return this.areas[node];
+	}
+
+	/**
+	 * @param node
+	 *            the index of the node
+	 * @return the x-coordinate of the centroid of the region
+	 */
+	public double getCentroidX(int node)
+	{
+		return this.centroidsX[node];
+	}
+
+	/**
+	 * @param node
+	 *            the index of the node
+	 * @return the y-coordinate of the centroid of the region
+	 */
+	public double getCentroidY(int node)
+	{
+		return this.centroidsY[node];
+	}
+
+	/**
+	 * @param node
+	 *            the index of the node
+	 * @return the number of neighbors of the node
+	 */
+	public int degree(int node)
+	{
+		return this.offsets[node + 1] - this.offsets[node];
+	}
+
+	/**
+	 * Returns the k-th neighbor of a node. Neighbors are sorted by increasing
+	 * node index. Iterating over the neighbors can be performed as follows:
+	 * 
+	 * <pre>
+	 * for (int k = 0; k &lt; graph.degree(node); k++)
+	 * {
+	 * 	int neighbor = graph.neighbor(node, k);
+	 * 	int edge = graph.incidentEdge(node, k);
+	 * 	// ...
+	 * }
+	 * </pre>
+	 * 
+	 * @param node
+	 *            the index of the node
+	 * @param k
+	 *            the index of the neighbor, between 0 and degree(node)-1
+	 * @return the index of the neighbor node
+	 */
+	public int neighbor(int node, int k)
+	{
+		return this.neighbors[this.offsets[node] + k];
+	}
+
+	/**
+	 * Returns the edge between a node and its k-th neighbor.
+	 * 
+	 * @param node
+	 *            the index of the node
+	 * @param k
+	 *            the index of the neighbor, between 0 and degree(node)-1
+	 * @return the index of the edge
+	 */
+	public int incidentEdge(int node, int k)
+	{
+		return this.incidentEdges[this.offsets[node] + k];
+	}
+
+
+	// ====================================================
+	// Edge methods
+
+	/**
+	 * @return the number of edges (pairs of adjacent regions) of the graph
+	 */
+	public int edgeCount()
+	{
+		return this.edgeNodes1.length;
+	}
+
+	/**
+	 * Finds the edge between two nodes.
+	 * 
+	 * @param node1
+	 *            the index of the first node
+	 * @param node2
+	 *            the index of the second node
+	 * @return the index of the edge, or -1 if the nodes are not adjacent
+	 */
+	public int findEdge(int node1, int node2)
+	{
+		int start = this.offsets[node1];
+		int end = this.offsets[node1 + 1];
+		int pos = Arrays.binarySearch(this.neighbors, start, end, node2);
+		return pos >= 0 ? this.incidentEdges[pos] : -1;
+	}
+
+	/**
+	 * Checks if two regions are adjacent.
+	 * 
+	 * @param label1
+	 *            the label of the first region
+	 * @param label2
+	 *            the label of the second region
+	 * @return true if the two regions are adjacent
+	 */
+	public boolean isAdjacent(int label1, int label2)
+	{
+		int node1 = nodeIndex(label1);
+		int node2 = nodeIndex(label2);
+		return node1 >= 0 && node2 >= 0 && findEdge(node1, node2) >= 0;
+	}
+
+	/**
+	 * @param edge
+	 *            the index of the edge
+	 * @return the index of the first node of the edge (the one with the
+	 *         smallest label)
+	 */
+	public int getEdgeNode1(int edge)
+	{
+		return this.edgeNodes1[edge];
+	}
+
+	/**
+	 * @param edge
+	 *            the index of the edge
+	 * @return the index of the second node of the edge (the one with the
+	 *         largest label)
+	 */
+	public int getEdgeNode2(int edge)
+	{
+		return this.edgeNodes2[edge];
+	}
+
+	/**
+	 * @param edge
+	 *            the index of the edge
+	 * @return the number of background pixels that are adjacent to both
+	 *         regions of the edge
+	 */
+	public int getWallLength(int edge)
+	{
+		return this.wallLengths[edge];
+	}
+
+	/**
+	 * @param edge
+	 *            the index of the edge
+	 * @return the number of pairs of 4-adjacent pixels belonging to each
+	 *         region of the edge
+	 */
+	public int getContactCount(int edge)
+	{
+		return this.contactCounts[edge];
+	}
+}
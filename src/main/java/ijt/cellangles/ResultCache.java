@@ -0,0 +1,516 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import java.awt.Point;
+import java.awt.Polygon;
+import java.awt.geom.Point2D;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import ij.process.ImageProcessor;
+import ijt.geom.Polyline2D;
+
+/**
+ * A persistent cache of cell file results, stored as files within a
+ * directory.
+ * 
+ * Each entry is identified by a key computed from the content of the label
+ * image, the coordinates of the way points, and the analysis options (see
+ * {@link #computeKey(String, Polygon, String, boolean, boolean)}). Entries
+ * contain the label list, the path curve, and the inner and outer points and
+ * the angle of each boundary. The pixels of the boundaries are not stored.
+ * 
+ * When the total size of the entries exceeds the size limit, the least
+ * recently used entries are removed. Entries are written to temporary files
+ * that are atomically renamed, so the same directory can be used by several
+ * threads or processes.
+ * 
+ * @author dlegland
+ */
+public class ResultCache
+{
+	// ====================================================
+	// Static members
+
+	/**
+	 * The version of the format of the cache entries. Must be changed when
+	 * the format or the computation of the results is modified.
+	 */
+	static final int FORMAT_VERSION = 1;
+
+	/**
+	 * The extension of the files containing cache entries.
+	 */
+	static final String EXTENSION = ".cfa";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+
+	// ====================================================
+	// Class members
+
+	/**
+	 * The directory containing the cache entries.
+	 */
+	File directory;
+
+	/**
+	 * The maximum total size of the entries, in bytes.
+	 */
+	long maxSize;
+
+	/**
+	 * The (approximate) total size of the entries, in bytes.
+	 */
+	long currentSize = 0;
+
+	// statistics about cache usage
+	int hitCount = 0;
+	int missCount = 0;
+
+
+	// ====================================================
+	// Constructor
+
+	/**
+	 * Creates a new cache using the specified directory. The directory is
+	 * created if necessary.
+	 * 
+	 * @param directory
+	 *            the directory containing the cache entries
+	 * @param maxSize
+	 *            the maximum total size of the entries, in bytes
+	 * @throws IOException
+	 *             if the directory could not be created
+	 */
+	public ResultCache(File directory, long maxSize) throws IOException
+	{
+		if (!directory.isDirectory() && !directory.mkdirs())
+		{
+			throw new IOException("Could not create cache directory: " + directory);
+		}
+		this.directory = directory;
+		this.maxSize = maxSize;
+
+		for (File file : listEntries())
+		{
+			this.currentSize += file.length();
+		}
+	}
+
+
+	// ====================================================
+	// Access methods
+
+	/**
+	 * Changes the maximum total size of the entries, and removes the least
+	 * recently used entries if necessary.
+	 * 
+	 * @param maxSize
+	 *            the maximum total size of the entries, in bytes
+	 */
+	public synchronized void setMaxSize(long maxSize)
+	{
+		this.maxSize = maxSize;
+		evict();
+	}
+
+	public synchronized int getHitCount()
+	{
+		return hitCount;
+	}
+
+	public synchronized int getMissCount()
+	{
+		return missCount;
+	}
+
+	/**
+	 * Retrieves the cell file associated to a key.
+	 * 
+	 * @param key
+	 *            the key of the entry
+	 * @return the cell file stored within the cache, or null if the key was
+	 *         not found
+	 */
+	public CellFile get(String key)
+	{
+		File file = new File(this.directory, key + EXTENSION);
+		CellFile cellFile = null;
+		if (file.isFile())
+		{
+			try
+			{
+				cellFile = readCellFile(file);
+				// update time stamp for the LRU eviction policy
+				file.setLastModified(System.currentTimeMillis());
+			}
+			catch (IOException ex)
+			{
+				// entry removed by another process, or corrupted
+				cellFile = null;
+			}
+		}
+
+		synchronized (this)
+		{
+			if (cellFile != null)
+			{
+				hitCount++;
+			}
+			else
+			{
+				missCount++;
+			}
+		}
+		return cellFile;
+	}
+
+	/**
+	 * Stores the results of a cell file within the cache.
+	 * 
+	 * @param key
+	 *            the key of the entry
+	 * @param cellFile
+	 *            the cell file to store
+	 * @throws IOException
+	 *             if the entry could not be written
+	 */
+	public void put(String key, CellFile cellFile) throws IOException
+	{
+		// write into a temporary file, then rename to make the entry visible
+		File tmpFile = File.createTempFile(key, ".tmp", this.directory);
+		try
+		{
+			writeCellFile(cellFile, tmpFile);
+			File file = new File(this.directory, key + EXTENSION);
+			
+			// the size of the entry replaced by the new one, or 0
+			long oldSize = file.length();
+			Files.move(tmpFile.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+			synchronized (this)
+			{
+				this.currentSize += file.length() - oldSize;
+				if (this.currentSize > this.maxSize)
+				{
+					evict();
+				}
+			}
+		}
+		finally
+		{
+			tmpFile.delete();
+		}
+	}
+
+	/**
+	 * Removes the least recently used entries until the total size is below
+	 * the size limit.
+	 */
+	private synchronized void evict()
+	{
+		File[] files = listEntries();
+
+		// cache last-modified values, that may change during sort
+		final long[] dates = new long[files.length];
+		Integer[] order = new Integer[files.length];
+		long totalSize = 0;
+		for (int i = 0; i < files.length; i++)
+		{
+			dates[i] = files[i].lastModified();
+			order[i] = i;
+			totalSize += files[i].length();
+		}
+		Arrays.sort(order, new Comparator<Integer>()
+		{
+			@Override
+			public int compare(Integer i1, Integer i2)
+			{
+				return Long.compare(dates[i1], dates[i2]);
+			}
+		});
+
+		for (int i = 0; i < order.length && totalSize > this.maxSize; i++)
+		{
+			File file = files[order[i]];
+			long size = file.length();
+			if (file.delete())
+			{
+				totalSize -= size;
+			}
+		}
+		this.currentSize = totalSize;
+	}
+
+	private File[] listEntries()
+	{
+		File[] files = this.directory.listFiles();
+		if (files == null)
+		{
+			return new File[0];
+		}
+		int n = 0;
+		for (File file : files)
+		{
+			if (file.getName().endsWith(EXTENSION))
+			{
+				files[n++] = file;
+			}
+		}
+		return Arrays.copyOf(files, n);
+	}
+
+
+	// ====================================================
+	// Computation of keys
+
+	/**
+	 * Computes a hash of the content of a label image, that can be used as
+	 * part of a cache key.
+	 * 
+	 * @param labelImage
+	 *            the image containing cell labels
+	 * @return a hexadecimal string representing the content of the image
+	 */
+	public static final String imageHash(ImageProcessor labelImage)
+	{
+		MessageDigest digest = newDigest();
+		int sizeX = labelImage.getWidth();
+		int sizeY = labelImage.getHeight();
+
+		ByteBuffer buffer = ByteBuffer.allocate(Math.max(4 * sizeX, 12));
+		buffer.putInt(sizeX).putInt(sizeY).putInt(labelImage.getBitDepth());
+		digest.update(buffer.array(), 0, buffer.position());
+
+		// hash the label values, line by line
+		for (int y = 0; y < sizeY; y++)
+		{
+			buffer.clear();
+			for (int x = 0; x < sizeX; x++)
+			{
+				buffer.putFloat(labelImage.getf(x, y));
+			}
+			digest.update(buffer.array(), 0, buffer.position());
+		}
+		return toHexString(digest.digest());
+	}
+
+	/**
+	 * Computes the key of a cache entry.
+	 * 
+	 * @param imageHash
+	 *            the hash of the label image, computed by the
+	 *            {@link #imageHash(ImageProcessor)} method
+	 * @param wayPoints
+	 *            the way points of the polyline ROI
+	 * @param tissueTypeName
+	 *            the name of the tissue type
+	 * @param isLeftSide
+	 *            true if the cell file is on the left side of the root
+	 * @param smoothPolyline
+	 *            true if the path between cell centroids is smoothed
+	 * @return the key of the cache entry
+	 */
+	public static final String computeKey(String imageHash, Polygon wayPoints, String tissueTypeName,
+			boolean isLeftSide, boolean smoothPolyline)
+	{
+		MessageDigest digest = newDigest();
+		ByteBuffer buffer = ByteBuffer.allocate(12 + 8 * wayPoints.npoints);
+		buffer.putInt(FORMAT_VERSION);
+		buffer.put((byte) (isLeftSide ? 1 : 0));
+		buffer.put((byte) (smoothPolyline ? 1 : 0));
+		buffer.putInt(wayPoints.npoints);
+		for (int i = 0; i < wayPoints.npoints; i++)
+		{
+			buffer.putInt(wayPoints.xpoints[i]);
+			buffer.putInt(wayPoints.ypoints[i]);
+		}
+		digest.update(imageHash.getBytes(UTF8));
+		digest.update(buffer.array(), 0, buffer.position());
+		digest.update(tissueTypeName.getBytes(UTF8));
+		return toHexString(digest.digest());
+	}
+
+	private static final MessageDigest newDigest()
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException ex)
+		{
+			throw new RuntimeException(ex);
+		}
+	}
+
+	private static final String toHexString(byte[] bytes)
+	{
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes)
+		{
+			sb.append(Character.forDigit((b >> 4) & 0x0F, 16));
+			sb.append(Character.forDigit(b & 0x0F, 16));
+		}
+		return sb.toString();
+	}
+
+
+	// ====================================================
+	// Serialization of cell files
+
+	private static final void writeCellFile(CellFile cellFile, File file) throws IOException
+	{
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try
+		{
+			out.writeInt(FORMAT_VERSION);
+			out.writeUTF(cellFile.tissueTypeName);
+			out.writeBoolean(cellFile.isLeftSide);
+
+			out.writeInt(cellFile.wayPoints.size());
+			for (Point2D point : cellFile.wayPoints)
+			{
+				out.writeDouble(point.getX());
+				out.writeDouble(point.getY());
+			}
+
+			out.writeInt(cellFile.labelList.size());
+			for (int label : cellFile.labelList)
+			{
+				out.writeInt(label);
+			}
+
+			out.writeInt(cellFile.pathCurve.vertexNumber());
+			for (Point2D vertex : cellFile.pathCurve)
+			{
+				out.writeDouble(vertex.getX());
+				out.writeDouble(vertex.getY());
+			}
+
+			out.writeInt(cellFile.boundaries.size());
+			for (CellsBoundary bnd : cellFile.boundaries)
+			{
+				out.writeInt(bnd.label1);
+				out.writeInt(bnd.label2);
+				out.writeInt(bnd.status.ordinal());
+				out.writeBoolean(bnd.branched);
+				out.writeInt(bnd.endPointCount);
+				writePoint(out, bnd.innerPoint);
+				writePoint(out, bnd.outerPoint);
+				out.writeDouble(bnd.angle);
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	private static final void writePoint(DataOutputStream out, Point point) throws IOException
+	{
+		out.writeBoolean(point != null);
+		if (point != null)
+		{
+			out.writeInt(point.x);
+			out.writeInt(point.y);
+		}
+	}
+
+	private static final CellFile readCellFile(File file) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try
+		{
+			if (in.readInt() != FORMAT_VERSION)
+			{
+				throw new IOException("Unsupported version of cache entry");
+			}
+			String tissueTypeName = in.readUTF();
+			boolean isLeftSide = in.readBoolean();
+			CellFile cellFile = new CellFile(tissueTypeName, isLeftSide);
+
+			// each element uses at least one byte, so that counts larger than
+			// the file size denote a corrupted entry
+			long maxCount = file.length();
+			int nPoints = readCount(in, maxCount);
+			for (int i = 0; i < nPoints; i++)
+			{
+				cellFile.wayPoints.add(new Point2D.Double(in.readDouble(), in.readDouble()));
+			}
+
+			int nLabels = readCount(in, maxCount);
+			for (int i = 0; i < nLabels; i++)
+			{
+				cellFile.labelList.add(in.readInt());
+			}
+
+			int nVertices = readCount(in, maxCount);
+			cellFile.pathCurve = new Polyline2D(nVertices);
+			for (int i = 0; i < nVertices; i++)
+			{
+				cellFile.pathCurve.addVertex(new Point2D.Double(in.readDouble(), in.readDouble()));
+			}
+
+			int nBoundaries = readCount(in, maxCount);
+			CellsBoundary.Status[] statusValues = CellsBoundary.Status.values();
+			for (int i = 0; i < nBoundaries; i++)
+			{
+				CellsBoundary bnd = new CellsBoundary(in.readInt(), in.readInt(), isLeftSide);
+				int statusIndex = in.readInt();
+				if (statusIndex < 0 || statusIndex >= statusValues.length)
+				{
+					throw new IOException("Corrupted cache entry");
+				}
+				bnd.status = statusValues[statusIndex];
+				bnd.branched = in.readBoolean();
+				bnd.endPointCount = in.readInt();
+				bnd.innerPoint = readPoint(in);
+				bnd.outerPoint = readPoint(in);
+				bnd.angle = in.readDouble();
+				cellFile.boundaries.add(bnd);
+			}
+			return cellFile;
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	private static final int readCount(DataInputStream in, long maxCount) throws IOException
+	{
+		int count = in.readInt();
+		if (count < 0 || count > maxCount)
+		{
+			throw new IOException("Corrupted cache entry");
+		}
+		return count;
+	}
+
+	private static final Point readPoint(DataInputStream in) throws IOException
+	{
+		if (!in.readBoolean())
+		{
+			return null;
+		}
+		return new Point(in.readInt(), in.readInt());
+	}
+}
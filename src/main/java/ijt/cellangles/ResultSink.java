@@ -0,0 +1,77 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * The destination of the results of cell file analyses. Results are sent
+ * boundary by boundary, so that implementations can stream them without
+ * keeping the whole results within memory.
+ * 
+ * Implementations are not required to be thread-safe. When several threads
+ * share the same sink, they should synchronize on the sink, for example for
+ * writing all the boundaries of a cell file as a single block.
+ * 
+ * @see DelimitedResultSink
+ * @see BinaryResultSink
+ * @see LogResultSink
+ * @see TableResultSink
+ * @author dlegland
+ */
+public interface ResultSink extends Closeable
+{
+	/**
+	 * Adds the result of a boundary.
+	 * 
+	 * @param imageName
+	 *            the name of the label image
+	 * @param cellFileName
+	 *            the name of the cell file, or null
+	 * @param tissueType
+	 *            the tissue type of the cell file
+	 * @param isLeftSide
+	 *            true if the cell file is on the left side of the root
+	 * @param boundary
+	 *            a valid boundary of the cell file
+	 * @throws IOException
+	 *             if the result could not be written
+	 */
+	public void addBoundary(String imageName, String cellFileName, String tissueType, boolean isLeftSide,
+			CellsBoundary boundary) throws IOException;
+
+	/**
+	 * Adds the results of all the valid boundaries of a cell file.
+	 * 
+	 * @param imageName
+	 *            the name of the label image
+	 * @param cellFileName
+	 *            the name of the cell file, or null
+	 * @param tissueType
+	 *            the tissue type of the cell file
+	 * @param isLeftSide
+	 *            true if the cell file is on the left side of the root
+	 * @param cellFile
+	 *            the cell file
+	 * @throws IOException
+	 *             if the results could not be written
+	 */
+	public default void addCellFile(String imageName, String cellFileName, String tissueType, boolean isLeftSide,
+			CellFile cellFile) throws IOException
+	{
+		for (CellsBoundary boundary : cellFile.getBoundaries())
+		{
+			addBoundary(imageName, cellFileName, tissueType, isLeftSide, boundary);
+		}
+	}
+
+	/**
+	 * Sends the buffered results to their destination.
+	 * 
+	 * @throws IOException
+	 *             if the results could not be written
+	 */
+	public void flush() throws IOException;
+}
@@ -0,0 +1,345 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.Roi;
+import ij.measure.ResultsTable;
+
+/**
+ * Analysis of the cell files of all the slices (or frames) of a label image
+ * stack.
+ * 
+ * Each polyline ROI is associated to the slice given by its position. ROIs
+ * without position are analyzed on every slice, and the hyperstack positions
+ * equal to zero match all the channels, slices or frames. All the slice/ROI
+ * pairs are processed concurrently. The statistics and the boundary index of
+ * a slice are computed once, shared by all the ROIs of the slice, and
+ * discarded when the last ROI of the slice has been processed.
+ * 
+ * @author dlegland
+ */
+public class StackAnalysis
+{
+	// ====================================================
+	// Inner classes
+
+	/**
+	 * The result of the analysis of a ROI on a slice of the stack.
+	 */
+	public static class Entry
+	{
+		int sliceIndex;
+		int frame;
+		String roiName;
+		CellFile cellFile;
+
+		Entry(int sliceIndex, int frame, String roiName)
+		{
+			this.sliceIndex = sliceIndex;
+			this.frame = frame;
+			this.roiName = roiName;
+		}
+
+		/**
+		 * @return the index of the slice within the stack, starting from 1
+		 */
+		public int getSliceIndex()
+		{
+			return sliceIndex;
+		}
+
+		/**
+		 * @return the frame number (equal to the slice index, except for
+		 *         hyperstacks)
+		 */
+		public int getFrame()
+		{
+			return frame;
+		}
+
+		public String getRoiName()
+		{
+			return roiName;
+		}
+
+		/**
+		 * @return the computed cell file, or null if the analysis failed
+		 */
+		public CellFile getCellFile()
+		{
+			return cellFile;
+		}
+	}
+
+	/**
+	 * The data shared by the ROIs of a slice. The analysis session is created
+	 * by the first ROI, and released after the last one.
+	 */
+	private class SliceData
+	{
+		int sliceIndex;
+		int remainingRois = 0;
+		ImageAnalysisSession session = null;
+
+		SliceData(int sliceIndex)
+		{
+			this.sliceIndex = sliceIndex;
+		}
+
+		synchronized ImageAnalysisSession acquire()
+		{
+			if (this.session == null)
+			{
+				this.session = new ImageAnalysisSession(stack.getProcessor(sliceIndex));
+			}
+			return this.session;
+		}
+
+		synchronized void release()
+		{
+			if (--this.remainingRois == 0)
+			{
+				this.session = null;
+			}
+		}
+	}
+
+
+	// ====================================================
+	// Class members
+
+	/**
+	 * The image containing the stack of label images.
+	 */
+	ImagePlus imagePlus;
+
+	ImageStack stack;
+
+	/**
+	 * The number of slices analyzed concurrently.
+	 */
+	int threadCount = Runtime.getRuntime().availableProcessors();
+
+
+	// ====================================================
+	// Constructor
+
+	/**
+	 * Creates a new analysis of the specified label image stack.
+	 * 
+	 * @param imagePlus
+	 *            the ImagePlus containing the stack of label images
+	 */
+	public StackAnalysis(ImagePlus imagePlus)
+	{
+		this.imagePlus = imagePlus;
+		this.stack = imagePlus.getStack();
+	}
+
+
+	// ====================================================
+	// Access methods
+
+	public void setThreadCount(int threadCount)
+	{
+		this.threadCount = Math.max(threadCount, 1);
+	}
+
+
+	// ====================================================
+	// Processing methods
+
+	/**
+	 * Analyzes the polyline ROIs on the slices of the stack. ROIs with other
+	 * types are ignored. Analyses that fail are reported in the log window,
+	 * and result in entries without cell file.
+	 * 
+	 * @param rois
+	 *            the ROIs to analyze (for example, all the ROIs of the
+	 *            RoiManager)
+	 * @param tissueTypeName
+	 *            the name of the tissue type
+	 * @param isLeftSide
+	 *            true if the cell files are on the left side of the root
+	 * @param smoothPolyline
+	 *            true if the path between cell centroids should be smoothed
+	 * @return the list of results, ordered by slice, then by ROI
+	 * @throws CancellationException
+	 *             if the thread was interrupted during the analysis
+	 */
+	public List<Entry> run(Roi[] rois, final String tissueTypeName, final boolean isLeftSide,
+			final boolean smoothPolyline)
+	{
+		int nSlices = this.stack.getSize();
+
+		// identify the slice/ROI pairs to analyze, and count the ROIs of each slice
+		final Map<Integer, SliceData> slices = new HashMap<Integer, SliceData>();
+		final List<Entry> entries = new ArrayList<Entry>();
+		final List<Roi> entryRois = new ArrayList<Roi>();
+		for (int sliceIndex = 1; sliceIndex <= nSlices; sliceIndex++)
+		{
+			for (int i = 0; i < rois.length; i++)
+			{
+				Roi roi = rois[i];
+				if (roi.getType() != Roi.POLYLINE)
+				{
+					continue;
+				}
+				if (!matchesSlice(this.imagePlus, roi, sliceIndex))
+				{
+					continue;
+				}
+
+				SliceData slice = slices.get(sliceIndex);
+				if (slice == null)
+				{
+					slice = new SliceData(sliceIndex);
+					slices.put(sliceIndex, slice);
+				}
+				slice.remainingRois++;
+
+				String roiName = roi.getName() != null ? roi.getName() : "Roi" + (i + 1);
+				entries.add(new Entry(sliceIndex, frameNumber(this.imagePlus, sliceIndex), roiName));
+				entryRois.add(roi);
+			}
+		}
+
+		// submit the analysis of each slice/ROI pair
+		ExecutorService executor = Executors.newFixedThreadPool(this.threadCount);
+		List<FutureTask<CellFile>> tasks = new ArrayList<FutureTask<CellFile>>(entries.size());
+		try
+		{
+			for (int i = 0; i < entries.size(); i++)
+			{
+				final Entry entry = entries.get(i);
+				final Roi roi = entryRois.get(i);
+				FutureTask<CellFile> task = new FutureTask<CellFile>(new Callable<CellFile>()
+				{
+					@Override
+					public CellFile call()
+					{
+						SliceData slice = slices.get(entry.sliceIndex);
+						try
+						{
+							ImageAnalysisSession session = slice.acquire();
+							return session.analyzeCellFile(roi, tissueTypeName, isLeftSide, smoothPolyline);
+						}
+						finally
+						{
+							slice.release();
+						}
+					}
+				});
+				tasks.add(task);
+				executor.execute(task);
+			}
+
+			// collect results in the order of the entries
+			for (int i = 0; i < entries.size(); i++)
+			{
+				Entry entry = entries.get(i);
+				try
+				{
+					entry.cellFile = tasks.get(i).get();
+				}
+				catch (ExecutionException ex)
+				{
+					IJ.log("Could not analyze ROI " + entry.roiName + " on slice " + entry.sliceIndex + ": "
+							+ ex.getCause());
+				}
+			}
+		}
+		catch (InterruptedException ex)
+		{
+			for (FutureTask<CellFile> task : tasks)
+			{
+				task.cancel(true);
+			}
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Analysis of the stack was interrupted");
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+
+		return entries;
+	}
+
+	/**
+	 * Creates a table containing the results of all the cell files, with the
+	 * frame number and the name of the cell file in the first columns.
+	 * 
+	 * @param entries
+	 *            the results of the analysis of the stack
+	 * @return a new ResultsTable
+	 */
+	public static final ResultsTable createTable(List<Entry> entries)
+	{
+		ResultsTable table = new ResultsTable();
+		for (Entry entry : entries)
+		{
+			if (entry.cellFile != null)
+			{
+				entry.cellFile.addToTable(table, entry.frame, entry.roiName);
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * Checks if a ROI should be analyzed on a slice of the stack. For
+	 * hyperstacks, each position of the ROI (channel, slice or frame) that is
+	 * zero matches all the values of the corresponding dimension. For example,
+	 * a ROI with only a channel position is analyzed on all the slices and
+	 * frames of this channel.
+	 * 
+	 * @param imagePlus
+	 *            the image containing the stack
+	 * @param roi
+	 *            the ROI
+	 * @param sliceIndex
+	 *            the index of the slice within the stack (starting from 1)
+	 * @return true if the ROI is associated to the slice
+	 */
+	static final boolean matchesSlice(ImagePlus imagePlus, Roi roi, int sliceIndex)
+	{
+		if (roi.hasHyperStackPosition())
+		{
+			int[] pos = imagePlus.convertIndexToPosition(sliceIndex);
+			return (roi.getCPosition() == 0 || roi.getCPosition() == pos[0])
+					&& (roi.getZPosition() == 0 || roi.getZPosition() == pos[1])
+					&& (roi.getTPosition() == 0 || roi.getTPosition() == pos[2]);
+		}
+		return roi.getPosition() == 0 || roi.getPosition() == sliceIndex;
+	}
+
+	/**
+	 * Returns the frame number associated to a slice of the stack. For
+	 * hyperstacks, this is the time position of the slice, otherwise this is
+	 * the slice index.
+	 */
+	private static final int frameNumber(ImagePlus imagePlus, int sliceIndex)
+	{
+		if (imagePlus.isHyperStack())
+		{
+			return imagePlus.convertIndexToPosition(sliceIndex)[2];
+		}
+		return sliceIndex;
+	}
+}
@@ -0,0 +1,118 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import ij.measure.ResultsTable;
+
+/**
+ * Adds the results of cell file analyses to an ImageJ ResultsTable, with one
+ * row per boundary.
+ * 
+ * @author dlegland
+ */
+public class TableResultSink implements ResultSink
+{
+	// ====================================================
+	// Static methods
+
+	/**
+	 * Adds a row with the results of a boundary at the end of a table.
+	 * 
+	 * @param table
+	 *            the table to complete
+	 * @param frame
+	 *            the frame number, added in the first column of the row, or
+	 *            0 if the frame column should not be added
+	 * @param cellFileName
+	 *            the name of the cell file, or null if the name column
+	 *            should not be added
+	 * @param boundary
+	 *            a valid boundary
+	 */
+	static final void addRow(ResultsTable table, int frame, String cellFileName, CellsBoundary boundary)
+	{
+		table.incrementCounter();
+		if (frame > 0)
+		{
+			table.addValue("Frame", frame);
+		}
+		if (cellFileName != null)
+		{
+			table.addValue("CellFile", cellFileName);
+		}
+		table.addValue("Label1", boundary.label1);
+		table.addValue("Label2", boundary.label2);
+
+		table.addValue("innerX", boundary.innerPoint.getX());
+		table.addValue("innerY", boundary.innerPoint.getY());
+		table.addValue("outerX", boundary.outerPoint.getX());
+		table.addValue("outerY", boundary.outerPoint.getY());
+		table.addValue("angle", Math.toDegrees(boundary.angle));
+	}
+
+
+	// ====================================================
+	// Class members
+
+	/**
+	 * The table the rows are added to.
+	 */
+	ResultsTable table;
+
+
+	// ====================================================
+	// Constructors
+
+	/**
+	 * Creates a new sink adding rows to a new table.
+	 */
+	public TableResultSink()
+	{
+		this(new ResultsTable());
+	}
+
+	/**
+	 * Creates a new sink adding rows at the end of the specified table.
+	 * 
+	 * @param table
+	 *            the table to complete
+	 */
+	public TableResultSink(ResultsTable table)
+	{
+		this.table = table;
+	}
+
+
+	// ====================================================
+	// Access methods
+
+	/**
+	 * @return the table containing the results
+	 */
+	public ResultsTable getTable()
+	{
+		return this.table;
+	}
+
+
+	// ====================================================
+	// Implementation of the ResultSink interface
+
+	@Override
+	public void addBoundary(String imageName, String cellFileName, String tissueType, boolean isLeftSide,
+			CellsBoundary boundary)
+	{
+		addRow(this.table, 0, cellFileName, boundary);
+	}
+
+	@Override
+	public void flush()
+	{
+	}
+
+	@Override
+	public void close()
+	{
+	}
+}
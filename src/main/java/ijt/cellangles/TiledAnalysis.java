@@ -0,0 +1,344 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import java.awt.Polygon;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ij.gui.PolygonRoi;
+import ij.gui.Roi;
+import ij.process.ImageProcessor;
+import ijt.cellangles.AnalysisMetricsListener.Stage;
+
+/**
+ * Analysis of the cell files of a label image too large to be loaded within
+ * memory.
+ * 
+ * The label image is read by tiles with a fixed size, extended by a halo of
+ * one pixel for the computation of boundary pixels. The statistics of the
+ * labels and the index of boundary pixels are accumulated independently by
+ * each thread, and merged at the end. The peak memory used for reading the
+ * image is therefore bounded by the size of a tile times the number of
+ * threads. The results of the analysis of the cell files are the same as
+ * for the analysis of the image loaded within memory.
+ * 
+ * @author dlegland
+ */
+public class TiledAnalysis
+{
+	// ====================================================
+	// Inner classes
+
+	/**
+	 * The data accumulated by a thread over the tiles it processed.
+	 */
+	private static class PartialResult
+	{
+		LabelStatistics stats;
+		BoundaryIndex index;
+
+		// the time and memory spent by the thread on each structure, when measured
+		long statsNanos = 0;
+		long statsBytes = 0;
+		long indexNanos = 0;
+		long indexBytes = 0;
+
+		PartialResult(int sizeX, int sizeY)
+		{
+			this.stats = new LabelStatistics(sizeX, sizeY);
+			this.index = new BoundaryIndex(sizeX, sizeY);
+		}
+	}
+
+
+	// ====================================================
+	// Class members
+
+	/**
+	 * The label image, accessed through memory mapping.
+	 */
+	MappedLabelImage image;
+
+	/**
+	 * The size of the tiles, in pixels, in each direction.
+	 */
+	int tileSize = 1024;
+
+	/**
+	 * The number of tiles processed concurrently.
+	 */
+	int threadCount = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * The statistics of the labels, computed on demand.
+	 */
+	LabelStatistics stats = null;
+
+	/**
+	 * The index of boundary pixels, computed on demand.
+	 */
+	BoundaryIndex boundaryIndex = null;
+
+	/**
+	 * The listener notified during the analysis of cell files, or null.
+	 */
+	AnalysisMetricsListener metricsListener = null;
+
+
+	// ====================================================
+	// Constructor
+
+	/**
+	 * Creates a new tiled analysis of the specified label image.
+	 * 
+	 * @param image
+	 *            the label image, accessed through memory mapping
+	 */
+	public TiledAnalysis(MappedLabelImage image)
+	{
+		this.image = image;
+	}
+
+
+	// ====================================================
+	// Access methods
+
+	public void setTileSize(int tileSize)
+	{
+		if (tileSize < 1)
+		{
+			throw new IllegalArgumentException("Tile size must be positive");
+		}
+		this.tileSize = tileSize;
+	}
+
+	public void setThreadCount(int threadCount)
+	{
+		this.threadCount = Math.max(threadCount, 1);
+	}
+
+	public void setMetricsListener(AnalysisMetricsListener listener)
+	{
+		this.metricsListener = listener;
+	}
+
+	/**
+	 * @return the statistics of the labels, computed by tiles on demand
+	 */
+	public synchronized LabelStatistics getLabelStatistics()
+	{
+		if (this.stats == null)
+		{
+			processTiles();
+		}
+		return this.stats;
+	}
+
+	/**
+	 * @return the index of boundary pixels, computed by tiles on demand
+	 */
+	public synchronized BoundaryIndex getBoundaryIndex()
+	{
+		if (this.boundaryIndex == null)
+		{
+			processTiles();
+		}
+		return this.boundaryIndex;
+	}
+
+
+	// ====================================================
+	// Computation methods
+
+	/**
+	 * Computes the cell file corresponding to a polyline ROI. The labels
+	 * along the polyline are read directly from the mapped image, and the
+	 * statistics and the boundary index are computed by tiles the first time
+	 * they are required.
+	 * 
+	 * @param roi
+	 *            the polyline ROI going through the cells of the file
+	 * @param tissueTypeName
+	 *            the name of the tissue type
+	 * @param isLeftSide
+	 *            true if the cell file is on the left side of the root
+	 * @param smoothPolyline
+	 *            true if the path between cell centroids should be smoothed
+	 * @return the new CellFile instance
+	 */
+	public CellFile analyzeCellFile(Roi roi, String tissueTypeName, boolean isLeftSide, boolean smoothPolyline)
+	{
+		LabelStatistics stats;
+		BoundaryIndex index;
+		synchronized (this)
+		{
+			stats = getLabelStatistics();
+			index = getBoundaryIndex();
+		}
+
+		// create a new CellFile object
+		CellFile cellFile = new CellFile(tissueTypeName, isLeftSide);
+		cellFile.setMetricsListener(this.metricsListener);
+
+		// Compute label succession from polyline ROI
+		Polygon polyline = ((PolygonRoi) roi).getPolygon();
+		cellFile.setWayPoints(polyline);
+		cellFile.computeLabelList(this.image);
+
+		// compute the polyline between cell centroids, optionally smoothed
+		cellFile.computePathCurve(stats);
+		if (smoothPolyline)
+		{
+			cellFile.pathCurve = cellFile.pathCurve.smooth();
+		}
+
+		// perform computation of boundaries, and of angles
+		cellFile.computeCellsBoundaries(index);
+
+		return cellFile;
+	}
+
+	/**
+	 * Reads the label image by tiles, and computes the statistics of the
+	 * labels and the index of boundary pixels.
+	 * 
+	 * @throws CancellationException
+	 *             if the thread was interrupted during the computation
+	 */
+	private void processTiles()
+	{
+		final int sizeX = this.image.getWidth();
+		final int sizeY = this.image.getHeight();
+		final int nTilesX = (sizeX + tileSize - 1) / tileSize;
+		final int nTilesY = (sizeY + tileSize - 1) / tileSize;
+		final int nTiles = nTilesX * nTilesY;
+
+		// each thread processes the next available tile, within its own structures
+		final AtomicInteger nextTile = new AtomicInteger(0);
+		final boolean measure = this.metricsListener != null;
+		int nThreads = Math.min(this.threadCount, nTiles);
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+		List<Future<PartialResult>> futures = new ArrayList<Future<PartialResult>>(nThreads);
+		try
+		{
+			for (int i = 0; i < nThreads; i++)
+			{
+				futures.add(executor.submit(new Callable<PartialResult>()
+				{
+					@Override
+					public PartialResult call()
+					{
+						PartialResult result = new PartialResult(sizeX, sizeY);
+						int tile;
+						while ((tile = nextTile.getAndIncrement()) < nTiles)
+						{
+							if (Thread.currentThread().isInterrupted())
+							{
+								throw new CancellationException("Tiled analysis was interrupted");
+							}
+
+							// bounds of the tile, inclusive
+							int x0 = (tile % nTilesX) * tileSize;
+							int y0 = (tile / nTilesX) * tileSize;
+							int x1 = Math.min(x0 + tileSize, sizeX) - 1;
+							int y1 = Math.min(y0 + tileSize, sizeY) - 1;
+
+							// read the tile with a halo of one pixel within image bounds
+							int hx0 = Math.max(x0 - 1, 0);
+							int hy0 = Math.max(y0 - 1, 0);
+							int hx1 = Math.min(x1 + 1, sizeX - 1);
+							int hy1 = Math.min(y1 + 1, sizeY - 1);
+							ImageProcessor tileImage = image.readTile(hx0, hy0, hx1 - hx0 + 1, hy1 - hy0 + 1);
+
+							if (!measure)
+							{
+								result.stats.add(tileImage, hx0, hy0, x0, y0, x1, y1);
+								result.index.add(tileImage, hx0, hy0, x0, y0, x1, y1);
+								continue;
+							}
+							long t0 = System.nanoTime();
+							long b0 = AnalysisMetrics.currentThreadAllocatedBytes();
+							result.stats.add(tileImage, hx0, hy0, x0, y0, x1, y1);
+							long t1 = System.nanoTime();
+							long b1 = AnalysisMetrics.currentThreadAllocatedBytes();
+							result.index.add(tileImage, hx0, hy0, x0, y0, x1, y1);
+							result.indexNanos += System.nanoTime() - t1;
+							result.indexBytes += AnalysisMetrics.currentThreadAllocatedBytes() - b1;
+							result.statsNanos += t1 - t0;
+							result.statsBytes += b1 - b0;
+						}
+						return result;
+					}
+				}));
+			}
+
+			// merge the results of the threads, summing the time spent on each structure
+			LabelStatistics stats = new LabelStatistics(sizeX, sizeY);
+			BoundaryIndex index = new BoundaryIndex(sizeX, sizeY);
+			long statsNanos = 0;
+			long statsBytes = 0;
+			long indexNanos = 0;
+			long indexBytes = 0;
+			for (Future<PartialResult> future : futures)
+			{
+				PartialResult result = future.get();
+				long t0 = System.nanoTime();
+				long b0 = AnalysisMetrics.currentThreadAllocatedBytes();
+				stats.merge(result.stats);
+				long t1 = System.nanoTime();
+				long b1 = AnalysisMetrics.currentThreadAllocatedBytes();
+				index.merge(result.index);
+				statsNanos += result.statsNanos + t1 - t0;
+				statsBytes += result.statsBytes + b1 - b0;
+				indexNanos += result.indexNanos + System.nanoTime() - t1;
+				indexBytes += result.indexBytes + AnalysisMetrics.currentThreadAllocatedBytes() - b1;
+			}
+			long t0 = System.nanoTime();
+			long b0 = AnalysisMetrics.currentThreadAllocatedBytes();
+			index.sortPixels();
+			indexNanos += System.nanoTime() - t0;
+			indexBytes += AnalysisMetrics.currentThreadAllocatedBytes() - b0;
+			
+			if (measure)
+			{
+				// the allocated memory can not be measured on some virtual machines
+				boolean measureBytes = AnalysisMetrics.currentThreadAllocatedBytes() >= 0;
+				long pixelCount = (long) sizeX * sizeY;
+				this.metricsListener.stageCompleted(Stage.LABEL_STATISTICS, null, statsNanos, pixelCount,
+						measureBytes ? statsBytes : -1);
+				this.metricsListener.stageCompleted(Stage.BOUNDARY_INDEX, null, indexNanos, pixelCount,
+						measureBytes ? indexBytes : -1);
+			}
+
+			this.stats = stats;
+			this.boundaryIndex = index;
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Tiled analysis was interrupted");
+		}
+		catch (ExecutionException ex)
+		{
+			Throwable cause = ex.getCause();
+			if (cause instanceof RuntimeException)
+			{
+				throw (RuntimeException) cause;
+			}
+			throw new RuntimeException(cause);
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+}
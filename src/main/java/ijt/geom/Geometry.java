@@ -19,13 +19,50 @@ import ij.process.FloatPolygon;
 public class Geometry
 {
 	
+	/**
+	 * Computes the list of pixels along the digital line segment joining two
+	 * points.
+	 * 
+	 * @param p1
+	 *            the first extremity of the line segment
+	 * @param p2
+	 *            the second extremity of the line segment
+	 * @return the list of pixels, starting from the first extremity
+	 * @see #traverseLine(int, int, int, int, IntBinaryConsumer)
+	 */
 	public static final List<Point> digitalLineSegment(Point p1, Point p2)
 	{
-		int x1 = p1.x;
-		int y1 = p1.y;
-		int x2 = p2.x;
-		int y2 = p2.y;
-
+		int nPoints = Math.max(Math.abs(p2.x - p1.x), Math.abs(p2.y - p1.y)) + 1;
+		final List<Point> points = new ArrayList<Point>(nPoints);
+		traverseLine(p1.x, p1.y, p2.x, p2.y, new IntBinaryConsumer()
+		{
+			@Override
+			public void accept(int x, int y)
+			{
+				points.add(new Point(x, y));
+			}
+		});
+		return points;
+	}
+	
+	/**
+	 * Visits the pixels along the digital line segment joining two points,
+	 * without allocating memory. The pixels are the same as the ones returned
+	 * by the digitalLineSegment() method, and are visited in the same order.
+	 * 
+	 * @param x1
+	 *            the x-coordinate of the first extremity
+	 * @param y1
+	 *            the y-coordinate of the first extremity
+	 * @param x2
+	 *            the x-coordinate of the second extremity
+	 * @param y2
+	 *            the y-coordinate of the second extremity
+	 * @param consumer
+	 *            the operation called for each pixel of the line segment
+	 */
+	public static final void traverseLine(int x1, int y1, int x2, int y2, IntBinaryConsumer consumer)
+	{
 		// get direction vector 
 		int dx = x2 - x1;
 		int dy = y2 - y1;
@@ -33,18 +70,15 @@ public class Geometry
 		// get absolute values of direction vector components
 		int adx = Math.abs(dx);
 		int ady = Math.abs(dy);
-
-		// create output list
 		int nPoints = Math.max(adx, ady) + 1;
-		List<Point> points = new ArrayList<Point>(nPoints);
 
-		// init with first point
-		points.add(new Point(x1, y1));
+		// process first point
+		consumer.accept(x1, y1);
 
 		// small check to avoid problems in case of multiple vertex 
 		if (dx == 0 && dy == 0)
 		{
-			return points;
+			return;
 		}
 		
 		// sample points in the main direction of the line segment 
@@ -60,9 +94,8 @@ public class Geometry
 			{
 				x += incX;
 				int y = (int) Math.round(y1 + m * (x - x1));
-				points.add(new Point(x, y));
+				consumer.accept(x, y);
 			}
-			
 		}	    
 		else
 		{
@@ -76,11 +109,9 @@ public class Geometry
 			{
 				y += incY;
 				int x = (int) Math.round(x1 + m * (y - y1));
-				points.add(new Point(x, y));
+				consumer.accept(x, y);
 			}
 		}
-		
-		return points;
 	}
 	
 	public static final FloatPolygon smoothPolyline(FloatPolygon poly)
@@ -163,6 +194,84 @@ public class Geometry
 		return Math.hypot(pos * vx - dx, pos * vy - dy);
 	}
 	
+	/**
+	 * Computes the signed distances of a set of points to the straight line
+	 * passing through two points. The distance is positive for points on the
+	 * left side of the line (as defined by the isLeftSide() method), and
+	 * negative or zero otherwise.
+	 * 
+	 * The direction of the line is computed only once, and the method does
+	 * not allocate memory.
+	 * 
+	 * @param xCoords
+	 *            the x-coordinates of the points
+	 * @param yCoords
+	 *            the y-coordinates of the points
+	 * @param count
+	 *            the number of points to process
+	 * @param p1
+	 *            the first point of the line
+	 * @param p2
+	 *            the second point of the line
+	 * @param distances
+	 *            the array the signed distances are written into
+	 */
+	public static final void signedDistancesPointLine(int[] xCoords, int[] yCoords, int count, Point2D p1,
+			Point2D p2, double[] distances)
+	{
+		// direction vector of the line
+		double x1 = p1.getX();
+		double y1 = p1.getY();
+		double vx = p2.getX() - x1;
+		double vy = p2.getY() - y1;
+
+		double delta = vx * vx + vy * vy;
+		if (delta < 1e-12)
+		{
+			throw new IllegalArgumentException("The distance between the points defining the lines is not large enough");
+		}
+		double invNorm = 1.0 / Math.sqrt(delta);
+
+		for (int i = 0; i < count; i++)
+		{
+			distances[i] = ((yCoords[i] - y1) * vx - (xCoords[i] - x1) * vy) * invNorm;
+		}
+	}
+
+	/**
+	 * Checks for each point of a set of points whether it is on the left side
+	 * of the straight line passing through two points. The result is the same
+	 * as calling the isLeftSide() method for each point, without allocating
+	 * memory.
+	 * 
+	 * @param xCoords
+	 *            the x-coordinates of the points
+	 * @param yCoords
+	 *            the y-coordinates of the points
+	 * @param count
+	 *            the number of points to process
+	 * @param p1
+	 *            the first point of the line
+	 * @param p2
+	 *            the second point of the line
+	 * @param flags
+	 *            the array the results are written into
+	 */
+	public static final void isLeftSide(int[] xCoords, int[] yCoords, int count, Point2D p1, Point2D p2,
+			boolean[] flags)
+	{
+		// direction vector of the line
+		double x1 = p1.getX();
+		double y1 = p1.getY();
+		double dx = p2.getX() - x1;
+		double dy = p2.getY() - y1;
+
+		for (int i = 0; i < count; i++)
+		{
+			flags[i] = (xCoords[i] - x1) * dy - (yCoords[i] - y1) * dx < 0;
+		}
+	}
+	
 	/**
 	 * Computes the angle with the horizontal of the straight line passing
 	 * through the input points.
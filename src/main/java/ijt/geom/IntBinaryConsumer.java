@@ -0,0 +1,25 @@
+/**
+ * 
+ */
+package ijt.geom;
+
+/**
+ * An operation that accepts the two integer coordinates of a pixel, used
+ * for visiting pixels without creating Point instances.
+ * 
+ * @see Geometry#traverseLine(int, int, int, int, IntBinaryConsumer)
+ * 
+ * @author dlegland
+ */
+public interface IntBinaryConsumer
+{
+	/**
+	 * Performs the operation on the specified pixel.
+	 * 
+	 * @param x
+	 *            the x-coordinate of the pixel
+	 * @param y
+	 *            the y-coordinate of the pixel
+	 */
+	public void accept(int x, int y);
+}
@@ -156,20 +156,7 @@ public class Polyline2D implements Iterable <Point2D>
 		// iterate over inner vertices
 		for (int i = 1; i < nv - 1; i++)
 		{
-			// init
-			float x = 0;
-			float y = 0;
-			
-			// iterate over neighbors
-			for (int j = i - 1; j <= i + 1; j++)
-			{
-				Point2D v = this.vertices.get(i);
-				x += v.getX();
-				y += v.getY();
-			}
-			
-			// compute average
-			smoothed.addVertex(new Point2D.Double(x / 3.0, y / 3.0));
+			smoothed.addVertex(smoothedVertex(i));
 		}
 		
 		// last vertex kept identical
@@ -179,6 +166,40 @@ public class Polyline2D implements Iterable <Point2D>
 		return smoothed;
 	}
 	
+	/**
+	 * Computes a single vertex of the polyline returned by the smooth()
+	 * method, as the average of the vertex and of its two neighbors. This
+	 * allows to update the smoothed polyline when only a few vertices have
+	 * changed.
+	 * 
+	 * @param i
+	 *            the index of the vertex
+	 * @return the position of the smoothed vertex
+	 */
+	public Point2D smoothedVertex(int i)
+	{
+		// first and last vertices are kept identical
+		if (i == 0 || i == this.vertices.size() - 1)
+		{
+			return this.vertices.get(i);
+		}
+		
+		// init
+		float x = 0;
+		float y = 0;
+		
+		// iterate over neighbors
+		for (int j = i - 1; j <= i + 1; j++)
+		{
+			Point2D v = this.vertices.get(j);
+			x += v.getX();
+			y += v.getY();
+		}
+		
+		// compute average
+		return new Point2D.Double(x / 3.0, y / 3.0);
+	}
+	
 	
 	// ====================================================
     // Management of vertices
@@ -0,0 +1,177 @@
+/**
+ * 
+ */
+package ijt.util;
+
+import java.util.Arrays;
+
+/**
+ * A set of primitive integer values, based on open addressing with linear
+ * probing. Avoids the boxing of values required by the collections of the JDK.
+ * 
+ * @author dlegland
+ */
+public class IntHashSet
+{
+	// ====================================================
+	// Class members
+
+	/**
+	 * The value used to indicate empty slots within the table.
+	 */
+	private static final int FREE = 0;
+
+	/**
+	 * The table of values, with a length that is a power of two.
+	 */
+	int[] table;
+
+	/**
+	 * The number of values stored within the table (the free value is
+	 * managed separately).
+	 */
+	int size = 0;
+
+	/**
+	 * Indicates whether the set contains the value used for free slots.
+	 */
+	boolean containsFree = false;
+
+
+	// ====================================================
+	// Constructors
+
+	/**
+	 * Creates a new empty set.
+	 */
+	public IntHashSet()
+	{
+		this(16);
+	}
+
+	/**
+	 * Creates a new empty set, that can contain the specified number of
+	 * values without resizing.
+	 * 
+	 * @param expectedSize
+	 *            the expected number of values
+	 */
+	public IntHashSet(int expectedSize)
+	{
+		int capacity = 16;
+		while (capacity < expectedSize * 2)
+		{
+			capacity *= 2;
+		}
+		this.table = new int[capacity];
+	}
+
+
+	// ====================================================
+	// Methods
+
+	/**
+	 * Adds a value to this set.
+	 * 
+	 * @param value
+	 *            the value to add
+	 * @return true if the value was not already present in the set
+	 */
+	public boolean add(int value)
+	{
+		if (value == FREE)
+		{
+			boolean added = !containsFree;
+			containsFree = true;
+			return added;
+		}
+
+		int mask = table.length - 1;
+		int pos = hash(value) & mask;
+		while (table[pos] != FREE)
+		{
+			if (table[pos] == value)
+			{
+				return false;
+			}
+			pos = (pos + 1) & mask;
+		}
+		table[pos] = value;
+
+		// keep the table at most half full
+		if (++size * 2 > table.length)
+		{
+			rehash(table.length * 2);
+		}
+		return true;
+	}
+
+	/**
+	 * @param value
+	 *            the value to test
+	 * @return true if this set contains the value
+	 */
+	public boolean contains(int value)
+	{
+		if (value == FREE)
+		{
+			return containsFree;
+		}
+
+		int mask = table.length - 1;
+		int pos = hash(value) & mask;
+		while (table[pos] != FREE)
+		{
+			if (table[pos] == value)
+			{
+				return true;
+			}
+			pos = (pos + 1) & mask;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the number of values within this set
+	 */
+	public int size()
+	{
+		return containsFree ? size + 1 : size;
+	}
+
+	/**
+	 * Removes all the values from this set, keeping the allocated memory.
+	 */
+	public void clear()
+	{
+		Arrays.fill(table, FREE);
+		size = 0;
+		containsFree = false;
+	}
+
+	private void rehash(int newCapacity)
+	{
+		int[] oldTable = this.table;
+		this.table = new int[newCapacity];
+		int mask = newCapacity - 1;
+		for (int value : oldTable)
+		{
+			if (value == FREE) continue;
+			int pos = hash(value) & mask;
+			while (table[pos] != FREE)
+			{
+				pos = (pos + 1) & mask;
+			}
+			table[pos] = value;
+		}
+	}
+
+	/**
+	 * Mixes the bits of the value, to avoid clustering of consecutive values.
+	 */
+	private static final int hash(int value)
+	{
+		int h = value * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,255 @@
+/**
+ * 
+ */
+package ijt.util;
+
+import java.util.Arrays;
+
+/**
+ * A map from primitive long keys to primitive integer values, based on open
+ * addressing with linear probing. Avoids the boxing of keys and values
+ * required by the collections of the JDK.
+ * 
+ * @author dlegland
+ */
+public class LongIntHashMap
+{
+	// ====================================================
+	// Class members
+
+	/**
+	 * The key used to indicate empty slots within the table.
+	 */
+	private static final long FREE = 0;
+
+	/**
+	 * The table of keys, with a length that is a power of two.
+	 */
+	long[] keys;
+
+	/**
+	 * The values associated to the keys.
+	 */
+	int[] values;
+
+	/**
+	 * The number of keys stored within the table (the free key is managed
+	 * separately).
+	 */
+	int size = 0;
+
+	/**
+	 * Indicates whether the map contains the key used for free slots, and the
+	 * associated value.
+	 */
+	boolean containsFree = false;
+	int freeValue;
+
+	/**
+	 * The value returned when a key is not found.
+	 */
+	int missingValue;
+
+
+	// ====================================================
+	// Constructors
+
+	/**
+	 * Creates a new empty map, that returns -1 for missing keys.
+	 */
+	public LongIntHashMap()
+	{
+		this(16, -1);
+	}
+
+	/**
+	 * Creates a new empty map, that can contain the specified number of keys
+	 * without resizing.
+	 * 
+	 * @param expectedSize
+	 *            the expected number of keys
+	 * @param missingValue
+	 *            the value returned when a key is not found
+	 */
+	public LongIntHashMap(int expectedSize, int missingValue)
+	{
+		int capacity = 16;
+		while (capacity < expectedSize * 2)
+		{
+			capacity *= 2;
+		}
+		this.keys = new long[capacity];
+		this.values = new int[capacity];
+		this.missingValue = missingValue;
+	}
+
+
+	// ====================================================
+	// Methods
+
+	/**
+	 * Returns the value associated to a key.
+	 * 
+	 * @param key
+	 *            the key
+	 * @return the associated value, or the missing value if the key is not
+	 *         within the map
+	 */
+	public int get(long key)
+	{
+		if (key == FREE)
+		{
+			return containsFree ? freeValue : missingValue;
+		}
+
+		int mask = keys.length - 1;
+		int pos = hash(key) & mask;
+		while (keys[pos] != FREE)
+		{
+			if (keys[pos] == key)
+			{
+				return values[pos];
+			}
+			pos = (pos + 1) & mask;
+		}
+		return missingValue;
+	}
+
+	/**
+	 * Associates a value to a key.
+	 * 
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the new value
+	 * @return the previous value, or the missing value if the key was not
+	 *         within the map
+	 */
+	public int put(long key, int value)
+	{
+		if (key == FREE)
+		{
+			int previous = containsFree ? freeValue : missingValue;
+			containsFree = true;
+			freeValue = value;
+			return previous;
+		}
+
+		int mask = keys.length - 1;
+		int pos = hash(key) & mask;
+		while (keys[pos] != FREE)
+		{
+			if (keys[pos] == key)
+			{
+				int previous = values[pos];
+				values[pos] = value;
+				return previous;
+			}
+			pos = (pos + 1) & mask;
+		}
+		keys[pos] = key;
+		values[pos] = value;
+
+		// keep the table at most half full
+		if (++size * 2 > keys.length)
+		{
+			rehash(keys.length * 2);
+		}
+		return missingValue;
+	}
+
+	/**
+	 * @param key
+	 *            the key to test
+	 * @return true if the map contains the key
+	 */
+	public boolean containsKey(long key)
+	{
+		if (key == FREE)
+		{
+			return containsFree;
+		}
+
+		int mask = keys.length - 1;
+		int pos = hash(key) & mask;
+		while (keys[pos] != FREE)
+		{
+			if (keys[pos] == key)
+			{
+				return true;
+			}
+			pos = (pos + 1) & mask;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the number of keys within this map
+	 */
+	public int size()
+	{
+		return containsFree ? size + 1 : size;
+	}
+
+	/**
+	 * @return a new array containing the keys of this map, in no particular
+	 *         order
+	 */
+	public long[] keys()
+	{
+		long[] result = new long[size()];
+		int n = 0;
+		if (containsFree)
+		{
+			result[n++] = FREE;
+		}
+		for (long key : keys)
+		{
+			if (key != FREE)
+			{
+				result[n++] = key;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Removes all the keys from this map, keeping the allocated memory.
+	 */
+	public void clear()
+	{
+		Arrays.fill(keys, FREE);
+		size = 0;
+		containsFree = false;
+	}
+
+	private void rehash(int newCapacity)
+	{
+		long[] oldKeys = this.keys;
+		int[] oldValues = this.values;
+		this.keys = new long[newCapacity];
+		this.values = new int[newCapacity];
+		int mask = newCapacity - 1;
+		for (int i = 0; i < oldKeys.length; i++)
+		{
+			long key = oldKeys[i];
+			if (key == FREE) continue;
+			int pos = hash(key) & mask;
+			while (keys[pos] != FREE)
+			{
+				pos = (pos + 1) & mask;
+			}
+			keys[pos] = key;
+			values[pos] = oldValues[i];
+		}
+	}
+
+	/**
+	 * Mixes the bits of the key, to avoid clustering of similar keys.
+	 */
+	private static final int hash(long key)
+	{
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
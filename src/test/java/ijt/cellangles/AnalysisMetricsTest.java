@@ -0,0 +1,108 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URL;
+
+import org.junit.Test;
+
+import ij.process.ImageProcessor;
+import ijt.cellangles.AnalysisMetricsListener.Stage;
+
+/**
+ * @author dlegland
+ * 
+ */
+public class AnalysisMetricsTest
+{
+	/**
+	 * Test method for {@link ijt.cellangles.AnalysisMetrics#stageCompleted(Stage, CellsBoundary, long, long, long)}.
+	 */
+	@Test
+	public void testStageCompleted_Col0() throws IOException
+	{
+		ImageProcessor image = TestImages.openCol0Image();
+		
+		AnalysisMetrics metrics = new AnalysisMetrics();
+		ImageAnalysisSession session = new ImageAnalysisSession(image);
+		session.setMetricsListener(metrics);
+		
+		CellFile cellFile = session.analyzeCellFile(TestImages.createCol0Roi(), "Cortex", true, true);
+		
+		// the data of the whole image are computed once by the session
+		long pixelCount = (long) image.getWidth() * image.getHeight();
+		assertEquals(1, metrics.getCount(Stage.LABEL_STATISTICS));
+		assertEquals(1, metrics.getCount(Stage.BOUNDARY_INDEX));
+		assertEquals(pixelCount, metrics.getVisitedPixels(Stage.LABEL_STATISTICS));
+		assertEquals(pixelCount, metrics.getVisitedPixels(Stage.BOUNDARY_INDEX));
+		
+		assertEquals(1, metrics.getCount(Stage.LABEL_LIST));
+		assertEquals(1, metrics.getCount(Stage.PATH_CURVE));
+		assertTrue(metrics.getVisitedPixels(Stage.LABEL_LIST) > 400);
+		
+		// one measurement per boundary
+		int nBoundaries = cellFile.getAllBoundaries().size();
+		assertEquals(nBoundaries, metrics.getCount(Stage.BOUNDARY_PIXELS));
+		assertEquals(nBoundaries, metrics.getCount(Stage.BOUNDARY_ANGLE));
+		
+		long boundaryPixelCount = 0;
+		for (CellsBoundary boundary : cellFile.getAllBoundaries())
+		{
+			boundaryPixelCount += boundary.pixelList.size();
+		}
+		assertEquals(boundaryPixelCount, metrics.getBoundaryPixels(Stage.BOUNDARY_PIXELS));
+		assertEquals(boundaryPixelCount, metrics.getVisitedPixels(Stage.BOUNDARY_EXTREMITIES));
+		
+		// the next cell file reuses the data of the image
+		session.analyzeCellFile(TestImages.createCol0Roi(), "Cortex", true, true);
+		assertEquals(1, metrics.getCount(Stage.LABEL_STATISTICS));
+		assertEquals(1, metrics.getCount(Stage.BOUNDARY_INDEX));
+		assertEquals(2, metrics.getCount(Stage.LABEL_LIST));
+		
+		// one header line, and one line per stage
+		StringWriter writer = new StringWriter();
+		metrics.write(writer);
+		assertEquals(Stage.values().length + 1, writer.toString().split("\n").length);
+		
+		metrics.reset();
+		assertEquals(0, metrics.getCount(Stage.LABEL_LIST));
+	}
+
+	/**
+	 * Checks that the tiled analysis notifies the computation of the data of
+	 * the whole image.
+	 */
+	@Test
+	public void testStageCompleted_Tiled() throws IOException
+	{
+		URL inputFile = getClass().getResource("/images/Coupe-Col0-Calco-02-01-basins.tif");
+		MappedLabelImage mappedImage = MappedLabelImage.openTiff(new File(inputFile.getFile()));
+		try
+		{
+			AnalysisMetrics metrics = new AnalysisMetrics();
+			TiledAnalysis analysis = new TiledAnalysis(mappedImage);
+			analysis.setTileSize(200);
+			analysis.setThreadCount(2);
+			analysis.setMetricsListener(metrics);
+			
+			analysis.getLabelStatistics();
+			analysis.getBoundaryIndex();
+			
+			long pixelCount = (long) mappedImage.getWidth() * mappedImage.getHeight();
+			assertEquals(1, metrics.getCount(Stage.LABEL_STATISTICS));
+			assertEquals(1, metrics.getCount(Stage.BOUNDARY_INDEX));
+			assertEquals(pixelCount, metrics.getVisitedPixels(Stage.LABEL_STATISTICS));
+			assertTrue(metrics.getTotalTime(Stage.BOUNDARY_INDEX) > 0);
+		}
+		finally
+		{
+			mappedImage.close();
+		}
+	}
+}
@@ -0,0 +1,155 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+/**
+ * @author dlegland
+ * 
+ */
+public class AngleStatisticsTest
+{
+	/**
+	 * Checks that the mean of angles on each side of zero is zero.
+	 */
+	@Test
+	public void testGetMeanAngle_AroundZero()
+	{
+		AngleStatistics stats = new AngleStatistics();
+		stats.add(Math.toRadians(350));
+		stats.add(Math.toRadians(10));
+
+		double mean = stats.getMeanAngle();
+		assertEquals(0, Math.min(mean, 2 * Math.PI - mean), 1e-10);
+		assertEquals(Math.cos(Math.toRadians(10)), stats.getResultantLength(), 1e-10);
+	}
+
+	/**
+	 * Checks that identical angles have a resultant length of one.
+	 */
+	@Test
+	public void testGetResultantLength_Identical()
+	{
+		AngleStatistics stats = new AngleStatistics();
+		for (int i = 0; i < 10; i++)
+		{
+			stats.add(Math.toRadians(120));
+		}
+
+		assertEquals(10, stats.getCount());
+		assertEquals(Math.toRadians(120), stats.getMeanAngle(), 1e-10);
+		assertEquals(1.0, stats.getResultantLength(), 1e-10);
+		assertEquals(0.0, stats.getCircularVariance(), 1e-10);
+	}
+
+	/**
+	 * Test method for {@link ijt.cellangles.AngleStatistics#add(double)}.
+	 */
+	@Test
+	public void testAdd_Histogram()
+	{
+		AngleStatistics stats = new AngleStatistics(4);
+		stats.add(0);
+		stats.add(Math.toRadians(100));
+		stats.add(Math.toRadians(190));
+		stats.add(Math.toRadians(359));
+		stats.add(-Math.toRadians(1));
+
+		assertEquals(1, stats.getBinValue(0));
+		assertEquals(1, stats.getBinValue(1));
+		assertEquals(1, stats.getBinValue(2));
+		assertEquals(2, stats.getBinValue(3));
+	}
+
+	/**
+	 * Checks that merging accumulators gives the same result as a single
+	 * accumulator.
+	 */
+	@Test
+	public void testMerge()
+	{
+		AngleStatistics all = new AngleStatistics();
+		AngleStatistics part1 = new AngleStatistics();
+		AngleStatistics part2 = new AngleStatistics();
+		for (int i = 0; i < 100; i++)
+		{
+			double angle = i * 0.37;
+			all.add(angle);
+			if (i % 3 == 0)
+			{
+				part1.add(angle);
+			}
+			else
+			{
+				part2.add(angle);
+			}
+		}
+		part1.merge(part2);
+
+		assertEquals(all.getCount(), part1.getCount());
+		assertEquals(all.getMeanAngle(), part1.getMeanAngle(), 1e-10);
+		assertEquals(all.getResultantLength(), part1.getResultantLength(), 1e-10);
+		for (int bin = 0; bin < all.getBinCount(); bin++)
+		{
+			assertEquals(all.getBinValue(bin), part1.getBinValue(bin));
+		}
+	}
+
+	/**
+	 * Checks the summary of the boundaries of a cell file, and the merge of
+	 * summaries.
+	 */
+	@Test
+	public void testAngleSummary() throws IOException
+	{
+		// two valid boundaries, with angles of 90 and -45 degrees
+		CellFile cellFile = TestImages.createSyntheticCellFile();
+
+		AngleSummary summary1 = new AngleSummary();
+		summary1.addCellFile("image", "File1", "Cortex", true, cellFile);
+		AngleSummary summary2 = new AngleSummary();
+		summary2.addCellFile("image", "File2", "Cortex", true, cellFile);
+		summary2.addCellFile("image", "File3", "Epidermis", false, cellFile);
+
+		AngleSummary summary = new AngleSummary();
+		summary.merge(summary1);
+		summary.merge(summary2);
+
+		assertEquals(2, summary.getTissueTypes().size());
+		AngleStatistics cortex = summary.getStatistics("Cortex", true);
+		assertEquals(4, cortex.getCount());
+		assertEquals(Math.toRadians(22.5), cortex.getMeanAngle(), 1e-10);
+		assertEquals(2, summary.getStatistics("Epidermis", false).getCount());
+		assertEquals(2, summary.createTable().size());
+
+		StringWriter writer = new StringWriter();
+		summary.write(writer);
+		String[] lines = writer.toString().split("\n");
+		assertEquals(3, lines.length);
+		assertTrue(lines[1].startsWith("Cortex,Left,4,22.5000,") || lines[2].startsWith("Cortex,Left,4,22.5000,"));
+	}
+
+	/**
+	 * Checks that the tissue types are quoted within the CSV file as for the
+	 * results of the boundaries.
+	 */
+	@Test
+	public void testAngleSummary_Quotes() throws IOException
+	{
+		AngleSummary summary = new AngleSummary();
+		summary.addCellFile("image", "File1", "Cortex, \"inner\"", true, TestImages.createSyntheticCellFile());
+
+		StringWriter writer = new StringWriter();
+		summary.write(writer);
+		String[] lines = writer.toString().split("\n");
+		assertEquals(2, lines.length);
+		assertTrue(lines[1].startsWith("\"Cortex, \"\"inner\"\"\",Left,2,"));
+	}
+}
@@ -0,0 +1,111 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import static org.junit.Assert.*;
+
+import java.awt.Point;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import org.junit.Test;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * @author dlegland
+ *
+ */
+public class BoundaryIndexTest
+{
+	/**
+	 * Test method for {@link ijt.cellangles.BoundaryIndex#getBoundaryPixels(int, int)}.
+	 */
+	@Test
+	public void testGetBoundaryPixels()
+	{
+		// Create simple demo image
+		ImageProcessor image = new ByteProcessor(13, 6);
+		for (int y = 0; y < 4; y++)
+		{
+			for (int x = 0; x < 2; x++)
+			{
+				image.set(x + 1, y + 1,  4);
+				image.set(x + 4, y + 1,  7);
+				image.set(x + 7, y + 1, 10);
+				image.set(x + 10, y + 1, 15);
+			}
+		}
+		
+		BoundaryIndex index = new BoundaryIndex(image);
+		
+		assertEquals(3, index.pairNumber());
+		assertTrue(index.isAdjacent(7, 4));
+		assertFalse(index.isAdjacent(4, 10));
+		
+		List<Point> pixelList = index.getBoundaryPixels(7, 4);
+		assertEquals(4, pixelList.size());
+		assertTrue(pixelList.contains(new Point(3, 1)));
+		assertTrue(pixelList.contains(new Point(3, 4)));
+		
+		assertTrue(index.getBoundaryPixels(4, 15).isEmpty());
+	}
+
+	/**
+	 * Checks that the index gives the same result as the scan of the label
+	 * image for each boundary.
+	 */
+	@Test
+	public void testGetBoundaryPixels_Col0()
+	{
+		// Read input label image
+		URL inputFile = getClass().getResource("/images/Coupe-Col0-Calco-02-01-basins.tif");
+		ImagePlus imagePlus = IJ.openImage(inputFile.getFile());
+		ImageProcessor image = imagePlus.getProcessor();
+		
+		BoundaryIndex index = new BoundaryIndex(image);
+		
+		int[] labels = new int[]{392, 395, 401, 405, 413, 415};
+		for (int i = 0; i < labels.length - 1; i++)
+		{
+			CellsBoundary boundary = new CellsBoundary(labels[i], labels[i + 1], true);
+			List<Point> expected = new ArrayList<Point>(boundary.findBoundaryPixels(image));
+			
+			List<Point> pixelList = index.getBoundaryPixels(labels[i], labels[i + 1]);
+			assertFalse(pixelList.isEmpty());
+			assertEquals(expected, pixelList);
+		}
+	}
+
+	/**
+	 * Checks that the computation of the index stops when the thread is
+	 * interrupted.
+	 */
+	@Test
+	public void testConstructor_Interrupted()
+	{
+		ImageProcessor image = new ByteProcessor(20, 20);
+		
+		Thread.currentThread().interrupt();
+		try
+		{
+			new BoundaryIndex(image);
+			fail("Computation should have been cancelled");
+		}
+		catch (CancellationException ex)
+		{
+			// expected
+		}
+		finally
+		{
+			// clear the interrupted status
+			Thread.interrupted();
+		}
+	}
+}
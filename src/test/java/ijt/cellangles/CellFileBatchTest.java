@@ -0,0 +1,238 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Test;
+
+import ij.gui.PolygonRoi;
+import ij.gui.Roi;
+import ij.io.RoiEncoder;
+
+/**
+ * @author dlegland
+ *
+ */
+public class CellFileBatchTest
+{
+	/**
+	 * Test method for {@link ijt.cellangles.CellFileBatch#parseTissueType(java.lang.String, java.lang.String)}.
+	 */
+	@Test
+	public void testParseTissueType()
+	{
+		assertEquals("Cortex", CellFileBatch.parseTissueType("Cortex-Left", "Unknown"));
+		assertEquals("Epiderm", CellFileBatch.parseTissueType("Epiderm", "Unknown"));
+		assertEquals("Unknown", CellFileBatch.parseTissueType("Right", "Unknown"));
+		assertEquals("Unknown", CellFileBatch.parseTissueType("", "Unknown"));
+		assertEquals("Unknown", CellFileBatch.parseTissueType("0391-0187", "Unknown"));
+	}
+
+	/**
+	 * Test method for {@link ijt.cellangles.CellFileBatch#parseLeftSide(java.lang.String, boolean)}.
+	 */
+	@Test
+	public void testParseLeftSide()
+	{
+		assertTrue(CellFileBatch.parseLeftSide("Cortex-Left", false));
+		assertFalse(CellFileBatch.parseLeftSide("Cortex_R", true));
+		assertFalse(CellFileBatch.parseLeftSide("Right", true));
+		assertTrue(CellFileBatch.parseLeftSide("Pericycle", true));
+	}
+
+	/**
+	 * Test method for {@link ijt.cellangles.CellFileBatch#metricsFile(java.io.File)}.
+	 */
+	@Test
+	public void testMetricsFile()
+	{
+		File dir = new File("results");
+		assertEquals(new File(dir.getAbsoluteFile(), "angles-metrics.csv"),
+				CellFileBatch.metricsFile(new File(dir, "angles.csv")));
+		assertEquals("angles-metrics", CellFileBatch.metricsFile(new File("angles")).getName());
+	}
+
+	/**
+	 * Test method for {@link ijt.cellangles.CellFileBatch#run(java.io.File)}.
+	 * Processes a directory containing the Col0 image and a ROI set with a
+	 * valid cell file and a cell file outside of the image.
+	 */
+	@Test
+	public void testRun_Col0() throws IOException, InterruptedException
+	{
+		File dir = createTempDirectory();
+		File imageFile = new File(dir, "Col0.tif");
+		File roiFile = new File(dir, "Col0.zip");
+		File outputFile = new File(dir, "angles.csv");
+		try
+		{
+			URL inputFile = getClass().getResource("/images/Coupe-Col0-Calco-02-01-basins.tif");
+			copyFile(new File(inputFile.getFile()), imageFile);
+
+			Roi roi1 = TestImages.createCol0Roi();
+			roi1.setName("Cortex-Left");
+			Roi roi2 = new PolygonRoi(new int[]{-500, -400}, new int[]{-300, -200}, 2, Roi.POLYLINE);
+			roi2.setName("Epiderm-Right");
+			writeRois(roiFile, roi2, roi1);
+
+			CellFileBatch batch = new CellFileBatch(dir);
+			batch.setThreadCount(2);
+			assertEquals(1, batch.run(outputFile));
+
+			// expect the header and one row per valid boundary of the first ROI
+			List<String> lines = readLines(outputFile);
+			int nBoundaries = TestImages.analyzeCol0CellFile().getBoundaries().size();
+			assertTrue(nBoundaries > 0);
+			assertEquals(nBoundaries + 1, lines.size());
+			for (int i = 1; i < lines.size(); i++)
+			{
+				String[] tokens = lines.get(i).split(",");
+				assertEquals(11, tokens.length);
+				assertEquals("Cortex-Left", tokens[1]);
+				assertEquals("Cortex", tokens[2]);
+				assertEquals("Left", tokens[3]);
+			}
+		}
+		finally
+		{
+			imageFile.delete();
+			roiFile.delete();
+			outputFile.delete();
+			dir.delete();
+		}
+	}
+
+	/**
+	 * Checks that the angles of an image whose results could not be written
+	 * are not merged into the summary.
+	 */
+	@Test
+	public void testRun_FailedImageNotSummarized() throws IOException, InterruptedException
+	{
+		File dir = createTempDirectory();
+		File imageFile = new File(dir, "Col0.tif");
+		File roiFile = new File(dir, "Col0.zip");
+		try
+		{
+			URL inputFile = getClass().getResource("/images/Coupe-Col0-Calco-02-01-basins.tif");
+			copyFile(new File(inputFile.getFile()), imageFile);
+			Roi roi = TestImages.createCol0Roi();
+			roi.setName("Cortex-Left");
+			writeRois(roiFile, roi);
+
+			// a sink that fails after the cell file was added to the summary of the image
+			ResultSink sink = new ResultSink()
+			{
+				@Override
+				public void addBoundary(String imageName, String cellFileName, String tissueType,
+						boolean isLeftSide, CellsBoundary boundary) throws IOException
+				{
+					throw new IOException("Disk full");
+				}
+
+				@Override
+				public void flush()
+				{
+				}
+
+				@Override
+				public void close()
+				{
+				}
+			};
+
+			CellFileBatch batch = new CellFileBatch(dir);
+			AngleSummary summary = new AngleSummary();
+			batch.setAngleSummary(summary);
+			assertEquals(0, batch.run(sink));
+			assertTrue(summary.getTissueTypes().isEmpty());
+		}
+		finally
+		{
+			imageFile.delete();
+			roiFile.delete();
+			dir.delete();
+		}
+	}
+
+	private static final File createTempDirectory() throws IOException
+	{
+		File dir = File.createTempFile("cellFileBatch", "");
+		dir.delete();
+		dir.mkdir();
+		return dir;
+	}
+
+	private static final void copyFile(File source, File target) throws IOException
+	{
+		InputStream in = new FileInputStream(source);
+		OutputStream out = new FileOutputStream(target);
+		try
+		{
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) > 0)
+			{
+				out.write(buffer, 0, n);
+			}
+		}
+		finally
+		{
+			in.close();
+			out.close();
+		}
+	}
+
+	private static final void writeRois(File file, Roi... rois) throws IOException
+	{
+		ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file));
+		try
+		{
+			for (Roi roi : rois)
+			{
+				zos.putNextEntry(new ZipEntry(roi.getName() + ".roi"));
+				zos.write(RoiEncoder.saveAsByteArray(roi));
+				zos.closeEntry();
+			}
+		}
+		finally
+		{
+			zos.close();
+		}
+	}
+
+	private static final List<String> readLines(File file) throws IOException
+	{
+		List<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try
+		{
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				lines.add(line);
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		return lines;
+	}
+}
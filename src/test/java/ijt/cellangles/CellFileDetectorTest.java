@@ -0,0 +1,114 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import static org.junit.Assert.*;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.gui.PolygonRoi;
+import ij.gui.Roi;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * @author dlegland
+ * 
+ */
+public class CellFileDetectorTest
+{
+	/**
+	 * Test method for {@link ijt.cellangles.CellFileDetector#detect()}.
+	 */
+	@Test
+	public void testDetect_Grid()
+	{
+		// a grid of 6x3 square cells, separated by background lines
+		ImageProcessor image = new ByteProcessor(6 * 5 + 1, 3 * 5 + 1);
+		for (int iy = 0; iy < 3; iy++)
+		{
+			for (int ix = 0; ix < 6; ix++)
+			{
+				int label = iy * 6 + ix + 1;
+				for (int y = 1; y < 5; y++)
+				{
+					for (int x = 1; x < 5; x++)
+					{
+						image.set(ix * 5 + x, iy * 5 + y, label);
+					}
+				}
+			}
+		}
+
+		// the principal axis of the grid is horizontal: one file per row
+		CellFileDetector detector = new CellFileDetector(new ImageAnalysisSession(image));
+		detector.setThreadCount(2);
+		CellFileDetector.Result result = detector.detect();
+
+		assertEquals(18, result.getCellCount());
+		List<CellFile> cellFiles = result.getCellFiles();
+		assertEquals(3, cellFiles.size());
+		assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6), cellFiles.get(0).labelList);
+		assertEquals(Arrays.asList(7, 8, 9, 10, 11, 12), cellFiles.get(1).labelList);
+		assertEquals(Arrays.asList(13, 14, 15, 16, 17, 18), cellFiles.get(2).labelList);
+		assertEquals(5, cellFiles.get(0).getBoundaries().size());
+		assertTrue(cellFiles.get(0).isLeftSide != cellFiles.get(2).isLeftSide);
+
+		// with a vertical root axis, files are the columns
+		detector.setRootAxis(0, 1);
+		cellFiles = detector.detect().getCellFiles();
+		assertEquals(6, cellFiles.size());
+		assertEquals(Arrays.asList(1, 7, 13), cellFiles.get(0).labelList);
+		assertEquals(Arrays.asList(6, 12, 18), cellFiles.get(5).labelList);
+
+		// files shorter than the minimum number of cells are discarded
+		detector.setMinCellCount(4);
+		assertEquals(0, detector.detect().getCellFiles().size());
+	}
+
+	/**
+	 * Checks that the cell file drawn by the user is found within the
+	 * detected cell files, with a global or a local root axis.
+	 */
+	@Test
+	public void testDetect_Col0()
+	{
+		// Read input label image
+		URL inputFile = getClass().getResource("/images/Coupe-Col0-Calco-02-01-basins.tif");
+		ImagePlus imagePlus = IJ.openImage(inputFile.getFile());
+		ImageProcessor image = imagePlus.getProcessor();
+		ImageAnalysisSession session = new ImageAnalysisSession(image);
+
+		int[] roiX = new int[]{187, 285, 414, 485, 609};
+		int[] roiY = new int[]{391, 401, 408, 409, 411};
+		Roi roi = new PolygonRoi(roiX, roiY, 5, Roi.POLYLINE);
+		List<Integer> expected = session.analyzeCellFile(roi, "Cortex", true, true).labelList;
+
+		for (double radius : new double[] {0, 300})
+		{
+			CellFileDetector detector = new CellFileDetector(session);
+			detector.setAxisRadius(radius);
+			CellFileDetector.Result result = detector.detect();
+
+			assertEquals(595, result.getCellCount());
+			boolean found = false;
+			for (CellFile cellFile : result.getCellFiles())
+			{
+				if (Collections.indexOfSubList(cellFile.labelList, expected) >= 0)
+				{
+					found = true;
+					assertEquals(cellFile.labelList.size() - 1, cellFile.getBoundaries().size());
+				}
+			}
+			assertTrue(found);
+		}
+	}
+}
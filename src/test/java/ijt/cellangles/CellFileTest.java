@@ -9,11 +9,13 @@ import java.awt.geom.Point2D;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Test;
 
 import ij.IJ;
 import ij.ImagePlus;
+import ij.gui.PolygonRoi;
 import ij.process.ByteProcessor;
 import ij.process.ImageProcessor;
 
@@ -116,4 +118,82 @@ public class CellFileTest
 		fail("Not yet implemented");
 	}
 
+	/**
+	 * Test method for {@link ijt.cellangles.CellFile#computeCellsBoundaries(ijt.cellangles.BoundaryIndex, java.util.concurrent.Executor)}.
+	 */
+	@Test
+	public void testComputeCellsBoundaries_Parallel()
+	{
+		// Read input label image
+		URL inputFile = getClass().getResource("/images/Coupe-Col0-Calco-02-01-basins.tif");
+		ImagePlus imagePlus = IJ.openImage(inputFile.getFile());
+		ImageProcessor image = imagePlus.getProcessor();
+		
+		// create default cell file
+		CellFile cellFile = new CellFile("dummy", true);
+		int[] roiX = new int[]{187, 285, 414, 485, 609};
+		int[] roiY = new int[]{391, 401, 408, 409, 411};
+		List<Point2D> wayPoints = new ArrayList<Point2D>(roiX.length);
+		for (int i = 0; i < roiX.length; i++)
+		{
+			wayPoints.add(new Point2D.Double(roiX[i], roiY[i]));
+		}
+		cellFile.setWayPoint(wayPoints);
+		cellFile.computeLabelList(image);
+		cellFile.computePathCurve(image);
+		
+		// compute boundaries sequentially, then in parallel
+		BoundaryIndex index = new BoundaryIndex(image);
+		cellFile.computeCellsBoundaries(index);
+		List<CellsBoundary> expected = new ArrayList<CellsBoundary>(cellFile.getAllBoundaries());
+		cellFile.computeCellsBoundaries(index, ForkJoinPool.commonPool());
+		List<CellsBoundary> boundaries = cellFile.getAllBoundaries();
+		
+		assertEquals(17, boundaries.size());
+		for (int i = 0; i < boundaries.size(); i++)
+		{
+			CellsBoundary bnd = boundaries.get(i);
+			assertEquals(CellsBoundary.Status.VALID, bnd.getStatus());
+			assertEquals(expected.get(i).label1, bnd.label1);
+			assertEquals(expected.get(i).label2, bnd.label2);
+			assertEquals(expected.get(i).innerPoint, bnd.innerPoint);
+			assertEquals(expected.get(i).outerPoint, bnd.outerPoint);
+			assertEquals(expected.get(i).angle, bnd.angle, 1e-10);
+		}
+	}
+
+	/**
+	 * Test method for {@link ijt.cellangles.CellFile#computeCellsBoundaries(ijt.cellangles.BoundaryIndex, java.util.concurrent.Executor, ijt.cellangles.ProgressListener)}.
+	 */
+	@Test
+	public void testComputeCellsBoundaries_Progress()
+	{
+		ImageProcessor image = TestImages.openCol0Image();
+		CellFile cellFile = new CellFile("dummy", true);
+		cellFile.setWayPoints(((PolygonRoi) TestImages.createCol0Roi()).getPolygon());
+		cellFile.computeLabelList(image);
+		cellFile.computePathCurve(image);
+		BoundaryIndex index = new BoundaryIndex(image);
+		
+		// the progress is notified once per boundary, in increasing order
+		final List<Integer> steps = new ArrayList<Integer>();
+		ProgressListener listener = new ProgressListener()
+		{
+			@Override
+			public void progressChanged(int current, int total)
+			{
+				assertEquals(17, total);
+				steps.add(current);
+			}
+		};
+		cellFile.computeCellsBoundaries(index, null, listener);
+		cellFile.computeCellsBoundaries(index, ForkJoinPool.commonPool(), listener);
+		
+		assertEquals(34, steps.size());
+		for (int i = 0; i < 17; i++)
+		{
+			assertEquals(i + 1, (int) steps.get(i));
+			assertEquals(i + 1, (int) steps.get(i + 17));
+		}
+	}
 }
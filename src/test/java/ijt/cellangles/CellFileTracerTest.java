@@ -0,0 +1,95 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import static org.junit.Assert.*;
+
+import java.net.URL;
+import java.util.List;
+
+import org.junit.Test;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.gui.PolygonRoi;
+import ij.gui.Roi;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * @author dlegland
+ *
+ */
+public class CellFileTracerTest
+{
+	/**
+	 * Test method for {@link ijt.cellangles.CellFileTracer#traceLabels(int, int)}.
+	 */
+	@Test
+	public void testTraceLabels_Grid()
+	{
+		// a grid of 4x3 square cells, separated by background lines
+		ImageProcessor image = new ByteProcessor(4 * 5 + 1, 3 * 5 + 1);
+		for (int iy = 0; iy < 3; iy++)
+		{
+			for (int ix = 0; ix < 4; ix++)
+			{
+				int label = iy * 4 + ix + 1;
+				for (int y = 1; y < 5; y++)
+				{
+					for (int x = 1; x < 5; x++)
+					{
+						image.set(ix * 5 + x, iy * 5 + y, label);
+					}
+				}
+			}
+		}
+		
+		CellFileTracer tracer = new CellFileTracer(new RegionAdjacencyGraph(image));
+		
+		// straight horizontal and vertical files
+		assertArrayEquals(new int[] {5, 6, 7, 8}, tracer.traceLabels(5, 8));
+		assertArrayEquals(new int[] {10, 6, 2}, tracer.traceLabels(10, 2));
+		assertArrayEquals(new int[] {3}, tracer.traceLabels(3, 3));
+		
+		// diagonal file: a staircase of adjacent cells
+		int[] labels = tracer.traceLabels(1, 12);
+		assertEquals(6, labels.length);
+		assertEquals(1, labels[0]);
+		assertEquals(12, labels[5]);
+	}
+	
+	/**
+	 * Checks that a cell file traced from its extremities is the same as the
+	 * cell file computed from a polyline ROI.
+	 */
+	@Test
+	public void testTraceCellFile_Col0()
+	{
+		// Read input label image
+		URL inputFile = getClass().getResource("/images/Coupe-Col0-Calco-02-01-basins.tif");
+		ImagePlus imagePlus = IJ.openImage(inputFile.getFile());
+		ImageProcessor image = imagePlus.getProcessor();
+		ImageAnalysisSession session = new ImageAnalysisSession(image);
+		
+		int[] roiX = new int[]{187, 285, 414, 485, 609};
+		int[] roiY = new int[]{391, 401, 408, 409, 411};
+		Roi roi = new PolygonRoi(roiX, roiY, 5, Roi.POLYLINE);
+		CellFile expected = session.analyzeCellFile(roi, "Cortex", true, true);
+		
+		int startLabel = expected.labelList.get(0);
+		int endLabel = expected.labelList.get(expected.labelList.size() - 1);
+		CellFile cellFile = session.traceCellFile(startLabel, endLabel, "Cortex", true, true);
+		
+		assertEquals(expected.labelList, cellFile.labelList);
+		List<CellsBoundary> expBoundaries = expected.getAllBoundaries();
+		List<CellsBoundary> boundaries = cellFile.getAllBoundaries();
+		assertEquals(expBoundaries.size(), boundaries.size());
+		for (int i = 0; i < boundaries.size(); i++)
+		{
+			assertEquals(expBoundaries.get(i).getStatus(), boundaries.get(i).getStatus());
+			assertEquals(expBoundaries.get(i).angle, boundaries.get(i).angle, 1e-10);
+		}
+	}
+}
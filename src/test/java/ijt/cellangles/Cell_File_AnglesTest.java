@@ -1,7 +1,86 @@
 package ijt.cellangles;
 
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import ij.gui.Overlay;
+import ij.gui.Roi;
+import ij.process.ImageProcessor;
+import ijt.geom.Polyline2D;
+
 public class Cell_File_AnglesTest
 {
+	/**
+	 * Test method for {@link ijt.cellangles.Cell_File_Angles#updateCompactOverlay(Overlay, CellFile)}.
+	 */
+	@Test
+	public void testUpdateCompactOverlay_Col0()
+	{
+		CellFile cellFile = TestImages.analyzeCol0CellFile();
+		
+		// the default overlay uses several ROIs per boundary
+		Overlay overlay = new Overlay();
+		Cell_File_Angles.updateOverlay(overlay, cellFile);
+		assertTrue(overlay.size() > cellFile.getBoundaries().size());
+		
+		// the compact overlay uses three ROIs per cell file
+		overlay = new Overlay();
+		Cell_File_Angles.updateCompactOverlay(overlay, cellFile);
+		assertEquals(3, overlay.size());
+		assertEquals("CellFile1-edges", overlay.get(0).getName());
+		
+		Cell_File_Angles.updateCompactOverlay(overlay, cellFile);
+		assertEquals(6, overlay.size());
+		assertEquals("CellFile2-edges", overlay.get(3).getName());
+	}
+
+	/**
+	 * A cell file without boundaries adds no edges ROI, but the next cell
+	 * file must still get a new name and a new color.
+	 */
+	@Test
+	public void testUpdateCompactOverlay_NoBoundary()
+	{
+		CellFile emptyFile = new CellFile("Cortex", true);
+		emptyFile.setLabelList(new int[] {12});
+		emptyFile.pathCurve = new Polyline2D(new double[] {10, 20}, new double[] {10, 10});
+		CellFile cellFile = TestImages.analyzeCol0CellFile();
+		
+		Overlay overlay = new Overlay();
+		Cell_File_Angles.updateCompactOverlay(overlay, emptyFile);
+		assertEquals(1, overlay.size());
+		assertEquals("CellFile1-path", overlay.get(0).getName());
+		
+		Cell_File_Angles.updateCompactOverlay(overlay, cellFile);
+		assertEquals(4, overlay.size());
+		assertEquals("CellFile2-edges", overlay.get(1).getName());
+		assertEquals(Cell_File_Angles.CELL_FILE_COLORS[1], overlay.get(1).getStrokeColor());
+	}
 
-	
+	/**
+	 * Test method for {@link ijt.cellangles.Cell_File_Angles#analyzeCellFile(ImageProcessor, Roi, String, boolean, boolean)}.
+	 * The smoothed path gives different angles than the original path.
+	 */
+	@Test
+	public void testAnalyzeCellFile_Col0Smoothed()
+	{
+		ImageProcessor image = TestImages.openCol0Image();
+		List<CellsBoundary> boundaries = Cell_File_Angles.analyzeCellFile(image, TestImages.createCol0Roi(), "Cortex", true, false).getAllBoundaries();
+		List<CellsBoundary> smoothed = Cell_File_Angles.analyzeCellFile(image, TestImages.createCol0Roi(), "Cortex", true, true).getAllBoundaries();
+		assertEquals(17, boundaries.size());
+		assertEquals(17, smoothed.size());
+		
+		// angles computed from the original path
+		assertEquals(1.5694066448067554, boundaries.get(0).angle, 1e-10);
+		assertEquals(1.5184962142756069, boundaries.get(2).angle, 1e-10);
+		assertEquals(1.7115400886996852, boundaries.get(16).angle, 1e-10);
+		
+		// angles computed from the smoothed path
+		assertEquals(1.582892403177869, smoothed.get(0).angle, 1e-10);
+		assertEquals(1.4823366407538048, smoothed.get(2).angle, 1e-10);
+		assertEquals(1.7194060675216907, smoothed.get(16).angle, 1e-10);
+	}
 }
@@ -3,9 +3,11 @@
  */
 package ijt.cellangles;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.awt.Point;
+import java.awt.geom.Point2D;
 import java.util.Collection;
 
 import org.junit.Test;
@@ -48,6 +50,38 @@ public class CellsBoundaryTest
 		assertTrue(pixelList.contains(new Point(3, 4)));
 	}
 	
+	/**
+	 * Test method for {@link ijt.cellangles.CellsBoundary#findBoundaryPixels(ij.process.ImageProcessor, ijt.cellangles.LabelStatistics)}.
+	 */
+	@Test
+	public void testFindBoundaryPixels_LabelStatistics()
+	{
+		// Create simple demo image
+		ImageProcessor image = new ByteProcessor(13, 6);
+		for (int y = 0; y < 4; y++)
+		{
+			for (int x = 0; x < 2; x++)
+			{
+				image.set(x + 1, y + 1,  4);
+				image.set(x + 4, y + 1,  7);
+				image.set(x + 7, y + 1, 10);
+				image.set(x + 10, y + 1, 15);
+			}
+		}
+		LabelStatistics stats = new LabelStatistics(image);
+		
+		CellsBoundary boundary = new CellsBoundary(7, 10, true);
+		Collection<Point> pixelList = boundary.findBoundaryPixels(image, stats);
+		
+		assertEquals(4, pixelList.size());
+		assertTrue(pixelList.contains(new Point(6, 1)));
+		assertTrue(pixelList.contains(new Point(6, 4)));
+		
+		// cells that are not adjacent
+		boundary = new CellsBoundary(4, 15, true);
+		assertTrue(boundary.findBoundaryPixels(image, stats).isEmpty());
+	}
+	
 	/**
 	 * Test method for {@link ijt.cellangles.CellsBoundary#findBoundaryPixels(ij.process.ImageProcessor)}.
 	 */
@@ -74,4 +108,103 @@ public class CellsBoundaryTest
 		assertTrue(pixelList.contains(new Point(3, 1)));
 		assertTrue(pixelList.contains(new Point(3, 4)));
 	}
+	
+	/**
+	 * Test method for {@link ijt.cellangles.CellsBoundary#findBoundaryExtremities()}.
+	 */
+	@Test
+	public final void findBoundaryExtremities_Branched()
+	{
+		// Create a T-shaped boundary
+		CellsBoundary boundary = new CellsBoundary(2, 3, true);
+		boundary.pixelList.reset(9);
+		for (int x = 0; x < 9; x++)
+		{
+			boundary.pixelList.add(x, 4);
+		}
+		for (int y = 5; y < 9; y++)
+		{
+			boundary.pixelList.add(4, y);
+		}
+		
+		Collection<Point> extremities = boundary.findBoundaryExtremities();
+		
+		assertTrue(boundary.isBranched());
+		assertEquals(3, boundary.getEndPointCount());
+		assertEquals(2, extremities.size());
+		assertTrue(extremities.contains(new Point(0, 4)));
+		assertTrue(extremities.contains(new Point(8, 4)));
+	}
+	
+	/**
+	 * Test method for {@link ijt.cellangles.CellsBoundary#identifyInnerAndOuterPoints(java.awt.geom.Point2D, java.awt.geom.Point2D)}.
+	 */
+	@Test
+	public final void testIdentifyInnerAndOuterPoints()
+	{
+		// vertical boundary crossed by a horizontal cell file
+		CellsBoundary boundary = new CellsBoundary(2, 3, true);
+		boundary.pixelList.reset(12);
+		for (int y = 0; y < 9; y++)
+		{
+			boundary.pixelList.add(5, y);
+		}
+		
+		boundary.identifyInnerAndOuterPoints(new Point2D.Double(2, 4), new Point2D.Double(9, 4));
+		
+		assertEquals(new Point(5, 0), boundary.innerPoint);
+		assertEquals(new Point(5, 8), boundary.outerPoint);
+		
+		// the other side of the cell file swaps the two points
+		boundary = new CellsBoundary(2, 3, false);
+		boundary.pixelList.reset(12);
+		for (int y = 0; y < 9; y++)
+		{
+			boundary.pixelList.add(5, y);
+		}
+		
+		boundary.identifyInnerAndOuterPoints(new Point2D.Double(2, 4), new Point2D.Double(9, 4));
+		
+		assertEquals(new Point(5, 8), boundary.innerPoint);
+		assertEquals(new Point(5, 0), boundary.outerPoint);
+	}
+	
+	/**
+	 * Test method for {@link ijt.cellangles.CellsBoundary#identifyInnerAndOuterPoints(java.awt.geom.Point2D, java.awt.geom.Point2D, int[], int[], double[])}.
+	 */
+	@Test
+	public final void testIdentifyInnerAndOuterPoints_Buffers()
+	{
+		// buffers larger than the boundary, and buffer too small to be used
+		int[] xCoords = new int[20];
+		int[] yCoords = new int[20];
+		double[] distances = new double[4];
+		
+		CellsBoundary boundary = new CellsBoundary(2, 3, true);
+		boundary.pixelList.reset(12);
+		for (int y = 0; y < 9; y++)
+		{
+			boundary.pixelList.add(5, y);
+		}
+		
+		boundary.identifyInnerAndOuterPoints(new Point2D.Double(2, 4), new Point2D.Double(9, 4), xCoords, yCoords, distances);
+		
+		assertEquals(new Point(5, 0), boundary.innerPoint);
+		assertEquals(new Point(5, 8), boundary.outerPoint);
+		assertEquals(5, xCoords[8]);
+		assertEquals(8, yCoords[8]);
+	}
+	
+	/**
+	 * Test method for {@link ijt.cellangles.CellsBoundary#identifyInnerAndOuterPoints(java.awt.geom.Point2D, java.awt.geom.Point2D)}.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public final void testIdentifyInnerAndOuterPoints_SameCentroids()
+	{
+		CellsBoundary boundary = new CellsBoundary(2, 3, true);
+		boundary.pixelList.reset(12);
+		boundary.pixelList.add(5, 4);
+		
+		boundary.identifyInnerAndOuterPoints(new Point2D.Double(2, 4), new Point2D.Double(2, 4));
+	}
 }
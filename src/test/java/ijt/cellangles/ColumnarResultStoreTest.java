@@ -0,0 +1,186 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import ij.measure.ResultsTable;
+
+/**
+ * @author dlegland
+ * 
+ */
+public class ColumnarResultStoreTest
+{
+	/**
+	 * Test method for {@link ijt.cellangles.ColumnarResultStore#createTable()}.
+	 */
+	@Test
+	public void testCreateTable()
+	{
+		CellFile cellFile = TestImages.createSyntheticCellFile();
+
+		ColumnarResultStore store = new ColumnarResultStore(4);
+		store.addCellFile("image", "File1", "Cortex", true, cellFile);
+		assertEquals(2, store.size());
+
+		ResultsTable table = store.createTable();
+		assertEquals(2, table.size());
+		assertEquals("File1", table.getStringValue("CellFile", 0));
+		assertEquals(3, table.getValue("Label1", 0), 0.0);
+		assertEquals(5, table.getValue("Label2", 0), 0.0);
+		assertEquals(26, table.getValue("outerY", 0), 0.0);
+		assertEquals(90, table.getValue("angle", 0), 1e-10);
+		assertEquals(8, table.getValue("Label2", 1), 0.0);
+		assertEquals(35, table.getValue("outerY", 1), 0.0);
+		assertEquals(-45, table.getValue("angle", 1), 1e-10);
+	}
+
+	/**
+	 * Checks that a store written in binary format can be read back.
+	 */
+	@Test
+	public void testWriteRead() throws IOException
+	{
+		CellFile cellFile = TestImages.createSyntheticCellFile();
+		ColumnarResultStore store = new ColumnarResultStore();
+		store.addCellFile("image1", "File1", "Cortex", true, cellFile);
+		store.addCellFile("image2", null, "Epiderm", false, cellFile);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		store.write(out);
+		ColumnarResultStore store2 = ColumnarResultStore.read(new ByteArrayInputStream(out.toByteArray()));
+
+		assertStoreEquals(store, store2);
+	}
+
+	/**
+	 * Checks that stores filled by several threads can be merged.
+	 */
+	@Test
+	public void testAddAll() throws InterruptedException
+	{
+		final CellFile cellFile = TestImages.createSyntheticCellFile();
+		final ColumnarResultStore shared = new ColumnarResultStore(16);
+		final ColumnarResultStore merged = new ColumnarResultStore(16);
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++)
+		{
+			final String tissueType = "Tissue" + (t % 2);
+			threads.add(new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					ColumnarResultStore local = new ColumnarResultStore(16);
+					for (int i = 0; i < 50; i++)
+					{
+						shared.addCellFile("image", "File" + i, tissueType, true, cellFile);
+						local.addCellFile("image", "File" + i, tissueType, true, cellFile);
+					}
+					merged.addAll(local);
+				}
+			}));
+		}
+		for (Thread thread : threads)
+		{
+			thread.start();
+		}
+		for (Thread thread : threads)
+		{
+			thread.join();
+		}
+
+		int nRows = 4 * 50 * cellFile.getBoundaries().size();
+		assertEquals(nRows, shared.size());
+		assertEquals(nRows, merged.size());
+		assertEquals(2, merged.tissueTypes.values.size());
+		assertEquals(50, merged.cellFileNames.values.size());
+		for (int i = 0; i < nRows; i++)
+		{
+			assertTrue(merged.getCellFileName(i).startsWith("File"));
+			assertTrue(merged.getTissueType(i).startsWith("Tissue"));
+		}
+	}
+
+	/**
+	 * Checks that two stores adding the rows of each other concurrently do
+	 * not lock each other, and that a store can add its own rows.
+	 */
+	@Test
+	public void testAddAll_Crossed() throws InterruptedException
+	{
+		CellFile cellFile = TestImages.createSyntheticCellFile();
+		final ColumnarResultStore store1 = new ColumnarResultStore(16);
+		final ColumnarResultStore store2 = new ColumnarResultStore(16);
+		store1.addCellFile("image1", "File1", "Cortex", true, cellFile);
+		store2.addCellFile("image2", "File2", "Epiderm", false, cellFile);
+
+		Thread thread1 = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				for (int i = 0; i < 100000; i++)
+				{
+					store1.addAll(store2);
+					store1.clear();
+				}
+			}
+		});
+		Thread thread2 = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				for (int i = 0; i < 100000; i++)
+				{
+					store2.addAll(store1);
+					store2.clear();
+				}
+			}
+		});
+		thread1.setDaemon(true);
+		thread2.setDaemon(true);
+		thread1.start();
+		thread2.start();
+		thread1.join(10000);
+		thread2.join(10000);
+		assertFalse(thread1.isAlive());
+		assertFalse(thread2.isAlive());
+
+		ColumnarResultStore store = new ColumnarResultStore(2);
+		store.addCellFile("image", "File1", "Cortex", true, cellFile);
+		store.addAll(store);
+		assertEquals(4, store.size());
+		assertEquals("File1", store.getCellFileName(3));
+		assertEquals(8, store.getLabel2(3));
+	}
+
+	private static final void assertStoreEquals(ColumnarResultStore expected, ColumnarResultStore store)
+	{
+		assertEquals(expected.size(), store.size());
+		for (int i = 0; i < store.size(); i++)
+		{
+			assertEquals(expected.getImageName(i), store.getImageName(i));
+			assertEquals(expected.getCellFileName(i), store.getCellFileName(i));
+			assertEquals(expected.getTissueType(i), store.getTissueType(i));
+			assertEquals(expected.isLeftSide(i), store.isLeftSide(i));
+			assertEquals(expected.getLabel1(i), store.getLabel1(i));
+			assertEquals(expected.getLabel2(i), store.getLabel2(i));
+			assertEquals(expected.innerX[i], store.innerX[i]);
+			assertEquals(expected.outerY[i], store.outerY[i]);
+			assertEquals(expected.getAngle(i), store.getAngle(i), 0.0);
+		}
+	}
+}
@@ -0,0 +1,69 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import static org.junit.Assert.*;
+
+import java.net.URL;
+import java.util.List;
+
+import org.junit.Test;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.gui.PolygonRoi;
+import ij.gui.Roi;
+import ij.process.ImageProcessor;
+
+/**
+ * @author dlegland
+ *
+ */
+public class ImageAnalysisSessionTest
+{
+	/**
+	 * Test method for {@link ijt.cellangles.ImageAnalysisSession#analyzeCellFiles(ij.gui.Roi[], java.lang.String, boolean, boolean)}.
+	 */
+	@Test
+	public void testAnalyzeCellFiles()
+	{
+		// Read input label image
+		URL inputFile = getClass().getResource("/images/Coupe-Col0-Calco-02-01-basins.tif");
+		ImagePlus imagePlus = IJ.openImage(inputFile.getFile());
+		ImageProcessor image = imagePlus.getProcessor();
+		
+		ImageAnalysisSession session = new ImageAnalysisSession(image);
+		
+		// cached data are computed only once
+		LabelStatistics stats = session.getLabelStatistics();
+		BoundaryIndex index = session.getBoundaryIndex();
+		assertSame(stats, session.getLabelStatistics());
+		assertSame(index, session.getBoundaryIndex());
+		
+		// analyze the same cell file with two ROIs
+		int[] roiX = new int[]{187, 285, 414, 485, 609};
+		int[] roiY = new int[]{391, 401, 408, 409, 411};
+		Roi roi1 = new PolygonRoi(roiX, roiY, 5, Roi.POLYLINE);
+		Roi roi2 = new PolygonRoi(roiX, roiY, 3, Roi.POLYLINE);
+		List<CellFile> cellFiles = session.analyzeCellFiles(new Roi[] {roi1, roi2}, "Cortex", true, true);
+		
+		assertEquals(2, cellFiles.size());
+		assertEquals(17, cellFiles.get(0).getBoundaries().size());
+		assertTrue(cellFiles.get(1).getBoundaries().size() < 17);
+		assertSame(stats, session.getLabelStatistics());
+		
+		// results are the same as without session
+		CellFile ref = Cell_File_Angles.analyzeCellFile(image, roi1, "Cortex", true, true);
+		List<CellsBoundary> expected = ref.getAllBoundaries(); 
+		List<CellsBoundary> boundaries = cellFiles.get(0).getAllBoundaries(); 
+		for (int i = 0; i < expected.size(); i++)
+		{
+			assertEquals(expected.get(i).angle, boundaries.get(i).angle, 1e-10);
+		}
+		
+		// invalidation
+		session.invalidate();
+		assertNotSame(stats, session.getLabelStatistics());
+	}
+}
@@ -0,0 +1,175 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import static org.junit.Assert.*;
+
+import java.net.URL;
+import java.util.Arrays;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/**
+ * @author dlegland
+ * 
+ */
+public class LabelImageKernelTest
+{
+	/**
+	 * Test method for {@link ijt.cellangles.LabelImageKernel#findBoundaryPixels(int, int, int, int, int, int, ijt.cellangles.PixelList)}.
+	 */
+	@Test
+	public void testFindBoundaryPixels_ImageBorders()
+	{
+		// cells touching the borders of the image, separated by a vertical
+		// and a horizontal background line
+		int[][] labels = new int[][] {
+			{3, 3, 0, 5, 5},
+			{3, 3, 0, 5, 5},
+			{0, 0, 0, 0, 0},
+			{8, 8, 0, 9, 9}};
+		
+		ImageProcessor[] images = new ImageProcessor[] {
+				new ByteProcessor(5, 4), new ShortProcessor(5, 4), new FloatProcessor(5, 4)};
+		for (ImageProcessor image : images)
+		{
+			for (int y = 0; y < 4; y++)
+			{
+				for (int x = 0; x < 5; x++)
+				{
+					image.setf(x, y, labels[y][x]);
+				}
+			}
+			LabelImageKernel kernel = LabelImageKernel.create(image);
+			assertEquals(8, kernel.getLabel(0, 3));
+			
+			// boundary touching the top border
+			PixelList pixels = new PixelList(5);
+			kernel.findBoundaryPixels(3, 5, 0, 0, 4, 3, pixels);
+			assertArrayEquals(new int[] {2, 7}, pixels.toArray());
+			
+			// boundary touching the left border
+			pixels = new PixelList(5);
+			kernel.findBoundaryPixels(3, 8, 0, 0, 4, 3, pixels);
+			assertArrayEquals(new int[] {10, 11}, pixels.toArray());
+			
+			// boundary touching the right border
+			pixels = new PixelList(5);
+			kernel.findBoundaryPixels(5, 9, 0, 0, 4, 3, pixels);
+			assertArrayEquals(new int[] {13, 14}, pixels.toArray());
+			
+			// restricted search region
+			pixels = new PixelList(5);
+			kernel.findBoundaryPixels(5, 9, 4, 2, 4, 3, pixels);
+			assertArrayEquals(new int[] {14}, pixels.toArray());
+		}
+	}
+	
+	/**
+	 * Checks that the kernels of the short and float images give the same
+	 * result as the boundary index for each pair of adjacent labels.
+	 */
+	@Test
+	public void testFindBoundaryPixels_Col0()
+	{
+		// Read input label image
+		URL inputFile = getClass().getResource("/images/Coupe-Col0-Calco-02-01-basins.tif");
+		ImagePlus imagePlus = IJ.openImage(inputFile.getFile());
+		ImageProcessor image = imagePlus.getProcessor();
+		int sizeX = image.getWidth();
+		int sizeY = image.getHeight();
+		
+		// convert to 16-bit image
+		ImageProcessor image16 = new ShortProcessor(sizeX, sizeY);
+		for (int y = 0; y < sizeY; y++)
+		{
+			for (int x = 0; x < sizeX; x++)
+			{
+				image16.setf(x, y, image.getf(x, y));
+			}
+		}
+		
+		BoundaryIndex index = new BoundaryIndex(image);
+		LabelImageKernel kernel = LabelImageKernel.create(image);
+		LabelImageKernel kernel16 = LabelImageKernel.create(image16);
+		
+		int[] labels = new int[]{392, 395, 401, 405, 413, 415};
+		for (int i = 0; i < labels.length - 1; i++)
+		{
+			int[] expected = index.getPixelList(labels[i], labels[i + 1]).toArray();
+			
+			PixelList pixels = new PixelList(sizeX);
+			kernel.findBoundaryPixels(labels[i], labels[i + 1], 0, 0, sizeX - 1, sizeY - 1, pixels);
+			assertTrue(Arrays.equals(expected, pixels.toArray()));
+			
+			pixels = new PixelList(sizeX);
+			kernel16.findBoundaryPixels(labels[i], labels[i + 1], 0, 0, sizeX - 1, sizeY - 1, pixels);
+			assertTrue(Arrays.equals(expected, pixels.toArray()));
+		}
+	}
+
+	/**
+	 * Checks that the kernel based on the Vector API gives the same result as
+	 * the scalar kernel for 16-bit images, for all the positions of the
+	 * boundaries within the blocks of pixels. The "vector" build profile
+	 * starts the tests with the Vector API module, and requires the kernel to
+	 * be available. Otherwise, the test is skipped if the kernel is not
+	 * available.
+	 */
+	@Test
+	public void testFindBoundaryPixels_VectorKernel()
+	{
+		if (Boolean.getBoolean("ijt.cellangles.expectVectorKernel"))
+		{
+			assertTrue(LabelImageKernel.isVectorKernelAvailable());
+		}
+		else
+		{
+			Assume.assumeTrue(LabelImageKernel.isVectorKernelAvailable());
+		}
+		
+		// Read input label image
+		URL inputFile = getClass().getResource("/images/Coupe-Col0-Calco-02-01-basins.tif");
+		ImagePlus imagePlus = IJ.openImage(inputFile.getFile());
+		ImageProcessor image = imagePlus.getProcessor();
+		int sizeX = image.getWidth();
+		int sizeY = image.getHeight();
+		
+		// convert to 16-bit image
+		ImageProcessor image16 = new ShortProcessor(sizeX, sizeY);
+		for (int y = 0; y < sizeY; y++)
+		{
+			for (int x = 0; x < sizeX; x++)
+			{
+				image16.setf(x, y, image.getf(x, y));
+			}
+		}
+		
+		LabelImageKernel scalar = LabelImageKernel.create(image16, false);
+		LabelImageKernel kernel = LabelImageKernel.create(image16);
+		assertEquals("VectorShortKernel", kernel.getClass().getSimpleName());
+		
+		int[] labels = new int[]{392, 395, 401, 405, 413, 415};
+		for (int i = 0; i < labels.length - 1; i++)
+		{
+			// shift the start of the region, to change the alignment of blocks 
+			for (int x0 = 0; x0 < 20; x0++)
+			{
+				PixelList expected = new PixelList(sizeX);
+				scalar.findBoundaryPixels(labels[i], labels[i + 1], x0, 0, sizeX - 1, sizeY - 1, expected);
+				PixelList pixels = new PixelList(sizeX);
+				kernel.findBoundaryPixels(labels[i], labels[i + 1], x0, 0, sizeX - 1, sizeY - 1, pixels);
+				assertTrue(Arrays.equals(expected.toArray(), pixels.toArray()));
+			}
+		}
+	}
+}
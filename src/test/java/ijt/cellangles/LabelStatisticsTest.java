@@ -0,0 +1,76 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import static org.junit.Assert.*;
+
+import java.awt.Rectangle;
+import java.awt.geom.Point2D;
+
+import org.junit.Test;
+
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/**
+ * @author dlegland
+ *
+ */
+public class LabelStatisticsTest
+{
+	/**
+	 * Test method for {@link ijt.cellangles.LabelStatistics#LabelStatistics(ij.process.ImageProcessor)}.
+	 */
+	@Test
+	public void testLabelStatistics()
+	{
+		// Create simple demo image, with large label values
+		ImageProcessor image = new ShortProcessor(13, 6);
+		for (int y = 0; y < 4; y++)
+		{
+			for (int x = 0; x < 2; x++)
+			{
+				image.set(x + 1, y + 1,  4);
+				image.set(x + 4, y + 1,  7);
+				image.set(x + 7, y + 1, 1000);
+			}
+		}
+		
+		LabelStatistics stats = new LabelStatistics(image);
+		
+		assertEquals(1000, stats.getMaxLabel());
+		assertTrue(stats.contains(7));
+		assertFalse(stats.contains(5));
+		assertEquals(8, stats.getPixelCount(1000));
+		assertEquals(new Rectangle(4, 1, 2, 4), stats.getBoundingBox(7));
+		
+		Point2D centroid = stats.getCentroid(4);
+		assertEquals(1.5, centroid.getX(), .001);
+		assertEquals(2.5, centroid.getY(), .001);
+	}
+
+	/**
+	 * Test method for {@link ijt.cellangles.LabelStatistics#boundarySearchRegion(int, int)}.
+	 */
+	@Test
+	public void testBoundarySearchRegion()
+	{
+		ImageProcessor image = new ShortProcessor(13, 6);
+		for (int y = 0; y < 4; y++)
+		{
+			for (int x = 0; x < 2; x++)
+			{
+				image.set(x + 1, y + 1,  4);
+				image.set(x + 4, y + 1,  7);
+				image.set(x + 7, y + 1, 10);
+			}
+		}
+		
+		LabelStatistics stats = new LabelStatistics(image);
+		
+		assertEquals(new Rectangle(3, 0, 1, 6), stats.boundarySearchRegion(4, 7));
+		assertNull(stats.boundarySearchRegion(4, 10));
+		assertNull(stats.boundarySearchRegion(4, 12));
+	}
+}
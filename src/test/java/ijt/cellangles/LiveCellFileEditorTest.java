@@ -0,0 +1,94 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import static org.junit.Assert.*;
+
+import java.awt.Polygon;
+import java.net.URL;
+import java.util.List;
+
+import org.junit.Test;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.gui.PolygonRoi;
+import ij.gui.Roi;
+import ij.process.ImageProcessor;
+
+/**
+ * @author dlegland
+ * 
+ */
+public class LiveCellFileEditorTest
+{
+	/**
+	 * Test method for {@link ijt.cellangles.LiveCellFileEditor#update(java.awt.Polygon)}.
+	 */
+	@Test
+	public void testUpdate_Col0()
+	{
+		// Read input label image
+		URL inputFile = getClass().getResource("/images/Coupe-Col0-Calco-02-01-basins.tif");
+		ImagePlus imagePlus = IJ.openImage(inputFile.getFile());
+		ImageProcessor image = imagePlus.getProcessor();
+		ImageAnalysisSession session = new ImageAnalysisSession(image);
+
+		for (boolean smooth : new boolean[] {true, false})
+		{
+			LiveCellFileEditor editor = new LiveCellFileEditor(session, "Cortex", true, smooth);
+
+			// first version: all boundaries are computed
+			int[] roiX = new int[]{187, 285, 414, 485, 609};
+			int[] roiY = new int[]{391, 401, 408, 409, 411};
+			CellFile cellFile = editor.update(new Polygon(roiX, roiY, 5));
+			assertEquals(17, editor.getComputedBoundaryCount());
+			assertSameCellFile(session, roiX, roiY, smooth, cellFile);
+
+			// move the last vertex backward: only the end of the file changes
+			roiX[4] = 560;
+			cellFile = editor.update(new Polygon(roiX, roiY, 5));
+			assertTrue(editor.getComputedBoundaryCount() <= (smooth ? 2 : 1));
+			assertSameCellFile(session, roiX, roiY, smooth, cellFile);
+
+			// move a middle vertex: the extremities are reused
+			roiY[2] = 420;
+			cellFile = editor.update(new Polygon(roiX, roiY, 5));
+			assertTrue(editor.getComputedBoundaryCount() < cellFile.getAllBoundaries().size());
+			assertSameCellFile(session, roiX, roiY, smooth, cellFile);
+
+			// the same polyline requires no computation
+			editor.update(new Polygon(roiX, roiY, 5));
+			assertEquals(0, editor.getComputedBoundaryCount());
+		}
+	}
+
+	/**
+	 * Checks that the cell file is the same as the one computed without
+	 * reusing previous results.
+	 */
+	private static final void assertSameCellFile(ImageAnalysisSession session, int[] roiX, int[] roiY, boolean smooth,
+			CellFile cellFile)
+	{
+		Roi roi = new PolygonRoi(roiX, roiY, roiX.length, Roi.POLYLINE);
+		CellFile expected = session.analyzeCellFile(roi, "Cortex", true, smooth);
+
+		assertEquals(expected.labelList, cellFile.labelList);
+		assertEquals(expected.pathCurve.vertexNumber(), cellFile.pathCurve.vertexNumber());
+		for (int i = 0; i < expected.pathCurve.vertexNumber(); i++)
+		{
+			assertEquals(expected.pathCurve.getVertex(i), cellFile.pathCurve.getVertex(i));
+		}
+
+		List<CellsBoundary> expBoundaries = expected.getAllBoundaries();
+		List<CellsBoundary> boundaries = cellFile.getAllBoundaries();
+		assertEquals(expBoundaries.size(), boundaries.size());
+		for (int i = 0; i < boundaries.size(); i++)
+		{
+			assertEquals(expBoundaries.get(i).label1, boundaries.get(i).label1);
+			assertEquals(expBoundaries.get(i).getStatus(), boundaries.get(i).getStatus());
+			assertEquals(expBoundaries.get(i).angle, boundaries.get(i).angle, 1e-10);
+		}
+	}
+}
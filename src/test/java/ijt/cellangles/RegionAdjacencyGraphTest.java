@@ -0,0 +1,113 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import static org.junit.Assert.*;
+
+import java.awt.geom.Point2D;
+import java.net.URL;
+
+import org.junit.Test;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * @author dlegland
+ *
+ */
+public class RegionAdjacencyGraphTest
+{
+	/**
+	 * Test method for {@link ijt.cellangles.RegionAdjacencyGraph#RegionAdjacencyGraph(ij.process.ImageProcessor)}.
+	 */
+	@Test
+	public void testRegionAdjacencyGraph()
+	{
+		// regions 4 and 7 separated by a wall, regions 7 and 9 in direct contact
+		int[][] data = new int[][] {
+			{4, 4, 0, 7, 7, 9},
+			{4, 4, 0, 7, 7, 9},
+			{4, 4, 0, 7, 7, 9}};
+		ImageProcessor image = new ByteProcessor(6, 3);
+		for (int y = 0; y < 3; y++)
+		{
+			for (int x = 0; x < 6; x++)
+			{
+				image.set(x, y, data[y][x]);
+			}
+		}
+		
+		RegionAdjacencyGraph graph = new RegionAdjacencyGraph(image);
+		
+		assertEquals(3, graph.nodeCount());
+		assertEquals(2, graph.edgeCount());
+		assertEquals(1, graph.nodeIndex(7));
+		assertEquals(-1, graph.nodeIndex(5));
+		assertEquals(6, graph.getArea(0));
+		assertEquals(3.5, graph.getCentroidX(1), 1e-10);
+		assertEquals(1.0, graph.getCentroidY(1), 1e-10);
+		
+		assertEquals(1, graph.degree(0));
+		assertEquals(2, graph.degree(1));
+		assertEquals(0, graph.neighbor(1, 0));
+		assertEquals(2, graph.neighbor(1, 1));
+		
+		int edge = graph.findEdge(0, 1);
+		assertEquals(3, graph.getWallLength(edge));
+		assertEquals(0, graph.getContactCount(edge));
+		edge = graph.findEdge(2, 1);
+		assertEquals(0, graph.getWallLength(edge));
+		assertEquals(3, graph.getContactCount(edge));
+		
+		assertTrue(graph.isAdjacent(9, 7));
+		assertFalse(graph.isAdjacent(4, 9));
+	}
+	
+	/**
+	 * Compares the graph with the boundary index and the label statistics.
+	 */
+	@Test
+	public void testRegionAdjacencyGraph_Col0()
+	{
+		// Read input label image
+		URL inputFile = getClass().getResource("/images/Coupe-Col0-Calco-02-01-basins.tif");
+		ImagePlus imagePlus = IJ.openImage(inputFile.getFile());
+		ImageProcessor image = imagePlus.getProcessor();
+		
+		RegionAdjacencyGraph graph = new RegionAdjacencyGraph(image);
+		BoundaryIndex index = new BoundaryIndex(image);
+		LabelStatistics stats = new LabelStatistics(image);
+		
+		assertEquals(index.pairNumber(), graph.edgeCount());
+		
+		int nNeighbors = 0;
+		for (int node = 0; node < graph.nodeCount(); node++)
+		{
+			int label = graph.getLabel(node);
+			assertEquals(stats.getPixelCount(label), graph.getArea(node));
+			Point2D centroid = stats.getCentroid(label);
+			assertEquals(centroid.getX(), graph.getCentroidX(node), 1e-10);
+			assertEquals(centroid.getY(), graph.getCentroidY(node), 1e-10);
+			
+			for (int k = 0; k < graph.degree(node); k++)
+			{
+				int neighbor = graph.neighbor(node, k);
+				int edge = graph.incidentEdge(node, k);
+				if (k > 0)
+				{
+					assertTrue(neighbor > graph.neighbor(node, k - 1));
+				}
+				assertEquals(edge, graph.findEdge(neighbor, node));
+				
+				int label2 = graph.getLabel(neighbor);
+				assertEquals(index.getPixelList(label, label2).size(), graph.getWallLength(edge));
+				nNeighbors++;
+			}
+		}
+		assertEquals(2 * graph.edgeCount(), nNeighbors);
+	}
+}
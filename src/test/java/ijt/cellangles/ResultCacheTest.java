@@ -0,0 +1,176 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import static org.junit.Assert.*;
+
+import java.awt.Polygon;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+
+import org.junit.Test;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.gui.PolygonRoi;
+import ij.gui.Roi;
+import ij.process.ImageProcessor;
+
+/**
+ * @author dlegland
+ *
+ */
+public class ResultCacheTest
+{
+	/**
+	 * Test method for {@link ijt.cellangles.ResultCache#put(java.lang.String, ijt.cellangles.CellFile)}.
+	 * 
+	 * @throws IOException 
+	 */
+	@Test
+	public void testPutGet() throws IOException
+	{
+		// Read input label image
+		URL inputFile = getClass().getResource("/images/Coupe-Col0-Calco-02-01-basins.tif");
+		ImagePlus imagePlus = IJ.openImage(inputFile.getFile());
+		ImageProcessor image = imagePlus.getProcessor();
+		
+		int[] roiX = new int[]{187, 285, 414, 485, 609};
+		int[] roiY = new int[]{391, 401, 408, 409, 411};
+		Roi roi = new PolygonRoi(roiX, roiY, 5, Roi.POLYLINE);
+		CellFile cellFile = Cell_File_Angles.analyzeCellFile(image, roi, "Cortex", true, true);
+		
+		File dir = createTempDirectory();
+		ResultCache cache = new ResultCache(dir, 1024 * 1024);
+		
+		// keys depend on options
+		String hash = ResultCache.imageHash(image);
+		Polygon poly = ((PolygonRoi) roi).getPolygon();
+		String key = ResultCache.computeKey(hash, poly, "Cortex", true, true);
+		assertFalse(key.equals(ResultCache.computeKey(hash, poly, "Cortex", false, true)));
+		assertFalse(key.equals(ResultCache.computeKey(hash, poly, "Epiderm", true, true)));
+		
+		assertNull(cache.get(key));
+		cache.put(key, cellFile);
+		CellFile cached = cache.get(key);
+		assertNotNull(cached);
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		
+		assertEquals("Cortex", cached.tissueTypeName);
+		assertEquals(cellFile.labelList, cached.labelList);
+		List<CellsBoundary> expected = cellFile.getAllBoundaries();
+		List<CellsBoundary> boundaries = cached.getAllBoundaries();
+		assertEquals(expected.size(), boundaries.size());
+		for (int i = 0; i < expected.size(); i++)
+		{
+			assertEquals(expected.get(i).getStatus(), boundaries.get(i).getStatus());
+			assertEquals(expected.get(i).innerPoint, boundaries.get(i).innerPoint);
+			assertEquals(expected.get(i).outerPoint, boundaries.get(i).outerPoint);
+			assertEquals(expected.get(i).angle, boundaries.get(i).angle, 1e-12);
+		}
+		
+		// eviction
+		cache.setMaxSize(0);
+		assertNull(cache.get(key));
+		
+		dir.delete();
+	}
+	
+	/**
+	 * Checks that replacing an entry does not count its size twice.
+	 * 
+	 * @throws IOException 
+	 */
+	@Test
+	public void testPut_ReplaceExisting() throws IOException
+	{
+		CellFile cellFile = TestImages.analyzeCol0CellFile();
+		
+		File dir = createTempDirectory();
+		ResultCache cache = new ResultCache(dir, 1024 * 1024);
+		String key = ResultCache.computeKey("hash", TestImages.createCol0Roi().getPolygon(), "Cortex", true, true);
+		
+		cache.put(key, cellFile);
+		long size = cache.currentSize;
+		assertTrue(size > 0);
+		cache.put(key, cellFile);
+		assertEquals(size, cache.currentSize);
+		
+		new File(dir, key + ResultCache.EXTENSION).delete();
+		dir.delete();
+	}
+	
+	/**
+	 * Checks that corrupted entries are counted as cache misses.
+	 * 
+	 * @throws IOException 
+	 */
+	@Test
+	public void testGet_CorruptedEntry() throws IOException
+	{
+		File dir = createTempDirectory();
+		ResultCache cache = new ResultCache(dir, 1024 * 1024);
+		
+		// invalid status of boundary
+		writeEntry(new File(dir, "status" + ResultCache.EXTENSION), 0, 1, 99);
+		assertNull(cache.get("status"));
+		
+		// negative number of vertices
+		writeEntry(new File(dir, "vertices" + ResultCache.EXTENSION), -1, 0, 0);
+		assertNull(cache.get("vertices"));
+		
+		// number of boundaries larger than the file
+		writeEntry(new File(dir, "boundaries" + ResultCache.EXTENSION), 0, Integer.MAX_VALUE, 0);
+		assertNull(cache.get("boundaries"));
+		
+		assertEquals(0, cache.getHitCount());
+		assertEquals(3, cache.getMissCount());
+		
+		for (File file : dir.listFiles())
+		{
+			file.delete();
+		}
+		dir.delete();
+	}
+	
+	/**
+	 * Writes a cache entry without way points nor labels, with the specified
+	 * number of vertices and boundaries, and the specified status index for
+	 * each boundary.
+	 */
+	private static final void writeEntry(File file, int nVertices, int nBoundaries, int statusIndex) throws IOException
+	{
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+		try
+		{
+			out.writeInt(ResultCache.FORMAT_VERSION);
+			out.writeUTF("Cortex");
+			out.writeBoolean(true);
+			out.writeInt(0);
+			out.writeInt(0);
+			out.writeInt(nVertices);
+			out.writeInt(nBoundaries);
+			out.writeInt(3);
+			out.writeInt(5);
+			out.writeInt(statusIndex);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+	
+	private static final File createTempDirectory() throws IOException
+	{
+		File dir = File.createTempFile("cellFileCache", "");
+		dir.delete();
+		dir.mkdir();
+		return dir;
+	}
+}
@@ -0,0 +1,147 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import ij.measure.ResultsTable;
+
+/**
+ * @author dlegland
+ * 
+ */
+public class ResultSinkTest
+{
+	/**
+	 * Test method for {@link ijt.cellangles.DelimitedResultSink#createCsv(java.io.File)}.
+	 */
+	@Test
+	public void testCreateCsv_Utf8() throws IOException
+	{
+		File file = File.createTempFile("results", ".csv");
+		try
+		{
+			DelimitedResultSink sink = DelimitedResultSink.createCsv(file);
+			sink.addCellFile("Col0", "Cortex-\u00e9", "Cortex", true, TestImages.createSyntheticCellFile());
+			sink.close();
+			
+			byte[] bytes = Files.readAllBytes(file.toPath());
+			assertTrue(new String(bytes, "UTF-8").contains("Cortex-\u00e9"));
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+	
+	/**
+	 * Test method for {@link ijt.cellangles.DelimitedResultSink#quote(String, char)}.
+	 */
+	@Test
+	public void testQuote()
+	{
+		assertEquals("Cortex", DelimitedResultSink.quote("Cortex", ','));
+		assertEquals("\"a,b\"", DelimitedResultSink.quote("a,b", ','));
+		assertEquals("a,b", DelimitedResultSink.quote("a,b", '\t'));
+		assertEquals("\"a\"\"b\"", DelimitedResultSink.quote("a\"b", ','));
+		assertEquals("\"a\nb\"", DelimitedResultSink.quote("a\nb", ','));
+		assertEquals("\"a\rb\"", DelimitedResultSink.quote("a\rb", ','));
+	}
+	
+	/**
+	 * Test method for {@link ijt.cellangles.DelimitedResultSink#addBoundary(String, String, String, boolean, CellsBoundary)}.
+	 */
+	@Test
+	public void testDelimitedResultSink() throws IOException
+	{
+		CellFile cellFile = TestImages.createSyntheticCellFile();
+
+		StringWriter writer = new StringWriter();
+		DelimitedResultSink sink = new DelimitedResultSink(writer, ',');
+		sink.addCellFile("image", "File, 1", "Cortex", false, cellFile);
+		sink.close();
+
+		// the invalid boundary is not written
+		String[] lines = writer.toString().split("\n");
+		assertEquals(3, lines.length);
+		assertTrue(lines[0].startsWith("imageName,roiName,tissueType,side,label1"));
+		assertEquals("image,\"File, 1\",Cortex,Right,3,5,10.0,20.0,12.0,26.0,90.0", lines[1]);
+		assertEquals("image,\"File, 1\",Cortex,Right,5,8,14.0,30.0,15.0,35.0,-45.0", lines[2]);
+
+		// tab-separated values do not need quotes
+		writer = new StringWriter();
+		sink = new DelimitedResultSink(writer, '\t');
+		sink.addCellFile("image", "File, 1", "Cortex", false, cellFile);
+		sink.close();
+		lines = writer.toString().split("\n");
+		assertTrue(lines[1].startsWith("image\tFile, 1\tCortex\tRight\t3\t5\t"));
+	}
+
+	/**
+	 * Checks that results written in binary format can be read back.
+	 */
+	@Test
+	public void testBinaryResultSink() throws IOException
+	{
+		CellFile cellFile = TestImages.createSyntheticCellFile();
+
+		// expected result
+		StringWriter expected = new StringWriter();
+		DelimitedResultSink csvSink = new DelimitedResultSink(expected, ',');
+		csvSink.addCellFile("image", "File1", "Cortex", true, cellFile);
+		csvSink.addCellFile("image", null, "Cortex", true, cellFile);
+		csvSink.close();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryResultSink sink = new BinaryResultSink(out);
+		sink.addCellFile("image", "File1", "Cortex", true, cellFile);
+		sink.addCellFile("image", null, "Cortex", true, cellFile);
+		sink.close();
+
+		// convert the binary results to CSV
+		StringWriter writer = new StringWriter();
+		csvSink = new DelimitedResultSink(writer, ',');
+		int count = BinaryResultSink.read(new ByteArrayInputStream(out.toByteArray()), csvSink);
+		csvSink.close();
+
+		assertEquals(4, count);
+		assertEquals(expected.toString(), writer.toString());
+	}
+
+	/**
+	 * Test method for {@link ijt.cellangles.TableResultSink#addBoundary(String, String, String, boolean, CellsBoundary)}.
+	 */
+	@Test
+	public void testTableResultSink() throws IOException
+	{
+		CellFile cellFile = TestImages.createSyntheticCellFile();
+
+		TableResultSink sink = new TableResultSink();
+		sink.addCellFile("image", "File1", "Cortex", true, cellFile);
+		ResultsTable table = sink.getTable();
+
+		// one row per valid boundary
+		assertEquals(2, table.size());
+		assertEquals("File1", table.getStringValue("CellFile", 0));
+		assertEquals(3, table.getValue("Label1", 0), 0.0);
+		assertEquals(5, table.getValue("Label2", 0), 0.0);
+		assertEquals(10, table.getValue("innerX", 0), 0.0);
+		assertEquals(20, table.getValue("innerY", 0), 0.0);
+		assertEquals(12, table.getValue("outerX", 0), 0.0);
+		assertEquals(26, table.getValue("outerY", 0), 0.0);
+		assertEquals(90, table.getValue("angle", 0), 1e-10);
+		assertEquals(5, table.getValue("Label1", 1), 0.0);
+		assertEquals(8, table.getValue("Label2", 1), 0.0);
+		assertEquals(-45, table.getValue("angle", 1), 1e-10);
+	}
+}
@@ -0,0 +1,117 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import static org.junit.Assert.*;
+
+import java.net.URL;
+import java.util.List;
+
+import org.junit.Test;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.PolygonRoi;
+import ij.gui.Roi;
+import ij.measure.ResultsTable;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * @author dlegland
+ *
+ */
+public class StackAnalysisTest
+{
+	/**
+	 * Test method for {@link ijt.cellangles.StackAnalysis#run(ij.gui.Roi[], java.lang.String, boolean, boolean)}.
+	 */
+	@Test
+	public void testRun()
+	{
+		// Read input label image
+		URL inputFile = getClass().getResource("/images/Coupe-Col0-Calco-02-01-basins.tif");
+		ImagePlus imagePlus = IJ.openImage(inputFile.getFile());
+		ImageProcessor image = imagePlus.getProcessor();
+		
+		// create a stack with three slices
+		ImageStack stack = new ImageStack(image.getWidth(), image.getHeight());
+		for (int i = 0; i < 3; i++)
+		{
+			stack.addSlice("", image);
+		}
+		ImagePlus stackImage = new ImagePlus("stack", stack);
+		
+		// a ROI for the second slice, and a ROI for all slices
+		int[] roiX = new int[]{187, 285, 414, 485, 609};
+		int[] roiY = new int[]{391, 401, 408, 409, 411};
+		Roi roi1 = new PolygonRoi(roiX, roiY, 5, Roi.POLYLINE);
+		roi1.setName("file1");
+		roi1.setPosition(2);
+		Roi roi2 = new PolygonRoi(roiX, roiY, 3, Roi.POLYLINE);
+		roi2.setName("file2");
+		
+		CellFile expected1 = Cell_File_Angles.analyzeCellFile(image, roi1, "Cortex", true, true);
+		CellFile expected2 = Cell_File_Angles.analyzeCellFile(image, roi2, "Cortex", true, true);
+		
+		StackAnalysis analysis = new StackAnalysis(stackImage);
+		analysis.setThreadCount(3);
+		List<StackAnalysis.Entry> entries = analysis.run(new Roi[] {roi1, roi2}, "Cortex", true, true);
+		
+		// ordered by slice, then by ROI
+		assertEquals(4, entries.size());
+		int[] expSlices = new int[] {1, 2, 2, 3};
+		String[] expNames = new String[] {"file2", "file1", "file2", "file2"};
+		for (int i = 0; i < 4; i++)
+		{
+			StackAnalysis.Entry entry = entries.get(i);
+			assertEquals(expSlices[i], entry.getSliceIndex());
+			assertEquals(expSlices[i], entry.getFrame());
+			assertEquals(expNames[i], entry.getRoiName());
+			
+			CellFile expected = entry.getRoiName().equals("file1") ? expected1 : expected2;
+			assertEquals(expected.labelList, entry.getCellFile().labelList);
+			assertEquals(expected.getBoundaries().size(), entry.getCellFile().getBoundaries().size());
+		}
+		
+		ResultsTable table = StackAnalysis.createTable(entries);
+		int nRows = 3 * expected2.getBoundaries().size() + expected1.getBoundaries().size();
+		assertEquals(nRows, table.size());
+		assertEquals(1, table.getValue("Frame", 0), 0);
+		assertEquals(3, table.getValue("Frame", nRows - 1), 0);
+	}
+
+	/**
+	 * Test method for {@link ijt.cellangles.StackAnalysis#matchesSlice(ij.ImagePlus, ij.gui.Roi, int)}.
+	 */
+	@Test
+	public void testMatchesSlice_HyperStack()
+	{
+		// a hyperstack with 2 channels, 1 slice and 3 frames
+		ImageStack stack = new ImageStack(10, 10);
+		for (int i = 0; i < 6; i++)
+		{
+			stack.addSlice("", new ByteProcessor(10, 10));
+		}
+		ImagePlus imagePlus = new ImagePlus("hyperstack", stack);
+		imagePlus.setDimensions(2, 1, 3);
+		imagePlus.setOpenAsHyperStack(true);
+		
+		// ROI associated to all the frames of the second channel
+		Roi roi = new PolygonRoi(new int[] {1, 8}, new int[] {1, 8}, 2, Roi.POLYLINE);
+		roi.setPosition(2, 0, 0);
+		for (int sliceIndex = 1; sliceIndex <= 6; sliceIndex++)
+		{
+			assertEquals(sliceIndex % 2 == 0, StackAnalysis.matchesSlice(imagePlus, roi, sliceIndex));
+		}
+		
+		// ROI associated to the first channel of the third frame
+		roi.setPosition(1, 1, 3);
+		for (int sliceIndex = 1; sliceIndex <= 6; sliceIndex++)
+		{
+			assertEquals(sliceIndex == 5, StackAnalysis.matchesSlice(imagePlus, roi, sliceIndex));
+		}
+	}
+}
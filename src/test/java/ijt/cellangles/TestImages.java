@@ -0,0 +1,92 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import java.awt.Point;
+import java.net.URL;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.gui.PolygonRoi;
+import ij.gui.Roi;
+import ij.process.ImageProcessor;
+
+/**
+ * Test fixtures shared by the test classes: the label image of the Col0 root
+ * section, a polyline ROI crossing a cell file of the cortex, and a small
+ * synthetic cell file with known results.
+ * 
+ * @author dlegland
+ */
+final class TestImages
+{
+	/**
+	 * @return the label image of the Col0 root section
+	 */
+	static final ImageProcessor openCol0Image()
+	{
+		URL inputFile = TestImages.class.getResource("/images/Coupe-Col0-Calco-02-01-basins.tif");
+		ImagePlus imagePlus = IJ.openImage(inputFile.getFile());
+		return imagePlus.getProcessor();
+	}
+
+	/**
+	 * @return a new polyline ROI crossing a cell file of the cortex within
+	 *         the Col0 image
+	 */
+	static final Roi createCol0Roi()
+	{
+		int[] roiX = new int[]{187, 285, 414, 485, 609};
+		int[] roiY = new int[]{391, 401, 408, 409, 411};
+		return new PolygonRoi(roiX, roiY, 5, Roi.POLYLINE);
+	}
+
+	/**
+	 * @return the result of the analysis of the cortex cell file of the Col0
+	 *         image, on the left side, with smoothing
+	 */
+	static final CellFile analyzeCol0CellFile()
+	{
+		return Cell_File_Angles.analyzeCellFile(openCol0Image(), createCol0Roi(), "Cortex", true, true);
+	}
+
+	/**
+	 * @return a cell file with two valid boundaries and an invalid one, with
+	 *         known labels, coordinates and angles: 3-5 from (10,20) to
+	 *         (12,26) with an angle of 90 degrees, 5-8 from (14,30) to (15,35)
+	 *         with an angle of -45 degrees, and 8-9 without inner point
+	 */
+	static final CellFile createSyntheticCellFile()
+	{
+		CellFile cellFile = new CellFile("Cortex", true);
+		cellFile.boundaries.add(createBoundary(3, 5, new Point(10, 20), new Point(12, 26), 90));
+		cellFile.boundaries.add(createBoundary(5, 8, new Point(14, 30), new Point(15, 35), -45));
+		CellsBoundary invalid = new CellsBoundary(8, 9, true);
+		invalid.status = CellsBoundary.Status.NO_INNER_POINT;
+		cellFile.boundaries.add(invalid);
+		return cellFile;
+	}
+
+	/**
+	 * @return a new valid boundary with the specified inner and outer points,
+	 *         and angle
+	 */
+	static final CellsBoundary createBoundary(int label1, int label2, Point innerPoint, Point outerPoint,
+			double angleInDegrees)
+	{
+		CellsBoundary boundary = new CellsBoundary(label1, label2, true);
+		boundary.innerPoint = innerPoint;
+		boundary.outerPoint = outerPoint;
+		boundary.angle = Math.toRadians(angleInDegrees);
+		boundary.status = CellsBoundary.Status.VALID;
+		return boundary;
+	}
+
+	/**
+	 * Private constructor to prevent instantiation.
+	 */
+	private TestImages()
+	{
+	}
+}
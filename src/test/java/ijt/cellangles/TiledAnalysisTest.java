@@ -0,0 +1,240 @@
+/**
+ * 
+ */
+package ijt.cellangles;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.gui.PolygonRoi;
+import ij.gui.Roi;
+import ij.process.ImageProcessor;
+
+/**
+ * @author dlegland
+ * 
+ */
+public class TiledAnalysisTest
+{
+	/**
+	 * Test method for {@link ijt.cellangles.MappedLabelImage#readTile(int, int, int, int)}.
+	 */
+	@Test
+	public void testReadTile_Col0() throws IOException
+	{
+		URL inputFile = getClass().getResource("/images/Coupe-Col0-Calco-02-01-basins.tif");
+		ImageProcessor image = IJ.openImage(inputFile.getFile()).getProcessor();
+
+		MappedLabelImage mappedImage = MappedLabelImage.openTiff(new File(inputFile.getFile()));
+		try
+		{
+			assertEquals(image.getWidth(), mappedImage.getWidth());
+			assertEquals(image.getHeight(), mappedImage.getHeight());
+			assertEquals(32, mappedImage.getBitDepth());
+
+			ImageProcessor tile = mappedImage.readTile(300, 200, 50, 40);
+			for (int y = 0; y < 40; y++)
+			{
+				for (int x = 0; x < 50; x++)
+				{
+					assertEquals(image.getf(x + 300, y + 200), tile.getf(x, y), 0.0);
+					assertEquals((int) image.getf(x + 300, y + 200), mappedImage.getLabel(x + 300, y + 200));
+				}
+			}
+		}
+		finally
+		{
+			mappedImage.close();
+		}
+	}
+
+	/**
+	 * Checks that the statistics and the boundary index computed by tiles
+	 * are the same as the ones computed on the whole image, and that the
+	 * cell files are the same.
+	 */
+	@Test
+	public void testAnalyzeCellFile_Col0() throws IOException
+	{
+		URL inputFile = getClass().getResource("/images/Coupe-Col0-Calco-02-01-basins.tif");
+		ImagePlus imagePlus = IJ.openImage(inputFile.getFile());
+		ImageProcessor image = imagePlus.getProcessor();
+		ImageAnalysisSession session = new ImageAnalysisSession(image);
+
+		int[] roiX = new int[]{187, 285, 414, 485, 609};
+		int[] roiY = new int[]{391, 401, 408, 409, 411};
+		Roi roi = new PolygonRoi(roiX, roiY, 5, Roi.POLYLINE);
+		CellFile expected = session.analyzeCellFile(roi, "Cortex", true, true);
+
+		MappedLabelImage mappedImage = MappedLabelImage.openTiff(new File(inputFile.getFile()));
+		try
+		{
+			// use tiles that do not divide the image size
+			TiledAnalysis analysis = new TiledAnalysis(mappedImage);
+			analysis.setTileSize(100);
+			analysis.setThreadCount(3);
+
+			LabelStatistics expStats = session.getLabelStatistics();
+			LabelStatistics stats = analysis.getLabelStatistics();
+			assertEquals(expStats.getMaxLabel(), stats.getMaxLabel());
+			for (int label = 1; label <= stats.getMaxLabel(); label++)
+			{
+				assertEquals(expStats.getPixelCount(label), stats.getPixelCount(label));
+				assertEquals(expStats.getBoundingBox(label), stats.getBoundingBox(label));
+				if (stats.contains(label))
+				{
+					assertEquals(expStats.getCentroid(label), stats.getCentroid(label));
+				}
+			}
+
+			BoundaryIndex expIndex = session.getBoundaryIndex();
+			BoundaryIndex index = analysis.getBoundaryIndex();
+			assertEquals(expIndex.pairNumber(), index.pairNumber());
+			for (Map.Entry<Long, PixelList> entry : expIndex.pairMap.entrySet())
+			{
+				assertArrayEquals(entry.getValue().toArray(), index.pairMap.get(entry.getKey()).toArray());
+			}
+
+			CellFile cellFile = analysis.analyzeCellFile(roi, "Cortex", true, true);
+			assertEquals(expected.labelList, cellFile.labelList);
+			List<CellsBoundary> expBoundaries = expected.getAllBoundaries();
+			List<CellsBoundary> boundaries = cellFile.getAllBoundaries();
+			assertEquals(expBoundaries.size(), boundaries.size());
+			for (int i = 0; i < boundaries.size(); i++)
+			{
+				assertEquals(expBoundaries.get(i).getStatus(), boundaries.get(i).getStatus());
+				assertEquals(expBoundaries.get(i).angle, boundaries.get(i).angle, 1e-10);
+			}
+		}
+		finally
+		{
+			mappedImage.close();
+		}
+	}
+
+	/**
+	 * Test method for {@link ijt.cellangles.MappedLabelImage#openRaw(File, int, int, int, boolean, boolean, long)}.
+	 */
+	@Test
+	public void testOpenRaw_Short() throws IOException
+	{
+		// a 16-bit little endian image preceded by a header of 10 bytes
+		int sizeX = 7, sizeY = 5;
+		ByteBuffer buffer = ByteBuffer.allocate(10 + 2 * sizeX * sizeY);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.position(10);
+		for (int i = 0; i < sizeX * sizeY; i++)
+		{
+			buffer.putShort((short) (1000 * i));
+		}
+		File file = File.createTempFile("labels", ".raw");
+		FileOutputStream out = new FileOutputStream(file);
+		try
+		{
+			out.write(buffer.array());
+		}
+		finally
+		{
+			out.close();
+		}
+
+		MappedLabelImage mappedImage = MappedLabelImage.openRaw(file, sizeX, sizeY, 16, false, true, 10);
+		try
+		{
+			assertEquals(16, mappedImage.getBitDepth());
+			assertEquals(1000 * (2 * sizeX + 3), mappedImage.getLabel(3, 2));
+			assertEquals(1000 * (sizeX * sizeY - 1), mappedImage.getLabel(sizeX - 1, sizeY - 1));
+
+			ImageProcessor tile = mappedImage.readTile(2, 1, 3, 2);
+			assertEquals(1000 * (sizeX + 2), tile.get(0, 0));
+			assertEquals(1000 * (2 * sizeX + 4), tile.get(2, 1));
+		}
+		finally
+		{
+			mappedImage.close();
+			file.delete();
+		}
+	}
+
+	/**
+	 * Checks that images whose pixel indices do not fit within an int are
+	 * rejected.
+	 */
+	@Test(expected = IOException.class)
+	public void testOpenRaw_TooLarge() throws IOException
+	{
+		File file = File.createTempFile("labels", ".raw");
+		try
+		{
+			MappedLabelImage.openRaw(file, 50000, 50000, 8, false, true, 0);
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+
+	/**
+	 * Checks that 32-bit integer labels that can not be converted exactly to
+	 * floating point values are rejected when reading tiles.
+	 */
+	@Test
+	public void testReadTile_LargeIntegerLabels() throws IOException
+	{
+		int sizeX = 4, sizeY = 3;
+		ByteBuffer buffer = ByteBuffer.allocate(4 * sizeX * sizeY);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < sizeX * sizeY; i++)
+		{
+			buffer.putInt(i == 5 ? (1 << 24) + 1 : i);
+		}
+		File file = File.createTempFile("labels", ".raw");
+		FileOutputStream out = new FileOutputStream(file);
+		try
+		{
+			out.write(buffer.array());
+		}
+		finally
+		{
+			out.close();
+		}
+
+		MappedLabelImage mappedImage = MappedLabelImage.openRaw(file, sizeX, sizeY, 32, false, true, 0);
+		try
+		{
+			// labels are exact when accessed individually
+			assertEquals((1 << 24) + 1, mappedImage.getLabel(1, 1));
+
+			// tiles without large label can be read
+			ImageProcessor tile = mappedImage.readTile(2, 0, 2, 3);
+			assertEquals(11, tile.getf(1, 2), 0.0);
+
+			try
+			{
+				mappedImage.readTile(0, 0, sizeX, sizeY);
+				fail("Should reject labels larger than 2^24");
+			}
+			catch (IllegalStateException ex)
+			{
+				// expected
+			}
+		}
+		finally
+		{
+			mappedImage.close();
+			file.delete();
+		}
+	}
+}
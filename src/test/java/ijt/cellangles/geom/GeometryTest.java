@@ -6,10 +6,14 @@ package ijt.cellangles.geom;
 import static org.junit.Assert.*;
 
 import java.awt.Point;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.junit.Test;
 
 import ijt.geom.Geometry;
+import ijt.geom.IntBinaryConsumer;
 
 /**
  * @author dlegland
@@ -92,4 +96,113 @@ public class GeometryTest
 		assertTrue(Geometry.isLeftSide(p2, lineP1, lineP2));
 		assertTrue(Geometry.isLeftSide(p3, lineP1, lineP2));
 	}
+
+	@Test
+	public final void testSignedDistancesPointLine_Diag()
+	{
+		Point lineP1 = new Point(10, 10);
+		Point lineP2 = new Point(10+40, 10+30);
+		
+		int[] xCoords = new int[] {10+70, 10+50, 10+10, 10+80};
+		int[] yCoords = new int[] {10-10, 10+100, 10+70, 10+60};
+		double[] distances = new double[4];
+		Geometry.signedDistancesPointLine(xCoords, yCoords, 4, lineP1, lineP2, distances);
+		
+		assertEquals(-50, distances[0], .001);
+		assertEquals(50, distances[1], .001);
+		assertEquals(50, distances[2], .001);
+		assertEquals(0, distances[3], .001);
+	}
+
+	@Test
+	public final void testSignedDistancesPointLine_CompareScalar()
+	{
+		Point2D lineP1 = new Point2D.Double(12.3, 45.6);
+		Point2D lineP2 = new Point2D.Double(78.9, 21.0);
+		
+		int[] xCoords = new int[100];
+		int[] yCoords = new int[100];
+		for (int i = 0; i < 100; i++)
+		{
+			xCoords[i] = (i * 37) % 101;
+			yCoords[i] = (i * 53) % 89;
+		}
+		double[] distances = new double[100];
+		boolean[] flags = new boolean[100];
+		Geometry.signedDistancesPointLine(xCoords, yCoords, 100, lineP1, lineP2, distances);
+		Geometry.isLeftSide(xCoords, yCoords, 100, lineP1, lineP2, flags);
+		
+		for (int i = 0; i < 100; i++)
+		{
+			Point p = new Point(xCoords[i], yCoords[i]);
+			boolean left = Geometry.isLeftSide(p, lineP1, lineP2);
+			assertEquals(left, flags[i]);
+			assertEquals(left, distances[i] > 0);
+			assertEquals(Geometry.distancePointLine(p, lineP1, lineP2), Math.abs(distances[i]), 1e-9);
+		}
+	}
+
+	/**
+	 * Test method for {@link ijt.geom.Geometry#traverseLine(int, int, int, int, ijt.geom.IntBinaryConsumer)}.
+	 */
+	@Test
+	public final void testTraverseLine()
+	{
+		// single pixel
+		assertArrayEquals(new int[] {1, 1}, traverseLine(1, 1, 1, 1));
+		
+		// vertical segment, in decreasing y order
+		assertArrayEquals(new int[] {2, 3, 2, 2, 2, 1, 2, 0}, traverseLine(2, 3, 2, 0));
+		
+		// mostly horizontal segment
+		assertArrayEquals(new int[] {0, 0, 1, 1, 2, 1, 3, 2, 4, 2}, traverseLine(0, 0, 4, 2));
+		
+		// mostly vertical segment, in decreasing x order
+		assertArrayEquals(new int[] {5, 5, 5, 6, 4, 7, 4, 8, 3, 9}, traverseLine(5, 5, 3, 9));
+		
+		// diagonal segment
+		assertArrayEquals(new int[] {7, 1, 6, 2, 5, 3, 4, 4}, traverseLine(7, 1, 4, 4));
+	}
+	
+	/**
+	 * Test method for {@link ijt.geom.Geometry#digitalLineSegment(java.awt.Point, java.awt.Point)}.
+	 */
+	@Test
+	public final void testDigitalLineSegment()
+	{
+		List<Point> points = Geometry.digitalLineSegment(new Point(0, 0), new Point(4, 2));
+		
+		List<Point> expected = new ArrayList<Point>();
+		expected.add(new Point(0, 0));
+		expected.add(new Point(1, 1));
+		expected.add(new Point(2, 1));
+		expected.add(new Point(3, 2));
+		expected.add(new Point(4, 2));
+		assertEquals(expected, points);
+	}
+	
+	/**
+	 * Returns the coordinates of the pixels visited by the traverseLine()
+	 * method, as a single array of x and y coordinates.
+	 */
+	private static final int[] traverseLine(int x1, int y1, int x2, int y2)
+	{
+		final List<Integer> coords = new ArrayList<Integer>();
+		Geometry.traverseLine(x1, y1, x2, y2, new IntBinaryConsumer()
+		{
+			@Override
+			public void accept(int x, int y)
+			{
+				coords.add(x);
+				coords.add(y);
+			}
+		});
+		
+		int[] res = new int[coords.size()];
+		for (int i = 0; i < res.length; i++)
+		{
+			res[i] = coords.get(i);
+		}
+		return res;
+	}
 }
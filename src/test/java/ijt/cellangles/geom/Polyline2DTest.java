@@ -0,0 +1,55 @@
+/**
+ * 
+ */
+package ijt.cellangles.geom;
+
+import static org.junit.Assert.*;
+
+import java.awt.geom.Point2D;
+
+import org.junit.Test;
+
+import ijt.geom.Polyline2D;
+
+/**
+ * @author dlegland
+ * 
+ */
+public class Polyline2DTest
+{
+	/**
+	 * Smoothing a triangle moves the apex to the centroid of the three
+	 * vertices, and keeps the extremities.
+	 */
+	@Test
+	public final void testSmooth_Triangle()
+	{
+		Polyline2D poly = new Polyline2D(new double[] {0, 3, 6}, new double[] {0, 9, 0});
+		
+		Polyline2D smoothed = poly.smooth();
+		
+		assertEquals(3, smoothed.vertexNumber());
+		assertEquals(new Point2D.Double(0, 0), smoothed.getVertex(0));
+		assertEquals(new Point2D.Double(3, 3), smoothed.getVertex(1));
+		assertEquals(new Point2D.Double(6, 0), smoothed.getVertex(2));
+	}
+
+	/**
+	 * Each vertex computed by smoothedVertex() matches the corresponding
+	 * vertex of the smoothed polyline.
+	 */
+	@Test
+	public final void testSmoothedVertex()
+	{
+		Polyline2D poly = new Polyline2D(new double[] {0, 3, 6, 12}, new double[] {0, 9, 0, 3});
+		
+		Polyline2D smoothed = poly.smooth();
+		
+		assertEquals(new Point2D.Double(3, 3), poly.smoothedVertex(1));
+		assertEquals(new Point2D.Double(7, 4), poly.smoothedVertex(2));
+		for (int i = 0; i < poly.vertexNumber(); i++)
+		{
+			assertEquals(smoothed.getVertex(i), poly.smoothedVertex(i));
+		}
+	}
+}